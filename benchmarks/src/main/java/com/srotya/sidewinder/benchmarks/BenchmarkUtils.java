@@ -0,0 +1,153 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.srotya.sidewinder.core.monitoring.MetricsRegistryService;
+import com.srotya.sidewinder.core.rpc.Tag;
+import com.srotya.sidewinder.core.storage.StorageEngine;
+import com.srotya.sidewinder.core.storage.disk.DiskStorageEngine;
+import com.srotya.sidewinder.core.storage.mem.MemStorageEngine;
+import com.srotya.sidewinder.core.utils.BackgrounThreadFactory;
+import com.srotya.sidewinder.core.utils.MiscUtils;
+
+/**
+ * Shared fixtures for benchmarks: engine construction, tag generation and
+ * cleanup.
+ * 
+ * @author ambud
+ */
+public class BenchmarkUtils {
+
+	public static final String DB_NAME = "bench";
+	public static final String MEASUREMENT_NAME = "cpu";
+	public static final String VALUE_FIELD = "value";
+	public static final String ENGINE_MEM = "mem";
+	public static final String ENGINE_DISK = "disk";
+
+	static {
+		// self monitoring reporters would otherwise write into the engine under
+		// test and skew the numbers
+		System.setProperty(MetricsRegistryService.DISABLE_SELFMON, "true");
+		MetricsRegistryService.DISABLE_SELF_MONITORING = true;
+	}
+
+	private BenchmarkUtils() {
+	}
+
+	public static ScheduledExecutorService newBgTaskPool() {
+		return Executors.newScheduledThreadPool(1, new BackgrounThreadFactory("bench-bg"));
+	}
+
+	public static File createTempDir() throws IOException {
+		return Files.createTempDirectory("sidewinder-bench").toFile();
+	}
+
+	/**
+	 * Build and configure a {@link StorageEngine} of the requested type
+	 * 
+	 * @param type
+	 *            {@link #ENGINE_MEM} or {@link #ENGINE_DISK}
+	 * @param baseDir
+	 *            directory used by the disk engine for data and index files
+	 * @param bgTaskPool
+	 * @return configured engine
+	 * @throws IOException
+	 */
+	public static StorageEngine createEngine(String type, File baseDir, ScheduledExecutorService bgTaskPool)
+			throws IOException {
+		Map<String, String> conf = new HashMap<>();
+		StorageEngine engine;
+		if (ENGINE_DISK.equalsIgnoreCase(type)) {
+			conf.put("data.dir", new File(baseDir, "data").getAbsolutePath());
+			conf.put("index.dir", new File(baseDir, "index").getAbsolutePath());
+			engine = new DiskStorageEngine();
+		} else {
+			engine = new MemStorageEngine();
+		}
+		engine.configure(conf, bgTaskPool);
+		return engine;
+	}
+
+	/**
+	 * Generate the tag set for a series; series are spread over hosts and
+	 * datacenters so that tag filters select realistic subsets
+	 * 
+	 * @param seriesId
+	 * @return tags
+	 */
+	public static List<Tag> buildTags(int seriesId) {
+		List<Tag> tags = new ArrayList<>(3);
+		tags.add(Tag.newBuilder().setTagKey("dc").setTagValue("dc" + (seriesId % 4)).build());
+		tags.add(Tag.newBuilder().setTagKey("host").setTagValue("host" + seriesId).build());
+		tags.add(Tag.newBuilder().setTagKey("rack").setTagValue("rack" + (seriesId % 32)).build());
+		return tags;
+	}
+
+	public static List<List<Tag>> buildTagSets(int cardinality) {
+		List<List<Tag>> tagSets = new ArrayList<>(cardinality);
+		for (int i = 0; i < cardinality; i++) {
+			tagSets.add(buildTags(i));
+		}
+		return tagSets;
+	}
+
+	/**
+	 * Load points for a number of series at a fixed interval
+	 * 
+	 * @param engine
+	 * @param cardinality
+	 * @param pointsPerSeries
+	 * @param startTs
+	 * @param intervalMs
+	 * @throws IOException
+	 */
+	public static void loadSeries(StorageEngine engine, int cardinality, int pointsPerSeries, long startTs,
+			long intervalMs) throws IOException {
+		List<List<Tag>> tagSets = buildTagSets(cardinality);
+		for (int p = 0; p < pointsPerSeries; p++) {
+			long ts = startTs + p * intervalMs;
+			for (int s = 0; s < cardinality; s++) {
+				engine.writeDataPointWithLock(
+						MiscUtils.buildDataPoint(DB_NAME, MEASUREMENT_NAME, VALUE_FIELD, tagSets.get(s), ts, p * 1.1),
+						false);
+			}
+		}
+	}
+
+	public static void close(StorageEngine engine, ScheduledExecutorService bgTaskPool, File baseDir)
+			throws IOException {
+		if (engine != null) {
+			engine.shutdown();
+		}
+		if (bgTaskPool != null) {
+			bgTaskPool.shutdownNow();
+		}
+		if (baseDir != null) {
+			MiscUtils.delete(baseDir);
+		}
+	}
+
+}
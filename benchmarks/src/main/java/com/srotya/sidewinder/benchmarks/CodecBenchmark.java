@@ -0,0 +1,153 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.srotya.sidewinder.core.storage.compression.CompressionFactory;
+import com.srotya.sidewinder.core.storage.compression.Reader;
+import com.srotya.sidewinder.core.storage.compression.TimeWriter;
+import com.srotya.sidewinder.core.storage.compression.ValueWriter;
+
+/**
+ * Encode and decode throughput of every registered time and value codec.
+ * Results are reported per data point.
+ * 
+ * @author ambud
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+	private static final int POINTS = 4096;
+	private static final int BUFFER_SIZE = 1024 * 128;
+	private static final int START_OFFSET = 2;
+
+	@Param({ "byzantine", "gorilla" })
+	public String codec;
+
+	private long[] timestamps;
+	private double[] values;
+	private ByteBuffer encodeBuf;
+	private TimeWriter timeWriter;
+	private ValueWriter valueWriter;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		timestamps = new long[POINTS];
+		values = new double[POINTS];
+		long ts = 1497720452566L;
+		for (int i = 0; i < POINTS; i++) {
+			// slightly jittered 1 second interval, typical of agent collected
+			// metrics
+			timestamps[i] = ts + i * 1000 + (i % 7);
+			values[i] = 100 + (i % 50) * 0.25;
+		}
+		encodeBuf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		timeWriter = newTimeWriter(ByteBuffer.allocateDirect(BUFFER_SIZE));
+		for (long t : timestamps) {
+			timeWriter.add(t);
+		}
+		timeWriter.makeReadOnly(false);
+
+		valueWriter = newValueWriter(ByteBuffer.allocateDirect(BUFFER_SIZE));
+		for (double v : values) {
+			valueWriter.add(v);
+		}
+		valueWriter.makeReadOnly(false);
+	}
+
+	private TimeWriter newTimeWriter(ByteBuffer buf) throws Exception {
+		TimeWriter writer = CompressionFactory.getTimeClassByName(codec).newInstance();
+		writer.configure(buf, true, START_OFFSET);
+		writer.setHeaderTimestamp(timestamps[0]);
+		return writer;
+	}
+
+	private ValueWriter newValueWriter(ByteBuffer buf) throws Exception {
+		ValueWriter writer = CompressionFactory.getValueClassByName(codec).newInstance();
+		writer.configure(buf, true, START_OFFSET);
+		return writer;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public int encodeTimestamps() throws Exception {
+		encodeBuf.clear();
+		TimeWriter writer = newTimeWriter(encodeBuf);
+		for (int i = 0; i < POINTS; i++) {
+			writer.add(timestamps[i]);
+		}
+		return writer.getPosition();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public int encodeValues() throws Exception {
+		encodeBuf.clear();
+		ValueWriter writer = newValueWriter(encodeBuf);
+		for (int i = 0; i < POINTS; i++) {
+			writer.add(values[i]);
+		}
+		return writer.getPosition();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public void decodeTimestamps(Blackhole bh) throws IOException {
+		drain(timeWriter.getReader(), bh);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public void decodeValues(Blackhole bh) throws IOException {
+		drain(valueWriter.getReader(), bh);
+	}
+
+	private static void drain(Reader reader, Blackhole bh) {
+		int count = reader.getCount();
+		try {
+			for (int i = 0; i < count; i++) {
+				bh.consume(reader.read());
+			}
+		} catch (IOException e) {
+			// end of buffer
+		}
+	}
+
+}
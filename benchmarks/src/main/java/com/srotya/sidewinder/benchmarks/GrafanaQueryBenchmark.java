@@ -0,0 +1,143 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.srotya.sidewinder.core.api.grafana.GrafanaOutputv2;
+import com.srotya.sidewinder.core.api.grafana.GrafanaUtils;
+import com.srotya.sidewinder.core.api.grafana.TargetSeries;
+import com.srotya.sidewinder.core.filters.SimpleTagFilter;
+import com.srotya.sidewinder.core.filters.SimpleTagFilter.FilterType;
+import com.srotya.sidewinder.core.filters.TagFilter;
+import com.srotya.sidewinder.core.functions.iterative.FunctionIteratorFactory;
+import com.srotya.sidewinder.core.functions.iterative.FunctionIteratorFactory.FunctionTemplate;
+import com.srotya.sidewinder.core.functions.iterative.TumblingWindowFunction;
+import com.srotya.sidewinder.core.storage.StorageEngine;
+import com.srotya.sidewinder.core.utils.GrafanaStreamingOutput;
+
+/**
+ * End to end cost of a Grafana v2 query: tag filter evaluation, series scan,
+ * optional tumbling window aggregation and JSON serialization through
+ * {@link GrafanaStreamingOutput}.
+ * 
+ * @author ambud
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GrafanaQueryBenchmark {
+
+	private static final int SERIES = 200;
+	private static final int POINTS_PER_SERIES = 1440;
+	private static final long INTERVAL_MS = 60_000;
+
+	@Param({ BenchmarkUtils.ENGINE_MEM, BenchmarkUtils.ENGINE_DISK })
+	public String engineType;
+
+	@Param({ "true", "false" })
+	public boolean filtered;
+
+	@Param({ "true", "false" })
+	public boolean aggregated;
+
+	private File baseDir;
+	private ScheduledExecutorService bgTaskPool;
+	private StorageEngine engine;
+	private long startTs;
+	private long endTs;
+	private TagFilter tagFilter;
+	private FunctionIteratorFactory function;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		baseDir = BenchmarkUtils.createTempDir();
+		bgTaskPool = BenchmarkUtils.newBgTaskPool();
+		engine = BenchmarkUtils.createEngine(engineType, baseDir, bgTaskPool);
+		startTs = 1497720452566L;
+		endTs = startTs + POINTS_PER_SERIES * INTERVAL_MS;
+		BenchmarkUtils.loadSeries(engine, SERIES, POINTS_PER_SERIES, startTs, INTERVAL_MS);
+		if (filtered) {
+			tagFilter = new SimpleTagFilter(FilterType.EQUALS, "dc", "dc1");
+		}
+		if (aggregated) {
+			function = new FunctionIteratorFactory(Arrays.asList(
+					new FunctionTemplate(TumblingWindowFunction.class, new Object[] { 300, "smean" })));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		BenchmarkUtils.close(engine, bgTaskPool, baseDir);
+	}
+
+	@Benchmark
+	public long queryAndSerialize() throws IOException {
+		TargetSeries target = new TargetSeries(BenchmarkUtils.MEASUREMENT_NAME, BenchmarkUtils.VALUE_FIELD,
+				tagFilter, null, false, function);
+		Iterator<GrafanaOutputv2> output = GrafanaUtils.queryAndGetDatav2(engine, BenchmarkUtils.DB_NAME, startTs,
+				endTs, target);
+		List<Iterator<GrafanaOutputv2>> targets = Arrays.asList(output);
+		CountingOutputStream os = new CountingOutputStream();
+		new GrafanaStreamingOutput(targets).write(os);
+		return os.count;
+	}
+
+	/**
+	 * Discards serialized output, keeping only the byte count so the JIT
+	 * can't eliminate serialization
+	 */
+	private static final class CountingOutputStream extends OutputStream {
+
+		private long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+
+	}
+
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.srotya.sidewinder.core.filters.ComplexTagFilter;
+import com.srotya.sidewinder.core.filters.ComplexTagFilter.ComplexFilterType;
+import com.srotya.sidewinder.core.filters.SimpleTagFilter;
+import com.srotya.sidewinder.core.filters.SimpleTagFilter.FilterType;
+import com.srotya.sidewinder.core.filters.TagFilter;
+import com.srotya.sidewinder.core.storage.ByteString;
+import com.srotya.sidewinder.core.storage.StorageEngine;
+import com.srotya.sidewinder.core.storage.TagIndex;
+
+/**
+ * Tag filter evaluation cost of the memory tag index versus the mapped bitmap
+ * tag index (selected by the engine type) for equality, conjunction,
+ * disjunction and range filters.
+ * 
+ * @author ambud
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TagIndexBenchmark {
+
+	@Param({ BenchmarkUtils.ENGINE_MEM, BenchmarkUtils.ENGINE_DISK })
+	public String engineType;
+
+	@Param({ "1000", "50000" })
+	public int cardinality;
+
+	private File baseDir;
+	private ScheduledExecutorService bgTaskPool;
+	private StorageEngine engine;
+	private TagIndex tagIndex;
+	private TagFilter equalsFilter;
+	private TagFilter andFilter;
+	private TagFilter orFilter;
+	private TagFilter rangeFilter;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		baseDir = BenchmarkUtils.createTempDir();
+		bgTaskPool = BenchmarkUtils.newBgTaskPool();
+		engine = BenchmarkUtils.createEngine(engineType, baseDir, bgTaskPool);
+		BenchmarkUtils.loadSeries(engine, cardinality, 1, System.currentTimeMillis(), 1000);
+		tagIndex = engine.getOrCreateMeasurement(BenchmarkUtils.DB_NAME, BenchmarkUtils.MEASUREMENT_NAME)
+				.getTagIndex();
+
+		equalsFilter = new SimpleTagFilter(FilterType.EQUALS, "dc", "dc1");
+		andFilter = new ComplexTagFilter(ComplexFilterType.AND, Arrays.asList(
+				new SimpleTagFilter(FilterType.EQUALS, "dc", "dc1"), new SimpleTagFilter(FilterType.EQUALS, "rack", "rack5")));
+		orFilter = new ComplexTagFilter(ComplexFilterType.OR, Arrays.asList(
+				new SimpleTagFilter(FilterType.EQUALS, "rack", "rack1"), new SimpleTagFilter(FilterType.EQUALS, "rack", "rack2")));
+		rangeFilter = new SimpleTagFilter(FilterType.GREATER_THAN_EQUALS, "rack", "rack3");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		BenchmarkUtils.close(engine, bgTaskPool, baseDir);
+	}
+
+	@Benchmark
+	public Set<ByteString> equalsFilter() {
+		return tagIndex.searchRowKeysForTagFilter(equalsFilter);
+	}
+
+	@Benchmark
+	public Set<ByteString> andFilter() {
+		return tagIndex.searchRowKeysForTagFilter(andFilter);
+	}
+
+	@Benchmark
+	public Set<ByteString> orFilter() {
+		return tagIndex.searchRowKeysForTagFilter(orFilter);
+	}
+
+	@Benchmark
+	public Set<ByteString> rangeFilter() {
+		return tagIndex.searchRowKeysForTagFilter(rangeFilter);
+	}
+
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.srotya.sidewinder.core.rpc.Tag;
+import com.srotya.sidewinder.core.storage.StorageEngine;
+import com.srotya.sidewinder.core.utils.MiscUtils;
+
+/**
+ * Ingest throughput of {@link StorageEngine#writeDataPointWithLock} for the
+ * memory and disk engines across series cardinalities, with a single writer
+ * and with concurrent writers contending on the same measurement.
+ * 
+ * @author ambud
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WritePathBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class EngineState {
+
+		@Param({ BenchmarkUtils.ENGINE_MEM, BenchmarkUtils.ENGINE_DISK })
+		public String engineType;
+
+		@Param({ "100", "10000" })
+		public int cardinality;
+
+		private File baseDir;
+		private ScheduledExecutorService bgTaskPool;
+		private StorageEngine engine;
+		private List<List<Tag>> tagSets;
+		private AtomicInteger threadIds;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+			baseDir = BenchmarkUtils.createTempDir();
+			bgTaskPool = BenchmarkUtils.newBgTaskPool();
+			engine = BenchmarkUtils.createEngine(engineType, baseDir, bgTaskPool);
+			tagSets = BenchmarkUtils.buildTagSets(cardinality);
+			threadIds = new AtomicInteger();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			BenchmarkUtils.close(engine, bgTaskPool, baseDir);
+		}
+
+	}
+
+	@State(Scope.Thread)
+	public static class WriterState {
+
+		private int seriesIdx;
+		private long ts;
+
+		@Setup(Level.Trial)
+		public void setup(EngineState state) {
+			// stagger writers so concurrent threads start on different series
+			seriesIdx = state.threadIds.getAndIncrement() * 7919;
+			ts = 1497720452566L;
+		}
+
+	}
+
+	private static void write(EngineState state, WriterState writer) throws IOException {
+		int idx = (writer.seriesIdx++ & Integer.MAX_VALUE) % state.cardinality;
+		if (idx == 0) {
+			writer.ts += 1000;
+		}
+		state.engine.writeDataPointWithLock(MiscUtils.buildDataPoint(BenchmarkUtils.DB_NAME,
+				BenchmarkUtils.MEASUREMENT_NAME, BenchmarkUtils.VALUE_FIELD, state.tagSets.get(idx), writer.ts, 1.1),
+				false);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void writeSingleThread(EngineState state, WriterState writer) throws IOException {
+		write(state, writer);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void writeMultiThread(EngineState state, WriterState writer) throws IOException {
+		write(state, writer);
+	}
+
+}
@@ -50,6 +50,7 @@ import com.srotya.sidewinder.core.security.BasicAuthenticator;
 import com.srotya.sidewinder.core.storage.StorageEngine;
 import com.srotya.sidewinder.core.storage.processor.PointProcessor;
 import com.srotya.sidewinder.core.storage.processor.PointProcessorABQ;
+import com.srotya.sidewinder.core.storage.processor.PointProcessorDisruptor;
 import com.srotya.sidewinder.core.utils.BackgrounThreadFactory;
 
 import io.dropwizard.Application;
@@ -180,7 +181,12 @@ public class SidewinderServer extends Application<SidewinderConfig> {
 		env.jersey().register(new DatabaseOpsApi(storageEngine));
 		// env.jersey().register(new SqlApi(storageEngine));
 		if (Boolean.parseBoolean(conf.getOrDefault("jersey.influx", "true"))) {
-			PointProcessor proc = new PointProcessorABQ(storageEngine, conf);
+			PointProcessor proc;
+			if (Boolean.parseBoolean(conf.getOrDefault("jersey.influx.disruptor", "false"))) {
+				proc = PointProcessorDisruptor.getInstance(storageEngine, conf);
+			} else {
+				proc = new PointProcessorABQ(storageEngine, conf);
+			}
 			env.jersey().register(new InfluxApi(proc));
 		}
 		env.healthChecks().register("restapi", new RestAPIHealthCheck());
@@ -58,14 +58,11 @@ public class InfluxApi {
 			throw new BadRequestException("Empty request no acceptable");
 		}
 		meter.mark(dps.size());
-		for (Point dp : dps) {
-			try {
-				proc.writeDataPoint(dp);
-//				engine.writeDataPointLocked(dp, preSorted);
-			} catch (Exception e) {
-				e.printStackTrace();
-				throw new BadRequestException(e);
-			}
+		try {
+			proc.writeDataPoints(dps);
+		} catch (Exception e) {
+			e.printStackTrace();
+			throw new BadRequestException(e);
 		}
 	}
 
@@ -37,6 +37,16 @@ public class BasicSingleFunctions {
 			return prevReturn;
 		}
 
+		@Override
+		protected double reduce(double acc, double[] values, int offset, int length) {
+			return acc;
+		}
+
+		@Override
+		protected long reduce(long acc, long[] values, int offset, int length) {
+			return acc;
+		}
+
 	}
 
 	@FunctionName(alias = "slast", description = "Returns the last value in the series", type = "single")
@@ -56,6 +66,16 @@ public class BasicSingleFunctions {
 			return current;
 		}
 
+		@Override
+		protected double reduce(double acc, double[] values, int offset, int length) {
+			return length > 0 ? values[offset + length - 1] : acc;
+		}
+
+		@Override
+		protected long reduce(long acc, long[] values, int offset, int length) {
+			return length > 0 ? values[offset + length - 1] : acc;
+		}
+
 	}
 
 	@FunctionName(alias = "smax", description = "Returns the largest value in the series", type = "single")
@@ -83,6 +103,24 @@ public class BasicSingleFunctions {
 			}
 		}
 
+		@Override
+		protected double reduce(double acc, double[] values, int offset, int length) {
+			int end = offset + length;
+			for (int i = offset; i < end; i++) {
+				acc = acc < values[i] ? values[i] : acc;
+			}
+			return acc;
+		}
+
+		@Override
+		protected long reduce(long acc, long[] values, int offset, int length) {
+			int end = offset + length;
+			for (int i = offset; i < end; i++) {
+				acc = acc < values[i] ? values[i] : acc;
+			}
+			return acc;
+		}
+
 	}
 
 	@FunctionName(alias = "smin", description = "Returns the smallest value in the series", type = "single")
@@ -110,6 +148,24 @@ public class BasicSingleFunctions {
 			}
 		}
 
+		@Override
+		protected double reduce(double acc, double[] values, int offset, int length) {
+			int end = offset + length;
+			for (int i = offset; i < end; i++) {
+				acc = acc > values[i] ? values[i] : acc;
+			}
+			return acc;
+		}
+
+		@Override
+		protected long reduce(long acc, long[] values, int offset, int length) {
+			int end = offset + length;
+			for (int i = offset; i < end; i++) {
+				acc = acc > values[i] ? values[i] : acc;
+			}
+			return acc;
+		}
+
 	}
 
 	@FunctionName(alias = "ssum", description = "Returns the sum of all value in the series", type = "single")
@@ -129,6 +185,24 @@ public class BasicSingleFunctions {
 			return prevReturn + current;
 		}
 
+		@Override
+		protected double reduce(double acc, double[] values, int offset, int length) {
+			int end = offset + length;
+			for (int i = offset; i < end; i++) {
+				acc += values[i];
+			}
+			return acc;
+		}
+
+		@Override
+		protected long reduce(long acc, long[] values, int offset, int length) {
+			int end = offset + length;
+			for (int i = offset; i < end; i++) {
+				acc += values[i];
+			}
+			return acc;
+		}
+
 	}
 
 	@FunctionName(alias = "srms", description = "Returns the Root Mean Squared value of the series", type = "single")
@@ -148,6 +222,16 @@ public class BasicSingleFunctions {
 			return (long) Math.sqrt(prevReturn * prevReturn + current * current);
 		}
 
+		@Override
+		protected double reduce(double acc, double[] values, int offset, int length) {
+			int end = offset + length;
+			double squares = acc * acc;
+			for (int i = offset; i < end; i++) {
+				squares += values[i] * values[i];
+			}
+			return Math.sqrt(squares);
+		}
+
 	}
 
 	@FunctionName(alias = "smean", description = "Returns the average value of the series", type = "single")
@@ -171,6 +255,35 @@ public class BasicSingleFunctions {
 			return (long) reduce((double) prevReturn, (double) current);
 		}
 
+		@Override
+		protected void reset() {
+			n = 1;
+		}
+
+		@Override
+		protected double reduce(double acc, double[] values, int offset, int length) {
+			int end = offset + length;
+			double sum = 0;
+			for (int i = offset; i < end; i++) {
+				sum += values[i];
+			}
+			double l = ((acc * n) + sum) / (n + length);
+			n += length;
+			return l;
+		}
+
+		@Override
+		protected long reduce(long acc, long[] values, int offset, int length) {
+			int end = offset + length;
+			double sum = 0;
+			for (int i = offset; i < end; i++) {
+				sum += values[i];
+			}
+			double l = ((acc * (double) n) + sum) / (n + length);
+			n += length;
+			return (long) l;
+		}
+
 	}
 
 }
\ No newline at end of file
@@ -20,6 +20,10 @@ import com.srotya.sidewinder.core.storage.DataPointIterator;
 
 public abstract class ReduceFunction extends FunctionIterator {
 
+	private long[] times;
+	private long[] values;
+	private double[] doubles;
+
 	public ReduceFunction(DataPointIterator iterator, boolean isFp) {
 		super(iterator, isFp);
 	}
@@ -29,14 +33,21 @@ public abstract class ReduceFunction extends FunctionIterator {
 		DataPoint out = new DataPoint();
 		DataPoint next = iterator.next();
 		out.setTimestamp(next.getTimestamp());
+		reset();
 		long longValue = next.getLongValue();
 		double doubleValue = Double.longBitsToDouble(next.getLongValue());
-		while (iterator.hasNext()) {
-			next = iterator.next();
+		if (times == null) {
+			times = new long[DataPointIterator.BATCH_SIZE];
+			values = new long[DataPointIterator.BATCH_SIZE];
+			doubles = new double[DataPointIterator.BATCH_SIZE];
+		}
+		int n;
+		while ((n = iterator.next(times, values, 0, times.length)) > 0) {
 			if (isFp) {
-				doubleValue = reduce(doubleValue, Double.longBitsToDouble(next.getLongValue()));
+				toDoubles(values, doubles, 0, n);
+				doubleValue = reduce(doubleValue, doubles, 0, n);
 			} else {
-				longValue = reduce(longValue, next.getLongValue());
+				longValue = reduce(longValue, values, 0, n);
 			}
 		}
 		if (isFp) {
@@ -46,10 +57,61 @@ public abstract class ReduceFunction extends FunctionIterator {
 		return out;
 	}
 
+	/**
+	 * Reset any state accumulated across reduce calls so this instance can be
+	 * reused for a new series or window
+	 */
+	protected void reset() {
+	}
+
+	/**
+	 * Fold a slice of values into the accumulator. Implementations should
+	 * override this with a tight loop, the default delegates to the scalar
+	 * {@link #reduce(double, double)}.
+	 * 
+	 * @param acc
+	 * @param values
+	 * @param offset
+	 * @param length
+	 * @return new accumulator
+	 */
+	protected double reduce(double acc, double[] values, int offset, int length) {
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			acc = reduce(acc, values[i]);
+		}
+		return acc;
+	}
+
+	/**
+	 * Fold a slice of values into the accumulator, see
+	 * {@link #reduce(double, double[], int, int)}
+	 * 
+	 * @param acc
+	 * @param values
+	 * @param offset
+	 * @param length
+	 * @return new accumulator
+	 */
+	protected long reduce(long acc, long[] values, int offset, int length) {
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			acc = reduce(acc, values[i]);
+		}
+		return acc;
+	}
+
 	protected abstract double reduce(double prevReturn, double current);
 
 	protected abstract long reduce(long prevReturn, long current);
 
+	public static void toDoubles(long[] bits, double[] output, int offset, int length) {
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			output[i] = Double.longBitsToDouble(bits[i]);
+		}
+	}
+
 	@Override
 	public void init(Object[] args) throws Exception {
 	}
@@ -15,15 +15,30 @@
  */
 package com.srotya.sidewinder.core.functions.iterative;
 
+import java.util.NoSuchElementException;
+
 import com.srotya.sidewinder.core.functions.list.FunctionName;
 import com.srotya.sidewinder.core.storage.DataPoint;
 import com.srotya.sidewinder.core.storage.DataPointIterator;
 
+/**
+ * Tumbling window reduction. Points are pulled from the underlying iterator in
+ * column batches and each window is folded by a single {@link ReduceFunction}
+ * instance over contiguous array slices, windows may span batches.
+ * 
+ * @author ambud
+ */
 @FunctionName(alias = { "window", "downsample" }, description = "Runs tumbling window reduce", type = "window")
 public class TumblingWindowFunction extends FunctionIterator {
 
 	private int timeWindowInSeconds;
 	private Class<? extends ReduceFunction> lookupFunction;
+	private ReduceFunction reducer;
+	private long[] times;
+	private long[] values;
+	private double[] doubles;
+	private int position;
+	private int limit;
 
 	public TumblingWindowFunction(DataPointIterator iterator, boolean isFp) {
 		super(iterator, isFp);
@@ -46,7 +61,8 @@ public class TumblingWindowFunction extends FunctionIterator {
 			throw new IllegalArgumentException("Invalid aggregation function:" + aggregatorName);
 		}
 		try {
-			lookupFunction.getConstructor(DataPointIterator.class, Boolean.TYPE);
+			reducer = lookupFunction.getConstructor(DataPointIterator.class, Boolean.TYPE).newInstance(iterator,
+					isFp);
 		} catch (Exception e) {
 			throw new IllegalArgumentException("Invalid aggregation function:" + aggregatorName, e);
 		}
@@ -59,58 +75,63 @@ public class TumblingWindowFunction extends FunctionIterator {
 
 	@Override
 	public boolean hasNext() {
-		return iterator.hasNext();
+		return position < limit || fill();
 	}
 
 	@Override
 	public DataPoint next() {
-		try {
-			ReduceFunction rf = lookupFunction.getConstructor(DataPointIterator.class, Boolean.TYPE)
-					.newInstance(new TumblingWindowLimitIterator(iterator, timeWindowInSeconds), isFp);
-			return rf.next();
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-			// MUST not error since we already checked during function init
+		if (position >= limit && !fill()) {
+			throw new NoSuchElementException();
 		}
-	}
-
-	public static class TumblingWindowLimitIterator extends DataPointIterator {
-
-		private DataPointIterator iterator;
-		private int timeWindowInSeconds;
-		private DataPoint dp;
-		private long tsWindow = -1;
-
-		public TumblingWindowLimitIterator(DataPointIterator iterator, int timeWindowInSeconds) {
-			this.timeWindowInSeconds = timeWindowInSeconds;
-			this.iterator = iterator;
-			this.dp = iterator.next();
-		}
-
-		@Override
-		public boolean hasNext() {
-			if (iterator.hasNext()) {
-				long ts = getWindowTs((dp = iterator.next()));
-				if (tsWindow == -1 || tsWindow == ts) {
-					tsWindow = ts;
-					return true;
+		DataPoint out = new DataPoint();
+		out.setTimestamp(times[position]);
+		long windowStart = getWindowTs(times[position]);
+		long windowEnd = windowStart + timeWindowInSeconds;
+		long longValue = values[position];
+		double doubleValue = doubles[position];
+		position++;
+		reducer.reset();
+		while (true) {
+			int end = position;
+			while (end < limit && times[end] >= windowStart && times[end] < windowEnd) {
+				end++;
+			}
+			if (end > position) {
+				if (isFp) {
+					doubleValue = reducer.reduce(doubleValue, doubles, position, end - position);
 				} else {
-					iterator.prev();
-					return false;
+					longValue = reducer.reduce(longValue, values, position, end - position);
 				}
-			} else {
-				return false;
+				position = end;
+			}
+			// window closed inside this batch or no more data
+			if (position < limit || !fill()) {
+				break;
 			}
 		}
-
-		@Override
-		public DataPoint next() {
-			return dp;
+		if (isFp) {
+			longValue = Double.doubleToLongBits(doubleValue);
 		}
+		out.setLongValue(longValue);
+		return out;
+	}
 
-		private long getWindowTs(DataPoint dp) {
-			return (dp.getTimestamp() / timeWindowInSeconds) * timeWindowInSeconds;
+	private boolean fill() {
+		if (times == null) {
+			times = new long[DataPointIterator.BATCH_SIZE];
+			values = new long[DataPointIterator.BATCH_SIZE];
+			doubles = new double[DataPointIterator.BATCH_SIZE];
+		}
+		position = 0;
+		limit = iterator.next(times, values, 0, times.length);
+		if (isFp) {
+			ReduceFunction.toDoubles(values, doubles, 0, limit);
 		}
+		return limit > 0;
+	}
+
+	private long getWindowTs(long timestamp) {
+		return (timestamp / timeWindowInSeconds) * timeWindowInSeconds;
 	}
 
-}
\ No newline at end of file
+}
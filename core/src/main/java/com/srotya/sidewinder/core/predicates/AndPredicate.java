@@ -29,6 +29,16 @@ public class AndPredicate extends ComplexPredicate {
 		super(operators, (x, y)->x.and(y));
 	}
 
+	@Override
+	public boolean canMatch(long min, long max) {
+		for (LongPredicate p : predicates) {
+			if (p instanceof Predicate && !((Predicate) p).canMatch(min, max)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	@Override
 	public String toString() {
 		return "AndOperator " + getPredicate() + "";
@@ -36,6 +36,11 @@ public class BetweenPredicate implements Predicate {
 		return value >= startTs && value <= endTs;
 	}
 
+	@Override
+	public boolean canMatch(long min, long max) {
+		return max >= startTs && min <= endTs;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -28,8 +28,10 @@ import java.util.function.LongPredicate;
 public abstract class ComplexPredicate implements Predicate {
 
 	private LongPredicate predicate;
+	protected List<LongPredicate> predicates;
 
 	public ComplexPredicate(List<LongPredicate> predicates, BinaryOperator<LongPredicate> logic) {
+		this.predicates = predicates;
 		predicate = predicates.stream().reduce(logic).get();
 	}
 
@@ -33,4 +33,9 @@ public class EqualsPredicate implements Predicate {
 		return value == rhs;
 	}
 
+	@Override
+	public boolean canMatch(long min, long max) {
+		return rhs >= min && rhs <= max;
+	}
+
 }
@@ -35,4 +35,9 @@ public class LessThanPredicate implements Predicate {
 		return value < rhs;
 	}
 
+	@Override
+	public boolean canMatch(long min, long max) {
+		return min < rhs;
+	}
+
 }
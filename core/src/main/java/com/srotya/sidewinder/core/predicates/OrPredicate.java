@@ -29,6 +29,16 @@ public class OrPredicate extends ComplexPredicate {
 		super(predicates, (x, y) -> x.or(y));
 	}
 
+	@Override
+	public boolean canMatch(long min, long max) {
+		for (LongPredicate p : predicates) {
+			if (!(p instanceof Predicate) || ((Predicate) p).canMatch(min, max)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	@Override
 	public String toString() {
 		return "OrOperator " + getPredicate() + "";
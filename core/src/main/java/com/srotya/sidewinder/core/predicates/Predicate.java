@@ -37,4 +37,17 @@ import com.srotya.sidewinder.core.storage.DataPoint;
  */
 public interface Predicate extends LongPredicate {
 
+	/**
+	 * Range check used to skip whole buffers using their summary statistics
+	 * 
+	 * @param min
+	 *            smallest value in the range
+	 * @param max
+	 *            largest value in the range
+	 * @return false only if no value in [min, max] can satisfy this predicate
+	 */
+	public default boolean canMatch(long min, long max) {
+		return true;
+	}
+
 }
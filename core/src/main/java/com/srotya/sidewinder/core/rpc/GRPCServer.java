@@ -61,11 +61,10 @@ public class GRPCServer extends Ingester {
 		}
 		es.shutdownNow();
 		try {
-			writer.getDisruptor().shutdown(100, TimeUnit.SECONDS);
+			writer.stop();
 		} catch (TimeoutException e) {
 			logger.log(Level.SEVERE, "Failed to terminate GRPC disruptor", e);
 		}
-		writer.getEs().shutdownNow();
 	}
 
 	@Override
@@ -18,17 +18,13 @@ package com.srotya.sidewinder.core.rpc;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import com.lmax.disruptor.EventFactory;
-import com.lmax.disruptor.EventHandler;
-import com.lmax.disruptor.EventTranslatorThreeArg;
-import com.lmax.disruptor.RingBuffer;
-import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.TimeoutException;
 import com.srotya.sidewinder.core.rpc.WriterServiceGrpc.WriterServiceImplBase;
 import com.srotya.sidewinder.core.storage.StorageEngine;
-import com.srotya.sidewinder.core.utils.BackgrounThreadFactory;
+import com.srotya.sidewinder.core.storage.processor.PointProcessorDisruptor;
 
 import io.grpc.stub.StreamObserver;
 
@@ -38,36 +34,16 @@ import io.grpc.stub.StreamObserver;
 public class WriterServiceImpl extends WriterServiceImplBase {
 
 	private static final String GRPC_DISRUPTOR_ENABLED = "grpc.disruptor.enabled";
-	private static final String GRPC_DISRUPTOR_BUFFER_SIZE = "grpc.disruptor.buffer.size";
-	private static final String GRPC_DISRUPTOR_HANDLER_COUNT = "grpc.disruptor.handler.count";
-	private RingBuffer<DPWrapper> buffer;
-	private Disruptor<DPWrapper> disruptor;
 	private StorageEngine engine;
-	private int handlerCount;
-	private ExecutorService es;
 	private boolean disruptorEnable;
-	private DataPointTranslator translator;
+	private PointProcessorDisruptor processor;
 
-	@SuppressWarnings("unchecked")
 	public WriterServiceImpl(StorageEngine engine, Map<String, String> conf) {
 		this.engine = engine;
 		disruptorEnable = Boolean.parseBoolean(conf.getOrDefault(GRPC_DISRUPTOR_ENABLED, "false"));
 		if (disruptorEnable) {
-			int bufferSize = Integer.parseInt(conf.getOrDefault(GRPC_DISRUPTOR_BUFFER_SIZE, "65536"));
-			if (bufferSize % 2 != 0) {
-				throw new IllegalArgumentException("Disruptor buffers must always be power of 2");
-			}
-			translator = new DataPointTranslator();
-			handlerCount = Integer.parseInt(conf.getOrDefault(GRPC_DISRUPTOR_HANDLER_COUNT, "2"));
-			es = Executors.newFixedThreadPool(handlerCount + 2, new BackgrounThreadFactory("grpc-writers"));
-			disruptor = new Disruptor<>(new DPWrapperFactory(), bufferSize, es);
-			@SuppressWarnings("rawtypes")
-			EventHandler[] handlers = new EventHandler[handlerCount];
-			for (int i = 0; i < handlerCount; i++) {
-				handlers[i] = new WriteHandler(engine, handlerCount, i);
-			}
-			disruptor.handleEventsWith(new HashHandler()).then(handlers);
-			buffer = disruptor.start();
+			// shared with the other protocols so a series is written by a single partition
+			processor = PointProcessorDisruptor.getInstance(engine, conf);
 		}
 	}
 
@@ -77,7 +53,7 @@ public class WriterServiceImpl extends WriterServiceImplBase {
 		Ack ack = null;
 		try {
 			if (disruptorEnable) {
-				buffer.publishEvent(translator, point, request.getMessageId(), null);
+				processor.writeDataPoint(point);
 			} else {
 				engine.writeDataPointWithLock(point, true);
 			}
@@ -94,13 +70,10 @@ public class WriterServiceImpl extends WriterServiceImplBase {
 		Ack ack = null;
 		try {
 			List<Point> pointsList = request.getPointsList();
-			for (int i = 0; i < pointsList.size(); i++) {
-				Point point = pointsList.get(i);
-				if (disruptorEnable) {
-					buffer.publishEvent(translator, point, request.getMessageId(), null);
-				} else {
-					engine.writeDataPointWithLock(point, true);
-				}
+			if (disruptorEnable) {
+				processor.writeDataPoints(pointsList);
+			} else {
+				engine.writeBatch(pointsList, true);
 			}
 			ack = Ack.newBuilder().setMessageId(request.getMessageId()).setResponseCode(200).build();
 		} catch (Exception e) {
@@ -140,154 +113,74 @@ public class WriterServiceImpl extends WriterServiceImplBase {
 
 	@Override
 	public StreamObserver<SingleData> writeDataPointStream(final StreamObserver<Ack> responseObserver) {
-		return new WriteStreamObserver(buffer, responseObserver);
+		return new WriteStreamObserver(responseObserver);
 	}
 
 	/**
-	 * @return the disruptor
+	 * Drain pending writes if the disruptor is enabled
+	 * 
+	 * @throws TimeoutException
 	 */
-	public Disruptor<DPWrapper> getDisruptor() {
-		return disruptor;
+	public void stop() throws TimeoutException {
+		if (processor != null) {
+			processor.stop(100, TimeUnit.SECONDS);
+		}
 	}
 
 	/**
-	 * @return the es
+	 * @return the processor, null if the disruptor isn't enabled
 	 */
-	public ExecutorService getEs() {
-		return es;
+	public PointProcessorDisruptor getProcessor() {
+		return processor;
 	}
 
-	public static class DPWrapper {
+	/**
+	 * Acks every point of the stream once it's written, points of a stream can be
+	 * written by different partitions therefore acks are serialized and the
+	 * stream is completed after the last pending ack.
+	 */
+	public class WriteStreamObserver implements StreamObserver<SingleData> {
 
-		private long messageId;
-		private Point dp;
 		private StreamObserver<Ack> responseObserver;
-		private int hashValue;
+		private AtomicInteger pending;
+		private volatile boolean completed;
 
-		/**
-		 * @return the messageId
-		 */
-		public long getMessageId() {
-			return messageId;
-		}
-
-		/**
-		 * @param messageId
-		 *            the messageId to set
-		 */
-		public void setMessageId(long messageId) {
-			this.messageId = messageId;
-		}
-
-		/**
-		 * @return the dp
-		 */
-		public Point getDp() {
-			return dp;
-		}
-
-		/**
-		 * @param dp
-		 *            the dp to set
-		 */
-		public void setDp(Point dp) {
-			this.dp = dp;
-		}
-
-		/**
-		 * @return the responseObserver
-		 */
-		public StreamObserver<Ack> getResponseObserver() {
-			return responseObserver;
-		}
-
-		/**
-		 * @param responseObserver
-		 *            the responseObserver to set
-		 */
-		public void setResponseObserver(StreamObserver<Ack> responseObserver) {
+		public WriteStreamObserver(StreamObserver<Ack> responseObserver) {
 			this.responseObserver = responseObserver;
+			this.pending = new AtomicInteger();
 		}
 
-		/**
-		 * @return the hashValue
-		 */
-		public int getHashValue() {
-			return hashValue;
-		}
-
-		/**
-		 * @param hashValue
-		 *            the hashValue to set
-		 */
-		public void setHashValue(int hashValue) {
-			this.hashValue = hashValue;
-		}
-
-	}
-
-	public static class HashHandler implements EventHandler<DPWrapper> {
-
 		@Override
-		public void onEvent(DPWrapper event, long sequence, boolean endOfBatch) throws Exception {
-			Point dp = event.getDp();
-			int hashCode = 0;
-			for (Tag tag : dp.getTagsList()) {
-				hashCode = hashCode * 31 + tag.hashCode();
-			}
-			event.setHashValue(hashCode);
-		}
-
-	}
-
-	public static class WriteHandler implements EventHandler<DPWrapper> {
-
-		private StorageEngine engine;
-		private int handlerCount;
-		private int handlerIndex;
-
-		public WriteHandler(StorageEngine engine, int handlerCount, int handlerIndex) {
-			this.engine = engine;
-			this.handlerCount = handlerCount;
-			this.handlerIndex = handlerIndex;
-		}
-
-		@Override
-		public void onEvent(DPWrapper event, long sequence, boolean endOfBatch) throws Exception {
-			if (event.getHashValue() % handlerCount == handlerIndex) {
-				Ack ack = null;
+		public void onNext(SingleData value) {
+			final long messageId = value.getMessageId();
+			pending.incrementAndGet();
+			if (disruptorEnable) {
+				processor.writeDataPoint(value.getPoint(), e -> ack(messageId, e));
+			} else {
+				Exception error = null;
 				try {
-					engine.writeDataPointWithoutLock(event.getDp(), true);
-					ack = Ack.newBuilder().setMessageId(event.getMessageId()).setResponseCode(200).build();
-				} catch (IOException e) {
-					ack = Ack.newBuilder().setMessageId(event.getMessageId()).setResponseCode(400).build();
+					engine.writeDataPointWithLock(value.getPoint(), true);
 				} catch (Exception e) {
-					ack = Ack.newBuilder().setMessageId(event.getMessageId()).setResponseCode(500).build();
-				}
-				if (event.getResponseObserver() != null) {
-					event.getResponseObserver().onNext(ack);
-					event.getResponseObserver().onCompleted();
+					error = e;
 				}
+				ack(messageId, error);
 			}
 		}
 
-	}
-
-	public static class WriteStreamObserver implements StreamObserver<SingleData> {
-
-		private RingBuffer<DPWrapper> ring;
-		private DataPointTranslator translator;
-		private StreamObserver<Ack> responseObserver;
-
-		public WriteStreamObserver(RingBuffer<DPWrapper> wrapper, StreamObserver<Ack> responseObserver) {
-			this.ring = wrapper;
-			this.responseObserver = responseObserver;
-			this.translator = new DataPointTranslator();
-		}
-
-		@Override
-		public void onNext(SingleData value) {
-			ring.publishEvent(translator, value.getPoint(), value.getMessageId(), responseObserver);
+		private void ack(long messageId, Exception error) {
+			int code = 200;
+			if (error instanceof IOException) {
+				code = 400;
+			} else if (error != null) {
+				code = 500;
+			}
+			Ack ack = Ack.newBuilder().setMessageId(messageId).setResponseCode(code).build();
+			synchronized (this) {
+				responseObserver.onNext(ack);
+				if (pending.decrementAndGet() == 0 && completed) {
+					responseObserver.onCompleted();
+				}
+			}
 		}
 
 		@Override
@@ -295,32 +188,13 @@ public class WriterServiceImpl extends WriterServiceImplBase {
 		}
 
 		@Override
-		public void onCompleted() {
-		}
-
-	}
-
-	public static class DataPointTranslator
-			implements EventTranslatorThreeArg<DPWrapper, Point, Long, StreamObserver<Ack>> {
-
-		@Override
-		public void translateTo(DPWrapper dp, long sequence, Point point, Long messageId,
-				StreamObserver<Ack> observer) {
-			dp.setDp(point);
-			dp.setMessageId(messageId);
-			dp.setResponseObserver(observer);
-		}
-
-	}
-
-	public static class DPWrapperFactory implements EventFactory<DPWrapper> {
-
-		@Override
-		public DPWrapper newInstance() {
-			DPWrapper wrapper = new DPWrapper();
-			return wrapper;
+		public synchronized void onCompleted() {
+			completed = true;
+			if (pending.get() == 0) {
+				responseObserver.onCompleted();
+			}
 		}
 
 	}
 
-}
\ No newline at end of file
+}
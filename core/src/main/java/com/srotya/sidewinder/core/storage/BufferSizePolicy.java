@@ -0,0 +1,103 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.util.List;
+import java.util.Map;
+
+import com.srotya.sidewinder.core.storage.compression.Writer;
+
+/**
+ * Sizes the buffers handed out to field writers. By default every buffer is
+ * {@link Malloc#CONF_MEASUREMENT_BUF_INCREMENT_SIZE} bytes. With adaptive
+ * sizing enabled the first buffer of a field in a time bucket is sized for the
+ * bytes the field wrote in its previous bucket, or the minimum size for a new
+ * field, and every roll over within the bucket doubles the size of the next
+ * buffer up to the maximum. Sparse fields therefore don't waste most of a
+ * fixed size buffer and hot fields roll over a logarithmic number of times.
+ * Sizes are rounded up to a power of two so freed buffers are easy to reuse.
+ * 
+ * @author ambud
+ */
+public class BufferSizePolicy {
+
+	public static final String CONF_MALLOC_BUF_ADAPTIVE = "malloc.buf.adaptive";
+	public static final String DEFAULT_MALLOC_BUF_ADAPTIVE = "false";
+	public static final String CONF_MALLOC_BUF_MIN = "malloc.buf.min";
+	public static final String DEFAULT_MALLOC_BUF_MIN = "1024";
+	public static final String CONF_MALLOC_BUF_MAX = "malloc.buf.max";
+	public static final String DEFAULT_MALLOC_BUF_MAX = "262144";
+	private final boolean adaptive;
+	private final int increment;
+	private final int minSize;
+	private final int maxSize;
+
+	public BufferSizePolicy(Map<String, String> conf) {
+		increment = Integer.parseInt(conf.getOrDefault(Malloc.CONF_MEASUREMENT_BUF_INCREMENT_SIZE,
+				String.valueOf(Malloc.DEFAULT_INCREMENT_SIZE)));
+		adaptive = Boolean.parseBoolean(conf.getOrDefault(CONF_MALLOC_BUF_ADAPTIVE, DEFAULT_MALLOC_BUF_ADAPTIVE));
+		minSize = Integer.parseInt(conf.getOrDefault(CONF_MALLOC_BUF_MIN, DEFAULT_MALLOC_BUF_MIN));
+		maxSize = Integer.parseInt(conf.getOrDefault(CONF_MALLOC_BUF_MAX, DEFAULT_MALLOC_BUF_MAX));
+		if (adaptive && (minSize <= 0 || minSize > maxSize)) {
+			throw new IllegalArgumentException(
+					"Invalid adaptive buffer size range, min:" + minSize + " max:" + maxSize);
+		}
+	}
+
+	/**
+	 * @param bucketWriters
+	 *            writers the field already has in the time bucket
+	 * @param previousBucketBytes
+	 *            bytes written by the field in its previous time bucket, 0 if
+	 *            unknown
+	 * @return size of the next buffer of the field
+	 */
+	public int nextBufferSize(List<? extends Writer> bucketWriters, long previousBucketBytes) {
+		if (!adaptive) {
+			return increment;
+		}
+		long size;
+		if (bucketWriters.isEmpty()) {
+			// leave some headroom for the bucket to grow over the previous one
+			size = previousBucketBytes > 0 ? previousBucketBytes + previousBucketBytes / 4 : minSize;
+		} else {
+			// the field outgrew its buffer in this bucket
+			size = (long) bucketWriters.get(bucketWriters.size() - 1).getRawBytes().capacity() * 2;
+		}
+		return clamp(size);
+	}
+
+	private int clamp(long size) {
+		if (size <= minSize) {
+			return minSize;
+		}
+		long rounded = Long.highestOneBit(size - 1) << 1;
+		return (int) Math.min(rounded, maxSize);
+	}
+
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	public int getMinSize() {
+		return minSize;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+}
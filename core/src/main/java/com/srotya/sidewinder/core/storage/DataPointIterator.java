@@ -15,11 +15,8 @@
  */
 package com.srotya.sidewinder.core.storage;
 
-import java.io.IOException;
 import java.util.Iterator;
 
-import com.srotya.sidewinder.core.storage.compression.FilteredValueException;
-
 /**
  * 
  * 
@@ -27,11 +24,17 @@ import com.srotya.sidewinder.core.storage.compression.FilteredValueException;
  */
 public class DataPointIterator implements Iterator<DataPoint> {
 
+	public static final int BATCH_SIZE = 1024;
 	private FieldReaderIterator timeIterator;
 	private FieldReaderIterator valueIterator;
 	private DataPoint dp = new DataPoint();
 	private boolean read = true;
-	Double test;
+	private long[] times;
+	private long[] values;
+	private boolean[] timeSelection;
+	private boolean[] valueSelection;
+	private int position;
+	private int limit;
 
 	protected DataPointIterator() {
 	}
@@ -47,30 +50,104 @@ public class DataPointIterator implements Iterator<DataPoint> {
 			return true;
 		}
 		while (true) {
-			try {
-				long time = timeIterator.next();
-				long value = valueIterator.next();
-				dp.setTimestamp(time);
-				dp.setLongValue(value);
-				read = false;
-				return true;
-			} catch (FilteredValueException e) {
-				continue;
-			} catch (IOException e) {
+			while (position < limit) {
+				int i = position++;
+				if (timeSelection[i] && valueSelection[i]) {
+					dp.setTimestamp(times[i]);
+					dp.setLongValue(values[i]);
+					read = false;
+					return true;
+				}
+			}
+			if (!fill()) {
 				this.read = true;
 				return false;
 			}
 		}
 	}
 
+	/**
+	 * Decode the next batch of timestamps and values, both columns are always
+	 * advanced by the same number of rows so a value filtered out in one column
+	 * can't shift the other one
+	 * 
+	 * @return true if at least one row was decoded
+	 */
+	private boolean fill() {
+		if (times == null) {
+			int size = Math.max(1, Math.min(BATCH_SIZE, timeIterator.count()));
+			times = new long[size];
+			values = new long[size];
+			timeSelection = new boolean[size];
+			valueSelection = new boolean[size];
+		}
+		position = 0;
+		if (!FieldReaderIterator.skipUnmatched(timeIterator, valueIterator)) {
+			limit = 0;
+			return false;
+		}
+		limit = timeIterator.next(times, timeSelection, 0, times.length);
+		if (limit > 0) {
+			limit = valueIterator.next(values, valueSelection, 0, limit);
+		}
+		return limit > 0;
+	}
+
 	@Override
 	public DataPoint next() {
 		read = true;
 		return dp;
 	}
 
+	/**
+	 * Bulk read selected rows into caller supplied timestamp and value columns.
+	 * Subclasses that only implement {@link #hasNext()} / {@link #next()} are
+	 * drained point by point, storage backed iterators copy straight out of the
+	 * decoded batch.
+	 * 
+	 * @param times
+	 * @param values
+	 *            raw long values, use {@link Double#longBitsToDouble(long)} for
+	 *            floating point fields
+	 * @param offset
+	 * @param length
+	 * @return number of rows copied, 0 once the iterator is exhausted
+	 */
+	public int next(long[] times, long[] values, int offset, int length) {
+		int n = 0;
+		if (timeIterator == null) {
+			while (n < length && hasNext()) {
+				DataPoint point = next();
+				times[offset + n] = point.getTimestamp();
+				values[offset + n] = point.getLongValue();
+				n++;
+			}
+			return n;
+		}
+		if (!read && length > 0) {
+			// row already staged by hasNext() or prev()
+			times[offset] = dp.getTimestamp();
+			values[offset] = dp.getLongValue();
+			read = true;
+			n++;
+		}
+		while (n < length) {
+			if (position >= limit && !fill()) {
+				break;
+			}
+			for (; position < limit && n < length; position++) {
+				if (timeSelection[position] && valueSelection[position]) {
+					times[offset + n] = this.times[position];
+					values[offset + n] = this.values[position];
+					n++;
+				}
+			}
+		}
+		return n;
+	}
+
 	public void prev() {
 		read = false;
 	}
 
-}
\ No newline at end of file
+}
@@ -2,10 +2,12 @@ package com.srotya.sidewinder.core.storage;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.locks.Lock;
 import java.util.function.Consumer;
 
 import com.srotya.sidewinder.core.predicates.Predicate;
+import com.srotya.sidewinder.core.storage.compression.BufferStats;
 import com.srotya.sidewinder.core.storage.compression.FilteredValueException;
 import com.srotya.sidewinder.core.storage.compression.Reader;
 import com.srotya.sidewinder.core.storage.compression.ValueWriter;
@@ -17,7 +19,23 @@ public interface Field {
 
 	public void loadBucketMap(Measurement measurement, List<BufferObject> bufferEntries) throws IOException;
 
-	public FieldReaderIterator queryReader(Predicate predicate, Lock readLock) throws IOException;
+	/**
+	 * Readers over the writers of this field, queries don't lock as the writer
+	 * list is an immutable snapshot and readers only see committed points
+	 * 
+	 * @param predicate
+	 * @return iterator over a point in time view of this field
+	 * @throws IOException
+	 */
+	public FieldReaderIterator queryReader(Predicate predicate) throws IOException;
+
+	/**
+	 * @deprecated queries no longer lock, use {@link #queryReader(Predicate)}
+	 */
+	@Deprecated
+	public default FieldReaderIterator queryReader(Predicate predicate, Lock readLock) throws IOException {
+		return queryReader(predicate);
+	}
 
 	public int getWriterCount();
 	
@@ -25,9 +43,68 @@ public interface Field {
 	
 	public List<? extends Writer> getWriters();
 
+	/**
+	 * Hint for sizing the first buffer of this field, see
+	 * {@link BufferSizePolicy}
+	 * 
+	 * @param bytes
+	 *            written by the same field of the series in its previous time
+	 *            bucket
+	 */
+	public void setPreviousBucketBytes(long bytes);
+
+	/**
+	 * @return bytes written to the buffers of this field
+	 */
+	public default long getBytesWritten() {
+		long bytes = 0;
+		for (Writer writer : getWriters()) {
+			bytes += writer.getPosition();
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return summary statistics merged across all buffers of this field
+	 * @throws IOException
+	 */
+	public default BufferStats getStats() throws IOException {
+		BufferStats stats = BufferStats.EMPTY;
+		for (Writer writer : getWriters()) {
+			stats = stats.merge(writer.getStats());
+		}
+		return stats;
+	}
+
+	/**
+	 * Compact all but the last writer into a single buffer
+	 * 
+	 * @param measurement
+	 * @param writeLock
+	 *            held while the compacted writer list is published
+	 * @param functions
+	 * @return compacted writers, null if nothing was compacted
+	 * @throws IOException
+	 */
 	public List<Writer> compact(Measurement measurement, Lock writeLock,
 			@SuppressWarnings("unchecked") Consumer<List<? extends Writer>>... functions) throws IOException;
 
+	/**
+	 * Move the read-only buffers of this field whose ids are in the supplied set
+	 * to new buffers, see {@link Malloc#relocateBuffer(LinkedByteString, java.nio.ByteBuffer)}.
+	 * The last writer is only moved once it's full, see {@link Writer#seal()},
+	 * since it may still be appended to otherwise.
+	 * 
+	 * @param measurement
+	 * @param writeLock
+	 *            held while the buffers are copied and the writer list is
+	 *            published
+	 * @param bufferIds
+	 * @return number of relocated buffers
+	 * @throws IOException
+	 */
+	public int relocate(Measurement measurement, Lock writeLock, Set<String> bufferIds) throws IOException;
+
 	/**
 	 * Get {@link Reader} with time and value filter predicates pushed-down to it.
 	 * 
@@ -0,0 +1,99 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.roaringbitmap.buffer.BufferFastAggregation;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
+/**
+ * Bitmap of the series indices that have a value field, per value field of a
+ * measurement. Series are added when they create the field and aren't removed
+ * when their buckets of it expire, the bitmaps are therefore a superset of the
+ * series that currently have data for the field.
+ * 
+ * @author ambud
+ */
+public class FieldIndex {
+
+	private final Map<String, MutableRoaringBitmap> fieldSeriesMap = new ConcurrentHashMap<>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * @param valueFieldName
+	 * @param seriesIndex
+	 */
+	public void index(String valueFieldName, int seriesIndex) {
+		lock.writeLock().lock();
+		try {
+			fieldSeriesMap.computeIfAbsent(valueFieldName, k -> new MutableRoaringBitmap()).add(seriesIndex);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @param valueFieldName
+	 * @return indices of the series with this field, owned by the caller
+	 */
+	public MutableRoaringBitmap getSeries(String valueFieldName) {
+		lock.readLock().lock();
+		try {
+			MutableRoaringBitmap series = fieldSeriesMap.get(valueFieldName);
+			return series != null ? series.clone() : new MutableRoaringBitmap();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Intersect series indices with the series having at least one of the
+	 * fields
+	 * 
+	 * @param seriesIndices
+	 * @param valueFieldNames
+	 * @return series of seriesIndices with any of the fields, owned by the caller
+	 */
+	public MutableRoaringBitmap filter(ImmutableRoaringBitmap seriesIndices, Collection<String> valueFieldNames) {
+		List<ImmutableRoaringBitmap> matches = new ArrayList<>(valueFieldNames.size());
+		lock.readLock().lock();
+		try {
+			for (String valueFieldName : valueFieldNames) {
+				MutableRoaringBitmap series = fieldSeriesMap.get(valueFieldName);
+				if (series != null) {
+					matches.add(ImmutableRoaringBitmap.and(seriesIndices, series));
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		if (matches.isEmpty()) {
+			return new MutableRoaringBitmap();
+		} else if (matches.size() == 1) {
+			return matches.get(0).toMutableRoaringBitmap();
+		}
+		return BufferFastAggregation.or(matches.toArray(new ImmutableRoaringBitmap[matches.size()]));
+	}
+
+}
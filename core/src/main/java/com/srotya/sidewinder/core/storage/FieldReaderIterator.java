@@ -54,6 +54,194 @@ public class FieldReaderIterator {
 		}
 	}
 
+	/**
+	 * Bulk read up to length values across the underlying readers, see
+	 * {@link Reader#read(long[], boolean[], int, int)}
+	 * 
+	 * @param buf
+	 * @param selection
+	 *            optional selection mask, may be null
+	 * @param offset
+	 * @param length
+	 * @return number of values read, less than length only once all readers are
+	 *         exhausted
+	 */
+	public int next(long[] buf, boolean[] selection, int offset, int length) {
+		int total = 0;
+		while (total < length && idx < readers.size()) {
+			total += readers.get(idx).read(buf, selection, offset + total, length - total);
+			if (total < length) {
+				idx++;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Number of upcoming values across the underlying readers that are known not
+	 * to satisfy their predicates, see {@link Reader#skippable()}
+	 * 
+	 * @return count of values that can be skipped
+	 */
+	public int skippable() {
+		int total = 0;
+		for (int i = idx; i < readers.size(); i++) {
+			Reader reader = readers.get(i);
+			int skippable = reader.skippable();
+			total += skippable;
+			if (skippable < reader.getCount() - reader.getCounter()) {
+				break;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Advance up to length values across the underlying readers without
+	 * returning them
+	 * 
+	 * @param length
+	 * @return number of values skipped, less than length only once all readers
+	 *         are exhausted
+	 */
+	public int skip(int length) {
+		int total = 0;
+		while (total < length && idx < readers.size()) {
+			total += readers.get(idx).skip(length - total);
+			if (total < length) {
+				idx++;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Skip the rows that any of the column iterators can prove won't be
+	 * selected, e.g. timestamps outside the queried range. All columns are
+	 * advanced by the same number of rows to keep them aligned.
+	 * 
+	 * @param iterators
+	 * @return false if a column was exhausted while skipping
+	 */
+	public static boolean skipUnmatched(FieldReaderIterator... iterators) {
+		int skip = 0;
+		for (FieldReaderIterator itr : iterators) {
+			if (itr != null) {
+				skip = Math.max(skip, itr.skippable());
+			}
+		}
+		if (skip == 0) {
+			return true;
+		}
+		for (FieldReaderIterator itr : iterators) {
+			if (itr != null && itr.readers.size() > 0 && itr.skip(skip) < skip) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Bulk read a batch of rows from column iterators in lock step. Each column
+	 * is decoded into the corresponding entry of columns, null or empty
+	 * iterators are skipped. A row is selected only if it passes the predicates
+	 * of all columns, the batch ends at the shortest column. Leading rows
+	 * that can't be selected are skipped without being returned.
+	 * 
+	 * @param iterators
+	 * @param columns
+	 *            destination arrays, one per iterator
+	 * @param selection
+	 *            row selection mask, its length is the batch size
+	 * @param scratch
+	 *            temporary mask of the same length as selection
+	 * @return number of rows read, 0 once any column is exhausted
+	 */
+	public static int next(FieldReaderIterator[] iterators, long[][] columns, boolean[] selection,
+			boolean[] scratch) {
+		if (!skipUnmatched(iterators)) {
+			return 0;
+		}
+		int rows = selection.length;
+		boolean first = true;
+		for (int i = 0; i < iterators.length && rows > 0; i++) {
+			FieldReaderIterator itr = iterators[i];
+			if (itr == null || itr.readers.size() == 0) {
+				continue;
+			}
+			if (first) {
+				rows = itr.next(columns[i], selection, 0, rows);
+				first = false;
+			} else {
+				rows = itr.next(columns[i], scratch, 0, rows);
+				for (int k = 0; k < rows; k++) {
+					selection[k] &= scratch[k];
+				}
+			}
+		}
+		return first ? 0 : rows;
+	}
+
+	/**
+	 * Drain a time (index 0) and value (index 1) iterator pair into
+	 * {@link DataPoint}s, skipping rows rejected by either column's predicate
+	 * 
+	 * @param pair
+	 * @param points
+	 */
+	public static void readerToDataPoints(FieldReaderIterator[] pair, List<DataPoint> points) {
+		int batchSize = batchSize(pair);
+		long[][] columns = new long[pair.length][batchSize];
+		boolean[] selection = new boolean[batchSize];
+		boolean[] scratch = new boolean[batchSize];
+		int rows;
+		while ((rows = next(pair, columns, selection, scratch)) > 0) {
+			long[] times = columns[0];
+			long[] values = columns[1];
+			for (int k = 0; k < rows; k++) {
+				if (selection[k]) {
+					points.add(new DataPoint(times[k], values[k]));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drain column iterators into row tuples, skipping rows rejected by any
+	 * column's predicate
+	 * 
+	 * @param iterators
+	 * @param tuples
+	 */
+	public static void readerToTuples(FieldReaderIterator[] iterators, List<long[]> tuples) {
+		int batchSize = batchSize(iterators);
+		long[][] columns = new long[iterators.length][batchSize];
+		boolean[] selection = new boolean[batchSize];
+		boolean[] scratch = new boolean[batchSize];
+		int rows;
+		while ((rows = next(iterators, columns, selection, scratch)) > 0) {
+			for (int k = 0; k < rows; k++) {
+				if (selection[k]) {
+					long[] tuple = new long[iterators.length];
+					for (int c = 0; c < columns.length; c++) {
+						tuple[c] = columns[c][k];
+					}
+					tuples.add(tuple);
+				}
+			}
+		}
+	}
+
+	private static int batchSize(FieldReaderIterator[] iterators) {
+		int count = 0;
+		for (FieldReaderIterator itr : iterators) {
+			if (itr != null) {
+				count = Math.max(count, itr.count());
+			}
+		}
+		return Math.max(1, Math.min(DataPointIterator.BATCH_SIZE, count));
+	}
+
 	public List<Reader> getReaders() {
 		return readers;
 	}
@@ -17,6 +17,7 @@ package com.srotya.sidewinder.core.storage;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -33,6 +34,12 @@ public interface Malloc {
 
 	public BufferObject createNewBuffer(LinkedByteString fieldId, Integer tsBucket) throws IOException;
 
+	/**
+	 * @return policy sizing the buffers of field writers, available once
+	 *         configured
+	 */
+	public BufferSizePolicy getBufferSizePolicy();
+
 	public void cleanupBufferIds(Set<String> cleanupList) throws IOException;
 
 	public Map<ByteString, List<Entry<Integer, BufferObject>>> seriesBufferMap() throws FileNotFoundException, IOException;
@@ -44,4 +51,42 @@ public interface Malloc {
 
 	public LinkedByteString repairBufferId(LinkedByteString fieldId, LinkedByteString bufferId);
 
+	/**
+	 * Copy an immutable buffer to a new location, the copy only replaces the
+	 * original once {@link #commitRelocations()} is called
+	 * 
+	 * @param bufferId
+	 * @param source
+	 * @return the copy
+	 * @throws IOException
+	 */
+	public default BufferObject relocateBuffer(LinkedByteString bufferId, ByteBuffer source) throws IOException {
+		throw new UnsupportedOperationException("Buffer relocation isn't supported by:" + getClass().getName());
+	}
+
+	/**
+	 * Make all buffers relocated so far replace their originals
+	 * 
+	 * @return number of relocated buffers
+	 * @throws IOException
+	 */
+	public default int commitRelocations() throws IOException {
+		return 0;
+	}
+
+	/**
+	 * Make all buffer contents and pointers written so far durable
+	 * 
+	 * @throws IOException
+	 */
+	public default void sync() throws IOException {
+	}
+
+	/**
+	 * @return bytes allocated since the last {@link #sync()}
+	 */
+	public default long getAllocatedBytes() {
+		return 0;
+	}
+
 }
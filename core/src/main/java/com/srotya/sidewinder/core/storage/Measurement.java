@@ -21,9 +21,9 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -34,13 +34,18 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
 import com.codahale.metrics.Counter;
+import com.google.common.util.concurrent.Striped;
 import com.srotya.sidewinder.core.filters.TagFilter;
 import com.srotya.sidewinder.core.functions.iterative.FunctionIteratorFactory;
 import com.srotya.sidewinder.core.functions.list.Function;
@@ -50,8 +55,9 @@ import com.srotya.sidewinder.core.rpc.Tag;
 import com.srotya.sidewinder.core.storage.ByteString.ByteStringCache;
 import com.srotya.sidewinder.core.storage.archival.Archiver;
 import com.srotya.sidewinder.core.storage.archival.TimeSeriesArchivalObject;
-import com.srotya.sidewinder.core.storage.compression.FilteredValueException;
 import com.srotya.sidewinder.core.storage.compression.Writer;
+import com.srotya.sidewinder.core.utils.AppendOnlyList;
+import com.srotya.sidewinder.core.utils.LongIntHashMap;
 
 /**
  * @author ambud
@@ -90,39 +96,46 @@ public interface Measurement {
 	public void close() throws IOException;
 
 	public default Series getOrCreateSeries(List<Tag> tags, boolean preSorted) throws IOException {
-		if (!preSorted) {
+		if (!preSorted && !isSorted(tags)) {
+			tags = new ArrayList<>(tags);
 			Collections.sort(tags, TAG_COMPARATOR);
 		}
-		ByteString seriesId = constructSeriesId(tags);
-		int index = 0;
-		Series series = getSeriesUsingKey(seriesId);
-		if (series == null) {
-			getLock().lock();
+		// existing series are resolved with a hash of the tags, verified against the
+		// series id, so that no series id needs to be built for them
+		LongIntHashMap hashIndex = getSeriesHashIndex();
+		long hash = seriesHash(tags);
+		int hashed = hashIndex.get(hash);
+		if (hashed != LongIntHashMap.NOT_FOUND) {
+			Series series = getSeriesList().get(hashed);
+			if (series != null && matchesSeriesId(series.getSeriesId(), tags)) {
+				return series;
+			}
+		}
+		final List<Tag> sortedTags = tags;
+		ByteString seriesId = constructSeriesId(sortedTags);
+		Integer index = getSeriesMap().get(seriesId);
+		if (index == null) {
+			// registration is serialized on a lock striped by the tag hash rather than
+			// inside the series map so that index and metadata I/O never blocks map
+			// bins, different series are still registered in parallel
+			Striped<Lock> locks = getRegistrationLocks();
+			Lock lock = locks.getAt((int) (hash & (locks.size() - 1)));
+			lock.lock();
 			try {
-				if ((series = getSeriesUsingKey(seriesId)) == null) {
-					index = getSeriesList().size();
-					Measurement.indexRowKey(getTagIndex(), index, tags);
-					series = new Series(seriesId, index);
-					getSeriesList().add(series);
+				index = getSeriesMap().get(seriesId);
+				if (index == null) {
+					index = registerSeries(seriesId, sortedTags);
 					getSeriesMap().put(seriesId, index);
-
-					appendTimeseriesToMeasurementMetadata(seriesId, index);
-
-					if (isEnableMetricsCapture()) {
-						getMetricsTimeSeriesCounter().inc();
-					}
-					final ByteString tmp = seriesId;
-					getLogger().fine(() -> "Created new series:" + tmp + "\t");
-				} else {
-					index = getSeriesMap().get(seriesId);
 				}
 			} finally {
-				getLock().unlock();
+				lock.unlock();
 			}
-		} else {
-			index = getSeriesMap().get(seriesId);
 		}
-
+		Series series = getSeriesList().get(index);
+		if (hashed == LongIntHashMap.NOT_FOUND) {
+			// a colliding hash stays mapped to the first series, others use the id map
+			hashIndex.putIfAbsent(hash, index);
+		}
 		return series;
 		/*
 		 * lock.lock(); try { if ((series = seriesFieldMap.get(valueFieldName)) == null)
@@ -140,6 +153,110 @@ public interface Measurement {
 		 */
 	}
 
+	/**
+	 * Allocate an index for a new series and register it with the series list,
+	 * tag index and metadata. The series is stored in the list before it's
+	 * indexed so that tag lookups never resolve to an empty slot. If indexing
+	 * fails the index entries and the slot are rolled back, the caller doesn't
+	 * map the id so a retry registers the series again.
+	 * 
+	 * @param seriesId
+	 * @param tags
+	 * @return index of the new series
+	 * @throws IOException
+	 */
+	public default int registerSeries(ByteString seriesId, List<Tag> tags) throws IOException {
+		AppendOnlyList<Series> seriesList = getSeriesList();
+		int index = seriesList.reserve();
+		seriesList.set(index, new Series(seriesId, index));
+		try {
+			Measurement.indexRowKey(getTagIndex(), index, tags);
+			appendTimeseriesToMeasurementMetadata(seriesId, index);
+		} catch (IOException | RuntimeException e) {
+			getLogger().log(Level.SEVERE, "Failed to register series:" + seriesId + " at index:" + index, e);
+			for (Tag tag : tags) {
+				try {
+					getTagIndex().unindex(tag.getTagKey(), tag.getTagValue(), index);
+				} catch (IOException | RuntimeException e1) {
+					e.addSuppressed(e1);
+				}
+			}
+			seriesList.release(index);
+			throw e;
+		}
+		if (isEnableMetricsCapture()) {
+			getMetricsTimeSeriesCounter().inc();
+		}
+		getLogger().fine(() -> "Created new series:" + seriesId + "\t");
+		return index;
+	}
+
+	/**
+	 * Compute the hash used to look up the series of a sorted list of tags
+	 * 
+	 * @param tags
+	 * @return non-zero hash
+	 */
+	public static long seriesHash(List<Tag> tags) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < tags.size(); i++) {
+			Tag tag = tags.get(i);
+			h = (h ^ tag.getTagKey().hashCode()) * 0x100000001b3L;
+			h = (h ^ tag.getTagValue().hashCode()) * 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h == 0 ? 1 : h;
+	}
+
+	/**
+	 * Check if a series id is the encoding of a sorted list of tags without
+	 * constructing it, see {@link #encodeTagsToString(List)}
+	 * 
+	 * @param seriesId
+	 * @param tags
+	 * @return true if it matches
+	 */
+	public static boolean matchesSeriesId(ByteString seriesId, List<Tag> tags) {
+		byte[] data = seriesId.getBytes();
+		int pos = 0;
+		for (int i = 0; i < tags.size(); i++) {
+			Tag tag = tags.get(i);
+			if (i > 0) {
+				pos = matchBytes(data, pos, TAG_SEPARATOR);
+			}
+			pos = matchBytes(data, pos, tag.getTagKey());
+			pos = matchBytes(data, pos, TAG_KV_SEPARATOR);
+			pos = matchBytes(data, pos, tag.getTagValue());
+			if (pos < 0) {
+				return false;
+			}
+		}
+		return pos == data.length;
+	}
+
+	static int matchBytes(byte[] data, int pos, String str) {
+		if (pos < 0 || pos + str.length() > data.length) {
+			return -1;
+		}
+		for (int i = 0; i < str.length(); i++) {
+			if (data[pos + i] != (byte) str.charAt(i)) {
+				return -1;
+			}
+		}
+		return pos + str.length();
+	}
+
+	public static boolean isSorted(List<Tag> tags) {
+		for (int i = 1; i < tags.size(); i++) {
+			if (TAG_COMPARATOR.compare(tags.get(i - 1), tags.get(i)) > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public static void indexRowKey(TagIndex tagIndex, int rowIdx, List<Tag> tags) throws IOException {
 		for (Tag tag : tags) {
 			tagIndex.index(tag.getTagKey(), tag.getTagValue(), rowIdx);
@@ -199,14 +316,98 @@ public interface Measurement {
 		return getTagIndex().searchRowKeysForTagFilter(tagFilterTree);
 	}
 
+	/**
+	 * @param tagFilterTree
+	 *            null selects every series of this measurement
+	 * @return positions in the series list of the series matching the filter
+	 * @throws IOException
+	 */
+	public default MutableRoaringBitmap getTagFilteredSeriesIndices(TagFilter tagFilterTree) throws IOException {
+		if (tagFilterTree == null) {
+			MutableRoaringBitmap all = new MutableRoaringBitmap();
+			all.add(0L, getSeriesList().size());
+			return all;
+		}
+		return getTagIndex().searchSeriesIndices(tagFilterTree);
+	}
+
 	public default void addPointWithLocking(Point dp, boolean preSorted) throws IOException {
-		Series fieldMap = getOrCreateSeries(new ArrayList<>(dp.getTagsList()), preSorted);
+		Series fieldMap = getOrCreateSeries(dp.getTagsList(), preSorted);
 		fieldMap.addPoint(dp, this);
 	}
 
+	/**
+	 * Add a point without locking the series, only to be used by callers that
+	 * partition points so that a series is always written by the same thread
+	 * 
+	 * @param dp
+	 * @param preSorted
+	 * @throws IOException
+	 */
 	public default void addPointWithoutLocking(Point dp, boolean preSorted) throws IOException {
-		Series fieldMap = getOrCreateSeries(new ArrayList<>(dp.getTagsList()), preSorted);
-		fieldMap.addPoint(dp, this);
+		Series fieldMap = getOrCreateSeries(dp.getTagsList(), preSorted);
+		fieldMap.addPointWithoutLocking(dp, this);
+	}
+
+	/**
+	 * Add a batch of points, each series is resolved once and its points are
+	 * appended under a single acquisition of the series lock
+	 * 
+	 * @param points
+	 * @param preSorted
+	 * @throws IOException
+	 */
+	public default void addPointsWithLocking(List<Point> points, boolean preSorted) throws IOException {
+		for (Entry<List<Tag>, List<Point>> entry : groupBySeries(points).entrySet()) {
+			Series series = getOrCreateSeries(entry.getKey(), preSorted);
+			series.addPoints(entry.getValue(), this);
+		}
+	}
+
+	/**
+	 * Add a batch of points without locking the series, see
+	 * {@link #addPointWithoutLocking(Point, boolean)}
+	 * 
+	 * @param points
+	 * @param preSorted
+	 * @throws IOException
+	 */
+	public default void addPointsWithoutLocking(List<Point> points, boolean preSorted) throws IOException {
+		for (Entry<List<Tag>, List<Point>> entry : groupBySeries(points).entrySet()) {
+			Series series = getOrCreateSeries(entry.getKey(), preSorted);
+			series.addPointsWithoutLocking(entry.getValue(), this);
+		}
+	}
+
+	/**
+	 * Apply points recovered from a write-ahead log, see
+	 * {@link Series#replayPoints(List, Measurement)}
+	 * 
+	 * @param points
+	 * @return number of points applied
+	 * @throws IOException
+	 */
+	public default int replayPoints(List<Point> points) throws IOException {
+		int replayed = 0;
+		for (Entry<List<Tag>, List<Point>> entry : groupBySeries(points).entrySet()) {
+			Series series = getOrCreateSeries(entry.getKey(), false);
+			replayed += series.replayPoints(entry.getValue(), this);
+		}
+		return replayed;
+	}
+
+	/**
+	 * Group points by their tags preserving the order of points within a series
+	 * 
+	 * @param points
+	 * @return points by tags
+	 */
+	public static Map<List<Tag>, List<Point>> groupBySeries(List<Point> points) {
+		Map<List<Tag>, List<Point>> series = new LinkedHashMap<>();
+		for (Point dp : points) {
+			series.computeIfAbsent(dp.getTagsList(), k -> new ArrayList<>()).add(dp);
+		}
+		return series;
 	}
 
 	public int getTimeBucketSize();
@@ -264,12 +465,19 @@ public interface Measurement {
 	public default Set<String> runCleanupOperation(String operation,
 			java.util.function.Function<Series, List<Writer>> op) throws IOException {
 		Set<String> cleanupList = new HashSet<>();
+		// the lock only serializes cleanup operations, series creation doesn't take
+		// it; series added during the sweep are picked up by the next one
 		getLock().lock();
 		try {
 			List<Series> seriesList = getSeriesList();
+			int size = seriesList.size();
 			Set<String> temp = new HashSet<>();
-			for (int i = 0; i < seriesList.size(); i++) {
+			for (int i = 0; i < size; i++) {
 				Series entry = seriesList.get(i);
+				if (entry == null) {
+					// slot reserved by a series being registered
+					continue;
+				}
 				try {
 					List<Writer> list = op.apply(entry);
 					if (list == null) {
@@ -322,82 +530,69 @@ public interface Measurement {
 
 	public default void queryDataPoints(String valueFieldNamePattern, long startTime, long endTime, TagFilter tagFilter,
 			Predicate valuePredicate, List<SeriesOutput> resultMap, Function function) throws IOException {
-		final Set<ByteString> rowKeys;
-		if (tagFilter == null) {
-			rowKeys = getSeriesKeys();
-		} else {
-			rowKeys = getTagFilteredRowKeys(tagFilter);
-		}
-		getLogger()
-				.fine(() -> "Filtered row keys to query(" + valueFieldNamePattern + "," + tagFilter + "):" + rowKeys);
+		final MutableRoaringBitmap seriesIndices = getTagFilteredSeriesIndices(tagFilter);
+		getLogger().fine(() -> "Filtered series to query(" + valueFieldNamePattern + "," + tagFilter + "):"
+				+ seriesIndices.getCardinality());
 		final Pattern p;
 		try {
 			p = Pattern.compile(valueFieldNamePattern);
 		} catch (Exception e) {
 			throw new IOException("Invalid regex for value field name:" + e.getMessage());
 		}
-		Set<ByteString> outputKeys = new HashSet<>();
-		final Map<ByteString, List<String>> fields = new HashMap<>();
-		if (rowKeys != null) {
-			for (ByteString key : rowKeys) {
-				List<String> fieldMap = new ArrayList<>();
-				List<String> fieldSet = new ArrayList<>(getFields());
-				getLogger().fine(() -> "Row key:" + key + " Fields:" + fieldSet);
-				for (String fieldSetEntry : fieldSet) {
-					if (p.matcher(fieldSetEntry).matches() && !fieldSetEntry.equalsIgnoreCase(Series.TS)) {
-						fieldMap.add(fieldSetEntry);
-					}
-				}
-				if (fieldMap.size() > 0) {
-					fields.put(key, fieldMap);
-					outputKeys.add(key);
-				}
-			}
+		final List<String> valueFieldNames = getMatchingFields(p);
+		if (valueFieldNames.isEmpty()) {
+			getLogger().fine(() -> "No fields matching:" + valueFieldNamePattern);
+			return;
 		}
+		// only series with at least one of the fields produce output
+		List<Series> outputSeries = getSeries(getFieldIndex().filter(seriesIndices, valueFieldNames));
 
-		Stream<ByteString> stream = outputKeys.stream();
+		Stream<Series> stream = outputSeries.stream();
 		if (useQueryPool()) {
 			stream = stream.parallel();
 		}
-		getLogger().fine(() -> "Output keys:" + outputKeys.size());
+		getLogger().fine(() -> "Output series:" + outputSeries.size());
 		stream.forEach(entry -> {
 			try {
-				List<String> valueFieldNames = fields.get(entry);
-				if (valueFieldNames == null) {
-					throw new NullPointerException(
-							"NPEfor:" + entry + " rowkeys:" + fields + " vfn:" + valueFieldNamePattern);
-				}
 				populateDataPointsInResult(valueFieldNames, entry, startTime, endTime, valuePredicate, p, resultMap,
 						function);
 			} catch (Exception e) {
-				getLogger().log(Level.SEVERE, "Failed to query data points: " + entry, e);
+				getLogger().log(Level.SEVERE, "Failed to query data points: " + entry.getSeriesId(), e);
 			}
 		});
 	}
 
+	/**
+	 * Resolve series indices to the series, skipping slots that are reserved but
+	 * not yet set
+	 * 
+	 * @param seriesIndices
+	 * @return series in index order
+	 */
+	public default List<Series> getSeries(MutableRoaringBitmap seriesIndices) {
+		List<Series> seriesList = getSeriesList();
+		List<Series> output = new ArrayList<>(seriesIndices.getCardinality());
+		for (IntIterator itr = seriesIndices.getIntIterator(); itr.hasNext();) {
+			Series series = seriesList.get(itr.next());
+			if (series != null) {
+				output.add(series);
+			}
+		}
+		return output;
+	}
+
 	public default void queryReaders(List<String> valueFieldNames, List<Predicate> valuePredicate, boolean regex,
 			long startTime, long endTime, TagFilter tagFilter, ConcurrentMap<ByteString, FieldReaderIterator[]> readers)
 			throws IOException {
-		final Set<ByteString> rowKeys;
-		if (tagFilter == null) {
-			rowKeys = getSeriesKeys();
-		} else {
-			rowKeys = getTagFilteredRowKeys(tagFilter);
-		}
-		getLogger().fine(() -> "Filtered row keys to query(" + valueFieldNames + "," + tagFilter + "):" + rowKeys);
+		final MutableRoaringBitmap seriesIndices = getTagFilteredSeriesIndices(tagFilter);
+		getLogger().fine(() -> "Filtered series to query(" + valueFieldNames + "," + tagFilter + "):"
+				+ seriesIndices.getCardinality());
 		Pattern p = checkAndBuildPattern(valueFieldNames, regex);
 		Set<String> fieldSet = getFields();
 
 		filterFieldsBasedOnRegex(regex, p, fieldSet);
 
-		List<Series> seriesList = new ArrayList<>();
-		if (rowKeys != null) {
-			for (ByteString key : rowKeys) {
-				Series series = getSeriesUsingKey(key);
-				getLogger().fine(() -> "Row key queried" + key + " Fields:" + getFields());
-				seriesList.add(series);
-			}
-		}
+		List<Series> seriesList = getSeries(seriesIndices);
 
 		Stream<Series> stream = seriesList.stream();
 		if (useQueryPool()) {
@@ -455,12 +650,29 @@ public interface Measurement {
 		return new TreeSet<>(getFieldTypeMap().keySet());
 	}
 
-	public default void populateDataPointsInResult(List<String> valueFieldNames, ByteString rowKey, long startTime,
+	/**
+	 * Resolve a value field pattern against the fields of this measurement
+	 * 
+	 * @param p
+	 * @return value fields matching the pattern, in field name order
+	 */
+	public default List<String> getMatchingFields(Pattern p) {
+		List<String> valueFieldNames = new ArrayList<>();
+		for (String valueFieldName : getFieldTypeMap().keySet()) {
+			if (!valueFieldName.equalsIgnoreCase(Series.TS) && p.matcher(valueFieldName).matches()) {
+				valueFieldNames.add(valueFieldName);
+			}
+		}
+		return valueFieldNames;
+	}
+
+	public FieldIndex getFieldIndex();
+
+	public default void populateDataPointsInResult(List<String> valueFieldNames, Series series, long startTime,
 			long endTime, Predicate valuePredicate, Pattern p, List<SeriesOutput> resultMap, Function function)
 			throws IOException {
-		List<Tag> seriesTags = decodeStringToTags(rowKey);
-		Series series = getSeriesUsingKey(rowKey);
-
+		// tags are only decoded for series that produce output
+		List<Tag> seriesTags = null;
 		FieldReaderIterator[][] queryTimePairIterators = series.queryTimePairIterators(this, valueFieldNames, null,
 				startTime, endTime);
 		if (queryTimePairIterators == null) {
@@ -474,20 +686,13 @@ public interface Measurement {
 				}
 				List<DataPoint> dpList = new ArrayList<>();
 				// extract all datapoints
-				while (true) {
-					try {
-						long[] extracted = FieldReaderIterator.extracted(pairIterator);
-						dpList.add(new DataPoint(extracted[0], extracted[1]));
-					} catch (FilteredValueException e) {
-						// ignore this
-					} catch (IOException e) {
-						// terminate read loop
-						break;
-					}
-				}
+				FieldReaderIterator.readerToDataPoints(pairIterator, dpList);
 				// apply function
 				String vfn = pairIterator[1].getFieldName();
 				getLogger().fine(() -> "Reading datapoints for:" + vfn + " " + dpList);
+				if (seriesTags == null) {
+					seriesTags = decodeStringToTags(series.getSeriesId());
+				}
 				SeriesOutput seriesQueryOutput = new SeriesOutput(getMeasurementName(), vfn, seriesTags);
 				seriesQueryOutput.setFp(isFieldFp(vfn));
 				seriesQueryOutput.setDataPoints(dpList);
@@ -498,8 +703,8 @@ public interface Measurement {
 				}
 			}
 		} catch (Exception e) {
-			getLogger().severe("Failed to populate data points for: " + rowKey.toString() + " " + valueFieldNames + " "
-					+ Arrays.toString(queryTimePairIterators[0]));
+			getLogger().severe("Failed to populate data points for: " + series.getSeriesId() + " " + valueFieldNames
+					+ " " + Arrays.toString(queryTimePairIterators[0]));
 			throw e;
 		}
 	}
@@ -569,7 +774,7 @@ public interface Measurement {
 	 * 
 	 * @return
 	 */
-	public List<Series> getSeriesList();
+	public AppendOnlyList<Series> getSeriesList();
 
 	public Logger getLogger();
 
@@ -577,6 +782,10 @@ public interface Measurement {
 		return new ConcurrentSkipListMap<>();
 	}
 
+	/**
+	 * @return lock serializing cleanup operations (garbage collection and
+	 *         compaction) of this measurement
+	 */
 	public ReentrantLock getLock();
 
 	public boolean useQueryPool();
@@ -620,6 +829,14 @@ public interface Measurement {
 
 	Map<ByteString, Integer> getSeriesMap();
 
+	LongIntHashMap getSeriesHashIndex();
+
+	/**
+	 * @return locks new series of this measurement are registered under, striped
+	 *         by the hash of their tags; the number of stripes is a power of two
+	 */
+	Striped<Lock> getRegistrationLocks();
+
 	boolean isEnableMetricsCapture();
 
 	Counter getMetricsTimeSeriesCounter();
@@ -655,61 +872,39 @@ public interface Measurement {
 	public default void queryDataPointsv2(String valueFieldNamePattern, long startTime, long endTime,
 			TagFilter tagFilter, Predicate valuePredicate, List<SeriesOutputv2> result,
 			FunctionIteratorFactory template) throws IOException {
-		final Set<ByteString> rowKeys;
-		if (tagFilter == null) {
-			rowKeys = getSeriesKeys();
-		} else {
-			rowKeys = getTagFilteredRowKeys(tagFilter);
-		}
-		getLogger()
-				.fine(() -> "Filtered row keys to query(" + valueFieldNamePattern + "," + tagFilter + "):" + rowKeys);
+		final MutableRoaringBitmap seriesIndices = getTagFilteredSeriesIndices(tagFilter);
+		getLogger().fine(() -> "Filtered series to query(" + valueFieldNamePattern + "," + tagFilter + "):"
+				+ seriesIndices.getCardinality());
 		final Pattern p;
 		try {
 			p = Pattern.compile(valueFieldNamePattern);
 		} catch (Exception e) {
 			throw new IOException("Invalid regex for value field name:" + e.getMessage());
 		}
-		Set<ByteString> outputKeys = new HashSet<>();
-		final Map<ByteString, List<String>> fields = new HashMap<>();
-		if (rowKeys != null) {
-			for (ByteString key : rowKeys) {
-				List<String> fieldMap = new ArrayList<>();
-				List<String> fieldSet = new ArrayList<>(getFields());
-				getLogger().fine(() -> "Row key:" + key + " Fields:" + fieldSet);
-				for (String fieldSetEntry : fieldSet) {
-					if (p.matcher(fieldSetEntry).matches() && !fieldSetEntry.equalsIgnoreCase(Series.TS)) {
-						fieldMap.add(fieldSetEntry);
-					}
-				}
-				if (fieldMap.size() > 0) {
-					fields.put(key, fieldMap);
-					outputKeys.add(key);
-				}
-			}
+		final List<String> valueFieldNames = getMatchingFields(p);
+		if (valueFieldNames.isEmpty()) {
+			getLogger().fine(() -> "No fields matching:" + valueFieldNamePattern);
+			return;
 		}
+		// only series with at least one of the fields produce output
+		List<Series> outputSeries = getSeries(getFieldIndex().filter(seriesIndices, valueFieldNames));
 
-		getLogger().fine(() -> "Output keys:" + outputKeys.size());
-		for (ByteString entry : outputKeys) {
+		getLogger().fine(() -> "Output series:" + outputSeries.size());
+		for (Series entry : outputSeries) {
 			try {
-				List<String> valueFieldNames = fields.get(entry);
-				if (valueFieldNames == null) {
-					throw new NullPointerException(
-							"NPEfor:" + entry + " rowkeys:" + fields + " vfn:" + valueFieldNamePattern);
-				}
 				populateResultsIterators(valueFieldNames, entry, startTime, endTime, valuePredicate, p, result,
 						template);
 			} catch (Exception e) {
-				getLogger().log(Level.SEVERE, "Failed to query data points: " + entry, e);
+				getLogger().log(Level.SEVERE, "Failed to query data points: " + entry.getSeriesId(), e);
 			}
 		}
 	}
 
-	public default void populateResultsIterators(List<String> valueFieldNames, ByteString rowKey, long startTime,
+	public default void populateResultsIterators(List<String> valueFieldNames, Series series, long startTime,
 			long endTime, Predicate valuePredicate, Pattern p, List<SeriesOutputv2> result,
 			FunctionIteratorFactory template) throws Exception {
-		List<Tag> seriesTags = decodeStringToTags(rowKey);
-		Series series = getSeriesUsingKey(rowKey);
-
+		// tags are only decoded for series that produce output
+		List<Tag> seriesTags = null;
 		FieldReaderIterator[][] queryTimePairIterators = series.queryTimePairIterators(this, valueFieldNames, null,
 				startTime, endTime);
 		if (queryTimePairIterators == null) {
@@ -724,6 +919,9 @@ public interface Measurement {
 				// apply function
 				String vfn = pairIterator[1].getFieldName();
 				getLogger().fine(() -> "Reading datapoints for:" + vfn + " ");
+				if (seriesTags == null) {
+					seriesTags = decodeStringToTags(series.getSeriesId());
+				}
 				SeriesOutputv2 seriesQueryOutput = new SeriesOutputv2(getMeasurementName(), vfn, seriesTags);
 				seriesQueryOutput.setFp(isFieldFp(vfn));
 				seriesQueryOutput.setIterator(new DataPointIterator(pairIterator[0], pairIterator[1]));
@@ -735,10 +933,10 @@ public interface Measurement {
 				result.add(seriesQueryOutput);
 			}
 		} catch (Exception e) {
-			getLogger().severe("Failed to populate data points for: " + rowKey.toString() + " " + valueFieldNames + " "
-					+ Arrays.toString(queryTimePairIterators[0]));
+			getLogger().severe("Failed to populate data points for: " + series.getSeriesId() + " " + valueFieldNames
+					+ " " + Arrays.toString(queryTimePairIterators[0]));
 			throw e;
 		}
 	}
 
-}
\ No newline at end of file
+}
@@ -16,18 +16,17 @@
 package com.srotya.sidewinder.core.storage;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.SortedMap;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -35,11 +34,27 @@ import java.util.logging.Logger;
 import com.srotya.sidewinder.core.predicates.BetweenPredicate;
 import com.srotya.sidewinder.core.predicates.Predicate;
 import com.srotya.sidewinder.core.rpc.Point;
-import com.srotya.sidewinder.core.storage.compression.FilteredValueException;
+import com.srotya.sidewinder.core.storage.compression.Reader;
 import com.srotya.sidewinder.core.storage.compression.Writer;
+import com.srotya.sidewinder.core.utils.IntArraySortedMap;
+import com.srotya.sidewinder.core.utils.SmallArrayMap;
 import com.srotya.sidewinder.core.utils.TimeUtils;
 
 /**
+ * Time bucketed fields of a single series.<br>
+ * <br>
+ * A series has a single writer at a time, points are either added with
+ * {@link #addPoint(Point, Measurement)} which serializes writers on the series
+ * write lock or with {@link #addPointWithoutLocking(Point, Measurement)} by
+ * callers that partition points so only one thread ever writes a given series.
+ * The two must not be mixed for the same series. Queries never lock, they read
+ * the writer list snapshot published by each field and only see points
+ * committed by its writers.<br>
+ * <br>
+ * A node holds millions of series so their footprint is kept small, buckets
+ * are stored in an {@link IntArraySortedMap}, the fields of a bucket in a
+ * {@link SmallArrayMap} and field ids are shared by all buckets of a field.
+ * 
  * @author ambud
  */
 public class Series {
@@ -49,17 +64,13 @@ public class Series {
 	private ByteString seriesId;
 	private SortedMap<Integer, Map<String, Field>> bucketFieldMap;
 	private int fieldMapIndex;
-	private ReentrantReadWriteLock lock;
-	private ReadLock readLock;
-	private WriteLock writeLock;
+	private ReentrantLock writeLock;
 
 	public Series(ByteString seriesId, int fieldMapIndex) {
 		this.seriesId = seriesId;
 		this.fieldMapIndex = fieldMapIndex;
-		bucketFieldMap = new ConcurrentSkipListMap<>();
-		this.lock = new ReentrantReadWriteLock();
-		readLock = lock.readLock();
-		writeLock = lock.writeLock();
+		bucketFieldMap = new IntArraySortedMap<>();
+		writeLock = new ReentrantLock();
 	}
 
 	protected Field getOrCreateSeries(int timeBucket, String valueFieldName, boolean fp, Measurement measurement)
@@ -67,46 +78,195 @@ public class Series {
 		Map<String, Field> map = bucketFieldMap.get(timeBucket);
 		Field field = map.get(valueFieldName);
 		if (field == null) {
-			writeLock.lock();
-			if ((field = map.get(valueFieldName)) == null) {
-				ByteString cachedFieldName = measurement.getFieldCache().get(new ByteString(valueFieldName));
-				LinkedByteString fieldId = new LinkedByteString().concat(seriesId)
-						.concat(Measurement.SERIESID_SEPARATOR_BS).concat(cachedFieldName);
-				if (valueFieldName == TS) {
-					field = new TimeField(measurement, fieldId, timeBucket, measurement.getConf());
-				} else {
-					field = new ValueField(measurement, fieldId, timeBucket, measurement.getConf());
-				}
-				if (measurement.getFieldTypeMap().get(valueFieldName) == null) {
-					measurement.getFieldTypeMap().put(valueFieldName.intern(), fp);
-					measurement.appendFieldMetadata(valueFieldName, fp);
+			// fields are rarely created, the bucket map is only locked to create them once
+			synchronized (map) {
+				if ((field = map.get(valueFieldName)) == null) {
+					Field previous = getLatestField(valueFieldName, timeBucket);
+					LinkedByteString fieldId = previous != null ? previous.getFieldId()
+							: newFieldId(measurement, valueFieldName);
+					if (valueFieldName == TS) {
+						field = new TimeField(measurement, fieldId, timeBucket, measurement.getConf());
+					} else {
+						field = new ValueField(measurement, fieldId, timeBucket, measurement.getConf());
+					}
+					if (previous != null) {
+						field.setPreviousBucketBytes(previous.getBytesWritten());
+					} else if (valueFieldName != TS) {
+						measurement.getFieldIndex().index(valueFieldName, fieldMapIndex);
+					}
+					if (measurement.getFieldTypeMap().get(valueFieldName) == null) {
+						measurement.getFieldTypeMap().put(valueFieldName.intern(), fp);
+						measurement.appendFieldMetadata(valueFieldName, fp);
+					}
+					map.put(valueFieldName.intern(), field);
+					final Field tmp = field;
+					logger.fine(() -> "Created new timeseries:" + tmp + " for measurement:"
+							+ measurement.getMeasurementName() + "\t" + seriesId + "\t"
+							+ measurement.getMetadata().getRetentionHours() + "\t" + measurement.getSeriesList().size()
+							+ " field:" + valueFieldName);
 				}
-				map.put(valueFieldName.intern(), field);
-				final Field tmp = field;
-				logger.fine(
-						() -> "Created new timeseries:" + tmp + " for measurement:" + measurement.getMeasurementName()
-								+ "\t" + seriesId + "\t" + measurement.getMetadata().getRetentionHours() + "\t"
-								+ measurement.getSeriesList().size() + " field:" + valueFieldName);
-			} else {
-				// in case there was contention and we have to re-check the cache
-				field = map.get(valueFieldName);
 			}
-			writeLock.unlock();
 		}
 		return field;
 	}
 
+	/**
+	 * Field ids are immutable and identical across buckets so the id of an
+	 * existing bucket of the field is reused instead of creating one per bucket,
+	 * the latest bucket also sizes the buffers of the new one
+	 * 
+	 * @param valueFieldName
+	 * @param timeBucket
+	 * @return the field in the latest bucket before timeBucket, or in any bucket
+	 *         if there's none before it, null if the field doesn't exist
+	 */
+	private Field getLatestField(String valueFieldName, int timeBucket) {
+		Field latest = null;
+		for (Entry<Integer, Map<String, Field>> entry : bucketFieldMap.entrySet()) {
+			Field field = entry.getValue().get(valueFieldName);
+			if (field != null) {
+				if (entry.getKey() >= timeBucket && latest != null) {
+					break;
+				}
+				latest = field;
+			}
+		}
+		return latest;
+	}
+
+	private LinkedByteString newFieldId(Measurement measurement, String valueFieldName) {
+		ByteString cachedFieldName = measurement.getFieldCache().get(new ByteString(valueFieldName));
+		return new LinkedByteString(3).concat(seriesId).concat(Measurement.SERIESID_SEPARATOR_BS)
+				.concat(cachedFieldName);
+	}
+
 	public void addPoint(Point dp, Measurement m) throws IOException {
 		writeLock.lock();
 		try {
-			int timeBucket = getOrCreateTimeBucket(dp.getTimestamp(), m.getTimeBucketSize());
-			Field timeField = getOrCreateSeries(timeBucket, TS, false, m);
+			addPointWithoutLocking(dp, m);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Add a point without locking, the caller must guarantee that it's the only
+	 * thread writing to this series
+	 * 
+	 * @param dp
+	 * @param m
+	 * @throws IOException
+	 */
+	public void addPointWithoutLocking(Point dp, Measurement m) throws IOException {
+		int timeBucket = getOrCreateTimeBucket(dp.getTimestamp(), m.getTimeBucketSize());
+		Field timeField = getOrCreateSeries(timeBucket, TS, false, m);
+		timeField.addDataPoint(m, dp.getTimestamp());
+		for (int i = 0; i < dp.getFpList().size(); i++) {
+			Field field = getOrCreateSeries(timeBucket, dp.getValueFieldNameList().get(i), dp.getFpList().get(i), m);
+			field.addDataPoint(m, dp.getValueList().get(i));
+		}
+	}
+
+	/**
+	 * Add a run of points of this series under a single acquisition of the write
+	 * lock
+	 * 
+	 * @param points
+	 * @param m
+	 * @throws IOException
+	 */
+	public void addPoints(List<Point> points, Measurement m) throws IOException {
+		writeLock.lock();
+		try {
+			addPointsWithoutLocking(points, m);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Add a run of points without locking, fields are only looked up again when
+	 * the time bucket changes
+	 * 
+	 * @param points
+	 * @param m
+	 * @throws IOException
+	 */
+	public void addPointsWithoutLocking(List<Point> points, Measurement m) throws IOException {
+		Map<String, Field> fields = new HashMap<>();
+		Field timeField = null;
+		int timeBucket = 0;
+		for (Point dp : points) {
+			int bucket = getTimeBucketInt(TimeUnit.MILLISECONDS, dp.getTimestamp(), m.getTimeBucketSize());
+			if (timeField == null || bucket != timeBucket) {
+				timeBucket = getOrCreateTimeBucket(dp.getTimestamp(), m.getTimeBucketSize());
+				timeField = getOrCreateSeries(bucket, TS, false, m);
+				fields.clear();
+			}
 			timeField.addDataPoint(m, dp.getTimestamp());
 			for (int i = 0; i < dp.getFpList().size(); i++) {
-				Field field = getOrCreateSeries(timeBucket, dp.getValueFieldNameList().get(i), dp.getFpList().get(i),
-						m);
+				String valueFieldName = dp.getValueFieldNameList().get(i);
+				Field field = fields.get(valueFieldName);
+				if (field == null) {
+					field = getOrCreateSeries(bucket, valueFieldName, dp.getFpList().get(i), m);
+					fields.put(valueFieldName, field);
+				}
 				field.addDataPoint(m, dp.getValueList().get(i));
 			}
+		}
+	}
+
+	/**
+	 * Apply points recovered from a write-ahead log. Each column of a bucket may
+	 * have reached the data files with any prefix of the points written to it
+	 * before a crash. A point is matched to its row of the time column by
+	 * timestamp, or to the next row if it isn't stored there, and is only written
+	 * to the columns that are short of that row so that they stay aligned.
+	 * 
+	 * @param points
+	 * @param measurement
+	 * @return number of points written to at least one column
+	 * @throws IOException
+	 */
+	public int replayPoints(List<Point> points, Measurement measurement) throws IOException {
+		writeLock.lock();
+		try {
+			Map<Integer, RecoveredRows> buckets = new HashMap<>();
+			int replayed = 0;
+			for (Point dp : points) {
+				int timeBucket = getOrCreateTimeBucket(dp.getTimestamp(), measurement.getTimeBucketSize());
+				RecoveredRows rows = buckets.get(timeBucket);
+				if (rows == null) {
+					rows = new RecoveredRows(bucketFieldMap.get(timeBucket));
+					buckets.put(timeBucket, rows);
+				}
+				boolean written = false;
+				int row = rows.find(dp.getTimestamp());
+				if (row < 0) {
+					row = rows.append();
+					getOrCreateSeries(timeBucket, TS, false, measurement).addDataPoint(measurement, dp.getTimestamp());
+					written = true;
+				}
+				for (int i = 0; i < dp.getFpCount(); i++) {
+					String valueFieldName = dp.getValueFieldNameList().get(i);
+					int count = rows.count(valueFieldName);
+					if (count > row) {
+						continue;
+					}
+					if (count < row) {
+						logger.warning("Field:" + valueFieldName + " of series:" + seriesId + " is missing "
+								+ (row - count) + " points that aren't in the log, replayed points are misaligned");
+					}
+					getOrCreateSeries(timeBucket, valueFieldName, dp.getFpList().get(i), measurement)
+							.addDataPoint(measurement, dp.getValueList().get(i));
+					rows.increment(valueFieldName);
+					written = true;
+				}
+				if (written) {
+					replayed++;
+				}
+			}
+			return replayed;
 		} finally {
 			writeLock.unlock();
 		}
@@ -114,14 +274,8 @@ public class Series {
 
 	private int getOrCreateTimeBucket(long timestamp, int timeBucketSize) {
 		int timeBucketInt = getTimeBucketInt(TimeUnit.MILLISECONDS, timestamp, timeBucketSize);
-		Map<String, Field> map = bucketFieldMap.get(timeBucketInt);
-		if (map == null) {
-			writeLock.lock();
-			if ((map = bucketFieldMap.get(timeBucketInt)) == null) {
-				map = new ConcurrentHashMap<>();
-				bucketFieldMap.put(timeBucketInt, map);
-			}
-			writeLock.unlock();
+		if (bucketFieldMap.get(timeBucketInt) == null) {
+			bucketFieldMap.putIfAbsent(timeBucketInt, new SmallArrayMap<>());
 		}
 		return timeBucketInt;
 	}
@@ -134,18 +288,23 @@ public class Series {
 	public void loadBuffers(Measurement measurement, String fieldName, List<Entry<Integer, BufferObject>> buffers,
 			Map<String, String> conf) throws IOException {
 		Map<Field, List<BufferObject>> fieldMap = new HashMap<>();
+		LinkedByteString fieldId = null;
 		for (Entry<Integer, BufferObject> entry : buffers) {
 			Map<String, Field> map = bucketFieldMap.get(entry.getKey());
 			if (map == null) {
-				map = new ConcurrentHashMap<>();
+				map = new SmallArrayMap<>();
 				bucketFieldMap.put(entry.getKey(), map);
 			}
 			BufferObject value = entry.getValue();
 			Field field = map.get(fieldName);
 			if (field == null) {
-				ByteString cachedFieldName = measurement.getFieldCache().get(new ByteString(fieldName));
-				LinkedByteString fieldId = new LinkedByteString().concat(seriesId)
-						.concat(Measurement.SERIESID_SEPARATOR_BS).concat(cachedFieldName);
+				if (fieldId == null) {
+					Field previous = getLatestField(fieldName, entry.getKey());
+					fieldId = previous != null ? previous.getFieldId() : newFieldId(measurement, fieldName);
+					if (!fieldName.equals(TS)) {
+						measurement.getFieldIndex().index(fieldName, fieldMapIndex);
+					}
+				}
 				if (fieldName.equals(TS)) {
 					field = new TimeField(measurement, fieldId, entry.getKey(), conf);
 				} else {
@@ -193,6 +352,7 @@ public class Series {
 		Map<String, List<DataPoint>> points = new HashMap<>();
 		for (Map<String, Field> map : correctTimeRangeScan.values()) {
 			Field timeField = map.get(TS);
+			boolean timeMatch = canMatch(timeField, timeRangePredicate);
 			for (int i = 0; i < valueFieldBucketNames.size(); i++) {
 				String vfn = valueFieldBucketNames.get(i);
 				Field field = map.get(vfn);
@@ -202,22 +362,15 @@ public class Series {
 						list = new ArrayList<>();
 						points.put(vfn, list);
 					}
+					if (!timeMatch || !canMatch(field, valuePredicate != null ? valuePredicate.get(i) : null)) {
+						continue;
+					}
 					FieldReaderIterator valueIterator = field
-							.queryReader(valuePredicate != null ? valuePredicate.get(i) : null, readLock);
-					FieldReaderIterator timeIterator = timeField.queryReader(timeRangePredicate, readLock);
+							.queryReader(valuePredicate != null ? valuePredicate.get(i) : null);
+					FieldReaderIterator timeIterator = timeField.queryReader(timeRangePredicate);
 					logger.fine(() -> vfn + " " + valueIterator.count() + " ts:" + timeIterator.count());
-					FieldReaderIterator[] iterators = new FieldReaderIterator[] { timeIterator, valueIterator };
-					while (true) {
-						try {
-							long[] extracted = FieldReaderIterator.extracted(iterators);
-							list.add(new DataPoint(extracted[0], extracted[1]));
-						} catch (FilteredValueException e) {
-							// ignore this
-						} catch (IOException e) {
-							// terminate read loop
-							break;
-						}
-					}
+					FieldReaderIterator.readerToDataPoints(new FieldReaderIterator[] { timeIterator, valueIterator },
+							list);
 				}
 			}
 		}
@@ -269,6 +422,7 @@ public class Series {
 		for (Entry<Integer, Map<String, Field>> entry : correctTimeRangeScan.entrySet()) {
 			Map<String, Field> map = entry.getValue();
 			Field timeField = map.get(TS);
+			boolean timeMatch = canMatch(timeField, timeRangePredicate);
 			for (int i = 0; i < valueFieldBucketNames.size(); i++) {
 				String vfn = valueFieldBucketNames.get(i);
 				Field field = map.get(vfn);
@@ -280,20 +434,27 @@ public class Series {
 					iterators = new FieldReaderIterator[2];
 					result[i] = iterators;
 				}
+				if (!timeMatch || !canMatch(field, valuePredicates != null ? valuePredicates.get(i) : null)) {
+					// no point in this bucket can qualify, skip both columns to keep them aligned
+					if (iterators[0] == null) {
+						iterators[0] = new FieldReaderIterator(TS);
+						iterators[1] = new FieldReaderIterator(vfn);
+					}
+					continue;
+				}
 				if (iterators[0] == null) {
-					iterators[0] = timeField.queryReader(timeRangePredicate, readLock);
+					iterators[0] = timeField.queryReader(timeRangePredicate);
 					iterators[0].setFieldName(TS);
 				} else {
-					iterators[0].addReader(timeField.queryReader(timeRangePredicate, readLock).getReaders());
+					iterators[0].addReader(timeField.queryReader(timeRangePredicate).getReaders());
 				}
 				if (field != null) {
 					if (iterators[1] == null) {
-						iterators[1] = field.queryReader(valuePredicates != null ? valuePredicates.get(i) : null,
-								readLock);
+						iterators[1] = field.queryReader(valuePredicates != null ? valuePredicates.get(i) : null);
 						iterators[1].setFieldName(vfn);
 					} else {
 						iterators[1].addReader(
-								field.queryReader(valuePredicates != null ? valuePredicates.get(i) : null, readLock)
+								field.queryReader(valuePredicates != null ? valuePredicates.get(i) : null)
 										.getReaders());
 					}
 				}
@@ -329,14 +490,14 @@ public class Series {
 			Map<String, Field> map = entry.getValue();
 			Field timeField = map.get(TS);
 			if (length > valueFieldBucketNames.size()) {
-				output[length - 1].addReader(timeField.queryReader(timeRangePredicate, readLock).getReaders());
+				output[length - 1].addReader(timeField.queryReader(timeRangePredicate).getReaders());
 			}
 			for (int i = 0; i < valueFieldBucketNames.size(); i++) {
 				String vfn = valueFieldBucketNames.get(i);
 				Field field = map.get(vfn);
 				if (field != null) {
 					Predicate predicate = valuePredicates != null ? valuePredicates.get(i) : null;
-					output[i].addReader(field.queryReader(predicate, readLock).getReaders());
+					output[i].addReader(field.queryReader(predicate).getReaders());
 					output[i].setFieldName(vfn);
 				}
 			}
@@ -358,31 +519,47 @@ public class Series {
 		List<long[]> points = new ArrayList<>();
 		for (Map<String, Field> map : correctTimeRangeScan.values()) {
 			Field timeField = map.get(TS);
+			if (!canMatch(timeField, timeRangePredicate) || !canMatch(map, valueFieldBucketNames, valuePredicate)) {
+				continue;
+			}
 			FieldReaderIterator[] iterators = new FieldReaderIterator[valueFieldBucketNames.size() + 1];
-			iterators[0] = timeField.queryReader(timeRangePredicate, readLock);
+			iterators[0] = timeField.queryReader(timeRangePredicate);
 			for (int i = 0; i < valueFieldBucketNames.size(); i++) {
 				String vfn = valueFieldBucketNames.get(i);
 				Field field = map.get(vfn);
 				if (field != null) {
-					iterators[i + 1] = field.queryReader(valuePredicate != null ? valuePredicate.get(i) : null,
-							readLock);
-				}
-			}
-			while (true) {
-				try {
-					long[] tuple = FieldReaderIterator.extracted(iterators);
-					points.add(tuple);
-				} catch (FilteredValueException e) {
-					// ignore this
-				} catch (IOException e) {
-					// terminate read loop
-					break;
+					iterators[i + 1] = field.queryReader(valuePredicate != null ? valuePredicate.get(i) : null);
 				}
 			}
+			FieldReaderIterator.readerToTuples(iterators, points);
 		}
 		return points;
 	}
 
+	private boolean canMatch(Field field, Predicate predicate) throws IOException {
+		if (field == null) {
+			// the bucket is being created by a concurrent write, it has no points yet
+			return false;
+		} else if (predicate == null) {
+			return true;
+		}
+		return field.getStats().canMatch(predicate);
+	}
+
+	private boolean canMatch(Map<String, Field> map, List<String> valueFieldBucketNames, List<Predicate> predicates)
+			throws IOException {
+		if (predicates == null) {
+			return true;
+		}
+		for (int i = 0; i < valueFieldBucketNames.size(); i++) {
+			Field field = map.get(valueFieldBucketNames.get(i));
+			if (field != null && !canMatch(field, predicates.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	private SortedMap<Integer, Map<String, Field>> correctTimeRangeScan(long startTime, long endTime,
 			int timeBucketSize) {
 		if (startTime < 0) {
@@ -390,6 +567,10 @@ public class Series {
 		}
 		int tsStartBucket = TimeUtils.getTimeBucket(TimeUnit.MILLISECONDS, startTime, timeBucketSize) - timeBucketSize;
 		int tsEndBucket = TimeUtils.getTimeBucket(TimeUnit.MILLISECONDS, endTime, timeBucketSize);
+		if (bucketFieldMap.isEmpty()) {
+			// queries may run before the first point is written
+			return bucketFieldMap;
+		}
 		if (tsStartBucket - bucketFieldMap.firstKey() < 0) {
 			tsStartBucket = bucketFieldMap.firstKey();
 			logger.finest(() -> "Corrected query startKey to:" + bucketFieldMap.firstKey());
@@ -452,23 +633,144 @@ public class Series {
 		return compact;
 	}
 
-	public SortedMap<Integer, Map<String, Field>> getBucketMap() {
-		return bucketFieldMap;
+	/**
+	 * Relocate the read-only buffers of this series whose ids are in the supplied
+	 * set
+	 * 
+	 * @param measurement
+	 * @param bufferIds
+	 * @return number of relocated buffers
+	 * @throws IOException
+	 */
+	public int relocate(Measurement measurement, Set<String> bufferIds) throws IOException {
+		int count = 0;
+		for (Map<String, Field> map : bucketFieldMap.values()) {
+			for (Field field : map.values()) {
+				count += field.relocate(measurement, writeLock, bufferIds);
+			}
+		}
+		return count;
 	}
 
-	protected int getFieldMapIndex() {
-		return fieldMapIndex;
+	/**
+	 * Seal the last buffer of fields in time buckets older than both the latest
+	 * bucket of this series and the current time bucket if its id is in the
+	 * supplied set, so that it can be relocated. Late points written to those
+	 * buckets go to a new buffer.
+	 * 
+	 * @param measurement
+	 * @param bufferIds
+	 * @return number of sealed buffers
+	 */
+	public int sealClosedBuckets(Measurement measurement, Set<String> bufferIds) {
+		int count = 0;
+		writeLock.lock();
+		try {
+			if (bucketFieldMap.isEmpty()) {
+				return 0;
+			}
+			int latest = Math.max(bucketFieldMap.lastKey(), getTimeBucketInt(TimeUnit.MILLISECONDS,
+					System.currentTimeMillis(), measurement.getTimeBucketSize()));
+			for (Entry<Integer, Map<String, Field>> entry : bucketFieldMap.entrySet()) {
+				if (entry.getKey() >= latest) {
+					continue;
+				}
+				for (Field field : entry.getValue().values()) {
+					List<? extends Writer> writers = field.getWriters();
+					if (writers.isEmpty()) {
+						continue;
+					}
+					Writer last = writers.get(writers.size() - 1);
+					if (!last.isFull() && bufferIds.contains(last.getBufferId().toString())) {
+						last.seal();
+						count++;
+					}
+				}
+			}
+		} finally {
+			writeLock.unlock();
+		}
+		return count;
 	}
 
-	protected ReentrantReadWriteLock getLock() {
-		return lock;
+	/**
+	 * Rows of the columns of a bucket as they were recovered, see
+	 * {@link Series#replayPoints(List, Measurement)}
+	 */
+	private static final class RecoveredRows {
+
+		private final Map<String, Field> fields;
+		private final Map<Long, Deque<Integer>> timestampRows;
+		private final Map<String, Integer> counts;
+		private int rows;
+
+		private RecoveredRows(Map<String, Field> fields) throws IOException {
+			this.fields = fields;
+			this.timestampRows = new HashMap<>();
+			this.counts = new HashMap<>();
+			Field timeField = fields.get(TS);
+			if (timeField != null) {
+				for (Reader reader : timeField.queryReader(null).getReaders()) {
+					for (int i = 0; i < reader.getCount(); i++) {
+						timestampRows.computeIfAbsent(reader.read(), k -> new ArrayDeque<>()).add(rows++);
+					}
+				}
+			}
+		}
+
+		/**
+		 * @param timestamp
+		 * @return the first row of the time column holding the timestamp that
+		 *         hasn't been matched yet, -1 if there is none
+		 */
+		private int find(long timestamp) {
+			Deque<Integer> queue = timestampRows.get(timestamp);
+			return queue == null || queue.isEmpty() ? -1 : queue.poll();
+		}
+
+		private int append() {
+			return rows++;
+		}
+
+		/**
+		 * @param fieldName
+		 * @return number of values in the column, it must be looked up before a
+		 *         value is added to it
+		 */
+		private int count(String fieldName) {
+			Integer count = counts.get(fieldName);
+			if (count == null) {
+				count = 0;
+				Field field = fields.get(fieldName);
+				if (field != null) {
+					for (Writer writer : field.getWriters()) {
+						count += writer.getCount();
+					}
+				}
+				counts.put(fieldName, count);
+			}
+			return count;
+		}
+
+		private void increment(String fieldName) {
+			counts.put(fieldName, count(fieldName) + 1);
+		}
+
 	}
 
-	protected ReadLock getReadLock() {
-		return readLock;
+	public SortedMap<Integer, Map<String, Field>> getBucketMap() {
+		return bucketFieldMap;
 	}
 
-	protected WriteLock getWriteLock() {
+	protected int getFieldMapIndex() {
+		return fieldMapIndex;
+	}
+
+	/**
+	 * @return lock serializing locking writers with compaction and garbage
+	 *         collection, never taken by queries
+	 */
+	protected ReentrantLock getWriteLock() {
 		return writeLock;
 	}
 
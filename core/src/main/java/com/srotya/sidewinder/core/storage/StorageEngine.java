@@ -19,10 +19,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
@@ -118,6 +120,54 @@ public interface StorageEngine {
 		getCounter().inc(dp.getValueList().size());
 	}
 
+	/**
+	 * Write a batch of points with locking, see
+	 * {@link #writeBatch(List, boolean, boolean)}
+	 * 
+	 * @param points
+	 * @param preSorted
+	 * @throws IOException
+	 */
+	public default void writeBatch(List<Point> points, boolean preSorted) throws IOException {
+		writeBatch(points, preSorted, true);
+	}
+
+	/**
+	 * Write a batch of points, the batch is validated before any point is
+	 * written. Points are grouped by measurement so each measurement is resolved
+	 * once and receives all of its points in a single call.
+	 * 
+	 * @param points
+	 * @param preSorted
+	 * @param locking
+	 *            false only if the caller is the single writer of the series of
+	 *            these points
+	 * @throws IOException
+	 */
+	public default void writeBatch(List<Point> points, boolean preSorted, boolean locking) throws IOException {
+		Map<String, Map<String, List<Point>>> batch = new HashMap<>();
+		for (Point dp : points) {
+			StorageEngine.validatePoint(dp);
+			batch.computeIfAbsent(dp.getDbName(), k -> new HashMap<>())
+					.computeIfAbsent(dp.getMeasurementName(), k -> new ArrayList<>()).add(dp);
+		}
+		for (Entry<String, Map<String, List<Point>>> db : batch.entrySet()) {
+			for (Entry<String, List<Point>> entry : db.getValue().entrySet()) {
+				Measurement m = getOrCreateMeasurement(db.getKey(), entry.getKey());
+				if (locking) {
+					m.addPointsWithLocking(entry.getValue(), preSorted);
+				} else {
+					m.addPointsWithoutLocking(entry.getValue(), preSorted);
+				}
+				int values = 0;
+				for (Point dp : entry.getValue()) {
+					values += dp.getValueCount();
+				}
+				getCounter().inc(values);
+			}
+		}
+	}
+
 	/**
 	 * Query timeseries from the storage engine given the supplied attributes.
 	 * 
@@ -0,0 +1,208 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.regex.Pattern;
+
+import org.roaringbitmap.buffer.BufferFastAggregation;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
+import com.srotya.sidewinder.core.filters.ComplexTagFilter;
+import com.srotya.sidewinder.core.filters.ComplexTagFilter.ComplexFilterType;
+import com.srotya.sidewinder.core.filters.SimpleTagFilter;
+import com.srotya.sidewinder.core.filters.TagFilter;
+
+/**
+ * Evaluates {@link TagFilter} trees against an inverted index of tag key to
+ * tag value to bitmap of series indices.<br>
+ * <br>
+ * Children of an AND are evaluated cheapest first, the cost of a filter being
+ * an upper bound of its result size, i.e. the cardinality of its postings for
+ * a simple filter, the smallest child for an AND and the sum of the children
+ * for an OR. The intersection stops as soon as it's empty and range filters
+ * are only intersected with the result so far rather than materialized. The
+ * postings of an OR are combined in a single aggregation. LIKE filters only
+ * apply the regex to the candidate values of a {@link TagValueMap}. Postings
+ * of the index are never modified, the result is always a new bitmap.
+ * 
+ * @author ambud
+ */
+public final class TagFilterEvaluator {
+
+	private static final Comparator<Term> COST_ORDER = (o1, o2) -> Long.compare(o1.cost, o2.cost);
+
+	private TagFilterEvaluator() {
+	}
+
+	/**
+	 * @param filter
+	 * @param index
+	 * @return indices of the series matching the filter, owned by the caller
+	 */
+	public static MutableRoaringBitmap evaluate(TagFilter filter,
+			Map<String, SortedMap<String, MutableRoaringBitmap>> index) {
+		return evaluate(term(filter, index));
+	}
+
+	private static MutableRoaringBitmap evaluate(Term term) {
+		if (term.postings != null) {
+			return union(term.postings);
+		}
+		List<Term> children = term.children;
+		if (term.type == ComplexFilterType.OR) {
+			List<ImmutableRoaringBitmap> bitmaps = new ArrayList<>();
+			for (Term child : children) {
+				if (child.postings != null) {
+					bitmaps.addAll(child.postings);
+				} else if (child.cost > 0) {
+					bitmaps.add(evaluate(child));
+				}
+			}
+			return union(bitmaps);
+		}
+		Collections.sort(children, COST_ORDER);
+		MutableRoaringBitmap result = null;
+		for (Term child : children) {
+			if (child.cost == 0) {
+				return new MutableRoaringBitmap();
+			}
+			if (result == null) {
+				result = evaluate(child);
+			} else if (child.postings == null) {
+				result.and(evaluate(child));
+			} else if (child.postings.size() == 1) {
+				result.and(child.postings.iterator().next());
+			} else {
+				// only the part of each posting overlapping the result is materialized
+				List<ImmutableRoaringBitmap> parts = new ArrayList<>(child.postings.size());
+				for (ImmutableRoaringBitmap posting : child.postings) {
+					parts.add(ImmutableRoaringBitmap.and(result, posting));
+				}
+				result = union(parts);
+			}
+			if (result.isEmpty()) {
+				break;
+			}
+		}
+		return result != null ? result : new MutableRoaringBitmap();
+	}
+
+	private static MutableRoaringBitmap union(Collection<? extends ImmutableRoaringBitmap> bitmaps) {
+		if (bitmaps.isEmpty()) {
+			return new MutableRoaringBitmap();
+		} else if (bitmaps.size() == 1) {
+			return bitmaps.iterator().next().toMutableRoaringBitmap();
+		}
+		return BufferFastAggregation.or(bitmaps.toArray(new ImmutableRoaringBitmap[bitmaps.size()]));
+	}
+
+	private static Term term(TagFilter filter, Map<String, SortedMap<String, MutableRoaringBitmap>> index) {
+		if (filter instanceof SimpleTagFilter) {
+			SimpleTagFilter simple = (SimpleTagFilter) filter;
+			SortedMap<String, MutableRoaringBitmap> map = index.get(simple.getTagKey());
+			Collection<MutableRoaringBitmap> postings = map != null ? postings(simple, map)
+					: Collections.<MutableRoaringBitmap>emptyList();
+			long cost = 0;
+			for (MutableRoaringBitmap posting : postings) {
+				cost += posting.getCardinality();
+			}
+			return new Term(null, postings, null, cost);
+		}
+		ComplexTagFilter complex = (ComplexTagFilter) filter;
+		List<Term> children = new ArrayList<>(complex.getFilters().size());
+		long cost = complex.getType() == ComplexFilterType.AND ? Long.MAX_VALUE : 0;
+		for (TagFilter child : complex.getFilters()) {
+			Term childTerm = term(child, index);
+			children.add(childTerm);
+			cost = complex.getType() == ComplexFilterType.AND ? Math.min(cost, childTerm.cost) : cost + childTerm.cost;
+		}
+		return new Term(complex.getType(), null, children, children.isEmpty() ? 0 : cost);
+	}
+
+	/**
+	 * @param filter
+	 * @param map
+	 *            tag values of the filter's tag key
+	 * @return postings of the tag values matching the filter
+	 */
+	public static Collection<MutableRoaringBitmap> postings(SimpleTagFilter filter,
+			SortedMap<String, MutableRoaringBitmap> map) {
+		String value = filter.getComparedValue();
+		switch (filter.getFilterType()) {
+		case EQUALS:
+			MutableRoaringBitmap posting = map.get(value);
+			return posting != null ? Collections.singletonList(posting) : Collections.emptyList();
+		case GREATER_THAN:
+			// the smallest string greater than value
+			return map.tailMap(value + '\0').values();
+		case GREATER_THAN_EQUALS:
+			return map.tailMap(value).values();
+		case LESS_THAN:
+			return map.headMap(value).values();
+		case LESS_THAN_EQUALS:
+			return map.headMap(value + '\0').values();
+		case LIKE:
+			List<MutableRoaringBitmap> output = new ArrayList<>();
+			Pattern p = Pattern.compile(value);
+			Collection<String> candidates = map instanceof TagValueMap ? ((TagValueMap) map).getCandidates(value)
+					: null;
+			if (candidates == null) {
+				for (Entry<String, MutableRoaringBitmap> entry : map.entrySet()) {
+					if (p.matcher(entry.getKey()).matches()) {
+						output.add(entry.getValue());
+					}
+				}
+			} else {
+				// only values containing the literals of the regex can match
+				for (String candidate : candidates) {
+					MutableRoaringBitmap candidatePosting = map.get(candidate);
+					if (candidatePosting != null && p.matcher(candidate).matches()) {
+						output.add(candidatePosting);
+					}
+				}
+			}
+			return output;
+		}
+		return Collections.emptyList();
+	}
+
+	private static final class Term {
+
+		private final ComplexFilterType type;
+		private final Collection<MutableRoaringBitmap> postings;
+		private final List<Term> children;
+		private final long cost;
+
+		private Term(ComplexFilterType type, Collection<MutableRoaringBitmap> postings, List<Term> children,
+				long cost) {
+			this.type = type;
+			this.postings = postings;
+			this.children = children;
+			this.cost = cost;
+		}
+
+	}
+
+}
@@ -20,6 +20,8 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
 import com.srotya.sidewinder.core.filters.TagFilter;
 
 /**
@@ -41,12 +43,40 @@ public interface TagIndex {
 	 */
 	public void index(String tag, String value, int rowIndex) throws IOException;
 
+	/**
+	 * Remove a row from the entries of a tag, used to roll back the entries of a
+	 * series whose registration failed. Rows that aren't indexed are ignored.
+	 * 
+	 * @param tag
+	 * @param value
+	 * @param rowIndex
+	 * @throws IOException
+	 */
+	public void unindex(String tag, String value, int rowIndex) throws IOException;
+
 	public void close() throws IOException;
 
+	/**
+	 * Make the index entries written so far durable
+	 * 
+	 * @throws IOException
+	 */
+	public default void sync() throws IOException {
+	}
+
 	public int getSize();
 
 	public Set<ByteString> searchRowKeysForTagFilter(TagFilter tagFilterTree);
 
+	/**
+	 * Evaluate the tag filter to the positions of the matching series in the
+	 * series list of the measurement
+	 * 
+	 * @param tagFilterTree
+	 * @return bitmap of series indices, owned by the caller
+	 */
+	public MutableRoaringBitmap searchSeriesIndices(TagFilter tagFilterTree);
+
 	public Collection<String> getTagValues(String tagKey);
 
 	public static Set<ByteString> stringSetToByteSet(Set<String> input, Set<ByteString> output) {
@@ -0,0 +1,320 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
+/**
+ * Tag values of a tag key with their postings, plus a trigram index of the
+ * values so that regex filters only evaluate values that can match.<br>
+ * <br>
+ * Literal runs that every match of a regex must contain are extracted from
+ * it, candidates are the values containing all trigrams of these runs. A
+ * regex with only a short literal prefix uses the sorted range of the prefix
+ * instead. Candidates are a superset of the matches, the regex still has to be
+ * applied to them. Values are indexed when they are added with
+ * {@link #put(String, MutableRoaringBitmap)} or
+ * {@link #putIfAbsent(String, MutableRoaringBitmap)}.
+ * 
+ * @author ambud
+ */
+public class TagValueMap extends ConcurrentSkipListMap<String, MutableRoaringBitmap> {
+
+	private static final long serialVersionUID = 1L;
+	private static final int GRAM = 3;
+	private final List<String> values = new ArrayList<>();
+	private final Map<String, MutableRoaringBitmap> trigrams = new HashMap<>();
+
+	@Override
+	public MutableRoaringBitmap put(String key, MutableRoaringBitmap value) {
+		MutableRoaringBitmap previous = super.put(key, value);
+		if (previous == null) {
+			indexValue(key);
+		}
+		return previous;
+	}
+
+	@Override
+	public MutableRoaringBitmap putIfAbsent(String key, MutableRoaringBitmap value) {
+		MutableRoaringBitmap previous = super.putIfAbsent(key, value);
+		if (previous == null) {
+			indexValue(key);
+		}
+		return previous;
+	}
+
+	private synchronized void indexValue(String value) {
+		int id = values.size();
+		values.add(value);
+		for (int i = 0; i + GRAM <= value.length(); i++) {
+			trigrams.computeIfAbsent(value.substring(i, i + GRAM), k -> new MutableRoaringBitmap()).add(id);
+		}
+	}
+
+	/**
+	 * @param regex
+	 * @return tag values that may match the regex, null if the regex has no
+	 *         literal the candidates can be narrowed with
+	 */
+	public Collection<String> getCandidates(String regex) {
+		List<String> literals = new ArrayList<>();
+		String prefix = extractLiterals(regex, literals);
+		List<String> candidates = getTrigramCandidates(literals);
+		if (candidates != null) {
+			return candidates;
+		} else if (!prefix.isEmpty()) {
+			return subMap(prefix, prefix + Character.MAX_VALUE).keySet();
+		}
+		return null;
+	}
+
+	private synchronized List<String> getTrigramCandidates(List<String> literals) {
+		MutableRoaringBitmap ids = null;
+		for (String literal : literals) {
+			for (int i = 0; i + GRAM <= literal.length(); i++) {
+				MutableRoaringBitmap posting = trigrams.get(literal.substring(i, i + GRAM));
+				if (posting == null) {
+					return Collections.emptyList();
+				}
+				if (ids == null) {
+					ids = posting.clone();
+				} else {
+					ids.and(posting);
+				}
+				if (ids.isEmpty()) {
+					return Collections.emptyList();
+				}
+			}
+		}
+		if (ids == null) {
+			return null;
+		}
+		List<String> candidates = new ArrayList<>(ids.getCardinality());
+		for (IntIterator itr = ids.getIntIterator(); itr.hasNext();) {
+			candidates.add(values.get(itr.next()));
+		}
+		return candidates;
+	}
+
+	/**
+	 * Collect the literal runs every match of the regex contains. Parsing is
+	 * conservative, it stops at groups and gives up on alternations and unknown
+	 * escape sequences.
+	 * 
+	 * @param regex
+	 * @param literals
+	 *            output of the literal runs
+	 * @return literal prefix of every match, empty if there's none
+	 */
+	public static String extractLiterals(String regex, List<String> literals) {
+		if (hasAlternation(regex)) {
+			return "";
+		}
+		String prefix = "";
+		boolean prefixOpen = true;
+		boolean lastLiteral = false;
+		StringBuilder run = new StringBuilder();
+		int i = regex.startsWith("^") ? 1 : 0;
+		loop: while (i < regex.length()) {
+			char c = regex.charAt(i);
+			switch (c) {
+			case '\\':
+				if (i + 1 < regex.length() && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+					// escaped meta character
+					run.append(regex.charAt(i + 1));
+					lastLiteral = true;
+					i += 2;
+				} else if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+					break loop;
+				} else {
+					// character class like \d, back reference or a character given by its
+					// code like \x2D, none of the characters of the sequence are literals
+					int end = skipEscape(regex, i);
+					if (end < 0) {
+						literals.clear();
+						return "";
+					}
+					prefix = endRun(run, literals, prefix, prefixOpen);
+					prefixOpen = false;
+					lastLiteral = false;
+					i = end;
+				}
+				break;
+			case '*':
+			case '?':
+			case '{':
+				if (lastLiteral) {
+					// the quantified character is optional
+					run.setLength(run.length() - 1);
+				}
+				if (c == '{') {
+					int end = regex.indexOf('}', i);
+					i = end < 0 ? regex.length() : end;
+				}
+				prefix = endRun(run, literals, prefix, prefixOpen);
+				prefixOpen = false;
+				lastLiteral = false;
+				i++;
+				break;
+			case '[':
+				i = skipCharacterClass(regex, i);
+				prefix = endRun(run, literals, prefix, prefixOpen);
+				prefixOpen = false;
+				lastLiteral = false;
+				break;
+			case '(':
+				break loop;
+			case '.':
+			case '+':
+			case '^':
+			case '$':
+			case ')':
+			case ']':
+			case '}':
+				prefix = endRun(run, literals, prefix, prefixOpen);
+				prefixOpen = false;
+				lastLiteral = false;
+				i++;
+				break;
+			default:
+				run.append(c);
+				lastLiteral = true;
+				i++;
+			}
+		}
+		return endRun(run, literals, prefix, prefixOpen);
+	}
+
+	private static String endRun(StringBuilder run, List<String> literals, String prefix, boolean prefixOpen) {
+		if (run.length() > 0) {
+			String literal = run.toString();
+			literals.add(literal);
+			run.setLength(0);
+			if (prefixOpen) {
+				return literal;
+			}
+		}
+		return prefix;
+	}
+
+	private static int skipCharacterClass(String regex, int start) {
+		int i = start + 1;
+		if (i < regex.length() && regex.charAt(i) == '^') {
+			i++;
+		}
+		if (i < regex.length() && regex.charAt(i) == ']') {
+			// a leading ] is part of the class
+			i++;
+		}
+		int depth = 1;
+		while (i < regex.length() && depth > 0) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '[') {
+				depth++;
+			} else if (c == ']') {
+				depth--;
+			}
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * @param regex
+	 * @param start
+	 *            index of the backslash
+	 * @return index after the escape sequence, -1 if it isn't known
+	 */
+	private static int skipEscape(String regex, int start) {
+		int i = start + 1;
+		if (i >= regex.length()) {
+			return -1;
+		}
+		char c = regex.charAt(i++);
+		switch (c) {
+		case 'x':
+			if (i < regex.length() && regex.charAt(i) == '{') {
+				int end = regex.indexOf('}', i);
+				return end < 0 ? -1 : end + 1;
+			}
+			return skipDigits(regex, i, 16, 2, 2);
+		case 'u':
+			return skipDigits(regex, i, 16, 4, 4);
+		case '0':
+			// \0n, \0nn or \0mnn with m <= 3
+			int max = i < regex.length() && regex.charAt(i) <= '3' ? 3 : 2;
+			return skipDigits(regex, i, 8, 1, max);
+		case 'c':
+			return i < regex.length() ? i + 1 : -1;
+		case 'k':
+			if (i < regex.length() && regex.charAt(i) == '<') {
+				int end = regex.indexOf('>', i);
+				return end < 0 ? -1 : end + 1;
+			}
+			return -1;
+		case 'p':
+		case 'P':
+			if (i < regex.length() && regex.charAt(i) == '{') {
+				int end = regex.indexOf('}', i);
+				return end < 0 ? -1 : end + 1;
+			}
+			return i < regex.length() ? i + 1 : -1;
+		default:
+			if (c >= '1' && c <= '9') {
+				// back reference
+				while (i < regex.length() && Character.isDigit(regex.charAt(i))) {
+					i++;
+				}
+				return i;
+			} else if ("dDsSwWhHvVbBAGzZRXtnrfae".indexOf(c) >= 0) {
+				return i;
+			}
+			return -1;
+		}
+	}
+
+	private static int skipDigits(String regex, int start, int radix, int min, int max) {
+		int i = start;
+		while (i < regex.length() && i - start < max && Character.digit(regex.charAt(i), radix) >= 0) {
+			i++;
+		}
+		return i - start < min ? -1 : i;
+	}
+
+	private static boolean hasAlternation(String regex) {
+		for (int i = 0; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '|') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -23,6 +23,7 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.locks.Lock;
 import java.util.function.Consumer;
 import java.util.logging.Level;
@@ -54,12 +55,16 @@ public class TimeField implements Field {
 
 	private static final int START_OFFSET = 2;
 	private static final Logger logger = Logger.getLogger(TimeField.class.getName());
-	private List<TimeWriter> writerList;
+	/**
+	 * immutable snapshot of the writers, structural changes publish a new list
+	 */
+	private volatile List<TimeWriter> writerList;
 	private LinkedByteString fieldId;
 	public static double compactionRatio = 0.8;
 	public static Class<TimeWriter> compressionClass = CompressionFactory.getTimeClassByName("byzantine");
 	public static Class<TimeWriter> compactionClass = CompressionFactory.getTimeClassByName("gorilla");
 	private int tsBucket;
+	private long previousBucketBytes;
 
 	/**
 	 * @param measurement
@@ -70,7 +75,7 @@ public class TimeField implements Field {
 	 */
 	public TimeField(Measurement measurement, LinkedByteString fieldId, int tsBucket, Map<String, String> conf)
 			throws IOException {
-		writerList = Collections.synchronizedList(new ArrayList<>(4));
+		writerList = Collections.emptyList();
 		this.fieldId = fieldId;
 		this.tsBucket = tsBucket;
 		checkAndEnableMethodProfiling();
@@ -83,29 +88,36 @@ public class TimeField implements Field {
 	}
 
 	private TimeWriter getOrCreateTimeWriter(Measurement measurement, long timestamp) throws IOException {
+		List<TimeWriter> list = writerList;
 		TimeWriter ans = null;
-		if (writerList.isEmpty()) {
-			ans = createNewWriter(measurement, tsBucket, writerList, timestamp);
+		if (list.isEmpty()) {
+			ans = createNewWriter(measurement, tsBucket, timestamp);
 		} else {
-			ans = writerList.get(writerList.size() - 1);
+			ans = list.get(list.size() - 1);
 		}
 		if (ans.isFull()) {
 			final TimeWriter ansTmp = ans;
-			logger.fine(() -> "Requesting new writer for:" + fieldId + " bucketcount:" + writerList.size() + " pos:"
+			logger.fine(() -> "Requesting new writer for:" + fieldId + " bucketcount:" + list.size() + " pos:"
 					+ ansTmp.getPosition());
-			ans = createNewWriter(measurement, tsBucket, writerList, timestamp);
+			ans = createNewWriter(measurement, tsBucket, timestamp);
 		}
 		if (StorageEngine.ENABLE_METHOD_METRICS) {
 		}
 		return ans;
 	}
 
-	private TimeWriter createNewWriter(Measurement measurement, int tsBucket, List<TimeWriter> list, long timestamp)
+	private synchronized TimeWriter createNewWriter(Measurement measurement, int tsBucket, long timestamp)
 			throws IOException {
 		if (StorageEngine.ENABLE_METHOD_METRICS) {
 			// ctx = timerCreateWriter.time();
 		}
-		BufferObject bufPair = measurement.getMalloc().createNewBuffer(fieldId, tsBucket);
+		List<TimeWriter> list = writerList;
+		if (!list.isEmpty() && !list.get(list.size() - 1).isFull()) {
+			// another thread already rolled the writer over
+			return list.get(list.size() - 1);
+		}
+		int size = measurement.getMalloc().getBufferSizePolicy().nextBufferSize(list, previousBucketBytes);
+		BufferObject bufPair = measurement.getMalloc().createNewBuffer(fieldId, tsBucket, size);
 		bufPair.getBuf().put((byte) CompressionFactory.getIdByTimeClass(compressionClass));
 		bufPair.getBuf().put((byte) list.size());
 		TimeWriter writer;
@@ -114,7 +126,10 @@ public class TimeField implements Field {
 		// first byte is used to store compression codec type
 		writer.configure(bufPair.getBuf(), true, START_OFFSET);
 		writer.setHeaderTimestamp(timestamp);
-		list.add(writer);
+		List<TimeWriter> newList = new ArrayList<>(list.size() + 1);
+		newList.addAll(list);
+		newList.add(writer);
+		writerList = Collections.unmodifiableList(newList);
 		logger.fine(() -> "Created new writer for:" + tsBucket + " buckectInfo:" + bufPair.getBufferId());
 		if (StorageEngine.ENABLE_METHOD_METRICS) {
 			// ctx.stop();
@@ -140,6 +155,7 @@ public class TimeField implements Field {
 	 */
 	public void loadBucketMap(Measurement measurement, List<BufferObject> bufferEntries) throws IOException {
 		logger.fine(() -> "Scanning buffer for:" + fieldId);
+		List<TimeWriter> loaded = new ArrayList<>();
 		for (BufferObject entry : bufferEntries) {
 			ByteBuffer duplicate = entry.getBuf();
 			duplicate.rewind();
@@ -155,23 +171,27 @@ public class TimeField implements Field {
 			logger.fine(() -> "Loading bucketmap:" + fieldId + "\t" + tsBucket + "bufferid:" + entry.getBufferId());
 			writer.setBufferId(repairedBufferId);
 			writer.configure(slice, false, START_OFFSET);
-			// TODO Potential bug
-			writerList.add(writer);
+			loaded.add(writer);
 			logger.fine(() -> "Loaded bucketmap:" + fieldId + "\t" + " bufferid:" + entry.getBufferId());
 		}
-		sortBucketMap();
+		synchronized (this) {
+			List<TimeWriter> list = new ArrayList<>(writerList);
+			list.addAll(loaded);
+			sortBucketMap(list);
+			writerList = Collections.unmodifiableList(list);
+		}
 	}
 
-	private void sortBucketMap() throws IOException {
-		Collections.sort(writerList, new Comparator<TimeWriter>() {
+	private void sortBucketMap(List<TimeWriter> list) throws IOException {
+		Collections.sort(list, new Comparator<TimeWriter>() {
 
 			@Override
 			public int compare(TimeWriter o1, TimeWriter o2) {
 				return Integer.compare((int) o1.getRawBytes().get(1), (int) o2.getRawBytes().get(1));
 			}
 		});
-		for (int i = 0; i < writerList.size() - 1; i++) {
-			TimeWriter writer = writerList.get(i);
+		for (int i = 0; i < list.size() - 1; i++) {
+			TimeWriter writer = list.get(i);
 			writer.makeReadOnly(true);
 		}
 	}
@@ -195,17 +215,14 @@ public class TimeField implements Field {
 	 * Each {@link DataPoint} has the appendFieldValue and appendTags set in it.
 	 * 
 	 * @param predicate
-	 * @param readLock
 	 * @return
 	 * @throws IOException
 	 */
-	public FieldReaderIterator queryReader(Predicate predicate, Lock readLock) throws IOException {
+	public FieldReaderIterator queryReader(Predicate predicate) throws IOException {
 		List<Reader> readers = new ArrayList<>();
-		readLock.lock();
 		for (TimeWriter writer : writerList) {
 			readers.add(getReader(writer, predicate));
 		}
-		readLock.unlock();
 		return new FieldReaderIterator(Series.TS).addReader(readers);
 	}
 
@@ -256,6 +273,11 @@ public class TimeField implements Field {
 		return writerList;
 	}
 
+	@Override
+	public void setPreviousBucketBytes(long bytes) {
+		this.previousBucketBytes = bytes;
+	}
+
 	/**
 	 * @return the seriesId
 	 */
@@ -369,24 +391,38 @@ public class TimeField implements Field {
 		writer.makeReadOnly(false);
 
 		writeLock.lock();
-		if (functions != null) {
-			for (Consumer<List<? extends Writer>> function : functions) {
-				function.accept(list);
+		try {
+			synchronized (this) {
+				// writers may only have been appended to the snapshot while compacting
+				List<TimeWriter> current = writerList;
+				for (int i = 0; i < listSize; i++) {
+					if (current.get(i) != list.get(i)) {
+						logger.warning("Writers changed during compaction, discarding compacted buffer:" + fieldId);
+						return null;
+					}
+				}
+				if (functions != null) {
+					for (Consumer<List<? extends Writer>> function : functions) {
+						function.accept(current);
+					}
+				}
+				logger.finest("Compaction debug size differences listSize:" + listSize + " curr:" + current.size());
+				for (int i = listSize - 1; i >= 0; i--) {
+					compactedWriter.add(current.get(i));
+				}
+				List<TimeWriter> newList = new ArrayList<>(current.size() - listSize + 1);
+				newList.add(writer);
+				newList.addAll(current.subList(listSize, current.size()));
+				for (int i = 0; i < newList.size(); i++) {
+					newList.get(i).getRawBytes().put(1, (byte) i);
+				}
+				writerList = Collections.unmodifiableList(newList);
+				logger.fine("Total points:" + compactedPoints + ", original pair count:" + writer.getReader().getCount()
+						+ " compression ratio:" + rawBytes.position() + " original:" + total);
 			}
+		} finally {
+			writeLock.unlock();
 		}
-		size = listSize - 1;
-		logger.finest(
-				"Compaction debug size differences size:" + size + " listSize:" + listSize + " curr:" + list.size());
-		for (int i = size; i >= 0; i--) {
-			compactedWriter.add(list.remove(i));
-		}
-		list.add(0, writer);
-		for (int i = 0; i < list.size(); i++) {
-			list.get(i).getRawBytes().put(1, (byte) i);
-		}
-		logger.fine("Total points:" + compactedPoints + ", original pair count:" + writer.getReader().getCount()
-				+ " compression ratio:" + rawBytes.position() + " original:" + total);
-		writeLock.unlock();
 
 		if (StorageEngine.ENABLE_METHOD_METRICS) {
 			// ctx.stop();
@@ -405,10 +441,12 @@ public class TimeField implements Field {
 	 */
 	public void replaceFirstBuckets(Measurement measurement, List<byte[]> bufList)
 			throws IOException, InstantiationException, IllegalAccessException {
-		synchronized (writerList) {
+		synchronized (this) {
+			List<TimeWriter> list = new ArrayList<>(writerList);
 			// insert writers to list
-			List<String> cleanupList = insertOrOverwriteWriters(measurement, bufList, writerList.size() == 0,
-					writerList, tsBucket);
+			List<String> cleanupList = insertOrOverwriteWriters(measurement, bufList, list.size() == 0, list,
+					tsBucket);
+			writerList = Collections.unmodifiableList(list);
 			measurement.getMalloc().cleanupBufferIds(new HashSet<>(cleanupList));
 		}
 	}
@@ -441,6 +479,45 @@ public class TimeField implements Field {
 		return garbageCollectWriters;
 	}
 
+	@Override
+	public int relocate(Measurement measurement, Lock writeLock, Set<String> bufferIds) throws IOException {
+		writeLock.lock();
+		try {
+			synchronized (this) {
+				List<TimeWriter> list = new ArrayList<>(writerList);
+				int count = 0;
+				// the last writer may still be appended to by writers that don't lock unless
+				// it's full
+				int end = list.isEmpty() || !list.get(list.size() - 1).isFull() ? list.size() - 1 : list.size();
+				for (int i = 0; i < end; i++) {
+					TimeWriter original = list.get(i);
+					if (!bufferIds.contains(original.getBufferId().toString())) {
+						continue;
+					}
+					BufferObject relocated = measurement.getMalloc().relocateBuffer(original.getBufferId(),
+							original.getRawBytes());
+					ByteBuffer buf = relocated.getBuf();
+					TimeWriter writer = getWriterInstance(CompressionFactory.getTimeClassById(buf.get(0)));
+					writer.setBufferId(relocated.getBufferId());
+					writer.configure(buf, false, START_OFFSET);
+					writer.makeReadOnly(true);
+					if (original.isFull()) {
+						writer.seal();
+					}
+					list.set(i, writer);
+					count++;
+				}
+				if (count > 0) {
+					writerList = Collections.unmodifiableList(list);
+					logger.fine("Relocated " + count + " buffers of field:" + fieldId);
+				}
+				return count;
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
 	@Override
 	public int getWriterCount() {
 		return writerList.size();
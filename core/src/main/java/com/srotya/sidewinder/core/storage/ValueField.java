@@ -23,6 +23,7 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.locks.Lock;
 import java.util.function.Consumer;
 import java.util.logging.Level;
@@ -51,12 +52,16 @@ public class ValueField implements Field {
 
 	private static final int START_OFFSET = 2;
 	private static final Logger logger = Logger.getLogger(ValueField.class.getName());
-	private List<ValueWriter> writerList;
+	/**
+	 * immutable snapshot of the writers, structural changes publish a new list
+	 */
+	private volatile List<ValueWriter> writerList;
 	private LinkedByteString fieldId;
 	public static double compactionRatio = 1.0;
 	public static Class<ValueWriter> compressionClass = CompressionFactory.getValueClassByName("byzantine");
 	public static Class<ValueWriter> compactionClass = CompressionFactory.getValueClassByName("gorilla");
 	private int tsBucket;
+	private long previousBucketBytes;
 
 	/**
 	 * @param measurement
@@ -67,7 +72,7 @@ public class ValueField implements Field {
 	 */
 	public ValueField(Measurement measurement, LinkedByteString fieldId, int tsBucket, Map<String, String> conf)
 			throws IOException {
-		writerList = Collections.synchronizedList(new ArrayList<>(4));
+		writerList = Collections.emptyList();
 		this.fieldId = fieldId;
 		this.tsBucket = tsBucket;
 		checkAndEnableMethodProfiling();
@@ -80,29 +85,35 @@ public class ValueField implements Field {
 	}
 
 	private ValueWriter getOrCreateValueWriter(Measurement measurement) throws IOException {
+		List<ValueWriter> list = writerList;
 		ValueWriter ans = null;
-		if (writerList.isEmpty()) {
-			ans = createNewWriter(measurement, tsBucket, writerList);
+		if (list.isEmpty()) {
+			ans = createNewWriter(measurement, tsBucket);
 		} else {
-			ans = writerList.get(writerList.size() - 1);
+			ans = list.get(list.size() - 1);
 		}
 		if (ans.isFull()) {
 			final ValueWriter ansTmp = ans;
-			logger.fine(() -> "Requesting new writer for:" + fieldId + " bucketcount:" + writerList.size() + " pos:"
+			logger.fine(() -> "Requesting new writer for:" + fieldId + " bucketcount:" + list.size() + " pos:"
 					+ ansTmp.getPosition());
-			ans = createNewWriter(measurement, tsBucket, writerList);
+			ans = createNewWriter(measurement, tsBucket);
 		}
 		if (StorageEngine.ENABLE_METHOD_METRICS) {
 		}
 		return ans;
 	}
 
-	private ValueWriter createNewWriter(Measurement measurement, int tsBucket, List<ValueWriter> list)
-			throws IOException {
+	private synchronized ValueWriter createNewWriter(Measurement measurement, int tsBucket) throws IOException {
 		if (StorageEngine.ENABLE_METHOD_METRICS) {
 			// ctx = timerCreateWriter.time();
 		}
-		BufferObject bufPair = measurement.getMalloc().createNewBuffer(fieldId, tsBucket);
+		List<ValueWriter> list = writerList;
+		if (!list.isEmpty() && !list.get(list.size() - 1).isFull()) {
+			// another thread already rolled the writer over
+			return list.get(list.size() - 1);
+		}
+		int size = measurement.getMalloc().getBufferSizePolicy().nextBufferSize(list, previousBucketBytes);
+		BufferObject bufPair = measurement.getMalloc().createNewBuffer(fieldId, tsBucket, size);
 		bufPair.getBuf().put((byte) CompressionFactory.getIdByValueClass(compressionClass));
 		bufPair.getBuf().put((byte) list.size());
 		ValueWriter writer;
@@ -110,7 +121,10 @@ public class ValueField implements Field {
 		writer.setBufferId(bufPair.getBufferId());
 		// first byte is used to store compression codec type
 		writer.configure(bufPair.getBuf(), true, START_OFFSET);
-		list.add(writer);
+		List<ValueWriter> newList = new ArrayList<>(list.size() + 1);
+		newList.addAll(list);
+		newList.add(writer);
+		writerList = Collections.unmodifiableList(newList);
 		logger.fine(() -> "Created new writer for:" + tsBucket + " buckectInfo:" + bufPair.getBufferId());
 		if (StorageEngine.ENABLE_METHOD_METRICS) {
 			// ctx.stop();
@@ -136,6 +150,7 @@ public class ValueField implements Field {
 	 */
 	public void loadBucketMap(Measurement measurement, List<BufferObject> bufferEntries) throws IOException {
 		logger.fine(() -> "Scanning buffer for:" + fieldId);
+		List<ValueWriter> loaded = new ArrayList<>();
 		for (BufferObject entry : bufferEntries) {
 			ByteBuffer duplicate = entry.getBuf();
 			duplicate.rewind();
@@ -151,22 +166,27 @@ public class ValueField implements Field {
 			logger.fine(() -> "Loading bucketmap:" + fieldId + "\t" + tsBucket + "bufferid:" + entry.getBufferId());
 			writer.setBufferId(repairedBufferId);
 			writer.configure(slice, false, START_OFFSET);
-			writerList.add(writer);
+			loaded.add(writer);
 			logger.fine(() -> "Loaded bucketmap:" + fieldId + "\t" + " bufferid:" + entry.getBufferId());
 		}
-		sortBucketMap();
+		synchronized (this) {
+			List<ValueWriter> list = new ArrayList<>(writerList);
+			list.addAll(loaded);
+			sortBucketMap(list);
+			writerList = Collections.unmodifiableList(list);
+		}
 	}
 
-	private void sortBucketMap() throws IOException {
-		Collections.sort(writerList, new Comparator<ValueWriter>() {
+	private void sortBucketMap(List<ValueWriter> list) throws IOException {
+		Collections.sort(list, new Comparator<ValueWriter>() {
 
 			@Override
 			public int compare(ValueWriter o1, ValueWriter o2) {
 				return Integer.compare((int) o1.getRawBytes().get(1), (int) o2.getRawBytes().get(1));
 			}
 		});
-		for (int i = 0; i < writerList.size() - 1; i++) {
-			ValueWriter writer = writerList.get(i);
+		for (int i = 0; i < list.size() - 1; i++) {
+			ValueWriter writer = list.get(i);
 			try {
 				writer.makeReadOnly(true);
 			} catch (Exception e) {
@@ -181,17 +201,14 @@ public class ValueField implements Field {
 	 * Each {@link DataPoint} has the appendFieldValue and appendTags set in it.
 	 * 
 	 * @param predicate
-	 * @param readLock
 	 * @return
 	 * @throws IOException
 	 */
-	public FieldReaderIterator queryReader(Predicate predicate, Lock readLock) throws IOException {
+	public FieldReaderIterator queryReader(Predicate predicate) throws IOException {
 		List<Reader> readers = new ArrayList<>();
-		readLock.lock();
 		for (ValueWriter writer : writerList) {
 			readers.add(Field.getReader(writer, predicate));
 		}
-		readLock.unlock();
 		return new FieldReaderIterator().addReader(readers);
 	}
 
@@ -210,6 +227,11 @@ public class ValueField implements Field {
 		return writerList;
 	}
 
+	@Override
+	public void setPreviousBucketBytes(long bytes) {
+		this.previousBucketBytes = bytes;
+	}
+
 	/**
 	 * @return the seriesId
 	 */
@@ -261,9 +283,10 @@ public class ValueField implements Field {
 		}
 		List<Writer> compactedWriter = new ArrayList<>();
 		int id = CompressionFactory.getIdByValueClass(compactionClass);
-		int listSize = writerList.size() - 1;
-		int pointCount = writerList.subList(0, listSize).stream().mapToInt(s -> s.getCount()).sum();
-		int total = writerList.subList(0, listSize).stream().mapToInt(s -> s.getPosition()).sum();
+		List<ValueWriter> list = writerList;
+		int listSize = list.size() - 1;
+		int pointCount = list.subList(0, listSize).stream().mapToInt(s -> s.getCount()).sum();
+		int total = list.subList(0, listSize).stream().mapToInt(s -> s.getPosition()).sum();
 		if (total == 0) {
 			logger.warning("Ignoring bucket for compaction, not enough bytes. THIS BUG SHOULD BE INVESTIGATED");
 			return null;
@@ -272,18 +295,18 @@ public class ValueField implements Field {
 		int compactedPoints = 0;
 		double bufSize = total * compactionRatio;
 		logger.finer("Allocating buffer:" + total + " Vs. " + pointCount * 16 + " max compacted buffer:" + bufSize);
-		logger.finer("Getting sublist from:" + 0 + " to:" + (writerList.size() - 1));
+		logger.finer("Getting sublist from:" + 0 + " to:" + (list.size() - 1));
 		ByteBuffer buf = ByteBuffer.allocateDirect((int) bufSize);
 		buf.put((byte) id);
 		// since this buffer will be the first one
 		buf.put(1, (byte) 0);
 		writer.configure(buf, true, START_OFFSET);
-		ValueWriter input = writerList.get(0);
+		ValueWriter input = list.get(0);
 		// read the header timestamp
 		// read all but the last writer and insert into new temp writer
 		try {
-			for (int i = 0; i < writerList.size() - 1; i++) {
-				input = writerList.get(i);
+			for (int i = 0; i < list.size() - 1; i++) {
+				input = list.get(i);
 				Reader reader = input.getReader();
 				for (int k = 0; k < reader.getCount(); k++) {
 					long pair = reader.read();
@@ -321,25 +344,39 @@ public class ValueField implements Field {
 		writer.makeReadOnly(false);
 
 		writeLock.lock();
-		if (functions != null) {
-			for (Consumer<List<? extends Writer>> function : functions) {
-				function.accept(writerList);
+		try {
+			synchronized (this) {
+				// writers may only have been appended to the snapshot while compacting
+				List<ValueWriter> current = writerList;
+				for (int i = 0; i < listSize; i++) {
+					if (current.get(i) != list.get(i)) {
+						logger.warning("Writers changed during compaction, discarding compacted buffer:" + fieldId);
+						return null;
+					}
+				}
+				if (functions != null) {
+					for (Consumer<List<? extends Writer>> function : functions) {
+						function.accept(current);
+					}
+				}
+				logger.finest("Compaction debug size differences listSize:" + listSize + " curr:" + current.size());
+				for (int i = listSize - 1; i >= 0; i--) {
+					compactedWriter.add(current.get(i));
+				}
+				List<ValueWriter> newList = new ArrayList<>(current.size() - listSize + 1);
+				newList.add(writer);
+				newList.addAll(current.subList(listSize, current.size()));
+				for (int i = 0; i < newList.size(); i++) {
+					newList.get(i).getRawBytes().put(1, (byte) i);
+				}
+				writerList = Collections.unmodifiableList(newList);
+				logger.fine("Total points:" + compactedPoints + ", original pair count:" + writer.getReader().getCount()
+						+ " compression ratio:" + rawBytes.position() + " original:" + total + " newlistlength:"
+						+ newList.size());
 			}
+		} finally {
+			writeLock.unlock();
 		}
-		size = listSize - 1;
-		logger.finest("Compaction debug size differences size:" + size + " listSize:" + listSize + " curr:"
-				+ writerList.size());
-		for (int i = size; i >= 0; i--) {
-			compactedWriter.add(writerList.remove(i));
-		}
-		writerList.add(0, writer);
-		for (int i = 0; i < writerList.size(); i++) {
-			writerList.get(i).getRawBytes().put(1, (byte) i);
-		}
-		logger.fine("Total points:" + compactedPoints + ", original pair count:" + writer.getReader().getCount()
-				+ " compression ratio:" + rawBytes.position() + " original:" + total + " newlistlength:"
-				+ writerList.size());
-		writeLock.unlock();
 
 		if (StorageEngine.ENABLE_METHOD_METRICS) {
 			// ctx.stop();
@@ -347,6 +384,45 @@ public class ValueField implements Field {
 		return compactedWriter;
 	}
 
+	@Override
+	public int relocate(Measurement measurement, Lock writeLock, Set<String> bufferIds) throws IOException {
+		writeLock.lock();
+		try {
+			synchronized (this) {
+				List<ValueWriter> list = new ArrayList<>(writerList);
+				int count = 0;
+				// the last writer may still be appended to by writers that don't lock unless
+				// it's full
+				int end = list.isEmpty() || !list.get(list.size() - 1).isFull() ? list.size() - 1 : list.size();
+				for (int i = 0; i < end; i++) {
+					ValueWriter original = list.get(i);
+					if (!bufferIds.contains(original.getBufferId().toString())) {
+						continue;
+					}
+					BufferObject relocated = measurement.getMalloc().relocateBuffer(original.getBufferId(),
+							original.getRawBytes());
+					ByteBuffer buf = relocated.getBuf();
+					ValueWriter writer = getWriterInstance(CompressionFactory.getValueClassById(buf.get(0)));
+					writer.setBufferId(relocated.getBufferId());
+					writer.configure(buf, false, START_OFFSET);
+					writer.makeReadOnly(true);
+					if (original.isFull()) {
+						writer.seal();
+					}
+					list.set(i, writer);
+					count++;
+				}
+				if (count > 0) {
+					writerList = Collections.unmodifiableList(list);
+					logger.fine("Relocated " + count + " buffers of field:" + fieldId);
+				}
+				return count;
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
 	/**
 	 * Method to help fix bucket writers directly
 	 * 
@@ -358,10 +434,12 @@ public class ValueField implements Field {
 	 */
 	public void replaceFirstBuckets(Measurement measurement, List<byte[]> bufList)
 			throws IOException, InstantiationException, IllegalAccessException {
-		synchronized (writerList) {
+		synchronized (this) {
+			List<ValueWriter> list = new ArrayList<>(writerList);
 			// insert writers to list
-			List<String> cleanupList = insertOrOverwriteWriters(measurement, bufList, writerList.size() == 0,
-					writerList, tsBucket);
+			List<String> cleanupList = insertOrOverwriteWriters(measurement, bufList, list.size() == 0, list,
+					tsBucket);
+			writerList = Collections.unmodifiableList(list);
 			measurement.getMalloc().cleanupBufferIds(new HashSet<>(cleanupList));
 		}
 	}
@@ -0,0 +1,181 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.compression;
+
+import java.nio.ByteBuffer;
+
+import com.srotya.sidewinder.core.predicates.Predicate;
+
+/**
+ * Summary statistics of the values held in a compressed buffer (or a set of
+ * buffers once merged). Min and max are tracked on the raw long representation,
+ * which is what {@link Predicate}s are evaluated on, so that buffers whose range
+ * can never satisfy a predicate are skipped without decoding.<br>
+ * <br>
+ * Stats are immutable snapshots so that queries can read them without locks,
+ * writers maintain theirs with a {@link Tracker}.
+ * 
+ * @author ambud
+ */
+public final class BufferStats {
+
+	/**
+	 * Bytes taken by the bounds in a buffer header
+	 */
+	public static final int HEADER_BYTES = 16;
+	public static final BufferStats EMPTY = new BufferStats(0, Long.MAX_VALUE, Long.MIN_VALUE);
+	private final int count;
+	private final long minLong;
+	private final long maxLong;
+
+	public BufferStats(int count, long minLong, long maxLong) {
+		this.count = count;
+		this.minLong = minLong;
+		this.maxLong = maxLong;
+	}
+
+	/**
+	 * @param other
+	 * @return stats of the values of both
+	 */
+	public BufferStats merge(BufferStats other) {
+		if (other == null || other.count == 0) {
+			return this;
+		} else if (count == 0) {
+			return other;
+		}
+		return new BufferStats(count + other.count, Math.min(minLong, other.minLong),
+				Math.max(maxLong, other.maxLong));
+	}
+
+	/**
+	 * @param predicate
+	 * @return false only if no value summarized by these stats can satisfy the
+	 *         predicate
+	 */
+	public boolean canMatch(Predicate predicate) {
+		if (count == 0) {
+			return false;
+		}
+		return predicate == null || predicate.canMatch(minLong, maxLong);
+	}
+
+	/**
+	 * Build stats by decoding all values of a reader, used when stats can't be
+	 * maintained incrementally e.g. recovered read-only buffers
+	 * 
+	 * @param reader
+	 * @return stats
+	 */
+	public static BufferStats fromReader(Reader reader) {
+		Tracker tracker = new Tracker();
+		long[] buf = new long[Math.max(1, Math.min(1024, reader.getCount()))];
+		int count = 0;
+		int n;
+		while ((n = reader.read(buf, null, 0, buf.length)) > 0) {
+			for (int i = 0; i < n; i++) {
+				tracker.update(buf[i]);
+			}
+			count += n;
+		}
+		return tracker.snapshot(count);
+	}
+
+	/**
+	 * Write the bounds to a buffer header. The upper bound is stored complemented
+	 * so that headers written before stats were kept, which are zeroed, read as
+	 * an empty range.
+	 * 
+	 * @param buf
+	 * @param offset
+	 */
+	public void writeHeader(ByteBuffer buf, int offset) {
+		buf.putLong(offset, minLong);
+		buf.putLong(offset + Long.BYTES, ~maxLong);
+	}
+
+	/**
+	 * @param buf
+	 * @param offset
+	 * @param count
+	 *            points of the buffer
+	 * @return stats of the buffer header, null if it has none
+	 */
+	public static BufferStats readHeader(ByteBuffer buf, int offset, int count) {
+		if (count == 0) {
+			return EMPTY;
+		}
+		long minLong = buf.getLong(offset);
+		long maxLong = ~buf.getLong(offset + Long.BYTES);
+		if (minLong > maxLong) {
+			return null;
+		}
+		return new BufferStats(count, minLong, maxLong);
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public long getMinLong() {
+		return minLong;
+	}
+
+	public long getMaxLong() {
+		return maxLong;
+	}
+
+	@Override
+	public String toString() {
+		return "BufferStats [count=" + count + ", minLong=" + minLong + ", maxLong=" + maxLong + "]";
+	}
+
+	/**
+	 * Running min and max of the values appended by the single writer of a
+	 * buffer. Bounds are updated before the writer publishes its count, a
+	 * snapshot taken with a count read before it covers every committed value.
+	 * It may also cover values appended after that count, which only makes
+	 * pruning more lenient.
+	 */
+	public static final class Tracker {
+
+		private volatile long minLong = Long.MAX_VALUE;
+		private volatile long maxLong = Long.MIN_VALUE;
+
+		public void update(long value) {
+			if (value < minLong) {
+				minLong = value;
+			}
+			if (value > maxLong) {
+				maxLong = value;
+			}
+		}
+
+		/**
+		 * @param committed
+		 *            count published by the writer, must be read before this call
+		 * @return stats of the first committed values
+		 */
+		public BufferStats snapshot(int committed) {
+			if (committed == 0) {
+				return EMPTY;
+			}
+			return new BufferStats(committed, minLong, maxLong);
+		}
+
+	}
+
+}
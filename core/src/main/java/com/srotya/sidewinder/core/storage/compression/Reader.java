@@ -30,6 +30,80 @@ public interface Reader {
 
 	public long read() throws RejectException, FilteredValueException;
 
+	/**
+	 * Bulk decode up to length values into buf starting at offset. Unlike
+	 * {@link #read()} this method doesn't signal end of stream or filtered values
+	 * with exceptions, it returns the number of values decoded which is less than
+	 * length only when the stream is exhausted.<br>
+	 * <br>
+	 * If a selection mask is supplied the predicate of this reader is evaluated
+	 * against every decoded value and the outcome is written to the mask at the
+	 * same index as the value; filtered values are still decoded so that
+	 * multiple columns read in lock step stay aligned. If the mask is null the
+	 * predicate is not evaluated.
+	 * 
+	 * @param buf
+	 *            destination for decoded values
+	 * @param selection
+	 *            optional selection mask, may be null
+	 * @param offset
+	 *            first index of buf (and selection) to write to
+	 * @param length
+	 *            maximum number of values to decode
+	 * @return number of values decoded, 0 if the stream is exhausted
+	 */
+	public default int read(long[] buf, boolean[] selection, int offset, int length) {
+		// fallback for codecs that only implement single value reads, values
+		// filtered by the codec itself can't be recovered here
+		int i = 0;
+		for (; i < length; i++) {
+			try {
+				buf[offset + i] = read();
+				if (selection != null) {
+					selection[offset + i] = true;
+				}
+			} catch (FilteredValueException e) {
+				if (selection != null) {
+					selection[offset + i] = false;
+				}
+			} catch (RejectException e) {
+				break;
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Number of upcoming values that are known not to satisfy the predicate of
+	 * this reader without decoding them, e.g. using a {@link TimeSkipIndex}.
+	 * 
+	 * @return count of values that can be passed to {@link #skip(int)}
+	 */
+	public default int skippable() {
+		return 0;
+	}
+
+	/**
+	 * Advance the reader by up to length values without returning them, codecs
+	 * that can seek override this to avoid decoding.
+	 * 
+	 * @param length
+	 * @return number of values skipped, less than length only when the stream
+	 *         is exhausted
+	 */
+	public default int skip(int length) {
+		long[] scratch = new long[Math.max(1, Math.min(length, 1024))];
+		int total = 0;
+		while (total < length) {
+			int n = read(scratch, null, 0, Math.min(scratch.length, length - total));
+			if (n == 0) {
+				break;
+			}
+			total += n;
+		}
+		return total;
+	}
+
 	public default double readDouble() throws RejectException, FilteredValueException {
 		return Double.longBitsToDouble(read());
 	}
@@ -42,4 +116,28 @@ public interface Reader {
 
 	public byte[] getDataHash() throws NoSuchAlgorithmException;
 
+	/**
+	 * Evaluate predicate for a range of decoded values and populate the
+	 * selection mask
+	 * 
+	 * @param predicate
+	 *            may be null in which case all values are selected
+	 * @param buf
+	 * @param selection
+	 * @param offset
+	 * @param length
+	 */
+	public static void select(Predicate predicate, long[] buf, boolean[] selection, int offset, int length) {
+		int end = offset + length;
+		if (predicate == null) {
+			for (int i = offset; i < end; i++) {
+				selection[i] = true;
+			}
+		} else {
+			for (int i = offset; i < end; i++) {
+				selection[i] = predicate.test(buf[i]);
+			}
+		}
+	}
+
 }
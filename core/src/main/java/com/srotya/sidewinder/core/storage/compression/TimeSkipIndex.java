@@ -0,0 +1,250 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.compression;
+
+import java.util.Arrays;
+
+import com.srotya.sidewinder.core.predicates.Predicate;
+
+/**
+ * Sparse skip index over the timestamps of a {@link TimeWriter} buffer. It
+ * tracks the first, last, min and max timestamp of the buffer and, for codecs
+ * that support it, a checkpoint every interval points holding the decoder
+ * state (buffer position, previous timestamp and delta) right before that
+ * point. Readers use it to seek past runs of points that can't satisfy the
+ * time predicate and to stop once no further point can.<br>
+ * <br>
+ * Checkpoints are only used for segment ranges while timestamps are appended
+ * in order, out of order writes fall back to whole buffer min/max.<br>
+ * <br>
+ * The index is appended by the single writer of the buffer before it publishes
+ * the count, readers must only consult checkpoints for points they are allowed
+ * to read.
+ * 
+ * @author ambud
+ */
+public class TimeSkipIndex {
+
+	public static int DEFAULT_INTERVAL = 128;
+	private final int interval;
+	private volatile int size;
+	private int[] positions;
+	private long[] timestamps;
+	private long[] previous;
+	private long[] deltas;
+	private int count;
+	private long first;
+	private long last;
+	private long min = Long.MAX_VALUE;
+	private long max = Long.MIN_VALUE;
+	private boolean sorted = true;
+
+	/**
+	 * @param interval
+	 *            number of points between checkpoints, 0 disables checkpoints
+	 */
+	public TimeSkipIndex(int interval) {
+		this.interval = interval;
+		if (interval > 0) {
+			positions = new int[4];
+			timestamps = new long[4];
+			previous = new long[4];
+			deltas = new long[4];
+		}
+	}
+
+	/**
+	 * Record the next timestamp written to the buffer along with the decoder
+	 * state before it, a checkpoint is added if this point starts a segment
+	 * 
+	 * @param timestamp
+	 * @param position
+	 *            buffer position the point is encoded at
+	 * @param prevTs
+	 *            decoder previous timestamp before this point
+	 * @param delta
+	 *            decoder delta before this point
+	 */
+	public void update(long timestamp, int position, long prevTs, long delta) {
+		if (interval > 0 && count % interval == 0) {
+			int idx = size;
+			if (idx == positions.length) {
+				int length = idx * 2;
+				positions = Arrays.copyOf(positions, length);
+				timestamps = Arrays.copyOf(timestamps, length);
+				previous = Arrays.copyOf(previous, length);
+				deltas = Arrays.copyOf(deltas, length);
+			}
+			positions[idx] = position;
+			timestamps[idx] = timestamp;
+			previous[idx] = prevTs;
+			deltas[idx] = delta;
+			size = idx + 1;
+		}
+		update(timestamp);
+	}
+
+	/**
+	 * Record the next timestamp written to the buffer without a checkpoint
+	 * 
+	 * @param timestamp
+	 */
+	public void update(long timestamp) {
+		if (count == 0) {
+			first = timestamp;
+		} else if (timestamp < last) {
+			sorted = false;
+		}
+		last = timestamp;
+		if (timestamp < min) {
+			min = timestamp;
+		}
+		if (timestamp > max) {
+			max = timestamp;
+		}
+		count++;
+	}
+
+	/**
+	 * Compute the number of points starting at index from that are guaranteed
+	 * not to satisfy the predicate.
+	 * 
+	 * @param from
+	 *            index of the next point to be read
+	 * @param limit
+	 *            number of points visible to the reader
+	 * @param predicate
+	 * @return number of points that can be skipped, limit - from if no further
+	 *         point can match
+	 */
+	public int skippable(int from, int limit, Predicate predicate) {
+		if (predicate == null || from >= limit) {
+			return 0;
+		}
+		if (!predicate.canMatch(min, max)) {
+			return limit - from;
+		}
+		if (interval <= 0 || !sorted) {
+			return 0;
+		}
+		int segments = checkpoints(limit);
+		int segment = from / interval;
+		int index = from;
+		while (segment < segments) {
+			// timestamps are sorted so a segment is bounded by its first point and
+			// the first point of the next segment
+			long upper = segment + 1 < segments ? timestamps[segment + 1] : max;
+			if (predicate.canMatch(timestamps[segment], upper)) {
+				break;
+			}
+			segment++;
+			index = segment * interval;
+		}
+		return Math.min(index, limit) - from;
+	}
+
+	/**
+	 * @param limit
+	 *            number of points visible to the reader
+	 * @return number of checkpoints that can be used by the reader
+	 */
+	public int checkpoints(int limit) {
+		if (interval <= 0) {
+			return 0;
+		}
+		return Math.min(Math.min(size, positions.length), (limit + interval - 1) / interval);
+	}
+
+	/**
+	 * @param target
+	 *            index of the point to seek to
+	 * @param limit
+	 *            number of points visible to the reader
+	 * @return index of the closest checkpoint at or before target, -1 if none
+	 */
+	public int checkpointFor(int target, int limit) {
+		if (interval <= 0) {
+			return -1;
+		}
+		return Math.min(target / interval, checkpoints(limit) - 1);
+	}
+
+	/**
+	 * Build an index without checkpoints by decoding all timestamps of a reader,
+	 * used for codecs or recovered buffers that can't maintain it incrementally
+	 * 
+	 * @param reader
+	 * @return index
+	 */
+	public static TimeSkipIndex fromReader(Reader reader) {
+		TimeSkipIndex index = new TimeSkipIndex(0);
+		long[] buf = new long[Math.max(1, Math.min(1024, reader.getCount()))];
+		int n;
+		while ((n = reader.read(buf, null, 0, buf.length)) > 0) {
+			for (int i = 0; i < n; i++) {
+				index.update(buf[i]);
+			}
+		}
+		return index;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	public int getPosition(int checkpoint) {
+		return positions[checkpoint];
+	}
+
+	public long getPrevious(int checkpoint) {
+		return previous[checkpoint];
+	}
+
+	public long getDelta(int checkpoint) {
+		return deltas[checkpoint];
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public long getFirst() {
+		return first;
+	}
+
+	public long getLast() {
+		return last;
+	}
+
+	public long getMin() {
+		return min;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public boolean isSorted() {
+		return sorted;
+	}
+
+	@Override
+	public String toString() {
+		return "TimeSkipIndex [interval=" + interval + ", checkpoints=" + size + ", count=" + count + ", first="
+				+ first + ", last=" + last + ", sorted=" + sorted + "]";
+	}
+
+}
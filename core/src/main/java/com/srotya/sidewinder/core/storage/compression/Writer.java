@@ -57,6 +57,13 @@ public interface Writer {
 
 	public boolean isFull();
 
+	/**
+	 * Mark this writer full so that points written after this call roll over to a
+	 * new buffer, used to close the last buffer of a time bucket that is no longer
+	 * written to
+	 */
+	public void seal();
+
 	public boolean isReadOnly();
 
 	public int getPosition();
@@ -66,4 +73,15 @@ public interface Writer {
 	@NotNull
 	public LinkedByteString getBufferId();
 
-}
\ No newline at end of file
+	/**
+	 * Summary statistics of the values in this buffer. Codecs that don't
+	 * maintain them incrementally fall back to decoding the buffer.
+	 * 
+	 * @return stats
+	 * @throws IOException
+	 */
+	public default BufferStats getStats() throws IOException {
+		return BufferStats.fromReader(getReader());
+	}
+
+}
\ No newline at end of file
@@ -22,6 +22,8 @@ import com.srotya.sidewinder.core.predicates.Predicate;
 import com.srotya.sidewinder.core.storage.RejectException;
 import com.srotya.sidewinder.core.storage.compression.FilteredValueException;
 import com.srotya.sidewinder.core.storage.compression.Reader;
+import com.srotya.sidewinder.core.storage.compression.Writer;
+import com.srotya.sidewinder.core.storage.compression.TimeSkipIndex;
 import com.srotya.sidewinder.core.utils.ByteUtils;
 
 /**
@@ -35,6 +37,8 @@ public class ByzantineTimestampReader implements Reader {
 	private int count;
 	private Predicate timePredicate;
 	private ByteBuffer buf;
+	private Writer writer;
+	private TimeSkipIndex skipIndex;
 
 	public ByzantineTimestampReader(ByteBuffer buf, int startOffset) {
 		buf.position(startOffset);
@@ -43,6 +47,28 @@ public class ByzantineTimestampReader implements Reader {
 		prevTs = buf.getLong();
 	}
 
+	/**
+	 * Cap the points visible to this reader to the count committed by the writer,
+	 * the header count may run ahead of the published point bytes
+	 * 
+	 * @param committed
+	 */
+	void limit(int committed) {
+		if (committed < count) {
+			count = committed;
+		}
+	}
+
+	/**
+	 * Keep the writer reachable while this reader is, the buffer of an
+	 * unreachable writer may be reused once it has been garbage collected
+	 * 
+	 * @param writer
+	 */
+	void retain(Writer writer) {
+		this.writer = writer;
+	}
+
 	public int getCounter() {
 		return counter;
 	}
@@ -61,6 +87,59 @@ public class ByzantineTimestampReader implements Reader {
 		}
 	}
 
+	@Override
+	public int read(long[] buf, boolean[] selection, int offset, int length) {
+		int n = Math.min(length, count - counter);
+		if (n <= 0) {
+			return 0;
+		}
+		int end = offset + n;
+		for (int i = offset; i < end; i++) {
+			uncompressAndReadTimestamp();
+			buf[i] = prevTs;
+		}
+		counter += n;
+		if (selection != null) {
+			Reader.select(timePredicate, buf, selection, offset, n);
+		}
+		return n;
+	}
+
+	@Override
+	public int skippable() {
+		if (skipIndex == null) {
+			return 0;
+		}
+		return skipIndex.skippable(counter, count, timePredicate);
+	}
+
+	@Override
+	public int skip(int length) {
+		int n = Math.min(length, count - counter);
+		if (n <= 0) {
+			return 0;
+		}
+		int target = counter + n;
+		if (target == count) {
+			// nothing left to decode
+			counter = count;
+			return n;
+		}
+		if (skipIndex != null) {
+			int checkpoint = skipIndex.checkpointFor(target, count);
+			if (checkpoint >= 0 && checkpoint * skipIndex.getInterval() > counter) {
+				buf.position(skipIndex.getPosition(checkpoint));
+				prevTs = skipIndex.getPrevious(checkpoint);
+				delta = skipIndex.getDelta(checkpoint);
+				counter = checkpoint * skipIndex.getInterval();
+			}
+		}
+		for (; counter < target; counter++) {
+			uncompressAndReadTimestamp();
+		}
+		return n;
+	}
+
 	public void uncompressAndReadTimestamp() {
 		int deltaOfDelta;
 		byte b = buf.get();
@@ -87,6 +166,21 @@ public class ByzantineTimestampReader implements Reader {
 		this.timePredicate = valuePredicate;
 	}
 
+	/**
+	 * @param skipIndex
+	 *            index of the buffer this reader decodes
+	 */
+	public void setSkipIndex(TimeSkipIndex skipIndex) {
+		this.skipIndex = skipIndex;
+	}
+
+	/**
+	 * @return position of the next encoded timestamp in the buffer
+	 */
+	protected int getPosition() {
+		return buf.position();
+	}
+
 	/**
 	 * @return the prevTs
 	 */
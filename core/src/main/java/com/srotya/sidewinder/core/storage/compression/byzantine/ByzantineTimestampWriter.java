@@ -19,7 +19,9 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 import com.srotya.sidewinder.core.storage.LinkedByteString;
+import com.srotya.sidewinder.core.storage.compression.BufferStats;
 import com.srotya.sidewinder.core.storage.compression.TimeCodec;
+import com.srotya.sidewinder.core.storage.compression.TimeSkipIndex;
 import com.srotya.sidewinder.core.storage.compression.TimeWriter;
 
 /**
@@ -32,12 +34,14 @@ public class ByzantineTimestampWriter implements TimeWriter {
 
 	private long prevTs;
 	private long tsDelta;
-	private int count;
+	private volatile int count;
 	private ByteBuffer buf;
 	private boolean readOnly;
 	private volatile boolean full;
 	private int startOffset;
 	private LinkedByteString bufferId;
+	private BufferStats.Tracker tracker = new BufferStats.Tracker();
+	private TimeSkipIndex skipIndex = new TimeSkipIndex(TimeSkipIndex.DEFAULT_INTERVAL);
 
 	public ByzantineTimestampWriter() {
 	}
@@ -69,8 +73,15 @@ public class ByzantineTimestampWriter implements TimeWriter {
 	private void forwardCursorToEnd() throws IOException {
 		ByzantineTimestampReader reader = new ByzantineTimestampReader(buf, startOffset);
 		count = reader.getCount();
+		tracker = new BufferStats.Tracker();
+		skipIndex = new TimeSkipIndex(TimeSkipIndex.DEFAULT_INTERVAL);
 		for (int i = 0; i < count; i++) {
-			reader.read();
+			int position = reader.getPosition();
+			long prev = reader.getPrevTs();
+			long delta = reader.getDelta();
+			long ts = reader.read();
+			tracker.update(ts);
+			skipIndex.update(ts, position, prev, delta);
 		}
 		tsDelta = reader.getDelta();
 		prevTs = reader.getPrevTs();
@@ -85,13 +96,17 @@ public class ByzantineTimestampWriter implements TimeWriter {
 			throw WRITE_REJECT_EXCEPTION;
 		}
 		checkAndExpandBuffer();
+		// index and stats must be updated before the count is published to readers
+		skipIndex.update(timestamp, buf.position(), prevTs, tsDelta);
 		compressAndWriteTimestamp(buf, timestamp);
+		tracker.update(timestamp);
 		count++;
 		updateCount();
 	}
 
 	private void checkAndExpandBuffer() throws IOException {
-		if (buf.remaining() < 5 || buf.isReadOnly()) {
+		// a sealed writer rolls over as well
+		if (full || buf.remaining() < 5 || buf.isReadOnly()) {
 			full = true;
 			throw BUF_ROLLOVER_EXCEPTION;
 		}
@@ -129,9 +144,14 @@ public class ByzantineTimestampWriter implements TimeWriter {
 	@Override
 	public ByzantineTimestampReader getReader() throws IOException {
 		ByzantineTimestampReader reader = null;
+		// read the committed count first, every point before it is visible
+		int committed = count;
 		ByteBuffer rbuf = buf.duplicate();
 		rbuf.rewind();
 		reader = new ByzantineTimestampReader(rbuf, startOffset);
+		reader.limit(committed);
+		reader.retain(this);
+		reader.setSkipIndex(skipIndex);
 		return reader;
 	}
 
@@ -223,11 +243,28 @@ public class ByzantineTimestampWriter implements TimeWriter {
 		return offset;
 	}
 
+	@Override
+	public BufferStats getStats() {
+		return tracker.snapshot(count);
+	}
+
+	/**
+	 * @return the skipIndex
+	 */
+	public TimeSkipIndex getSkipIndex() {
+		return skipIndex;
+	}
+
 	@Override
 	public boolean isFull() {
 		return full;
 	}
 
+	@Override
+	public void seal() {
+		full = true;
+	}
+
 	/**
 	 * @return the bufferId
 	 */
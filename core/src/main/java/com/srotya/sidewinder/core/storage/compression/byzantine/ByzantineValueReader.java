@@ -22,6 +22,7 @@ import com.srotya.sidewinder.core.predicates.Predicate;
 import com.srotya.sidewinder.core.storage.RejectException;
 import com.srotya.sidewinder.core.storage.compression.FilteredValueException;
 import com.srotya.sidewinder.core.storage.compression.Reader;
+import com.srotya.sidewinder.core.storage.compression.Writer;
 import com.srotya.sidewinder.core.utils.ByteUtils;
 
 /**
@@ -33,6 +34,7 @@ public class ByzantineValueReader implements Reader {
 	private int count;
 	private Predicate predicate;
 	private ByteBuffer buf;
+	private Writer writer;
 	private long prevValue;
 
 	public ByzantineValueReader(ByteBuffer buf, int startOffset) {
@@ -41,6 +43,28 @@ public class ByzantineValueReader implements Reader {
 		this.count = buf.getInt();
 	}
 
+	/**
+	 * Cap the points visible to this reader to the count committed by the writer,
+	 * the header count may run ahead of the published point bytes
+	 * 
+	 * @param committed
+	 */
+	void limit(int committed) {
+		if (committed < count) {
+			count = committed;
+		}
+	}
+
+	/**
+	 * Keep the writer reachable while this reader is, the buffer of an
+	 * unreachable writer may be reused once it has been garbage collected
+	 * 
+	 * @param writer
+	 */
+	void retain(Writer writer) {
+		this.writer = writer;
+	}
+
 	public int getCounter() {
 		return counter;
 	}
@@ -59,6 +83,24 @@ public class ByzantineValueReader implements Reader {
 		}
 	}
 
+	@Override
+	public int read(long[] buf, boolean[] selection, int offset, int length) {
+		int n = Math.min(length, count - counter);
+		if (n <= 0) {
+			return 0;
+		}
+		int end = offset + n;
+		for (int i = offset; i < end; i++) {
+			uncompressAndReadValue();
+			buf[i] = prevValue;
+		}
+		counter += n;
+		if (selection != null) {
+			Reader.select(predicate, buf, selection, offset, n);
+		}
+		return n;
+	}
+
 	public void uncompressAndReadValue() {
 		byte flag = buf.get();
 		if (flag == (byte) 0) {
@@ -74,6 +116,22 @@ public class ByzantineValueReader implements Reader {
 		}
 	}
 
+	@Override
+	public int skip(int length) {
+		int n = Math.min(length, count - counter);
+		if (n <= 0) {
+			return 0;
+		}
+		if (counter + n < count) {
+			// values are chained to the previous one so they must be decoded
+			for (int i = 0; i < n; i++) {
+				uncompressAndReadValue();
+			}
+		}
+		counter += n;
+		return n;
+	}
+
 	@Override
 	public int getCount() {
 		return count;
@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 import com.srotya.sidewinder.core.storage.LinkedByteString;
+import com.srotya.sidewinder.core.storage.compression.BufferStats;
 import com.srotya.sidewinder.core.storage.compression.ValueCodec;
 import com.srotya.sidewinder.core.storage.compression.ValueWriter;
 
@@ -30,13 +31,14 @@ import com.srotya.sidewinder.core.storage.compression.ValueWriter;
 @ValueCodec(id = 1, name = "byzantine")
 public class ByzantineValueWriter implements ValueWriter {
 
-	private int count;
+	private volatile int count;
 	private ByteBuffer buf;
 	private long prevValue;
 	private boolean readOnly;
 	private volatile boolean full;
 	private int startOffset;
 	private LinkedByteString bufferId;
+	private BufferStats.Tracker tracker = new BufferStats.Tracker();
 
 	public ByzantineValueWriter() {
 	}
@@ -66,8 +68,9 @@ public class ByzantineValueWriter implements ValueWriter {
 	private void forwardCursorToEnd() throws IOException {
 		ByzantineValueReader reader = new ByzantineValueReader(buf, startOffset);
 		count = reader.getCount();
+		tracker = new BufferStats.Tracker();
 		for (int i = 0; i < count; i++) {
-			reader.read();
+			tracker.update(reader.read());
 		}
 		prevValue = reader.getPrevValue();
 	}
@@ -82,6 +85,8 @@ public class ByzantineValueWriter implements ValueWriter {
 		}
 		checkAndExpandBuffer();
 		compressAndWriteValue(buf, value);
+		// stats must be updated before the count is published to readers
+		tracker.update(value);
 		count++;
 		updateCount();
 	}
@@ -107,7 +112,8 @@ public class ByzantineValueWriter implements ValueWriter {
 	}
 
 	private void checkAndExpandBuffer() throws IOException {
-		if (buf.remaining() < 9 || buf.isReadOnly()) {
+		// a sealed writer rolls over as well
+		if (full || buf.remaining() < 9 || buf.isReadOnly()) {
 			full = true;
 			throw BUF_ROLLOVER_EXCEPTION;
 		}
@@ -119,9 +125,13 @@ public class ByzantineValueWriter implements ValueWriter {
 
 	public ByzantineValueReader getReader() throws IOException {
 		ByzantineValueReader reader = null;
+		// read the committed count first, every point before it is visible
+		int committed = count;
 		ByteBuffer rbuf = buf.duplicate();
 		rbuf.rewind();
 		reader = new ByzantineValueReader(rbuf, startOffset);
+		reader.limit(committed);
+		reader.retain(this);
 		return reader;
 	}
 
@@ -198,11 +208,21 @@ public class ByzantineValueWriter implements ValueWriter {
 		return offset;
 	}
 
+	@Override
+	public BufferStats getStats() {
+		return tracker.snapshot(count);
+	}
+
 	@Override
 	public boolean isFull() {
 		return full;
 	}
 
+	@Override
+	public void seal() {
+		full = true;
+	}
+
 	/**
 	 * @return the bufferId
 	 */
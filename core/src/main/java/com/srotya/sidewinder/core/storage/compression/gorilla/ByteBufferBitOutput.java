@@ -127,6 +127,23 @@ public class ByteBufferBitOutput implements BitOutput {
 		flipByte(); // Causes write to the ByteBuffer
 	}
 
+	/**
+	 * @return true if the current byte has bits that haven't been flushed to the
+	 *         buffer yet
+	 */
+	public boolean hasPendingBits() {
+		return bitsLeft < Byte.SIZE;
+	}
+
+	/**
+	 * Make the bits of the partially written byte visible in the buffer without
+	 * advancing it, so that every value written so far can be decoded by a
+	 * concurrent reader
+	 */
+	public void publish() {
+		bb.put(bb.position(), b);
+	}
+
 	/**
 	 * Returns the underlying DirectByteBuffer
 	 *
@@ -54,6 +54,26 @@ public class GorillaTimestampDecompressor {
 		return storedTimestamp;
 	}
 
+    /**
+     * Bulk decode timestamps without signaling end of stream by exception
+     * 
+     * @param buf
+     * @param offset
+     * @param length
+     * @return number of timestamps decoded, less than length if the end of
+     *         stream marker was reached
+     */
+    public int read(long[] buf, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            next();
+            if (endOfStream) {
+                return i;
+            }
+            buf[offset + i] = storedTimestamp;
+        }
+        return length;
+    }
+
     private void next() {
         // TODO I could implement a non-streaming solution also.. is there ever a need for streaming solution?
 
@@ -22,6 +22,8 @@ import com.srotya.sidewinder.core.predicates.Predicate;
 import com.srotya.sidewinder.core.storage.RejectException;
 import com.srotya.sidewinder.core.storage.compression.FilteredValueException;
 import com.srotya.sidewinder.core.storage.compression.Reader;
+import com.srotya.sidewinder.core.storage.compression.Writer;
+import com.srotya.sidewinder.core.storage.compression.TimeSkipIndex;
 
 public class GorillaTimestampReader implements Reader {
 
@@ -30,7 +32,9 @@ public class GorillaTimestampReader implements Reader {
 	private Predicate valuePredicate;
 	private GorillaTimestampDecompressor decompressor;
 	private ByteBuffer buf;
+	private Writer writer;
 	private int checkSumLocation;
+	private TimeSkipIndex skipIndex;
 
 	public GorillaTimestampReader(ByteBuffer buf, int startOffset, int checkSumLocation) {
 		this.buf = buf;
@@ -41,6 +45,26 @@ public class GorillaTimestampReader implements Reader {
 		this.decompressor = new GorillaTimestampDecompressor(new ByteBufferBitInput(buf));
 	}
 
+	/**
+	 * Set the points visible to this reader to the count committed by the writer,
+	 * the header count is only written once the buffer is made read-only
+	 * 
+	 * @param committed
+	 */
+	void limit(int committed) {
+		count = committed;
+	}
+
+	/**
+	 * Keep the writer reachable while this reader is, the buffer of an
+	 * unreachable writer may be reused once it has been garbage collected
+	 * 
+	 * @param writer
+	 */
+	void retain(Writer writer) {
+		this.writer = writer;
+	}
+
 	@Override
 	public long read() throws FilteredValueException, RejectException {
 		if (counter < count) {
@@ -55,6 +79,47 @@ public class GorillaTimestampReader implements Reader {
 		}
 	}
 
+	@Override
+	public int read(long[] buf, boolean[] selection, int offset, int length) {
+		int n = Math.min(length, count - counter);
+		if (n <= 0) {
+			return 0;
+		}
+		n = decompressor.read(buf, offset, n);
+		counter += n;
+		if (selection != null) {
+			Reader.select(valuePredicate, buf, selection, offset, n);
+		}
+		return n;
+	}
+
+	@Override
+	public int skippable() {
+		if (skipIndex == null) {
+			return 0;
+		}
+		return skipIndex.skippable(counter, count, valuePredicate);
+	}
+
+	@Override
+	public int skip(int length) {
+		int remaining = count - counter;
+		if (length >= remaining) {
+			// nothing left to decode
+			counter = count;
+			return Math.max(0, remaining);
+		}
+		return Reader.super.skip(length);
+	}
+
+	/**
+	 * @param skipIndex
+	 *            index of the buffer this reader decodes
+	 */
+	public void setSkipIndex(TimeSkipIndex skipIndex) {
+		this.skipIndex = skipIndex;
+	}
+
 	@Override
 	public int getCounter() {
 		return counter;
@@ -20,8 +20,10 @@ import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 
 import com.srotya.sidewinder.core.storage.LinkedByteString;
+import com.srotya.sidewinder.core.storage.compression.BufferStats;
 import com.srotya.sidewinder.core.storage.compression.Reader;
 import com.srotya.sidewinder.core.storage.compression.TimeCodec;
+import com.srotya.sidewinder.core.storage.compression.TimeSkipIndex;
 import com.srotya.sidewinder.core.storage.compression.TimeWriter;
 import com.srotya.sidewinder.core.utils.ByteUtils;
 
@@ -29,16 +31,21 @@ import com.srotya.sidewinder.core.utils.ByteUtils;
 public class GorillaTimestampWriter implements TimeWriter {
 
 	public static final int MD5_PADDING = 32;
-	private boolean full;
+	// the md5 takes 16 bytes of the padding, the rest holds the buffer stats
+	private static final int STATS_OFFSET = MD5_PADDING - BufferStats.HEADER_BYTES;
+	private volatile boolean full;
 	private LinkedByteString bufferId;
 	private ByteBuffer buf;
 	private GorillaTimestampCompressor compressor;
-	private int counter;
+	private volatile int counter;
 	private long timestamp;
 	private ByteBufferBitOutput output;
 	private int startOffset;
 	private int position;
 	private int checkSumLocaltion;
+	private BufferStats.Tracker tracker;
+	private volatile BufferStats stats;
+	private TimeSkipIndex skipIndex;
 
 	@Override
 	public void configure(ByteBuffer buf, boolean isNew, int startOffset) throws IOException {
@@ -50,10 +57,14 @@ public class GorillaTimestampWriter implements TimeWriter {
 			counter = buf.getInt();
 			// forward to the end
 			position = buf.getInt();
+			stats = BufferStats.readHeader(buf, checkSumLocaltion + STATS_OFFSET, counter);
 			// forwardToEnd();
 		} else {
 			buf.putInt(0);
 			buf.putInt(0);
+			tracker = new BufferStats.Tracker();
+			// gorilla is bit packed, only the buffer time range is indexed
+			skipIndex = new TimeSkipIndex(0);
 		}
 	}
 
@@ -68,6 +79,13 @@ public class GorillaTimestampWriter implements TimeWriter {
 	@Override
 	public void add(long timestamp) throws IOException {
 		compressor.addValue(timestamp);
+		output.publish();
+		if (tracker != null) {
+			tracker.update(timestamp);
+			skipIndex.update(timestamp);
+		}
+		// the count is published after the point bytes, stats and index, readers are
+		// capped to it
 		counter++;
 	}
 
@@ -79,9 +97,23 @@ public class GorillaTimestampWriter implements TimeWriter {
 
 	@Override
 	public Reader getReader() throws IOException {
+		if (skipIndex == null) {
+			// recovered buffer, index is built once since this writer is read-only
+			skipIndex = TimeSkipIndex.fromReader(newReader());
+		}
+		GorillaTimestampReader reader = newReader();
+		reader.setSkipIndex(skipIndex);
+		return reader;
+	}
+
+	private GorillaTimestampReader newReader() {
+		// read the committed count first, every point before it is visible
+		int committed = counter;
 		ByteBuffer duplicate = buf.duplicate();
 		duplicate.rewind();
 		GorillaTimestampReader reader = new GorillaTimestampReader(duplicate, startOffset, checkSumLocaltion);
+		reader.limit(committed);
+		reader.retain(this);
 		return reader;
 	}
 
@@ -112,6 +144,7 @@ public class GorillaTimestampWriter implements TimeWriter {
 		if (compressor != null && !recovery) {
 			compressor.close();
 			updateCount();
+			getStats().writeHeader(buf, checkSumLocaltion + STATS_OFFSET);
 			// compute md5 and store
 			try {
 				// cache old position so the buf position can be reset
@@ -146,11 +179,28 @@ public class GorillaTimestampWriter implements TimeWriter {
 		return counter;
 	}
 
+	@Override
+	public BufferStats getStats() throws IOException {
+		if (tracker != null) {
+			return tracker.snapshot(counter);
+		} else if (stats == null) {
+			// recovered buffer without stats in its header, they are built once since
+			// this writer is read-only
+			stats = BufferStats.fromReader(getReader());
+		}
+		return stats;
+	}
+
 	@Override
 	public boolean isFull() {
 		return full;
 	}
 
+	@Override
+	public void seal() {
+		full = true;
+	}
+
 	@Override
 	public boolean isReadOnly() {
 		return true;
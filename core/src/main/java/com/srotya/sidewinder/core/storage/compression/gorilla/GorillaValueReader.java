@@ -22,6 +22,7 @@ import com.srotya.sidewinder.core.predicates.Predicate;
 import com.srotya.sidewinder.core.storage.RejectException;
 import com.srotya.sidewinder.core.storage.compression.FilteredValueException;
 import com.srotya.sidewinder.core.storage.compression.Reader;
+import com.srotya.sidewinder.core.storage.compression.Writer;
 
 public class GorillaValueReader implements Reader {
 
@@ -30,6 +31,7 @@ public class GorillaValueReader implements Reader {
 	private Predicate valuePredicate;
 	private ValueDecompressor decompressor;
 	private ByteBuffer buf;
+	private Writer writer;
 	private int checkSumLocation;
 
 	public GorillaValueReader(ByteBuffer buf, int startOffset, int checkSumLocation) {
@@ -41,6 +43,26 @@ public class GorillaValueReader implements Reader {
 		this.decompressor = new ValueDecompressor(new ByteBufferBitInput(buf));
 	}
 
+	/**
+	 * Set the points visible to this reader to the count committed by the writer,
+	 * the header count is only written once the buffer is made read-only
+	 * 
+	 * @param committed
+	 */
+	void limit(int committed) {
+		count = committed;
+	}
+
+	/**
+	 * Keep the writer reachable while this reader is, the buffer of an
+	 * unreachable writer may be reused once it has been garbage collected
+	 * 
+	 * @param writer
+	 */
+	void retain(Writer writer) {
+		this.writer = writer;
+	}
+
 	@Override
 	public long read() throws FilteredValueException, RejectException {
 		if (counter < count) {
@@ -55,11 +77,44 @@ public class GorillaValueReader implements Reader {
 		}
 	}
 
+	@Override
+	public int read(long[] buf, boolean[] selection, int offset, int length) {
+		int n = Math.min(length, count - counter);
+		if (n <= 0) {
+			return 0;
+		}
+		int end = offset + n;
+		for (int i = offset; i < end; i++) {
+			buf[i] = decompressor.nextValue();
+		}
+		counter += n;
+		if (selection != null) {
+			Reader.select(valuePredicate, buf, selection, offset, n);
+		}
+		return n;
+	}
+
 	@Override
 	public int getCounter() {
 		return counter;
 	}
 
+	@Override
+	public int skip(int length) {
+		int n = Math.min(length, count - counter);
+		if (n <= 0) {
+			return 0;
+		}
+		if (counter + n < count) {
+			// values are chained to the previous one so they must be decoded
+			for (int i = 0; i < n; i++) {
+				decompressor.nextValue();
+			}
+		}
+		counter += n;
+		return n;
+	}
+
 	@Override
 	public int getCount() {
 		return count;
@@ -20,6 +20,7 @@ import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 
 import com.srotya.sidewinder.core.storage.LinkedByteString;
+import com.srotya.sidewinder.core.storage.compression.BufferStats;
 import com.srotya.sidewinder.core.storage.compression.ValueCodec;
 import com.srotya.sidewinder.core.storage.compression.ValueWriter;
 import com.srotya.sidewinder.core.utils.ByteUtils;
@@ -28,15 +29,19 @@ import com.srotya.sidewinder.core.utils.ByteUtils;
 public class GorillaValueWriter implements ValueWriter {
 
 	public static final int MD5_PADDING = 32;
-	private boolean full;
+	// the md5 takes 16 bytes of the padding, the rest holds the buffer stats
+	private static final int STATS_OFFSET = MD5_PADDING - BufferStats.HEADER_BYTES;
+	private volatile boolean full;
 	private LinkedByteString bufferId;
 	private ByteBuffer buf;
 	private ValueCompressor compressor;
-	private int counter;
+	private volatile int counter;
 	private ByteBufferBitOutput output;
 	private int startOffset;
 	private int position;
 	private int checkSumLocaltion;
+	private BufferStats.Tracker tracker;
+	private volatile BufferStats stats;
 
 	@Override
 	public void configure(ByteBuffer buf, boolean isNew, int startOffset) throws IOException {
@@ -48,10 +53,12 @@ public class GorillaValueWriter implements ValueWriter {
 			counter = buf.getInt();
 			// forward to the end
 			position = buf.getInt();
+			stats = BufferStats.readHeader(buf, checkSumLocaltion + STATS_OFFSET, counter);
 			// forwardToEnd();
 		} else {
 			buf.putInt(0);
 			buf.putInt(0);
+			tracker = new BufferStats.Tracker();
 		}
 		output = new ByteBufferBitOutput(buf);
 		compressor = new ValueCompressor(output);
@@ -68,6 +75,12 @@ public class GorillaValueWriter implements ValueWriter {
 	@Override
 	public void add(long value) throws IOException {
 		compressor.compressValue(value);
+		output.publish();
+		if (tracker != null) {
+			tracker.update(value);
+		}
+		// the count is published after the point bytes and stats, readers are capped
+		// to it
 		counter++;
 	}
 
@@ -79,9 +92,13 @@ public class GorillaValueWriter implements ValueWriter {
 
 	@Override
 	public GorillaValueReader getReader() throws IOException {
+		// read the committed count first, every point before it is visible
+		int committed = counter;
 		ByteBuffer duplicate = buf.duplicate();
 		duplicate.rewind();
 		GorillaValueReader reader = new GorillaValueReader(duplicate, startOffset, checkSumLocaltion);
+		reader.limit(committed);
+		reader.retain(this);
 		return reader;
 	}
 
@@ -109,7 +126,13 @@ public class GorillaValueWriter implements ValueWriter {
 	public void makeReadOnly(boolean recovery) throws IOException {
 		// this writer is always readonly
 		if (compressor != null && !recovery) {
+			if (output.hasPendingBits()) {
+				// the last value may end in a partial byte, it must be within the position
+				// so that copies of the raw bytes include it
+				output.flush();
+			}
 			updateCount();
+			getStats().writeHeader(buf, checkSumLocaltion + STATS_OFFSET);
 			// compute md5 and store
 			try {
 				// cache old position so the buf position can be reset
@@ -144,11 +167,28 @@ public class GorillaValueWriter implements ValueWriter {
 		return counter;
 	}
 
+	@Override
+	public BufferStats getStats() throws IOException {
+		if (tracker != null) {
+			return tracker.snapshot(counter);
+		} else if (stats == null) {
+			// recovered buffer without stats in its header, they are built once since
+			// this writer is read-only
+			stats = BufferStats.fromReader(getReader());
+		}
+		return stats;
+	}
+
 	@Override
 	public boolean isFull() {
 		return full;
 	}
 
+	@Override
+	public void seal() {
+		full = true;
+	}
+
 	@Override
 	public boolean isReadOnly() {
 		return true;
@@ -0,0 +1,261 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.disk;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Logger;
+
+/**
+ * Places the data of measurements on the configured data directories. A
+ * measurement stays on the directory it was first created on, new
+ * measurements go to the directory with the most projected free space, which
+ * is the usable space of its file system minus the space the file system is
+ * observed to consume over {@link #CONF_PLACEMENT_RATE_HORIZON}. Directories
+ * whose projected free space is within {@link #CONF_PLACEMENT_FREE_SLACK} of
+ * the best one are considered equal and the one holding the fewest
+ * measurements wins, so directories sharing a file system are filled round
+ * robin.
+ * 
+ * @author ambud
+ */
+public class DataPlacement {
+
+	public static final String CONF_PLACEMENT_FREE_SLACK = "placement.free.slack";
+	public static final String DEFAULT_PLACEMENT_FREE_SLACK = "0.1";
+	public static final String CONF_PLACEMENT_RATE_HORIZON = "placement.rate.horizon";
+	public static final String DEFAULT_PLACEMENT_RATE_HORIZON = "3600";
+	private static final long SAMPLE_INTERVAL = 10_000;
+	private static final Logger logger = Logger.getLogger(DataPlacement.class.getName());
+	private final String[] dataDirs;
+	private final double freeSlack;
+	private final long rateHorizon;
+	private final Map<String, String> placements;
+	private final int[] counts;
+	private final StoreStats[] stores;
+
+	public DataPlacement(String[] dataDirs, Map<String, String> conf) {
+		this.dataDirs = dataDirs;
+		this.freeSlack = Double
+				.parseDouble(conf.getOrDefault(CONF_PLACEMENT_FREE_SLACK, DEFAULT_PLACEMENT_FREE_SLACK));
+		this.rateHorizon = Long
+				.parseLong(conf.getOrDefault(CONF_PLACEMENT_RATE_HORIZON, DEFAULT_PLACEMENT_RATE_HORIZON));
+		placements = new HashMap<>();
+		counts = new int[dataDirs.length];
+		stores = new StoreStats[dataDirs.length];
+		Map<Object, StoreStats> storeMap = new HashMap<>();
+		for (int i = 0; i < dataDirs.length; i++) {
+			File dir = new File(dataDirs[i]);
+			stores[i] = storeMap.computeIfAbsent(storeKey(dir), k -> new StoreStats(dir));
+		}
+	}
+
+	/**
+	 * @param dir
+	 * @return key identifying the file system of the directory
+	 */
+	protected Object storeKey(File dir) {
+		try {
+			return Files.getFileStore(dir.toPath());
+		} catch (IOException e) {
+			return dir.getAbsolutePath();
+		}
+	}
+
+	protected long getUsableSpace(File dir) {
+		return dir.getUsableSpace();
+	}
+
+	/**
+	 * @param dbName
+	 * @return directory holding the metadata of the database
+	 */
+	public String getHomeDirectory(String dbName) {
+		return dataDirs[Math.floorMod(dbName.hashCode(), dataDirs.length)];
+	}
+
+	/**
+	 * Record the directory an existing measurement was found on
+	 * 
+	 * @param dbName
+	 * @param measurementName
+	 * @param dataDir
+	 * @return false if the measurement is already placed on another directory
+	 */
+	public synchronized boolean assign(String dbName, String measurementName, String dataDir) {
+		String key = key(dbName, measurementName);
+		String existing = placements.get(key);
+		if (existing != null) {
+			return existing.equals(dataDir);
+		}
+		placements.put(key, dataDir);
+		counts[indexOf(dataDir)]++;
+		return true;
+	}
+
+	/**
+	 * @param dbName
+	 * @param measurementName
+	 * @return directory of the measurement, placing it if it's new
+	 */
+	public synchronized String locate(String dbName, String measurementName) {
+		String key = key(dbName, measurementName);
+		String dir = placements.get(key);
+		if (dir == null) {
+			dir = choose(getHomeDirectory(dbName), System.currentTimeMillis());
+			placements.put(key, dir);
+			counts[indexOf(dir)]++;
+			logger.fine("Placed measurement:" + measurementName + " db:" + dbName + " on:" + dir);
+		}
+		return dir;
+	}
+
+	/**
+	 * @param dbName
+	 * @param measurementName
+	 * @return directory the measurement is placed on, null if it isn't placed
+	 */
+	public synchronized String getDirectory(String dbName, String measurementName) {
+		return placements.get(key(dbName, measurementName));
+	}
+
+	public synchronized void remove(String dbName, String measurementName) {
+		String dir = placements.remove(key(dbName, measurementName));
+		if (dir != null) {
+			counts[indexOf(dir)]--;
+		}
+	}
+
+	public synchronized void removeDatabase(String dbName) {
+		String prefix = dbName + "/";
+		for (Iterator<Entry<String, String>> itr = placements.entrySet().iterator(); itr.hasNext();) {
+			Entry<String, String> entry = itr.next();
+			if (entry.getKey().startsWith(prefix)) {
+				counts[indexOf(entry.getValue())]--;
+				itr.remove();
+			}
+		}
+	}
+
+	synchronized String choose(String preferred, long now) {
+		double[] projected = new double[dataDirs.length];
+		double best = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < dataDirs.length; i++) {
+			projected[i] = stores[i].projectedFree(now);
+			best = Math.max(best, projected[i]);
+		}
+		int chosen = -1;
+		for (int i = 0; i < dataDirs.length; i++) {
+			if (projected[i] < best - Math.abs(best) * freeSlack) {
+				continue;
+			}
+			if (chosen < 0 || counts[i] < counts[chosen]
+					|| (counts[i] == counts[chosen] && dataDirs[i].equals(preferred))) {
+				chosen = i;
+			}
+		}
+		return dataDirs[chosen];
+	}
+
+	/**
+	 * Order items so consecutive ones are on different directories, e.g. to
+	 * keep all disks busy when the items are processed by a pool
+	 * 
+	 * @param byDirectory
+	 * @return items of all directories interleaved
+	 */
+	public static <T> List<T> interleave(Map<String, List<T>> byDirectory) {
+		List<T> result = new ArrayList<>();
+		List<Iterator<T>> iterators = new ArrayList<>();
+		for (List<T> list : byDirectory.values()) {
+			iterators.add(list.iterator());
+		}
+		boolean added = true;
+		while (added) {
+			added = false;
+			for (Iterator<T> itr : iterators) {
+				if (itr.hasNext()) {
+					result.add(itr.next());
+					added = true;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return number of measurements placed on each data directory
+	 */
+	public synchronized Map<String, Integer> getPlacementCounts() {
+		Map<String, Integer> result = new LinkedHashMap<>();
+		for (int i = 0; i < dataDirs.length; i++) {
+			result.put(dataDirs[i], counts[i]);
+		}
+		return result;
+	}
+
+	private int indexOf(String dataDir) {
+		for (int i = 0; i < dataDirs.length; i++) {
+			if (dataDirs[i].equals(dataDir)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unknown data directory:" + dataDir);
+	}
+
+	private static String key(String dbName, String measurementName) {
+		return dbName + "/" + measurementName;
+	}
+
+	/**
+	 * Free space and consumption rate of a file system, shared by the data
+	 * directories on it
+	 */
+	private final class StoreStats {
+
+		private final File dir;
+		private long lastSample;
+		private long lastFree;
+		private double rate;
+
+		private StoreStats(File dir) {
+			this.dir = dir;
+		}
+
+		private double projectedFree(long now) {
+			if (lastSample == 0 || now - lastSample >= SAMPLE_INTERVAL) {
+				long free = getUsableSpace(dir);
+				if (lastSample > 0) {
+					double current = Math.max(0, lastFree - free) * 1000.0 / (now - lastSample);
+					rate = rate == 0 ? current : rate * 0.7 + current * 0.3;
+				}
+				lastFree = free;
+				lastSample = now;
+			}
+			return lastFree - rate * rateHorizon;
+		}
+
+	}
+
+}
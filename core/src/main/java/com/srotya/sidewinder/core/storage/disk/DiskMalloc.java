@@ -23,12 +23,19 @@ import java.io.RandomAccessFile;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -43,19 +50,19 @@ import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
 import com.srotya.sidewinder.core.monitoring.MetricsRegistryService;
 import com.srotya.sidewinder.core.storage.BufferObject;
+import com.srotya.sidewinder.core.storage.BufferSizePolicy;
 import com.srotya.sidewinder.core.storage.ByteString;
-import com.srotya.sidewinder.core.storage.ByteString.ByteStringCache;
 import com.srotya.sidewinder.core.storage.LinkedByteString;
 import com.srotya.sidewinder.core.storage.Malloc;
 import com.srotya.sidewinder.core.storage.StorageEngine;
-import com.srotya.sidewinder.core.utils.MiscUtils;
+import com.srotya.sidewinder.core.storage.disk.FreeExtentList.Extent;
+import com.srotya.sidewinder.core.storage.disk.PtrFileFormat.PtrVisitor;
 
 /**
  * @author ambud
  */
 public class DiskMalloc implements Malloc {
 
-	public static final int BUF_PARTS_LENGTH = 9;
 	public static boolean debug = false;
 	private static final int PTR_INCREMENT = 1048576;
 	public static final ByteString SEPARATOR = new ByteString(")");
@@ -66,6 +73,12 @@ public class DiskMalloc implements Malloc {
 	public static final String CONF_MALLOC_PTRFILE_INCREMENT = "malloc.ptrfile.increment";
 	public static final String CONF_MEASUREMENT_FILE_MAX = "malloc.file.max";
 	public static final String CONF_MEASUREMENT_FILE_INCREMENT = "malloc.file.increment";
+	public static final String CONF_MALLOC_FREELIST_ENABLED = "malloc.freelist.enabled";
+	public static final String DEFAULT_MALLOC_FREELIST_ENABLED = "true";
+	// minimum seconds a freed buffer range is kept out of allocation, it's also kept
+	// out for as long as the writer or any reader of the buffer is reachable
+	public static final String CONF_MALLOC_FREELIST_REUSE_DELAY = "malloc.freelist.reuse.delay";
+	public static final String DEFAULT_MALLOC_FREELIST_REUSE_DELAY = "60";
 	private ReentrantLock lock;
 	private int ptrFileIncrement;
 	private int itr;
@@ -78,20 +91,29 @@ public class DiskMalloc implements Malloc {
 	private long maxFileSize;
 	private ByteString filename;
 	private RandomAccessFile rafActiveFile;
+	private int fileNumber;
 	private String dataDirectory;
 	private long offset;
 	private MappedByteBuffer ptrBuf;
 	private RandomAccessFile rafPtr;
 	private File ptrFile;
-	private ByteStringCache cache;
+	private Map<String, Integer> keyIds;
+	private Map<Integer, ByteString> keys;
+	private int nextKeyId;
 
 	private volatile int ptrCounter;
+	private volatile long allocatedBytes;
 	private boolean enableMetricsCapture;
 	private Counter metricsBufferSize;
 	private Counter metricsBufferResize;
 	private Counter metricsFileRotation;
 	private Counter metricsBufferCounter;
+	private Counter metricsBufferReuse;
 	private Map<ByteString, WeakReference<MappedByteBuffer>> oldBufferReferences;
+	private Map<String, Relocation> relocations;
+	private FreeExtentList freeExtents;
+	private Map<Long, WeakReference<LinkedByteString>> bufferReferences;
+	private BufferSizePolicy bufferSizePolicy;
 
 	@Override
 	public void configure(Map<String, String> conf, String dataDirectory, String measurementName, StorageEngine engine,
@@ -102,6 +124,7 @@ public class DiskMalloc implements Malloc {
 		this.fileMapIncrement = getFileIncrement(conf);
 		this.maxFileSize = getMaxFileSize(conf);
 		this.increment = getBufIncrement(conf);
+		this.bufferSizePolicy = new BufferSizePolicy(conf);
 		if (maxFileSize < 0) {
 			throw new IllegalArgumentException("File size can't be negative or greater than:" + Integer.MAX_VALUE);
 		}
@@ -111,7 +134,19 @@ public class DiskMalloc implements Malloc {
 		this.ptrFile = new File(getPtrPath());
 		this.ptrFileIncrement = Integer
 				.parseInt(conf.getOrDefault(CONF_MALLOC_PTRFILE_INCREMENT, String.valueOf(PTR_INCREMENT)));
-		cache = ByteStringCache.instance();
+		keyIds = new HashMap<>();
+		keys = new HashMap<>();
+		relocations = new HashMap<>();
+		if (Boolean.parseBoolean(conf.getOrDefault(CONF_MALLOC_FREELIST_ENABLED, DEFAULT_MALLOC_FREELIST_ENABLED))) {
+			// freed buffers are kept out of allocation while queries may still read them
+			long reuseDelay = Long.parseLong(
+					conf.getOrDefault(CONF_MALLOC_FREELIST_REUSE_DELAY, DEFAULT_MALLOC_FREELIST_REUSE_DELAY));
+			if (reuseDelay < 0) {
+				throw new IllegalArgumentException("Free list reuse delay can't be negative:" + reuseDelay);
+			}
+			freeExtents = new FreeExtentList(new File(this.dataDirectory + "/.free"), reuseDelay * 1000);
+			bufferReferences = new ConcurrentHashMap<>();
+		}
 		if (engine != null) {
 			enableMetricsCapture = true;
 			MetricsRegistryService reg = MetricsRegistryService.getInstance(engine, bgTaskPool);
@@ -120,6 +155,7 @@ public class DiskMalloc implements Malloc {
 			metricsBufferResize = r.counter("buffer-resize");
 			metricsFileRotation = r.counter("file-rotation");
 			metricsBufferCounter = r.counter("buffer-counter");
+			metricsBufferReuse = r.counter("buffer-reuse");
 		}
 		if (debug) {
 			oldBufferReferences = new ConcurrentHashMap<>();
@@ -146,67 +182,287 @@ public class DiskMalloc implements Malloc {
 		return createNewBuffer(fieldId, tsBucket, increment);
 	}
 
+	@Override
+	public BufferSizePolicy getBufferSizePolicy() {
+		return bufferSizePolicy;
+	}
+
 	@Override
 	public BufferObject createNewBuffer(LinkedByteString fieldId, Integer tsBucket, int newSize) throws IOException {
 		logger.fine(() -> "Seriesid:" + fieldId + " requesting buffer of size:" + newSize);
-		if (rafActiveFile == null) {
-			lock.lock();
-			if (rafActiveFile == null) {
-				filename = new ByteString(dataDirectory + "/data-" + String.format("%012d", fcnt) + ".dat");
-				rafActiveFile = new RandomAccessFile(filename.toString(), "rwd");
-				offset = 0;
-				logger.info("Creating new datafile for measurement:" + filename);
-				memoryMappedBuffer = rafActiveFile.getChannel().map(MapMode.READ_WRITE, 0, fileMapIncrement);
-				fcnt++;
-				if (enableMetricsCapture) {
-					metricsFileRotation.inc();
+		lock.lock();
+		try {
+			if (freeExtents != null) {
+				Extent extent = freeExtents.allocate(newSize, System.currentTimeMillis());
+				if (extent != null) {
+					return reuseExtent(fieldId, tsBucket, extent);
 				}
 			}
+			ensureCapacity(newSize);
+			LinkedByteString ptrKey = appendBufferPointersToDisk(fieldId, fileNumber, offset + curr, newSize, tsBucket);
+			ByteBuffer buf = sliceActiveFile(newSize);
+			allocatedBytes += newSize;
+			if (enableMetricsCapture) {
+				metricsBufferCounter.inc();
+			}
+			return new BufferObject(ptrKey, buf);
+		} finally {
 			lock.unlock();
 		}
+	}
+
+	/**
+	 * Make room for a buffer of the supplied size in the mapped region of the
+	 * active data file, mapping the next region or rotating the data file if
+	 * needed. Must be called with the lock held.
+	 * 
+	 * @param newSize
+	 * @throws IOException
+	 */
+	private void ensureCapacity(int newSize) throws IOException {
+		if (rafActiveFile == null) {
+			fileNumber = fcnt;
+			filename = new ByteString(dataDirectory + "/" + fileName(fileNumber));
+			rafActiveFile = new RandomAccessFile(filename.toString(), "rw");
+			offset = 0;
+			logger.info("Creating new datafile for measurement:" + filename);
+			memoryMappedBuffer = rafActiveFile.getChannel().map(MapMode.READ_WRITE, 0, fileMapIncrement);
+			fcnt++;
+			if (enableMetricsCapture) {
+				metricsFileRotation.inc();
+			}
+		}
+		if (curr + newSize < 0 || curr + newSize > memoryMappedBuffer.remaining() + 1) {
+			curr = 0;
+			itr++;
+			offset = (((long) (fileMapIncrement)) * itr);
+			// close the current data file, increment the filename by 1 so
+			// that a new data file will be created next time a buffer is
+			// requested
+			if (offset >= maxFileSize) {
+				itr = 0;
+				logger.info("Rotating datafile for measurement:" + measurementName + " closing active file:"
+						+ filename);
+				// written back by the flush scheduler, not on the allocation path
+				rafActiveFile.close();
+				rafActiveFile = null;
+				ensureCapacity(newSize);
+				return;
+			}
+			// used for GC testing and debugging
+			if (oldBufferReferences != null) {
+				oldBufferReferences.put(filename, new WeakReference<MappedByteBuffer>(memoryMappedBuffer));
+			}
+			memoryMappedBuffer = rafActiveFile.getChannel().map(MapMode.READ_WRITE, offset, fileMapIncrement);
+			logger.fine("Buffer expansion:" + offset + "\t\t" + curr);
+			if (enableMetricsCapture) {
+				metricsBufferResize.inc();
+				metricsBufferSize.inc(fileMapIncrement);
+			}
+		}
+	}
+
+	/**
+	 * Allocate a buffer in a free extent of a data file, the stale contents of
+	 * the freed buffer are zeroed out. Must be called with the lock held.
+	 */
+	private BufferObject reuseExtent(LinkedByteString fieldId, Integer tsBucket, Extent extent) throws IOException {
+		ByteBuffer buf;
+		try (RandomAccessFile raf = new RandomAccessFile(dataDirectory + "/" + fileName(extent.getFileNumber()),
+				"rw")) {
+			buf = raf.getChannel().map(MapMode.READ_WRITE, extent.getPosition(), extent.getSize());
+		}
+		while (buf.remaining() >= Long.BYTES) {
+			buf.putLong(0);
+		}
+		while (buf.hasRemaining()) {
+			buf.put((byte) 0);
+		}
+		buf.rewind();
+		LinkedByteString ptrKey = appendBufferPointersToDisk(fieldId, extent.getFileNumber(), extent.getPosition(),
+				extent.getSize(), tsBucket);
+		allocatedBytes += extent.getSize();
+		logger.fine(() -> "Reusing " + extent + " for field:" + fieldId);
+		if (enableMetricsCapture) {
+			metricsBufferCounter.inc();
+			metricsBufferReuse.inc();
+		}
+		return new BufferObject(ptrKey, buf);
+	}
+
+	private ByteBuffer sliceActiveFile(int newSize) {
+		ByteBuffer buf = memoryMappedBuffer.slice();
+		buf.limit(newSize);
+		curr = curr + newSize;
+		memoryMappedBuffer.position(curr);
+		logger.fine(() -> "Position:" + buf.position() + "\t" + buf.limit() + "\t" + buf.capacity());
+		return buf;
+	}
+
+	/**
+	 * Copy an immutable buffer to the active data file. The ptr file keeps
+	 * pointing to the original until {@link #commitRelocations()} swaps all
+	 * pending relocations in at once, a crash before that recovers the original.
+	 */
+	@Override
+	public BufferObject relocateBuffer(LinkedByteString bufferId, ByteBuffer source) throws IOException {
+		List<ByteString> parts = bufferId.getStringList();
+		// field key followed by: )file)position)size)bucket
+		String[] suffix = parts.get(parts.size() - 1).toString().split("\\" + SEPARATOR);
+		int size = Integer.parseInt(suffix[3]);
+		int tsBucket = Integer.parseInt(suffix[4], 16);
 		lock.lock();
 		try {
-			if (curr + newSize < 0 || curr + newSize > memoryMappedBuffer.remaining() + 1) {
-				curr = 0;
-				itr++;
-				offset = (((long) (fileMapIncrement)) * itr);
-				// close the current data file, increment the filename by 1 so
-				// that a new data file will be created next time a buffer is
-				// requested
-				if (offset >= maxFileSize) {
-					itr = 0;
-					logger.info("Rotating datafile for measurement:" + measurementName + " closing active file:"
-							+ filename);
-					memoryMappedBuffer.force();
-					rafActiveFile.close();
-					rafActiveFile = null;
-					return createNewBuffer(fieldId, tsBucket, newSize);
-				}
-				// used for GC testing and debugging
-				if (oldBufferReferences != null) {
-					oldBufferReferences.put(filename, new WeakReference<MappedByteBuffer>(memoryMappedBuffer));
+			ensureCapacity(size);
+			long position = offset + curr;
+			ByteBuffer buf = sliceActiveFile(size);
+			allocatedBytes += size;
+			ByteBuffer copy = source.duplicate();
+			copy.clear();
+			copy.limit(Math.min(size, copy.capacity()));
+			buf.put(copy);
+			buf.rewind();
+			LinkedByteString newBufferId = new LinkedByteString(parts.size());
+			for (int i = 0; i < parts.size() - 1; i++) {
+				newBufferId.concat(parts.get(i));
+			}
+			newBufferId.concat(bufferIdSuffix(fileName(fileNumber), position, size, tsBucket));
+			trackBuffer(fileNumber, position, newBufferId);
+			relocations.put(newBufferId.toString(), new Relocation(bufferId.toString(), fileNumber, position));
+			return new BufferObject(newBufferId, buf);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Atomically replace the pointers of all relocated buffers with their new
+	 * location and delete data files that are no longer referenced
+	 */
+	@Override
+	public int commitRelocations() throws IOException {
+		lock.lock();
+		try {
+			if (relocations.isEmpty()) {
+				return 0;
+			}
+			Map<String, Relocation> byOriginal = new HashMap<>();
+			for (Relocation relocation : relocations.values()) {
+				byOriginal.put(relocation.originalBufferId, relocation);
+			}
+			Set<String> fileSet = new HashSet<>();
+			int[] counts = new int[2];
+			ByteBuffer image = ByteBuffer.allocate(PtrFileFormat.getEnd(ptrBuf));
+			image.position(PtrFileFormat.HEADER_SIZE);
+			PtrFileFormat.read(ptrBuf, new PtrVisitor() {
+
+				@Override
+				public void key(int recordOffset, int keyId, ByteString key) {
+					copyRecord(recordOffset, PtrFileFormat.keyRecordSize(key.length()), image);
 				}
-				memoryMappedBuffer = rafActiveFile.getChannel().map(MapMode.READ_WRITE, offset, fileMapIncrement);
-				logger.fine("Buffer expansion:" + offset + "\t\t" + curr);
-				if (enableMetricsCapture) {
-					metricsBufferResize.inc();
-					metricsBufferSize.inc(fileMapIncrement);
+
+				@Override
+				public void buffer(int recordOffset, int keyId, int fileNumber, long position, int size,
+						int bucket) {
+					String bufferId = keys.get(keyId) + bufferIdSuffix(fileName(fileNumber), position, size, bucket).toString();
+					Relocation relocation = byOriginal.get(bufferId);
+					if (relocation != null) {
+						PtrFileFormat.writeBufferRecord(image, keyId, relocation.fileNumber, relocation.position, size,
+								bucket);
+						freeExtent(fileNumber, position, size);
+						fileNumber = relocation.fileNumber;
+						counts[1]++;
+					} else {
+						copyRecord(recordOffset, PtrFileFormat.BUFFER_RECORD_SIZE, image);
+					}
+					fileSet.add(fileName(fileNumber));
+					counts[0]++;
 				}
+			});
+			PtrFileFormat.writeHeader(image, counts[0], image.position());
+			image.flip();
+			replacePtrFile(image);
+			ptrCounter = counts[0];
+			relocations.clear();
+			logger.info("Relocated " + counts[1] + " buffers for measurement:" + measurementName);
+			if (rafActiveFile != null) {
+				fileSet.add(fileName(fileNumber));
 			}
-			LinkedByteString ptrKey = appendBufferPointersToDisk(fieldId, filename, curr, offset, newSize, tsBucket);
-			ByteBuffer buf = memoryMappedBuffer.slice();
-			buf.limit(newSize);
-			curr = curr + newSize;
-			memoryMappedBuffer.position(curr);
-			logger.fine(() -> "Position:" + buf.position() + "\t" + buf.limit() + "\t" + buf.capacity());
-			if (enableMetricsCapture) {
-				metricsBufferCounter.inc();
+			deleteFilesExcept(fileSet);
+			saveFreeExtents();
+			return counts[1];
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return live vs. on disk bytes of every data file of this measurement
+	 * @throws IOException
+	 */
+	public Map<String, FileStats> getFileStats() throws IOException {
+		lock.lock();
+		try {
+			Map<String, FileStats> stats = new HashMap<>();
+			File[] files = new File(dataDirectory).listFiles((dir, name) -> name.endsWith(".dat"));
+			if (files != null) {
+				// until the next allocation opens a new file the last written one is the tail
+				String tail = fileName(rafActiveFile != null ? fileNumber : fcnt - 1);
+				for (File file : files) {
+					boolean active = file.getName().equals(tail);
+					stats.put(file.getName(), new FileStats(file.getName(), file.length(), active));
+				}
 			}
-			return new BufferObject(ptrKey, buf);
+			PtrFileFormat.read(ptrBuf, new PtrVisitor() {
+
+				@Override
+				public void key(int recordOffset, int keyId, ByteString key) {
+				}
+
+				@Override
+				public void buffer(int recordOffset, int keyId, int fileNumber, long position, int size,
+						int bucket) {
+					FileStats fileStats = stats.get(fileName(fileNumber));
+					if (fileStats != null) {
+						fileStats.liveBytes += size;
+						fileStats.bufferCount++;
+					}
+				}
+			});
+			return stats;
 		} finally {
 			lock.unlock();
 		}
+	}
 
+	/**
+	 * @param fileNames
+	 * @return ids of the buffers stored in the supplied data files
+	 * @throws IOException
+	 */
+	public Set<String> getBufferIds(Set<String> fileNames) throws IOException {
+		lock.lock();
+		try {
+			Set<String> bufferIds = new HashSet<>();
+			PtrFileFormat.read(ptrBuf, new PtrVisitor() {
+
+				@Override
+				public void key(int recordOffset, int keyId, ByteString key) {
+				}
+
+				@Override
+				public void buffer(int recordOffset, int keyId, int fileNumber, long position, int size,
+						int bucket) {
+					String fileName = fileName(fileNumber);
+					if (fileNames.contains(fileName)) {
+						bufferIds.add(keys.get(keyId) + bufferIdSuffix(fileName, position, size, bucket).toString());
+					}
+				}
+			});
+			return bufferIds;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
@@ -243,8 +499,7 @@ public class DiskMalloc implements Malloc {
 		// fix file sequencing since compaction & garbage collection will delete old
 		// files and this will prevent them from being overwritten
 		if (listFiles.length > 0) {
-			fcnt = Integer.parseInt(listFiles[listFiles.length - 1].getName().replace("data-", "").replace(".dat", ""))
-					+ 1;
+			fcnt = fileNumber(listFiles[listFiles.length - 1].getName()) + 1;
 		}
 		Map<ByteString, List<Entry<Integer, BufferObject>>> seriesBuffers = new HashMap<>();
 		sliceMappedBuffersForBuckets(bufferMap, seriesBuffers);
@@ -255,35 +510,62 @@ public class DiskMalloc implements Malloc {
 			Map<ByteString, List<Entry<Integer, BufferObject>>> seriesBuffers) throws IOException {
 		ptrCounter = 0;
 		initializePtrFile();
-		for (int i = 0; i < ptrCounter; i++) {
-			String line = MiscUtils.getStringFromBuffer(ptrBuf).trim();
-			String[] splits = line.split("\\" + SEPARATOR);
-			logger.finer("Reading line:" + Arrays.toString(splits));
-			String fileName = splits[1];
-			int positionOffset = Integer.parseInt(splits[3]);
-			String seriesIdStr = splits[0];
-			int pointer = Integer.parseInt(splits[2]);
-			int size = Integer.parseInt(splits[4]);
-			MappedByteBuffer buf = bufferMap.get(fileName);
-			int position = positionOffset + pointer;
-			buf.position(position);
-			String tsBucket = splits[5];
-			ByteBuffer slice = buf.slice();
-			slice.limit(size);
-
-			ByteString seriesId = new ByteString(seriesIdStr);
-			LinkedByteString bsLine = new LinkedByteString(BUF_PARTS_LENGTH);
-			bsLine.concat(seriesId).concat(SEPARATOR).concat(cache.get(new ByteString(splits[1]))).concat(SEPARATOR)
-					.concat(new ByteString(splits[2])).concat(SEPARATOR).concat(new ByteString(splits[3]))
-					.concat(SEPARATOR).concat(new ByteString(splits[4]));
-
-			List<Entry<Integer, BufferObject>> list = seriesBuffers.get(seriesId);
-			if (list == null) {
-				list = new ArrayList<>();
-				seriesBuffers.put(seriesId, list);
-			}
-			list.add(new AbstractMap.SimpleEntry<>(Integer.parseInt(tsBucket, 16), new BufferObject(bsLine, slice)));
+		if (freeExtents != null) {
+			if (freeExtents.load()) {
+				Set<Integer> fileNumbers = new HashSet<>();
+				for (String fileName : bufferMap.keySet()) {
+					fileNumbers.add(fileNumber(fileName));
+				}
+				freeExtents.retainFiles(fileNumbers);
+			}
+			logger.fine("Loaded " + freeExtents.size() + " free extents of " + freeExtents.getFreeBytes()
+					+ " bytes for measurement:" + measurementName);
+		}
+		Map<Integer, String> fileNames = new HashMap<>();
+		int end = PtrFileFormat.read(ptrBuf, new PtrVisitor() {
+
+			@Override
+			public void key(int recordOffset, int keyId, ByteString key) {
+				addKey(keyId, key);
+			}
+
+			@Override
+			public void buffer(int recordOffset, int keyId, int fileNumber, long position, int size, int bucket) {
+				ptrCounter++;
+				if (freeExtents != null) {
+					// the free list may be older than the last allocations
+					freeExtents.reserve(fileNumber, position, size);
+				}
+				ByteString key = keys.get(keyId);
+				String fileName = fileNames.computeIfAbsent(fileNumber, DiskMalloc::fileName);
+				MappedByteBuffer buf = bufferMap.get(fileName);
+				if (key == null || buf == null) {
+					logger.severe("Skipping buffer pointer with missing key:" + keyId + " or data file:" + fileName
+							+ " for measurement:" + measurementName);
+					return;
+				}
+				ByteBuffer slice = buf.duplicate();
+				slice.position((int) position);
+				slice = slice.slice();
+				slice.limit(size);
+				LinkedByteString bufferId = new LinkedByteString(2).concat(key)
+						.concat(bufferIdSuffix(fileName, position, size, bucket));
+				trackBuffer(fileNumber, position, bufferId);
+				List<Entry<Integer, BufferObject>> list = seriesBuffers.get(key);
+				if (list == null) {
+					list = new ArrayList<>();
+					seriesBuffers.put(key, list);
+				}
+				list.add(new AbstractMap.SimpleEntry<>(bucket, new BufferObject(bufferId, slice)));
+			}
+		});
+		if (end != PtrFileFormat.getEnd(ptrBuf) || ptrCounter != PtrFileFormat.getCount(ptrBuf)) {
+			logger.severe("Ptr file for measurement:" + measurementName + " is corrupt after offset:" + end
+					+ ", recovered " + ptrCounter + " of " + PtrFileFormat.getCount(ptrBuf) + " buffer pointers");
+			PtrFileFormat.updateHeader(ptrBuf, ptrCounter, end);
 		}
+		ptrBuf.position(end);
+		logger.fine("Loaded " + ptrCounter + " buffer pointers for measurement:" + measurementName);
 	}
 
 	@Override
@@ -295,54 +577,138 @@ public class DiskMalloc implements Malloc {
 	}
 
 	private void initializePtrFile() throws FileNotFoundException, IOException {
-		if (ptrFile.exists()) {
-			rafPtr = new RandomAccessFile(ptrFile, "rwd");
+		if (ptrFile.exists() && ptrFile.length() >= Integer.BYTES) {
+			rafPtr = new RandomAccessFile(ptrFile, "rw");
 			ptrBuf = rafPtr.getChannel().map(MapMode.READ_WRITE, 0, ptrFile.length());
-			ptrCounter = ptrBuf.getInt();
-			logger.fine(
-					"Ptr file exists, will load " + ptrCounter + " series entries, file length:" + ptrFile.length());
+			if (!PtrFileFormat.isBinary(ptrBuf)) {
+				migrateLegacyPtrFile();
+			}
+			logger.fine("Ptr file exists, will load " + PtrFileFormat.getCount(ptrBuf)
+					+ " buffer pointers, file length:" + ptrFile.length());
 		} else {
-			rafPtr = new RandomAccessFile(ptrFile, "rwd");
-			ptrBuf = rafPtr.getChannel().map(MapMode.READ_WRITE, 0, ptrFileIncrement);
-			ptrBuf.putInt(ptrCounter);
+			rafPtr = new RandomAccessFile(ptrFile, "rw");
+			ptrBuf = rafPtr.getChannel().map(MapMode.READ_WRITE, 0,
+					Math.max(ptrFileIncrement, PtrFileFormat.HEADER_SIZE));
+			PtrFileFormat.writeHeader(ptrBuf, 0, PtrFileFormat.HEADER_SIZE);
 			logger.info("Ptr file is missing, creating one");
 		}
 	}
 
-	protected LinkedByteString appendBufferPointersToDisk(LinkedByteString seriesId, ByteString filename, int curr,
-			long offset, int size, Integer tsBucket) throws IOException {
+	/**
+	 * Rewrite a version 1 (text) ptr file in the binary format. The converted
+	 * file is written next to it and atomically moved in place so a crash leaves
+	 * either of the two intact.
+	 * 
+	 * @throws IOException
+	 */
+	private void migrateLegacyPtrFile() throws IOException {
+		logger.info("Migrating ptr file to binary format for measurement:" + measurementName);
+		replacePtrFile(PtrFileFormat.migrateLegacy(ptrBuf));
+		logger.info("Migrated " + PtrFileFormat.getCount(ptrBuf) + " buffer pointers to binary format for measurement:"
+				+ measurementName);
+	}
+
+	/**
+	 * Replace the ptr file with the supplied image. The image is written next to
+	 * it and atomically moved in place so a crash leaves either of the two
+	 * intact.
+	 * 
+	 * @param image
+	 * @throws IOException
+	 */
+	private void replacePtrFile(ByteBuffer image) throws IOException {
+		File tmp = new File(getPtrPath() + ".tmp");
+		try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			while (image.hasRemaining()) {
+				channel.write(image);
+			}
+			channel.force(true);
+		}
+		rafPtr.close();
+		Files.move(tmp.toPath(), ptrFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		rafPtr = new RandomAccessFile(ptrFile, "rw");
+		ptrBuf = rafPtr.getChannel().map(MapMode.READ_WRITE, 0, ptrFile.length());
+		ptrBuf.position(PtrFileFormat.getEnd(ptrBuf));
+	}
+
+	protected LinkedByteString appendBufferPointersToDisk(LinkedByteString fieldId, int fileNumber, long position,
+			int size, int tsBucket) throws IOException {
 		lock.lock();
 		try {
-			ByteString[] split = filename.split("/");
-			LinkedByteString line = new LinkedByteString(BUF_PARTS_LENGTH);
-			line.concat(seriesId).concat(SEPARATOR).concat(cache.get(split[split.length - 1])).concat(SEPARATOR)
-					.concat(String.valueOf(curr)).concat(SEPARATOR).concat(String.valueOf(offset)).concat(SEPARATOR)
-					.concat(String.valueOf(size)).concat(SEPARATOR).concat(Integer.toHexString(tsBucket)).concat("\n");
-			logger.fine("Measurement(" + measurementName + ")Appending pointer information to ptr file:" + line);
+			String key = fieldId.toString();
+			Integer keyId = keyIds.get(key);
+			byte[] keyBytes = null;
+			int length = PtrFileFormat.BUFFER_RECORD_SIZE;
+			if (keyId == null) {
+				keyBytes = fieldId.getBytes();
+				length += PtrFileFormat.keyRecordSize(keyBytes.length);
+			}
 			// resize
-			String strLine = line.toString();
-			byte[] bytes = strLine.getBytes();
-			if (ptrBuf.remaining() < bytes.length + Short.BYTES) {
-				logger.fine("Need to resize ptrbuf because ptrBufRem:" + ptrBuf.remaining() + " line:" + bytes.length);
+			if (ptrBuf.remaining() < length) {
+				logger.fine("Need to resize ptrbuf because ptrBufRem:" + ptrBuf.remaining() + " record:" + length);
 				int pos = ptrBuf.position();
-				int newSize = pos + ptrFileIncrement;
-				ptrBuf.force();
+				int newSize = pos + Math.max(ptrFileIncrement, length);
 				ptrBuf = rafPtr.getChannel().map(MapMode.READ_WRITE, 0, newSize);
 				// BUGFIX: missing pointer reset caused PTR file corruption
 				ptrBuf.position(pos);
-				logger.info("Resizing ptr file:" + ptrBuf.getInt(0) + " ptrcount:" + ptrCounter + " inc:"
-						+ ptrFileIncrement + " position:" + pos);
-			}
-			MiscUtils.writeStringToBuffer(strLine, ptrBuf);
-			ptrBuf.putInt(0, ++ptrCounter);
-			logger.fine(() -> "Measurement(" + measurementName + ") appending pointer information to ptr file:" + line
-					+ " pos:" + ptrBuf.position());
-			return line;
+				logger.info("Resizing ptr file:" + PtrFileFormat.getCount(ptrBuf) + " ptrcount:" + ptrCounter
+						+ " inc:" + ptrFileIncrement + " position:" + pos);
+			}
+			if (keyId == null) {
+				keyId = nextKeyId;
+				PtrFileFormat.writeKeyRecord(ptrBuf, keyId, keyBytes);
+				addKey(keyId, new ByteString(keyBytes));
+			}
+			PtrFileFormat.writeBufferRecord(ptrBuf, keyId, fileNumber, position, size, tsBucket);
+			PtrFileFormat.updateHeader(ptrBuf, ++ptrCounter, ptrBuf.position());
+			LinkedByteString bufferId = new LinkedByteString(fieldId.getStringList().size() + 1).concat(fieldId)
+					.concat(bufferIdSuffix(fileName(fileNumber), position, size, tsBucket));
+			trackBuffer(fileNumber, position, bufferId);
+			logger.fine(() -> "Measurement(" + measurementName + ") appending pointer information to ptr file:"
+					+ bufferId + " pos:" + ptrBuf.position());
+			return bufferId;
 		} finally {
 			lock.unlock();
 		}
 	}
 
+	private void addKey(int keyId, ByteString key) {
+		keys.put(keyId, key);
+		keyIds.put(key.toString(), keyId);
+		if (keyId >= nextKeyId) {
+			nextKeyId = keyId + 1;
+		}
+	}
+
+	/**
+	 * Buffer ids are the field key followed by this suffix, they are only kept in
+	 * memory and used to identify buffers for cleanup
+	 */
+	private static ByteString bufferIdSuffix(String fileName, long position, int size, int tsBucket) {
+		return new ByteString(SEPARATOR + fileName + SEPARATOR + position + SEPARATOR + size + SEPARATOR
+				+ Integer.toHexString(tsBucket));
+	}
+
+	/**
+	 * @param bufferId
+	 * @return name of the data file the buffer is stored in
+	 */
+	public static String bufferFileName(String bufferId) {
+		String[] split = bufferId.split("\\" + SEPARATOR);
+		return split[split.length - 4];
+	}
+
+	public static String fileName(int fileNumber) {
+		return "data-" + String.format("%012d", fileNumber) + ".dat";
+	}
+
+	public static int fileNumber(String fileName) {
+		return Integer.parseInt(fileName.replace("data-", "").replace(".dat", ""));
+	}
+
 	public void close() throws IOException {
 		lock.lock();
 		try {
@@ -352,14 +718,60 @@ public class DiskMalloc implements Malloc {
 			if (rafActiveFile != null) {
 				rafActiveFile.close();
 			}
+			syncDataFiles();
 			ptrBuf.force();
 			rafPtr.close();
+			saveFreeExtents();
 			logger.info("Closing measurement:" + measurementName);
 		} finally {
 			lock.unlock();
 		}
 	}
 
+	/**
+	 * Allocations aren't blocked while the files are synced, pointers and buffers
+	 * created before the call are covered
+	 */
+	@Override
+	public void sync() throws IOException {
+		MappedByteBuffer ptr;
+		lock.lock();
+		try {
+			allocatedBytes = 0;
+			ptr = ptrBuf;
+		} finally {
+			lock.unlock();
+		}
+		syncDataFiles();
+		ptr.force();
+	}
+
+	/**
+	 * @return bytes of buffers allocated since the last sync, writes into
+	 *         existing buffers aren't counted
+	 */
+	@Override
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * Buffers are written through mappings of several regions of each data file,
+	 * an fsync of the file writes back the pages dirtied through any of them
+	 */
+	private void syncDataFiles() throws IOException {
+		File[] files = new File(dataDirectory).listFiles((dir, name) -> name.endsWith(".dat"));
+		if (files != null) {
+			for (File file : files) {
+				try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+					channel.force(false);
+				} catch (NoSuchFileException e) {
+					// deleted by garbage collection
+				}
+			}
+		}
+	}
+
 	@Override
 	public void cleanupBufferIds(Set<String> cleanupList) throws IOException {
 		lock.lock();
@@ -367,68 +779,105 @@ public class DiskMalloc implements Malloc {
 			if (cleanupList.isEmpty()) {
 				return;
 			}
+			Set<String> removed = withRelocatedOriginals(cleanupList);
 			Map<String, Integer> fileSet = new HashMap<>();
-			ByteBuffer duplicate = ptrBuf.duplicate();
-			duplicate.rewind();
-			ByteBuffer temp = ByteBuffer.allocate(duplicate.capacity());
-			temp.putInt(0);
-			int tmpCounter = 0;
-			duplicate.getInt();
-			for (int i = 0; i < ptrCounter; i++) {
-				String line = MiscUtils.getStringFromBuffer(duplicate);
-				if (line.isEmpty()) {
-					throw new IOException("Empty line in ptrbuffer, ptr buffer is likely corrupt");
+			Map<Integer, Integer> keyRecords = new LinkedHashMap<>();
+			List<Integer> bufferRecords = new ArrayList<>();
+			Set<Integer> usedKeys = new HashSet<>();
+			int end = PtrFileFormat.read(ptrBuf, new PtrVisitor() {
+
+				@Override
+				public void key(int recordOffset, int keyId, ByteString key) {
+					keyRecords.put(keyId, recordOffset);
 				}
-				if (!cleanupList.contains(line)) {
-					MiscUtils.writeStringToBuffer(line, temp);
-					try {
-						String filename = line.split("\\" + SEPARATOR)[1];
-						Integer count = fileSet.get(filename);
-						if (count == null) {
-							count = 0;
+
+				@Override
+				public void buffer(int recordOffset, int keyId, int fileNumber, long position, int size,
+						int bucket) {
+					String fileName = fileName(fileNumber);
+					String bufferId = keys.get(keyId) + bufferIdSuffix(fileName, position, size, bucket).toString();
+					if (!removed.contains(bufferId)) {
+						bufferRecords.add(recordOffset);
+						usedKeys.add(keyId);
+						Integer count = fileSet.get(fileName);
+						fileSet.put(fileName, count == null ? 1 : count + 1);
+						logger.fine("Rewriting buffer:" + bufferId + " to ptr file for measurement:" + measurementName);
+					} else {
+						logger.fine("Removing buffer:" + bufferId
+								+ " from ptr file due to garbage collection for measurement:" + measurementName);
+						freeExtent(fileNumber, position, size);
+						if (enableMetricsCapture) {
+							metricsBufferCounter.dec();
 						}
-						count = count + 1;
-						fileSet.put(filename, count);
-					} catch (ArrayIndexOutOfBoundsException e) {
-						logger.severe("AOBException for buffer-cleanup:" + line + "=" + i + "=" + ptrCounter);
-						throw e;
 					}
-					tmpCounter++;
-					logger.fine("Rewriting line:" + line + " to ptr file for measurement:" + measurementName);
+				}
+			});
+			// rewrite the keys still in use followed by the remaining buffers, keys that
+			// are dropped are declared again if their field gets a new buffer
+			ByteBuffer temp = ByteBuffer.allocate(end);
+			temp.position(PtrFileFormat.HEADER_SIZE);
+			for (Entry<Integer, Integer> entry : keyRecords.entrySet()) {
+				ByteString key = keys.get(entry.getKey());
+				if (usedKeys.contains(entry.getKey())) {
+					copyRecord(entry.getValue(), PtrFileFormat.keyRecordSize(key.length()), temp);
 				} else {
-					logger.fine("Removing line:" + line + " from ptr file due to garbage collection for measurement:"
-							+ measurementName);
-					if (enableMetricsCapture) {
-						metricsBufferCounter.dec();
-					}
+					keys.remove(entry.getKey());
+					keyIds.remove(key.toString());
 				}
 			}
-			// rewrite buffers
-
-			// BUGFIX: without the buffer marker; the position was moved to the end of the
-			// buffer causing buffer to contain empty lines which errored out since this
-			// file is suppose to contain sequential binary data
+			for (Integer recordOffset : bufferRecords) {
+				copyRecord(recordOffset, PtrFileFormat.BUFFER_RECORD_SIZE, temp);
+			}
 			int mark = temp.position();
-			temp.putInt(0, tmpCounter);
-			ptrBuf.rewind();
-			temp.rewind();
-			temp.limit(mark);
-			ptrBuf.put(temp);
-			logger.fine("Swapped ptr buffers: " + "Counter:" + tmpCounter + " total:" + ptrBuf.getInt(0) + " before:"
-					+ ptrCounter + " pos:" + ptrBuf.position());
-			ptrCounter = tmpCounter;
+			PtrFileFormat.writeHeader(temp, bufferRecords.size(), mark);
+			temp.flip();
+			// rewriting the file in place would leave it torn on a crash
+			replacePtrFile(temp);
+			logger.fine("Swapped ptr buffers: " + "Counter:" + bufferRecords.size() + " before:" + ptrCounter + " pos:"
+					+ ptrBuf.position());
+			ptrCounter = bufferRecords.size();
 
 			for (Entry<String, Integer> entry : fileSet.entrySet()) {
 				logger.info("file stats:" + entry.getKey() + " bufs:" + entry.getValue());
 			}
+			if (rafActiveFile != null) {
+				// the active file is still being allocated from
+				fileSet.put(fileName(fileNumber), 0);
+			}
 
 			// check and delete data files
 			deleteFilesExcept(fileSet.keySet());
+			saveFreeExtents();
 		} finally {
 			lock.unlock();
 		}
 	}
 
+	/**
+	 * Relocated copies that haven't been committed are still referenced by the
+	 * pointer of the original buffer, which has to be removed instead
+	 */
+	private Set<String> withRelocatedOriginals(Set<String> cleanupList) {
+		if (relocations.isEmpty()) {
+			return cleanupList;
+		}
+		Set<String> removed = new HashSet<>(cleanupList);
+		for (String bufferId : cleanupList) {
+			Relocation relocation = relocations.remove(bufferId);
+			if (relocation != null) {
+				removed.add(relocation.originalBufferId);
+			}
+		}
+		return removed;
+	}
+
+	private void copyRecord(int recordOffset, int length, ByteBuffer target) {
+		ByteBuffer record = ptrBuf.duplicate();
+		record.limit(recordOffset + length);
+		record.position(recordOffset);
+		target.put(record);
+	}
+
 	private void deleteFilesExcept(Set<String> fileSet) throws IOException {
 		File[] files = new File(dataDirectory).listFiles(new FilenameFilter() {
 
@@ -454,6 +903,53 @@ public class DiskMalloc implements Malloc {
 			}
 		}
 		logger.info("GC: Remaining files:" + fileSet.size() + "; deleted:" + deleteCounter + " files");
+		if (freeExtents != null) {
+			Set<Integer> fileNumbers = new HashSet<>();
+			for (String fileName : fileSet) {
+				fileNumbers.add(fileNumber(fileName));
+			}
+			freeExtents.retainFiles(fileNumbers);
+		}
+	}
+
+	/**
+	 * Writers hold on to the buffer id handed out with their buffer and readers
+	 * hold on to their writer, the buffer is in use until the id is unreachable
+	 */
+	private void trackBuffer(int fileNumber, long position, LinkedByteString bufferId) {
+		if (bufferReferences != null) {
+			bufferReferences.put(extentKey(fileNumber, position), new WeakReference<>(bufferId));
+		}
+	}
+
+	private void freeExtent(int fileNumber, long position, int size) {
+		if (freeExtents != null) {
+			freeExtents.free(fileNumber, position, size, System.currentTimeMillis(),
+					bufferReferences.remove(extentKey(fileNumber, position)));
+		}
+	}
+
+	private static long extentKey(int fileNumber, long position) {
+		// positions are bounded by the maximum file size
+		return ((long) fileNumber << 32) | position;
+	}
+
+	private void saveFreeExtents() throws IOException {
+		if (freeExtents != null) {
+			freeExtents.save();
+		}
+	}
+
+	/**
+	 * @return bytes of data files held by freed buffers that can be reused
+	 */
+	public long getFreeBytes() {
+		lock.lock();
+		try {
+			return freeExtents == null ? 0 : freeExtents.getFreeBytes();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	private String getPtrPath() {
@@ -463,4 +959,84 @@ public class DiskMalloc implements Malloc {
 	public Map<ByteString, WeakReference<MappedByteBuffer>> getOldBufferReferences() {
 		return oldBufferReferences;
 	}
+
+	private static final class Relocation {
+
+		private final String originalBufferId;
+		private final int fileNumber;
+		private final long position;
+
+		private Relocation(String originalBufferId, int fileNumber, long position) {
+			this.originalBufferId = originalBufferId;
+			this.fileNumber = fileNumber;
+			this.position = position;
+		}
+
+	}
+
+	/**
+	 * Space usage of a data file
+	 */
+	public static final class FileStats {
+
+		private final String fileName;
+		private final long length;
+		private final boolean active;
+		private long liveBytes;
+		private int bufferCount;
+
+		private FileStats(String fileName, long length, boolean active) {
+			this.fileName = fileName;
+			this.length = length;
+			this.active = active;
+		}
+
+		public String getFileName() {
+			return fileName;
+		}
+
+		/**
+		 * @return size of the file on disk
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * @return true if this is the most recent data file, which buffers may still
+		 *         be allocated from
+		 */
+		public boolean isActive() {
+			return active;
+		}
+
+		/**
+		 * @return bytes referenced by buffer pointers
+		 */
+		public long getLiveBytes() {
+			return liveBytes;
+		}
+
+		public long getReclaimableBytes() {
+			return Math.max(0, length - liveBytes);
+		}
+
+		/**
+		 * @return fraction of the file referenced by buffer pointers
+		 */
+		public double getLiveRatio() {
+			return length == 0 ? 1.0 : (double) liveBytes / length;
+		}
+
+		public int getBufferCount() {
+			return bufferCount;
+		}
+
+		@Override
+		public String toString() {
+			return "FileStats [fileName=" + fileName + ", length=" + length + ", liveBytes=" + liveBytes
+					+ ", buffers=" + bufferCount + ", active=" + active + "]";
+		}
+
+	}
 }
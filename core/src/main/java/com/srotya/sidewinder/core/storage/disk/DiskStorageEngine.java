@@ -20,27 +20,42 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.google.gson.Gson;
 import com.srotya.sidewinder.core.monitoring.MetricsRegistryService;
+import com.srotya.sidewinder.core.rpc.BatchData;
+import com.srotya.sidewinder.core.rpc.Point;
 import com.srotya.sidewinder.core.storage.DBMetadata;
 import com.srotya.sidewinder.core.storage.Measurement;
+import com.srotya.sidewinder.core.storage.Series;
 import com.srotya.sidewinder.core.storage.StorageEngine;
 import com.srotya.sidewinder.core.storage.archival.Archiver;
 import com.srotya.sidewinder.core.storage.archival.NoneArchiver;
+import com.srotya.sidewinder.core.utils.BackgrounThreadFactory;
 import com.srotya.sidewinder.core.utils.MiscUtils;
 
 /**
@@ -54,6 +69,13 @@ public class DiskStorageEngine implements StorageEngine {
 	private static final String TMP_SIDEWINDER_DATA = "/tmp/sidewinder/data";
 	private static final String INDEX_DIR = "index.dir";
 	private static final String DATA_DIRS = "data.dir";
+	public static final String RECOVERY_THREADS = "recovery.threads";
+	public static final String RECOVERY_ASYNC = "recovery.async";
+	public static final String DEFAULT_RECOVERY_ASYNC = "false";
+	public static final String RECOVERY_LAZY = "recovery.lazy";
+	public static final String DEFAULT_RECOVERY_LAZY = "false";
+	public static final String IDLE_EVICTION_SECONDS = "measurement.idle.eviction.seconds";
+	public static final String DEFAULT_IDLE_EVICTION_SECONDS = "0";
 	private static final Logger logger = Logger.getLogger(DiskStorageEngine.class.getName());
 	private Map<String, Map<String, Measurement>> databaseMap;
 	private Map<String, DBMetadata> dbMetadataMap;
@@ -67,6 +89,19 @@ public class DiskStorageEngine implements StorageEngine {
 	private Counter metricsDbCounter;
 	private Counter metricsMeasurementCounter;
 	private Counter metricsWriteCounter;
+	private Counter metricsRecoveryTotal;
+	private Counter metricsRecoveryCompleted;
+	private Counter metricsRecoveryFailed;
+	private Counter metricsEvictionCounter;
+	private Counter metricsWalReplayed;
+	private Counter metricsCheckpoints;
+	private Map<String, MeasurementRecovery> pendingRecovery;
+	private ForkJoinPool recoveryPool;
+	private volatile long recoveryStart;
+	private volatile WriteAheadLog wal;
+	private FlushScheduler flushScheduler;
+	private DataPlacement placement;
+	private ExecutorService diskPool;
 
 	@Override
 	public void configure(Map<String, String> conf, ScheduledExecutorService bgTaskPool) throws IOException {
@@ -81,8 +116,13 @@ public class DiskStorageEngine implements StorageEngine {
 			new File(dataDir).mkdirs();
 		}
 		new File(baseIndexDirectory).mkdirs();
+		placement = new DataPlacement(dataDirs, conf);
+		if (dataDirs.length > 1) {
+			diskPool = Executors.newFixedThreadPool(dataDirs.length, new BackgrounThreadFactory("disk-maintenance"));
+		}
 		databaseMap = new ConcurrentHashMap<>();
 		dbMetadataMap = new ConcurrentHashMap<>();
+		pendingRecovery = new ConcurrentHashMap<>();
 
 		setCodecsForCompression(conf);
 
@@ -100,19 +140,10 @@ public class DiskStorageEngine implements StorageEngine {
 		if (bgTaskPool != null) {
 			if (Boolean.parseBoolean(conf.getOrDefault(GC_ENABLED, "true"))) {
 				bgTaskPool.scheduleAtFixedRate(() -> {
-					for (Entry<String, Map<String, Measurement>> measurementMap : databaseMap.entrySet()) {
-						for (Entry<String, Measurement> measurementEntry : measurementMap.getValue().entrySet()) {
-							Measurement value = measurementEntry.getValue();
-							try {
-								value.collectGarbage(archiver);
-							} catch (Exception e) {
-								logger.log(Level.SEVERE,
-										"Failed collect garbage for measurement:" + value.getMeasurementName(), e);
-							}
-							logger.log(Level.FINE, "Completed Measuremenet GC:" + measurementEntry.getKey());
-						}
-						logger.log(Level.FINE, "Completed DB GC:" + measurementMap.getKey());
-					}
+					forEachMeasurementByDisk("collect garbage", value -> {
+						value.collectGarbage(archiver);
+						logger.log(Level.FINE, "Completed Measuremenet GC:" + value.getMeasurementName());
+					});
 				}, Integer.parseInt(conf.getOrDefault(GC_FREQUENCY, DEFAULT_GC_FREQUENCY)),
 						Integer.parseInt(conf.getOrDefault(GC_DELAY, DEFAULT_GC_DELAY)), TimeUnit.SECONDS);
 			} else {
@@ -121,25 +152,237 @@ public class DiskStorageEngine implements StorageEngine {
 			if (Boolean.parseBoolean(conf.getOrDefault(StorageEngine.COMPACTION_ENABLED, "false"))) {
 				logger.info("Compaction is enabled");
 				bgTaskPool.scheduleAtFixedRate(() -> {
-					for (Entry<String, Map<String, Measurement>> measurementMap : databaseMap.entrySet()) {
-						for (Entry<String, Measurement> measurementEntry : measurementMap.getValue().entrySet()) {
-							Measurement value = measurementEntry.getValue();
-							try {
-								value.compact();
-							} catch (Exception e) {
-								logger.log(Level.SEVERE,
-										"Failed compaction for measurement:" + value.getMeasurementName(), e);
-							}
-						}
-					}
+					forEachMeasurementByDisk("compaction", value -> value.compact());
 				}, Integer.parseInt(conf.getOrDefault(COMPACTION_FREQUENCY, DEFAULT_COMPACTION_FREQUENCY)),
 						Integer.parseInt(conf.getOrDefault(COMPACTION_DELAY, DEFAULT_COMPACTION_DELAY)),
 						TimeUnit.SECONDS);
 			} else {
 				logger.warning("Compaction is disabled");
 			}
+			if (Boolean.parseBoolean(conf.getOrDefault(SegmentCompactor.SEGMENT_COMPACTION_ENABLED,
+					SegmentCompactor.DEFAULT_SEGMENT_COMPACTION_ENABLED))) {
+				logger.info("Segment compaction is enabled");
+				SegmentCompactor compactor = new SegmentCompactor(conf, this, bgTaskPool);
+				int frequency = Integer.parseInt(conf.getOrDefault(SegmentCompactor.SEGMENT_COMPACTION_FREQUENCY,
+						SegmentCompactor.DEFAULT_SEGMENT_COMPACTION_FREQUENCY));
+				bgTaskPool.scheduleAtFixedRate(() -> {
+					forEachMeasurementByDisk("segment compaction", value -> {
+						if (value instanceof PersistentMeasurement) {
+							compactor.compact((PersistentMeasurement) value);
+						}
+					});
+				}, frequency, frequency, TimeUnit.SECONDS);
+			}
+			int idleEviction = Integer
+					.parseInt(conf.getOrDefault(IDLE_EVICTION_SECONDS, DEFAULT_IDLE_EVICTION_SECONDS));
+			if (idleEviction > 0) {
+				logger.info("Measurements idle for " + idleEviction + "s will be evicted");
+				bgTaskPool.scheduleAtFixedRate(() -> evictIdleMeasurements(), idleEviction, idleEviction,
+						TimeUnit.SECONDS);
+			}
 		}
+		flushScheduler = new FlushScheduler(conf,
+				MetricsRegistryService.getInstance(this, bgTaskPool).getInstance("flushops"));
+		flushScheduler.start();
 		loadDatabases();
+		if (Boolean.parseBoolean(conf.getOrDefault(WriteAheadLog.WAL_ENABLED, WriteAheadLog.DEFAULT_WAL_ENABLED))) {
+			initializeWal();
+		}
+	}
+
+	/**
+	 * Replay the batches logged after the last checkpoint, then start logging
+	 * writes
+	 * 
+	 * @throws IOException
+	 */
+	protected void initializeWal() throws IOException {
+		MetricRegistry walops = MetricsRegistryService.getInstance(this, bgTaskPool).getInstance("walops");
+		metricsWalReplayed = walops.counter("wal-replayed-points");
+		metricsCheckpoints = walops.counter("wal-checkpoints");
+		WriteAheadLog log = new WriteAheadLog(conf, baseIndexDirectory + "/.wal", walops);
+		long ts = System.currentTimeMillis();
+		int records = log.recover(payload -> replayBatch(BatchData.parseFrom(payload).getPointsList()));
+		logger.info("Replayed " + records + " WAL records from:" + log.getWalDirectory() + " in "
+				+ (System.currentTimeMillis() - ts) + "ms");
+		log.open();
+		wal = log;
+		// replayed points are in the data files now
+		checkpoint();
+		if (bgTaskPool != null) {
+			int frequency = Integer.parseInt(conf.getOrDefault(WriteAheadLog.WAL_CHECKPOINT_FREQUENCY,
+					WriteAheadLog.DEFAULT_WAL_CHECKPOINT_FREQUENCY));
+			bgTaskPool.scheduleAtFixedRate(() -> {
+				try {
+					checkpoint();
+				} catch (Exception e) {
+					logger.log(Level.SEVERE, "Failed WAL checkpoint", e);
+				}
+			}, frequency, frequency, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Apply a logged batch. The data files may already hold any part of it since
+	 * they are written back by the OS between checkpoints, only the columns that
+	 * are missing a point are written, see
+	 * {@link Series#replayPoints(List, Measurement)}.
+	 * 
+	 * @param points
+	 * @return number of points applied
+	 * @throws IOException
+	 */
+	protected int replayBatch(List<Point> points) throws IOException {
+		Map<String, Map<String, List<Point>>> batch = new HashMap<>();
+		for (Point dp : points) {
+			batch.computeIfAbsent(dp.getDbName(), k -> new HashMap<>())
+					.computeIfAbsent(dp.getMeasurementName(), k -> new ArrayList<>()).add(dp);
+		}
+		int replayed = 0;
+		for (Entry<String, Map<String, List<Point>>> db : batch.entrySet()) {
+			for (Entry<String, List<Point>> entry : db.getValue().entrySet()) {
+				Measurement m = getOrCreateMeasurement(db.getKey(), entry.getKey());
+				replayed += m.replayPoints(entry.getValue());
+			}
+		}
+		metricsWalReplayed.inc(replayed);
+		return replayed;
+	}
+
+	/**
+	 * Run a maintenance operation on all measurements, measurements on different
+	 * data directories are processed in parallel and those sharing a directory
+	 * one after the other so each disk sees a single sequential stream
+	 * 
+	 * @param operation
+	 *            name of the operation for logging
+	 * @param task
+	 */
+	protected void forEachMeasurementByDisk(String operation, MeasurementTask task) {
+		Map<String, List<Measurement>> byDisk = new LinkedHashMap<>();
+		for (Entry<String, Map<String, Measurement>> db : databaseMap.entrySet()) {
+			for (Measurement m : db.getValue().values()) {
+				String dir = placement.getDirectory(db.getKey(), m.getMeasurementName());
+				byDisk.computeIfAbsent(dir != null ? dir : placement.getHomeDirectory(db.getKey()),
+						k -> new ArrayList<>()).add(m);
+			}
+		}
+		List<Future<?>> futures = new ArrayList<>();
+		for (List<Measurement> measurements : byDisk.values()) {
+			Runnable runnable = () -> {
+				for (Measurement m : measurements) {
+					try {
+						task.run(m);
+					} catch (Exception e) {
+						logger.log(Level.SEVERE, "Failed " + operation + " for measurement:" + m.getMeasurementName(),
+								e);
+					}
+				}
+			};
+			if (diskPool == null || byDisk.size() == 1) {
+				runnable.run();
+			} else {
+				futures.add(diskPool.submit(runnable));
+			}
+		}
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				logger.log(Level.SEVERE, "Failed " + operation, e.getCause());
+			}
+		}
+	}
+
+	protected interface MeasurementTask {
+
+		public void run(Measurement measurement) throws Exception;
+
+	}
+
+	/**
+	 * Sync the data files of all measurements and drop the WAL segments that
+	 * only hold batches applied before the sync
+	 * 
+	 * @throws IOException
+	 */
+	public void checkpoint() throws IOException {
+		WriteAheadLog log = wal;
+		if (log == null) {
+			return;
+		}
+		int mark = log.startCheckpoint();
+		for (Entry<String, Map<String, Measurement>> db : databaseMap.entrySet()) {
+			for (Entry<String, Measurement> entry : db.getValue().entrySet()) {
+				if (!(entry.getValue() instanceof PersistentMeasurement)) {
+					continue;
+				}
+				try {
+					flushScheduler.flush((PersistentMeasurement) entry.getValue());
+				} catch (IOException e) {
+					if (db.getValue().get(entry.getKey()) == entry.getValue()) {
+						throw e;
+					}
+					// dropped while syncing
+				}
+			}
+		}
+		log.completeCheckpoint(mark);
+		metricsCheckpoints.inc();
+	}
+
+	@Override
+	public void writeDataPointWithLock(Point dp, boolean preSorted) throws IOException {
+		WriteAheadLog log = wal;
+		if (log == null) {
+			StorageEngine.super.writeDataPointWithLock(dp, preSorted);
+		} else {
+			writeLogged(log, Collections.singletonList(dp), preSorted, true);
+		}
+	}
+
+	@Override
+	public void writeDataPointWithoutLock(Point dp, boolean preSorted) throws IOException {
+		WriteAheadLog log = wal;
+		if (log == null) {
+			StorageEngine.super.writeDataPointWithoutLock(dp, preSorted);
+		} else {
+			writeLogged(log, Collections.singletonList(dp), preSorted, false);
+		}
+	}
+
+	@Override
+	public void writeBatch(List<Point> points, boolean preSorted, boolean locking) throws IOException {
+		WriteAheadLog log = wal;
+		if (log == null) {
+			StorageEngine.super.writeBatch(points, preSorted, locking);
+		} else {
+			writeLogged(log, points, preSorted, locking);
+		}
+	}
+
+	/**
+	 * Log the batch, apply it and wait for the log to be synced. The batch is
+	 * validated first so rejected points are never replayed.
+	 */
+	private void writeLogged(WriteAheadLog log, List<Point> points, boolean preSorted, boolean locking)
+			throws IOException {
+		for (Point dp : points) {
+			StorageEngine.validatePoint(dp);
+		}
+		long lsn;
+		Lock applyLock = log.getApplyLock();
+		applyLock.lock();
+		try {
+			lsn = log.append(BatchData.newBuilder().addAllPoints(points).build().toByteArray());
+			StorageEngine.super.writeBatch(points, preSorted, locking);
+		} finally {
+			applyLock.unlock();
+		}
+		log.awaitDurable(lsn);
 	}
 
 	public void enableMetricsService() {
@@ -148,6 +391,59 @@ public class DiskStorageEngine implements StorageEngine {
 		metricsDbCounter = metaops.counter("db-create");
 		metricsMeasurementCounter = metaops.counter("measurement-create");
 		metricsWriteCounter = reg.getInstance("ops").counter("write-counter");
+		metricsRecoveryTotal = metaops.counter("recovery-measurements-total");
+		metricsRecoveryCompleted = metaops.counter("recovery-measurements-completed");
+		metricsRecoveryFailed = metaops.counter("recovery-measurements-failed");
+		metricsEvictionCounter = metaops.counter("measurement-evictions");
+		metaops.remove("recovery-eta-seconds");
+		metaops.register("recovery-eta-seconds", (Gauge<Long>) () -> getRecoveryEta());
+	}
+
+	/**
+	 * Release the in-memory state of measurements that haven't been written to
+	 * or queried since the previous run
+	 */
+	protected void evictIdleMeasurements() {
+		for (Entry<String, Map<String, Measurement>> measurementMap : databaseMap.entrySet()) {
+			for (Measurement value : measurementMap.getValue().values()) {
+				if (!(value instanceof PersistentMeasurement)) {
+					continue;
+				}
+				try {
+					if (((PersistentMeasurement) value).evictIfIdle()) {
+						metricsEvictionCounter.inc();
+					}
+				} catch (Exception e) {
+					logger.log(Level.SEVERE, "Failed to evict measurement:" + value.getMeasurementName(), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Estimate the remaining recovery time from the average time taken by the
+	 * measurements recovered so far
+	 * 
+	 * @return seconds, 0 once recovery is complete and -1 if it can't be
+	 *         estimated yet
+	 */
+	public long getRecoveryEta() {
+		long total = metricsRecoveryTotal.getCount();
+		long done = metricsRecoveryCompleted.getCount() + metricsRecoveryFailed.getCount();
+		if (done >= total) {
+			return 0;
+		} else if (done == 0) {
+			return -1;
+		}
+		long elapsed = System.currentTimeMillis() - recoveryStart;
+		return elapsed * (total - done) / done / 1000;
+	}
+
+	/**
+	 * @return true if measurements are still being recovered
+	 */
+	public boolean isRecovering() {
+		return !pendingRecovery.isEmpty();
 	}
 
 	@Override
@@ -195,25 +491,64 @@ public class DiskStorageEngine implements StorageEngine {
 		file.mkdirs();
 	}
 
+	/**
+	 * Recover databases from all data directories. Measurements are recovered in
+	 * parallel on a bounded pool and published as soon as they are recovered;
+	 * unless {@link #RECOVERY_ASYNC} is enabled this waits for all of them.
+	 * Writes to a measurement that hasn't been recovered yet recover it on the
+	 * caller's thread.
+	 * 
+	 * @throws IOException
+	 */
 	protected void loadDatabases() throws IOException {
+		int threads = Integer.parseInt(
+				conf.getOrDefault(RECOVERY_THREADS, String.valueOf(Runtime.getRuntime().availableProcessors())));
+		recoveryPool = new ForkJoinPool(threads);
+		recoveryStart = System.currentTimeMillis();
+		// measurements of a database may be spread over all data directories
+		Set<String> dbNames = new LinkedHashSet<>();
 		for (String dataDir : dataDirs) {
 			File mdDir = new File(dataDir);
 			if (!mdDir.exists()) {
-				return;
+				continue;
 			}
 			File[] dbs = mdDir.listFiles();
 			for (File db : dbs) {
-				if (!db.isDirectory()) {
-					continue;
+				if (db.isDirectory()) {
+					dbNames.add(db.getName());
+				}
+			}
+		}
+		Map<String, List<MeasurementRecovery>> byDisk = new LinkedHashMap<>();
+		for (String dbName : dbNames) {
+			Map<String, Measurement> measurementMap = new ConcurrentHashMap<>();
+			DBMetadata metadata = readMetadata(dbName);
+			dbMetadataMap.put(dbName, metadata);
+			databaseMap.put(dbName, measurementMap);
+			logger.info("Loading database:" + dbName);
+			for (MeasurementRecovery task : loadMeasurements(dbName, measurementMap, metadata)) {
+				byDisk.computeIfAbsent(placement.getDirectory(dbName, task.measurementName),
+						k -> new ArrayList<>()).add(task);
+			}
+		}
+		// recover all disks at once rather than one disk after the other
+		List<MeasurementRecovery> tasks = DataPlacement.interleave(byDisk);
+		metricsRecoveryTotal.inc(tasks.size());
+		logger.info("Recovering " + tasks.size() + " measurements with " + threads + " threads");
+		for (MeasurementRecovery task : tasks) {
+			recoveryPool.execute(task);
+		}
+		recoveryPool.shutdown();
+		if (!Boolean.parseBoolean(conf.getOrDefault(RECOVERY_ASYNC, DEFAULT_RECOVERY_ASYNC))) {
+			for (MeasurementRecovery task : tasks) {
+				try {
+					task.await();
+				} catch (IOException e) {
+					// already logged by the recovery
 				}
-				Map<String, Measurement> measurementMap = new ConcurrentHashMap<>();
-				String dbName = db.getName();
-				databaseMap.put(dbName, measurementMap);
-				DBMetadata metadata = readMetadata(dbName);
-				dbMetadataMap.put(dbName, metadata);
-				logger.info("Loading database:" + dbName);
-				loadMeasurements(dbName, measurementMap, metadata);
 			}
+			logger.info("Recovered " + tasks.size() + " measurements in "
+					+ (System.currentTimeMillis() - recoveryStart) + "ms");
 		}
 	}
 
@@ -244,7 +579,6 @@ public class DiskStorageEngine implements StorageEngine {
 			synchronized (databaseMap) {
 				if ((measurementMap = databaseMap.get(dbName)) == null) {
 					measurementMap = new ConcurrentHashMap<>();
-					databaseMap.put(dbName, measurementMap);
 					createDatabaseDirectory(dbName);
 					DBMetadata metadata = new DBMetadata();
 					metadata.setRetentionHours(retentionHours);
@@ -252,6 +586,8 @@ public class DiskStorageEngine implements StorageEngine {
 					metadata.setFileIncrementSize(DiskMalloc.getFileIncrement(conf));
 					dbMetadataMap.put(dbName, metadata);
 					saveDBMetadata(dbName, metadata);
+					// publish the database only once its metadata is visible
+					databaseMap.put(dbName, measurementMap);
 					logger.info("Created new database:" + dbName + "\t with retention period:" + retentionHours
 							+ " hours (" + (retentionHours * 3600 / defaultTimebucketSize) + " buckets)");
 					metricsDbCounter.inc();
@@ -271,11 +607,16 @@ public class DiskStorageEngine implements StorageEngine {
 			String dbName) throws IOException {
 		Measurement measurement = measurementMap.get(measurementName);
 		if (measurement == null) {
+			MeasurementRecovery recovery = pendingRecovery.get(recoveryKey(dbName, measurementName));
+			if (recovery != null) {
+				return recovery.await();
+			}
 			synchronized (databaseMap) {
 				if ((measurement = measurementMap.get(measurementName)) == null) {
 					measurement = new PersistentMeasurement();
 					measurement.configure(conf, this, getDefaultTimebucketSize(), dbName, measurementName,
-							dbIndexPath(dbName), dbDirectoryPath(dbName), dbMetadataMap.get(dbName), bgTaskPool);
+							dbIndexPath(dbName), measurementDirectoryPath(dbName, measurementName),
+							dbMetadataMap.get(dbName), bgTaskPool);
 					measurementMap.put(measurementName, measurement);
 					logger.info("Created new measurement:" + measurementName);
 					metricsMeasurementCounter.inc();
@@ -285,14 +626,32 @@ public class DiskStorageEngine implements StorageEngine {
 		return measurement;
 	}
 
+	/**
+	 * @param dbName
+	 * @return data directory holding the metadata of the database
+	 */
 	public String getDataDir(String dbName) {
-		return dataDirs[dbName.hashCode() % dataDirs.length];
+		return placement.getHomeDirectory(dbName);
 	}
 
 	public String dbDirectoryPath(String dbName) {
 		return getDataDir(dbName) + "/" + dbName;
 	}
 
+	/**
+	 * @param dbName
+	 * @param measurementName
+	 * @return directory of the database on the data directory the measurement
+	 *         is placed on
+	 */
+	public String measurementDirectoryPath(String dbName, String measurementName) {
+		return placement.locate(dbName, measurementName) + "/" + dbName;
+	}
+
+	public DataPlacement getPlacement() {
+		return placement;
+	}
+
 	public String dbIndexPath(String dbName) {
 		return getIndexDir(dbName) + "/" + dbName;
 	}
@@ -301,37 +660,106 @@ public class DiskStorageEngine implements StorageEngine {
 		return baseIndexDirectory;
 	}
 
-	protected void loadMeasurements(String dbName, Map<String, Measurement> measurementMap, DBMetadata metadata)
-			throws IOException {
-		File file = new File(dbDirectoryPath(dbName));
-		if (!file.exists() || file.listFiles() == null) {
-			return;
-		}
-		List<Future<?>> futures = new ArrayList<>();
-		for (File measurementMdFile : file.listFiles()) {
-			if (!measurementMdFile.isDirectory()) {
+	protected List<MeasurementRecovery> loadMeasurements(String dbName, Map<String, Measurement> measurementMap,
+			DBMetadata metadata) {
+		List<MeasurementRecovery> tasks = new ArrayList<>();
+		for (String dataDir : dataDirs) {
+			File file = new File(dataDir + "/" + dbName);
+			if (!file.exists() || file.listFiles() == null) {
 				continue;
 			}
-			String measurementName = measurementMdFile.getName();
-			Measurement measurement = new PersistentMeasurement();
-			measurementMap.put(measurementName, measurement);
-			logger.info("Loading measurements:" + measurementName);
-			futures.add(bgTaskPool.submit(() -> {
-				try {
-					measurement.configure(conf, this, getDefaultTimebucketSize(), dbName, measurementName,
-							dbIndexPath(dbName), dbDirectoryPath(dbName), metadata, bgTaskPool);
-				} catch (IOException e) {
-					logger.log(Level.SEVERE, "Error recovering measurement:" + measurementName, e);
+			for (File measurementMdFile : file.listFiles()) {
+				if (!measurementMdFile.isDirectory()) {
+					continue;
 				}
-			}));
+				String measurementName = measurementMdFile.getName();
+				if (!placement.assign(dbName, measurementName, dataDir)) {
+					logger.warning("Ignoring duplicate data of measurement:" + measurementName + " db:" + dbName
+							+ " in:" + dataDir + " it's placed on:" + placement.getDirectory(dbName, measurementName));
+					continue;
+				}
+				MeasurementRecovery task = new MeasurementRecovery(dbName, measurementName, measurementMap, metadata);
+				pendingRecovery.put(recoveryKey(dbName, measurementName), task);
+				tasks.add(task);
+			}
 		}
-		for (Future<?> future : futures) {
+		return tasks;
+	}
+
+	private static String recoveryKey(String dbName, String measurementName) {
+		return dbName + "/" + measurementName;
+	}
+
+	/**
+	 * Recovery of a single measurement, run once by either the recovery pool or
+	 * the first writer that needs the measurement. The measurement is only
+	 * published once it's fully recovered.
+	 */
+	protected class MeasurementRecovery implements Runnable {
+
+		private final String dbName;
+		private final String measurementName;
+		private final Map<String, Measurement> measurementMap;
+		private final DBMetadata metadata;
+		private final AtomicBoolean started = new AtomicBoolean();
+		private final CompletableFuture<Measurement> result = new CompletableFuture<>();
+
+		public MeasurementRecovery(String dbName, String measurementName, Map<String, Measurement> measurementMap,
+				DBMetadata metadata) {
+			this.dbName = dbName;
+			this.measurementName = measurementName;
+			this.measurementMap = measurementMap;
+			this.metadata = metadata;
+		}
+
+		@Override
+		public void run() {
+			if (!started.compareAndSet(false, true)) {
+				return;
+			}
+			long ts = System.currentTimeMillis();
 			try {
-				future.get();
-			} catch (InterruptedException | ExecutionException e) {
-				logger.log(Level.SEVERE, "Error future get recovering measurement, db:" + dbName, e);
+				Measurement measurement = new PersistentMeasurement();
+				measurement.configure(conf, DiskStorageEngine.this, getDefaultTimebucketSize(), dbName,
+						measurementName, dbIndexPath(dbName), measurementDirectoryPath(dbName, measurementName),
+						metadata, bgTaskPool);
+				// publish before the pending entry is removed so it's always visible
+				measurementMap.put(measurementName, measurement);
+				metricsRecoveryCompleted.inc();
+				logger.info("Recovered measurement:" + measurementName + " db:" + dbName + " in "
+						+ (System.currentTimeMillis() - ts) + "ms (" + metricsRecoveryCompleted.getCount() + "/"
+						+ metricsRecoveryTotal.getCount() + ")");
+				result.complete(measurement);
+			} catch (Throwable e) {
+				logger.log(Level.SEVERE, "Error recovering measurement:" + measurementName + " db:" + dbName, e);
+				metricsRecoveryFailed.inc();
+				result.completeExceptionally(e);
+			} finally {
+				pendingRecovery.remove(recoveryKey(dbName, measurementName), this);
+			}
+		}
+
+		/**
+		 * Wait for the measurement to be recovered, recovering it on this thread if
+		 * it hasn't been picked up yet
+		 * 
+		 * @return recovered measurement
+		 * @throws IOException
+		 *             if recovery failed
+		 */
+		public Measurement await() throws IOException {
+			run();
+			try {
+				return result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted waiting for recovery of measurement:" + measurementName, e);
+			} catch (ExecutionException e) {
+				throw new IOException("Failed to recover measurement:" + measurementName + " db:" + dbName,
+						e.getCause());
 			}
 		}
+
 	}
 
 	public static void writeLineToFile(String line, String filePath) throws IOException {
@@ -381,26 +809,53 @@ public class DiskStorageEngine implements StorageEngine {
 			for (Measurement measurement : remove.values()) {
 				measurement.close();
 			}
-			boolean result = MiscUtils.delete(new File(dbDirectoryPath(dbName)));
-			if (!result) {
-				throw new Exception("Database(" + dbName + ") deletion(data) failed due file deletion issues");
+			for (String dataDir : dataDirs) {
+				File dbDir = new File(dataDir + "/" + dbName);
+				if (dbDir.exists() && !MiscUtils.delete(dbDir)) {
+					throw new Exception("Database(" + dbName + ") deletion(data) failed due file deletion issues");
+				}
 			}
-			result = MiscUtils.delete(new File(dbIndexPath(dbName)));
+			placement.removeDatabase(dbName);
+			boolean result = MiscUtils.delete(new File(dbIndexPath(dbName)));
 			if (!result) {
 				throw new Exception("Database(" + dbName + ") deletion(index) failed due file deletion issues");
 			}
 			metricsDbCounter.dec();
 			logger.info("Database(" + dbName + ") deleted");
 		}
+		// logged writes of the database must not be replayed
+		checkpoint();
 	}
 
 	@Override
 	public void dropMeasurement(String dbName, String measurementName) throws Exception {
 		Map<String, Measurement> map = databaseMap.get(dbName);
 		synchronized (databaseMap) {
-			map.remove(measurementName);
+			Measurement measurement = map.remove(measurementName);
+			if (measurement != null) {
+				measurement.close();
+			}
+			String dataDir = placement.getDirectory(dbName, measurementName);
+			if (dataDir != null) {
+				File measurementDir = new File(dataDir + "/" + dbName + "/" + measurementName);
+				if (measurementDir.exists() && !MiscUtils.delete(measurementDir)) {
+					throw new Exception("Measurement(" + measurementName
+							+ ") deletion(data) failed due file deletion issues");
+				}
+			}
+			// a re-created measurement is placed afresh
+			placement.remove(dbName, measurementName);
+			String indexPath = dbIndexPath(dbName) + "/" + measurementName;
+			for (String suffix : new String[] { "", ".rev", ".snap" }) {
+				File indexFile = new File(indexPath + suffix);
+				if (indexFile.exists() && !MiscUtils.delete(indexFile)) {
+					throw new Exception(
+							"Measurement(" + measurementName + ") deletion(index) failed due file deletion issues");
+				}
+			}
 			metricsMeasurementCounter.dec();
 		}
+		checkpoint();
 	}
 
 	@Override
@@ -409,6 +864,25 @@ public class DiskStorageEngine implements StorageEngine {
 
 	@Override
 	public void shutdown() throws IOException {
+		if (recoveryPool != null) {
+			try {
+				recoveryPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (flushScheduler != null) {
+			flushScheduler.stop();
+		}
+		if (diskPool != null) {
+			diskPool.shutdownNow();
+		}
+		WriteAheadLog log = wal;
+		if (log != null) {
+			checkpoint();
+			wal = null;
+			log.close();
+		}
 		if (databaseMap != null) {
 			for (Entry<String, Map<String, Measurement>> measurementMap : databaseMap.entrySet()) {
 				for (Measurement m : measurementMap.getValue().values()) {
@@ -419,6 +893,13 @@ public class DiskStorageEngine implements StorageEngine {
 		}
 	}
 
+	/**
+	 * @return scheduler that writes back the mapped data of measurements
+	 */
+	public FlushScheduler getFlushScheduler() {
+		return flushScheduler;
+	}
+
 	@Override
 	public Map<String, DBMetadata> getDbMetadataMap() {
 		return dbMetadataMap;
@@ -0,0 +1,176 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.disk;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.srotya.sidewinder.core.utils.BackgrounThreadFactory;
+
+/**
+ * Writes back memory mapped data of measurements from a background thread so
+ * dirty pages don't pile up until the kernel flushes them all at once.<br>
+ * <br>
+ * Policies:
+ * <ul>
+ * <li>interval: every target is synced every {@link #FLUSH_INTERVAL}
+ * milliseconds</li>
+ * <li>allocated: targets are checked every {@link #FLUSH_INTERVAL} milliseconds
+ * and synced once {@link #FLUSH_ALLOCATED_BYTES} of buffers have been allocated
+ * since their last sync. Appends to existing buffers aren't counted, a field
+ * only allocates a new buffer once the previous one is full, so the bytes
+ * written trail the bytes allocated by at most a buffer per field</li>
+ * <li>checkpoint: targets are only synced by WAL checkpoints and when they are
+ * closed</li>
+ * </ul>
+ * 
+ * @author ambud
+ */
+public class FlushScheduler {
+
+	private static final Logger logger = Logger.getLogger(FlushScheduler.class.getName());
+	public static final String FLUSH_POLICY = "flush.policy";
+	public static final String POLICY_INTERVAL = "interval";
+	public static final String POLICY_ALLOCATED = "allocated";
+	public static final String POLICY_CHECKPOINT = "checkpoint";
+	public static final String DEFAULT_FLUSH_POLICY = POLICY_INTERVAL;
+	public static final String FLUSH_INTERVAL = "flush.interval.ms";
+	public static final String DEFAULT_FLUSH_INTERVAL = "5000";
+	public static final String FLUSH_ALLOCATED_BYTES = "flush.allocated.bytes";
+	public static final String DEFAULT_FLUSH_ALLOCATED_BYTES = String.valueOf(32 * 1024 * 1024);
+	private final String policy;
+	private final long interval;
+	private final long allocatedBytes;
+	private final Set<Target> targets;
+	private ScheduledExecutorService executor;
+	private Counter metricsFlushes;
+	private Counter metricsFlushFailures;
+	private Histogram metricsFlushLatency;
+
+	/**
+	 * Something that can be written back to disk
+	 */
+	public interface Target {
+
+		/**
+		 * @return bytes of buffers allocated since the last sync, points appended
+		 *         to existing buffers aren't counted
+		 */
+		public long getAllocatedBytes();
+
+		public void sync() throws IOException;
+
+	}
+
+	public FlushScheduler(Map<String, String> conf, MetricRegistry registry) {
+		this.policy = conf.getOrDefault(FLUSH_POLICY, DEFAULT_FLUSH_POLICY);
+		if (!POLICY_INTERVAL.equals(policy) && !POLICY_ALLOCATED.equals(policy) && !POLICY_CHECKPOINT.equals(policy)) {
+			throw new IllegalArgumentException("Unknown flush policy:" + policy);
+		}
+		this.interval = Long.parseLong(conf.getOrDefault(FLUSH_INTERVAL, DEFAULT_FLUSH_INTERVAL));
+		this.allocatedBytes = Long
+				.parseLong(conf.getOrDefault(FLUSH_ALLOCATED_BYTES, DEFAULT_FLUSH_ALLOCATED_BYTES));
+		this.targets = ConcurrentHashMap.newKeySet();
+		if (registry != null) {
+			metricsFlushes = registry.counter("flush-count");
+			metricsFlushFailures = registry.counter("flush-failures");
+			metricsFlushLatency = registry.histogram("flush-latency-us");
+		}
+	}
+
+	public void start() {
+		if (POLICY_CHECKPOINT.equals(policy)) {
+			logger.info("Mapped data will only be flushed on checkpoints");
+			return;
+		}
+		logger.info("Flushing mapped data with policy:" + policy + " every " + interval + "ms");
+		executor = Executors.newSingleThreadScheduledExecutor(new BackgrounThreadFactory("flush"));
+		executor.scheduleWithFixedDelay(() -> flushDue(), interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	public void stop() {
+		if (executor == null) {
+			return;
+		}
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public void register(Target target) {
+		targets.add(target);
+	}
+
+	public void deregister(Target target) {
+		targets.remove(target);
+	}
+
+	/**
+	 * Sync the targets that are due according to the policy
+	 */
+	public void flushDue() {
+		for (Target target : targets) {
+			if (POLICY_ALLOCATED.equals(policy) && target.getAllocatedBytes() < allocatedBytes) {
+				continue;
+			}
+			try {
+				flush(target);
+			} catch (Exception e) {
+				if (metricsFlushFailures != null) {
+					metricsFlushFailures.inc();
+				}
+				logger.log(Level.SEVERE, "Failed to flush:" + target, e);
+			}
+		}
+	}
+
+	/**
+	 * Sync a target now
+	 * 
+	 * @param target
+	 * @throws IOException
+	 */
+	public void flush(Target target) throws IOException {
+		long start = System.nanoTime();
+		target.sync();
+		if (metricsFlushes != null) {
+			metricsFlushes.inc();
+			metricsFlushLatency.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+		}
+	}
+
+	public String getPolicy() {
+		return policy;
+	}
+
+	public int getTargetCount() {
+		return targets.size();
+	}
+
+}
@@ -0,0 +1,405 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.disk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Byte ranges of live data files that used to hold garbage collected buffers
+ * and can be handed out again by {@link DiskMalloc}.<br>
+ * <br>
+ * Freed extents are quarantined since queries may still be reading the buffers
+ * they were dropped from. An extent leaves quarantine once the reuse delay has
+ * passed and the reference it was freed with has been cleared, i.e. the writer
+ * and every reader of the buffer are gone, no matter how long a query holds on
+ * to its readers (e.g. a slowly consumed SQL result). After that it's coalesced
+ * with adjacent free extents of the same file and allocated best fit.<br>
+ * <br>
+ * The list is persisted to a small file (magic, version, count, extents and a
+ * CRC32 of the contents) so reuse survives restarts. It's only a hint: on load
+ * extents overlapping a buffer pointer are dropped, a crash between an
+ * allocation and the next save therefore never hands out a live range twice.
+ * 
+ * @author ambud
+ */
+public class FreeExtentList {
+
+	public static final int MAGIC = 0x53574645;
+	public static final short VERSION = 1;
+	// magic, version, reserved, count
+	private static final int HEADER_SIZE = 4 + 2 + 2 + 4;
+	// file number, position, size
+	private static final int EXTENT_SIZE = 4 + 8 + 4;
+	private final File file;
+	private final long reuseDelay;
+	private final Deque<Extent> quarantine;
+	private final Map<Integer, TreeMap<Long, Extent>> fileExtents;
+	private final TreeSet<Extent> bySize;
+	private long freeBytes;
+
+	/**
+	 * @param file
+	 *            to persist extents to
+	 * @param reuseDelay
+	 *            milliseconds a freed extent is kept out of allocation
+	 */
+	public FreeExtentList(File file, long reuseDelay) {
+		this.file = file;
+		this.reuseDelay = reuseDelay;
+		this.quarantine = new ArrayDeque<>();
+		this.fileExtents = new HashMap<>();
+		this.bySize = new TreeSet<>((o1, o2) -> {
+			int r = Integer.compare(o1.size, o2.size);
+			if (r == 0) {
+				r = Integer.compare(o1.fileNumber, o2.fileNumber);
+			}
+			return r == 0 ? Long.compare(o1.position, o2.position) : r;
+		});
+	}
+
+	/**
+	 * Return a byte range no reader can hold to the list, it can be allocated
+	 * once the reuse delay has passed
+	 * 
+	 * @param fileNumber
+	 * @param position
+	 * @param size
+	 * @param now
+	 *            time in milliseconds
+	 */
+	public void free(int fileNumber, long position, int size, long now) {
+		free(fileNumber, position, size, now, null);
+	}
+
+	/**
+	 * Return a byte range to the list, it can be allocated once the reuse delay
+	 * has passed and the reference has been cleared
+	 * 
+	 * @param fileNumber
+	 * @param position
+	 * @param size
+	 * @param now
+	 *            time in milliseconds
+	 * @param readers
+	 *            reference that is cleared once the buffer can't be read
+	 *            anymore, null if it isn't read
+	 */
+	public void free(int fileNumber, long position, int size, long now, Reference<?> readers) {
+		if (size <= 0) {
+			return;
+		}
+		quarantine.add(new Extent(fileNumber, position, size, now, readers));
+		freeBytes += size;
+	}
+
+	/**
+	 * Carve a byte range of exactly the requested size out of the smallest
+	 * available extent that fits
+	 * 
+	 * @param size
+	 * @param now
+	 *            time in milliseconds
+	 * @return allocated range or null if no extent is large enough
+	 */
+	public Extent allocate(int size, long now) {
+		release(now);
+		Extent extent = bySize.ceiling(new Extent(Integer.MIN_VALUE, Long.MIN_VALUE, size, 0));
+		if (extent == null) {
+			return null;
+		}
+		remove(extent);
+		if (extent.size > size) {
+			add(new Extent(extent.fileNumber, extent.position + size, extent.size - size, 0));
+		}
+		freeBytes -= size;
+		return new Extent(extent.fileNumber, extent.position, size, now);
+	}
+
+	/**
+	 * Forget extents of data files that no longer exist
+	 * 
+	 * @param fileNumbers
+	 *            of the data files that are still present
+	 */
+	public void retainFiles(Set<Integer> fileNumbers) {
+		for (Iterator<Extent> itr = quarantine.iterator(); itr.hasNext();) {
+			Extent extent = itr.next();
+			if (!fileNumbers.contains(extent.fileNumber)) {
+				itr.remove();
+				freeBytes -= extent.size;
+			}
+		}
+		for (Iterator<Entry<Integer, TreeMap<Long, Extent>>> itr = fileExtents.entrySet().iterator(); itr
+				.hasNext();) {
+			Entry<Integer, TreeMap<Long, Extent>> entry = itr.next();
+			if (!fileNumbers.contains(entry.getKey())) {
+				for (Extent extent : entry.getValue().values()) {
+					bySize.remove(extent);
+					freeBytes -= extent.size;
+				}
+				itr.remove();
+			}
+		}
+	}
+
+	/**
+	 * Remove any part of the free extents that overlaps a range in use, used to
+	 * reconcile the list with the buffer pointers on load
+	 * 
+	 * @param fileNumber
+	 * @param position
+	 * @param size
+	 */
+	public void reserve(int fileNumber, long position, int size) {
+		release(Long.MAX_VALUE);
+		long end = position + size;
+		TreeMap<Long, Extent> extents = fileExtents.get(fileNumber);
+		Entry<Long, Extent> entry = extents == null ? null : extents.lowerEntry(end);
+		while (entry != null && entry.getValue().end() > position) {
+			Extent extent = entry.getValue();
+			remove(extent);
+			freeBytes -= extent.size;
+			if (extent.position < position) {
+				add(new Extent(fileNumber, extent.position, (int) (position - extent.position), 0));
+				freeBytes += position - extent.position;
+			}
+			if (extent.end() > end) {
+				add(new Extent(fileNumber, end, (int) (extent.end() - end), 0));
+				freeBytes += extent.end() - end;
+			}
+			extents = fileExtents.get(fileNumber);
+			entry = extents == null ? null : extents.lowerEntry(extent.position);
+		}
+	}
+
+	/**
+	 * Load the extents saved by the last {@link #save()}, quarantine doesn't
+	 * carry over restarts since no reader can hold the freed buffers anymore.
+	 * A missing or corrupt file leaves the list empty.
+	 * 
+	 * @return true if the file was loaded
+	 * @throws IOException
+	 */
+	public boolean load() throws IOException {
+		clear();
+		if (!file.exists()) {
+			return false;
+		}
+		ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		if (buf.remaining() < HEADER_SIZE + Integer.BYTES || buf.getInt() != MAGIC || buf.getShort() != VERSION) {
+			return false;
+		}
+		buf.getShort();
+		int count = buf.getInt();
+		if (count < 0 || buf.remaining() != count * EXTENT_SIZE + Integer.BYTES) {
+			return false;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buf.array(), 0, buf.limit() - Integer.BYTES);
+		if ((int) crc.getValue() != buf.getInt(buf.limit() - Integer.BYTES)) {
+			return false;
+		}
+		for (int i = 0; i < count; i++) {
+			int fileNumber = buf.getInt();
+			long position = buf.getLong();
+			int size = buf.getInt();
+			free(fileNumber, position, size, 0);
+		}
+		release(Long.MAX_VALUE);
+		return true;
+	}
+
+	/**
+	 * Write all extents, including the quarantined ones, next to the list file
+	 * and atomically move them in place
+	 * 
+	 * @throws IOException
+	 */
+	public void save() throws IOException {
+		int count = quarantine.size() + bySize.size();
+		ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + count * EXTENT_SIZE + Integer.BYTES);
+		buf.putInt(MAGIC);
+		buf.putShort(VERSION);
+		buf.putShort((short) 0);
+		buf.putInt(count);
+		for (Extent extent : quarantine) {
+			extent.write(buf);
+		}
+		for (Extent extent : bySize) {
+			extent.write(buf);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buf.array(), 0, buf.position());
+		buf.putInt((int) crc.getValue());
+		buf.flip();
+		File tmp = new File(file.getPath() + ".tmp");
+		try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+			channel.force(true);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return bytes held by free extents, quarantined or not
+	 */
+	public long getFreeBytes() {
+		return freeBytes;
+	}
+
+	/**
+	 * @return number of free extents, quarantined or not
+	 */
+	public int size() {
+		return quarantine.size() + bySize.size();
+	}
+
+	private void clear() {
+		quarantine.clear();
+		fileExtents.clear();
+		bySize.clear();
+		freeBytes = 0;
+	}
+
+	/**
+	 * Move extents whose reuse delay has passed and that are no longer read out
+	 * of quarantine, merging them with adjacent free extents
+	 */
+	private void release(long now) {
+		for (Iterator<Extent> itr = quarantine.iterator(); itr.hasNext();) {
+			Extent extent = itr.next();
+			if (now - extent.freedAt < reuseDelay) {
+				// extents are quarantined in the order they were freed
+				break;
+			} else if (extent.readers != null && extent.readers.get() != null) {
+				continue;
+			}
+			itr.remove();
+			TreeMap<Long, Extent> extents = fileExtents.get(extent.fileNumber);
+			long position = extent.position;
+			long end = extent.end();
+			long merged = extent.size;
+			if (extents != null) {
+				Entry<Long, Extent> before = extents.floorEntry(position);
+				if (before != null && before.getValue().end() >= position) {
+					remove(before.getValue());
+					merged += before.getValue().size;
+					position = before.getKey();
+					end = Math.max(end, before.getValue().end());
+				}
+				Entry<Long, Extent> after = extents.ceilingEntry(position);
+				while (after != null && after.getKey() <= end) {
+					remove(after.getValue());
+					merged += after.getValue().size;
+					end = Math.max(end, after.getValue().end());
+					after = extents.ceilingEntry(position);
+				}
+			}
+			add(new Extent(extent.fileNumber, position, (int) (end - position), 0));
+			// ranges freed more than once are only counted once
+			freeBytes -= merged - (end - position);
+		}
+	}
+
+	private void add(Extent extent) {
+		fileExtents.computeIfAbsent(extent.fileNumber, k -> new TreeMap<>()).put(extent.position, extent);
+		bySize.add(extent);
+	}
+
+	private void remove(Extent extent) {
+		TreeMap<Long, Extent> extents = fileExtents.get(extent.fileNumber);
+		extents.remove(extent.position);
+		if (extents.isEmpty()) {
+			fileExtents.remove(extent.fileNumber);
+		}
+		bySize.remove(extent);
+	}
+
+	/**
+	 * Byte range of a data file
+	 */
+	public static final class Extent {
+
+		private final int fileNumber;
+		private final long position;
+		private final int size;
+		private final long freedAt;
+		private final Reference<?> readers;
+
+		private Extent(int fileNumber, long position, int size, long freedAt) {
+			this(fileNumber, position, size, freedAt, null);
+		}
+
+		private Extent(int fileNumber, long position, int size, long freedAt, Reference<?> readers) {
+			this.fileNumber = fileNumber;
+			this.position = position;
+			this.size = size;
+			this.freedAt = freedAt;
+			this.readers = readers;
+		}
+
+		public int getFileNumber() {
+			return fileNumber;
+		}
+
+		public long getPosition() {
+			return position;
+		}
+
+		public int getSize() {
+			return size;
+		}
+
+		private long end() {
+			return position + size;
+		}
+
+		private void write(ByteBuffer buf) {
+			buf.putInt(fileNumber);
+			buf.putLong(position);
+			buf.putInt(size);
+		}
+
+		@Override
+		public String toString() {
+			return "Extent [fileNumber=" + fileNumber + ", position=" + position + ", size=" + size + "]";
+		}
+
+	}
+
+}
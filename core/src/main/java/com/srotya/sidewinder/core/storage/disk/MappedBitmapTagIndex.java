@@ -15,56 +15,76 @@
  */
 package com.srotya.sidewinder.core.storage.disk;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
 import org.roaringbitmap.buffer.MutableRoaringBitmap;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
-import com.srotya.sidewinder.core.filters.ComplexTagFilter;
-import com.srotya.sidewinder.core.filters.ComplexTagFilter.ComplexFilterType;
-import com.srotya.sidewinder.core.filters.SimpleTagFilter;
 import com.srotya.sidewinder.core.filters.TagFilter;
 import com.srotya.sidewinder.core.monitoring.MetricsRegistryService;
 import com.srotya.sidewinder.core.storage.ByteString;
 import com.srotya.sidewinder.core.storage.Measurement;
 import com.srotya.sidewinder.core.storage.Series;
+import com.srotya.sidewinder.core.storage.TagFilterEvaluator;
 import com.srotya.sidewinder.core.storage.TagIndex;
+import com.srotya.sidewinder.core.storage.TagValueMap;
 
 /**
- * Tag hash lookup table + Tag inverted index
+ * Tag hash lookup table + Tag inverted index<br>
+ * <br>
+ * Index entries are appended to a log as they are added. Once the log grows
+ * past {@link #CONF_TAG_INDEX_SNAPSHOT_BYTES}, and on close, the postings are
+ * written to a snapshot in the portable roaring format and the log is
+ * restarted, recovery maps the snapshot and only replays the log written since.
+ * Entries that are rolled back are logged with a negative length.
  * 
  * @author ambud
  */
 public class MappedBitmapTagIndex implements TagIndex {
 
+	public static final String CONF_TAG_INDEX_SNAPSHOT_BYTES = "tag.index.snapshot.bytes";
+	public static final String DEFAULT_TAG_INDEX_SNAPSHOT_BYTES = String.valueOf(8 * 1024 * 1024);
 	private static final Logger logger = Logger.getLogger(MappedBitmapTagIndex.class.getName());
 	private static final int INCREMENT_SIZE = 1024 * 1024 * 1;
+	private static final int SNAPSHOT_VERSION = 1;
 	private Map<String, SortedMap<String, MutableRoaringBitmap>> rowKeyIndex;
 	private String indexPath;
 	private File revIndex;
+	private File snapshotFile;
+	private long snapshotThreshold;
 	private Counter metricIndexRow;
 	private boolean enableMetrics;
 	private RandomAccessFile revRaf;
 	private MappedByteBuffer rev;
 	private Measurement measurement;
+	private ReadWriteLock lock = new ReentrantReadWriteLock();
 
 	@Override
 	public void configure(Map<String, String> conf, String indexDir, Measurement measurement) throws IOException {
@@ -72,6 +92,9 @@ public class MappedBitmapTagIndex implements TagIndex {
 		this.indexPath = indexDir + "/" + measurement.getMeasurementName();
 		rowKeyIndex = new ConcurrentHashMap<>();
 		revIndex = new File(indexPath + ".rev");
+		snapshotFile = new File(indexPath + ".snap");
+		snapshotThreshold = Long
+				.parseLong(conf.getOrDefault(CONF_TAG_INDEX_SNAPSHOT_BYTES, DEFAULT_TAG_INDEX_SNAPSHOT_BYTES));
 		MetricsRegistryService instance = MetricsRegistryService.getInstance();
 		if (instance != null) {
 			MetricRegistry registry = instance.getInstance("requests");
@@ -82,21 +105,27 @@ public class MappedBitmapTagIndex implements TagIndex {
 	}
 
 	protected void loadTagIndex() throws IOException {
+		if (snapshotFile.exists()) {
+			loadSnapshot();
+		}
 		if (!revIndex.exists()) {
-			revRaf = new RandomAccessFile(revIndex, "rwd");
+			revRaf = new RandomAccessFile(revIndex, "rw");
 			rev = revRaf.getChannel().map(MapMode.READ_WRITE, 0, INCREMENT_SIZE);
 			rev.putInt(0);
 			logger.fine("Tag index is missing; initializing new index");
 		} else {
-			revRaf = new RandomAccessFile(revIndex, "rwd");
+			revRaf = new RandomAccessFile(revIndex, "rw");
 			logger.info("Tag index is present; recovering:" + revIndex.getAbsolutePath());
 			rev = revRaf.getChannel().map(MapMode.READ_WRITE, 0, revIndex.length());
 
-			// load reverse lookup
+			// replay entries added since the snapshot
 			int offsetLimit = rev.getInt();
+			int records = 0;
 			while (rev.position() < offsetLimit) {
+				records++;
 				int length = rev.getInt();
-				byte[] b = new byte[length];
+				boolean removed = length < 0;
+				byte[] b = new byte[Math.abs(length)];
 				rev.get(b);
 				String r = new String(b);
 				String[] split = r.split(" ");
@@ -104,7 +133,7 @@ public class MappedBitmapTagIndex implements TagIndex {
 				String tagValue = split[1];
 				SortedMap<String, MutableRoaringBitmap> map = rowKeyIndex.get(tagKey);
 				if (map == null) {
-					map = new ConcurrentSkipListMap<>();
+					map = new TagValueMap();
 					rowKeyIndex.put(tagKey, map);
 					logger.finest(() -> "Map for tagkey:" + tagKey + " not found, creating it");
 				}
@@ -115,10 +144,108 @@ public class MappedBitmapTagIndex implements TagIndex {
 					logger.finest(() -> "Map for tagValue(" + tagKey + "):" + tagValue + " not found, creating it");
 				}
 				String rowKeyIndex = split[2];
-				set.add(Integer.parseInt(rowKeyIndex));
+				if (removed) {
+					set.remove(Integer.parseInt(rowKeyIndex));
+				} else {
+					set.add(Integer.parseInt(rowKeyIndex));
+				}
+			}
+			final int replayed = records;
+			logger.fine(() -> "Tag index recovered" + revIndex.getAbsolutePath() + " replayed:" + replayed);
+		}
+	}
+
+	private void loadSnapshot() throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(snapshotFile, "r")) {
+			MappedByteBuffer buf = raf.getChannel().map(MapMode.READ_ONLY, 0, snapshotFile.length());
+			int version = buf.getInt();
+			if (version != SNAPSHOT_VERSION) {
+				throw new IOException(
+						"Unsupported tag index snapshot version:" + version + " " + snapshotFile.getAbsolutePath());
+			}
+			int tagKeys = buf.getInt();
+			for (int i = 0; i < tagKeys; i++) {
+				String tagKey = readString(buf);
+				SortedMap<String, MutableRoaringBitmap> map = new TagValueMap();
+				rowKeyIndex.put(tagKey, map);
+				int tagValues = buf.getInt();
+				for (int j = 0; j < tagValues; j++) {
+					String tagValue = readString(buf);
+					int size = buf.getInt();
+					ByteBuffer slice = buf.slice();
+					slice.limit(size);
+					// postings are updated in place and therefore copied out of the mapping
+					map.put(tagValue, new ImmutableRoaringBitmap(slice).toMutableRoaringBitmap());
+					buf.position(buf.position() + size);
+				}
 			}
-			logger.fine(() -> "Tag index recovered" + revIndex.getAbsolutePath());
 		}
+		logger.fine(() -> "Tag index snapshot loaded:" + snapshotFile.getAbsolutePath());
+	}
+
+	/**
+	 * Write all postings to the snapshot and restart the log. Appends to the log
+	 * wait for the snapshot, replaying entries that are also in the snapshot is
+	 * harmless.
+	 * 
+	 * @throws IOException
+	 */
+	public void snapshot() throws IOException {
+		synchronized (rowKeyIndex) {
+			File tmp = new File(indexPath + ".snap.tmp");
+			lock.readLock().lock();
+			try (FileOutputStream fos = new FileOutputStream(tmp)) {
+				DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+				writeSnapshot(dos);
+				dos.flush();
+				fos.getChannel().force(false);
+			} finally {
+				lock.readLock().unlock();
+			}
+			Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			rev.position(Integer.BYTES);
+			rev.putInt(0, rev.position());
+		}
+		logger.fine(() -> "Tag index snapshot written:" + snapshotFile.getAbsolutePath());
+	}
+
+	private void writeSnapshot(DataOutputStream dos) throws IOException {
+		Map<String, List<Entry<String, MutableRoaringBitmap>>> postings = new HashMap<>();
+		for (Entry<String, SortedMap<String, MutableRoaringBitmap>> entry : rowKeyIndex.entrySet()) {
+			List<Entry<String, MutableRoaringBitmap>> values = new ArrayList<>();
+			for (Entry<String, MutableRoaringBitmap> value : entry.getValue().entrySet()) {
+				// values are registered before their first entry is added
+				if (!value.getValue().isEmpty()) {
+					values.add(value);
+				}
+			}
+			postings.put(entry.getKey(), values);
+		}
+		dos.writeInt(SNAPSHOT_VERSION);
+		dos.writeInt(postings.size());
+		for (Entry<String, List<Entry<String, MutableRoaringBitmap>>> entry : postings.entrySet()) {
+			writeString(dos, entry.getKey());
+			dos.writeInt(entry.getValue().size());
+			for (Entry<String, MutableRoaringBitmap> value : entry.getValue()) {
+				writeString(dos, value.getKey());
+				MutableRoaringBitmap bitmap = value.getValue();
+				dos.writeInt(bitmap.serializedSizeInBytes());
+				bitmap.serialize(dos);
+			}
+		}
+	}
+
+	private static void writeString(DataOutputStream dos, String str) throws IOException {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		dos.writeInt(bytes.length);
+		dos.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buf) {
+		byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
 	}
 
 	@Override
@@ -130,8 +257,8 @@ public class MappedBitmapTagIndex implements TagIndex {
 	private void bitmapToRowKeys(Collection<ByteString> rowKeys, MutableRoaringBitmap value) {
 		logger.finest(() -> "Requesting conversion from bitmap to value");
 		List<Series> ref = measurement.getSeriesList();
-		for (Iterator<Integer> iterator = value.iterator(); iterator.hasNext();) {
-			Integer idx = iterator.next();
+		for (IntIterator iterator = value.getIntIterator(); iterator.hasNext();) {
+			int idx = iterator.next();
 			ByteString seriesId = (ByteString) ref.get(idx).getSeriesId();
 			rowKeys.add(seriesId);
 			logger.finest(
@@ -139,118 +266,40 @@ public class MappedBitmapTagIndex implements TagIndex {
 		}
 	}
 
-	protected MutableRoaringBitmap evalFilterForTags(TagFilter filterTree) {
-		logger.fine(() -> "Evaluating filter tree:" + measurement.getMeasurementName() + " " + filterTree);
-		// either it's a simple tag filter or a complex tag filter
-		if (filterTree instanceof SimpleTagFilter) {
-			SimpleTagFilter simpleFilter = (SimpleTagFilter) filterTree;
-			SortedMap<String, MutableRoaringBitmap> map = rowKeyIndex.get(simpleFilter.getTagKey());
-			if (map == null) {
-				return null;
-			}
-			return evalSimpleTagFilter(simpleFilter, map);
-		} else {
-			// if it's a complex tag filter then get individual units of return
-			ComplexTagFilter complexFilter = (ComplexTagFilter) filterTree;
-			List<TagFilter> filters = complexFilter.getFilters();
-			ComplexFilterType type = complexFilter.getType();
-			MutableRoaringBitmap map = new MutableRoaringBitmap();
-			for (int i = 0; i < filters.size(); i++) {
-				TagFilter tagFilter = filters.get(i);
-				MutableRoaringBitmap r = evalFilterForTags(tagFilter);
-				if (r == null) {
-					// no match found from evaluation of this filter
-					if (type == ComplexFilterType.AND) {
-						// if filter condition is AND then short circuit terminate the evaluation
-						return map = new MutableRoaringBitmap();
-					} else {
-						// if filter condition is OR then continue evaluation
-						continue;
-					}
-				} else if (map.isEmpty()) {
-					// if the global map is empty then initialize it
-					map.or(r);
-				}
-				switch (type) {
-				case AND:
-					map.and(r);
-					break;
-				case OR:
-					map.or(r);
-					break;
-				}
-			}
-			return map;
-		}
-	}
-
 	public static void printBitMap(MutableRoaringBitmap r) {
 		for (Integer integer : r) {
 			System.out.println("Row:" + integer);
 		}
 	}
 
-	private MutableRoaringBitmap evalSimpleTagFilter(SimpleTagFilter simpleFilter,
-			SortedMap<String, MutableRoaringBitmap> map) {
-		switch (simpleFilter.getFilterType()) {
-		case EQUALS:
-			return map.get(simpleFilter.getComparedValue());
-		case GREATER_THAN:
-			SortedMap<String, MutableRoaringBitmap> tailMap = map.tailMap(simpleFilter.getComparedValue());
-			if (tailMap.isEmpty()) {
-				return null;
-			}
-			Iterator<MutableRoaringBitmap> iterator = tailMap.values().iterator();
-			// skip the first one since the condition is greater than
-			iterator.next();
-			return combineMaps(iterator);
-		case LESS_THAN:
-			SortedMap<String, MutableRoaringBitmap> headMap = map.headMap(simpleFilter.getComparedValue());
-			if (headMap.isEmpty()) {
-				return null;
-			}
-			return combineMaps(headMap.values().iterator());
-		case GREATER_THAN_EQUALS:
-			SortedMap<String, MutableRoaringBitmap> tailMap1 = map.tailMap(simpleFilter.getComparedValue());
-			if (tailMap1.isEmpty()) {
-				return null;
-			}
-			Iterator<MutableRoaringBitmap> iterator1 = tailMap1.values().iterator();
-			return combineMaps(iterator1);
-		case LESS_THAN_EQUALS:
-			SortedMap<String, MutableRoaringBitmap> headMap1 = map
-					.headMap(simpleFilter.getComparedValue() + Character.MAX_VALUE);
-			if (headMap1.isEmpty()) {
-				return null;
-			}
-			return combineMaps(headMap1.values().iterator());
-		case LIKE:
-			List<MutableRoaringBitmap> filteredOutput = new ArrayList<>();
-			Pattern p = Pattern.compile(simpleFilter.getComparedValue());
-			for (Entry<String, MutableRoaringBitmap> v : map.entrySet()) {
-				if (p.matcher(v.getKey()).matches()) {
-					filteredOutput.add(v.getValue());
-				}
+	@Override
+	public void close() throws IOException {
+		try {
+			if (getLogBytes() > 0) {
+				snapshot();
 			}
-			return combineMaps(filteredOutput.iterator());
+		} finally {
+			rev.force();
+			revRaf.close();
 		}
-		// should always be unreachable
-		return null;
 	}
 
-	private MutableRoaringBitmap combineMaps(Iterator<MutableRoaringBitmap> itr) {
-		MutableRoaringBitmap resultMap = new MutableRoaringBitmap();
-		while (itr.hasNext()) {
-			MutableRoaringBitmap m = itr.next();
-			resultMap.or(m);
+	@Override
+	public void sync() throws IOException {
+		if (getLogBytes() >= snapshotThreshold) {
+			snapshot();
 		}
-		return resultMap;
+		// covers pages written through any mapping of the file
+		revRaf.getChannel().force(false);
 	}
 
-	@Override
-	public void close() throws IOException {
-		rev.force();
-		revRaf.close();
+	/**
+	 * @return bytes of entries logged since the last snapshot
+	 */
+	public long getLogBytes() {
+		synchronized (rowKeyIndex) {
+			return rev.position() - Integer.BYTES;
+		}
 	}
 
 	public MutableRoaringBitmap getBitMapForTag(String tagKey, String tagValue) {
@@ -264,7 +313,7 @@ public class MappedBitmapTagIndex implements TagIndex {
 		if (tagValueMap == null) {
 			synchronized (rowKeyIndex) {
 				if ((tagValueMap = rowKeyIndex.get(tagKey)) == null) {
-					tagValueMap = new ConcurrentSkipListMap<>();
+					tagValueMap = new TagValueMap();
 					rowKeyIndex.put(tagKey, tagValueMap);
 				}
 			}
@@ -283,29 +332,62 @@ public class MappedBitmapTagIndex implements TagIndex {
 		}
 
 		if (!rowKeySet.contains(rowIndex)) {
-			boolean add = rowKeySet.checkedAdd(rowIndex);
+			boolean add;
+			// series are indexed concurrently, bitmaps aren't thread-safe
+			lock.writeLock().lock();
+			try {
+				add = rowKeySet.checkedAdd(rowIndex);
+			} finally {
+				lock.writeLock().unlock();
+			}
 			if (add) {
 				if (enableMetrics) {
 					metricIndexRow.inc();
 				}
-				synchronized (rowKeyIndex) {
-					byte[] str = (tagKey + " " + tagValue + " " + rowIndex).getBytes();
-					if (rev.remaining() < str.length + Integer.BYTES) {
-						// resize buffer
-						int temp = rev.position();
-						rev = revRaf.getChannel().map(MapMode.READ_WRITE, 0, rev.capacity() + INCREMENT_SIZE);
-						rev.position(temp);
-					}
-					rev.putInt(str.length);
-					rev.put(str);
-					rev.putInt(0, rev.position());
-					logger.finest(() -> "Not found row index entry in bitmap for:" + tagKey + " with tagValue:"
-							+ tagValue + " on rowIndex:" + rowIndex);
-				}
+				appendLog(tagKey, tagValue, rowIndex, false);
+				logger.finest(() -> "Not found row index entry in bitmap for:" + tagKey + " with tagValue:" + tagValue
+						+ " on rowIndex:" + rowIndex);
 			}
 		}
 	}
 
+	@Override
+	public void unindex(String tagKey, String tagValue, int rowIndex) throws IOException {
+		SortedMap<String, MutableRoaringBitmap> tagValueMap = rowKeyIndex.get(tagKey);
+		MutableRoaringBitmap rowKeySet = tagValueMap != null ? tagValueMap.get(tagValue) : null;
+		if (rowKeySet == null) {
+			return;
+		}
+		boolean removed;
+		lock.writeLock().lock();
+		try {
+			removed = rowKeySet.checkedRemove(rowIndex);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		if (removed) {
+			if (enableMetrics) {
+				metricIndexRow.dec();
+			}
+			appendLog(tagKey, tagValue, rowIndex, true);
+		}
+	}
+
+	private void appendLog(String tagKey, String tagValue, int rowIndex, boolean removed) throws IOException {
+		synchronized (rowKeyIndex) {
+			byte[] str = (tagKey + " " + tagValue + " " + rowIndex).getBytes();
+			if (rev.remaining() < str.length + Integer.BYTES) {
+				// resize buffer
+				int temp = rev.position();
+				rev = revRaf.getChannel().map(MapMode.READ_WRITE, 0, rev.capacity() + INCREMENT_SIZE);
+				rev.position(temp);
+			}
+			rev.putInt(removed ? -str.length : str.length);
+			rev.put(str);
+			rev.putInt(0, rev.position());
+		}
+	}
+
 	@Override
 	public int getSize() {
 		int total = 0;
@@ -321,16 +403,27 @@ public class MappedBitmapTagIndex implements TagIndex {
 	public Set<ByteString> searchRowKeysForTagFilter(TagFilter tagFilterTree) {
 		logger.fine(() -> "Tag query:" + tagFilterTree);
 		Set<ByteString> rowKeys = new HashSet<>();
-		MutableRoaringBitmap evalFilterForTags = evalFilterForTags(tagFilterTree);
-		if (evalFilterForTags != null) {
-			bitmapToRowKeys(rowKeys, evalFilterForTags);
+		MutableRoaringBitmap result = searchSeriesIndices(tagFilterTree);
+		if (!result.isEmpty()) {
+			bitmapToRowKeys(rowKeys, result);
 		} else {
-			logger.fine(() -> "Tag query failed:" + tagFilterTree + " measurement:" + measurement.getDbName() + ":"
-					+ measurement.getMeasurementName());
+			logger.fine(() -> "Tag query found no series:" + tagFilterTree + " measurement:" + measurement.getDbName()
+					+ ":" + measurement.getMeasurementName());
 		}
 		return rowKeys;
 	}
 
+	@Override
+	public MutableRoaringBitmap searchSeriesIndices(TagFilter tagFilterTree) {
+		logger.fine(() -> "Evaluating filter tree:" + measurement.getMeasurementName() + " " + tagFilterTree);
+		lock.readLock().lock();
+		try {
+			return TagFilterEvaluator.evaluate(tagFilterTree, rowKeyIndex);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	@Override
 	public Collection<String> getTagValues(String tagKey) {
 		SortedMap<String, MutableRoaringBitmap> map = rowKeyIndex.get(tagKey);
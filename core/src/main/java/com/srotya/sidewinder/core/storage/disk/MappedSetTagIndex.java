@@ -31,6 +31,9 @@ import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
 import com.srotya.sidewinder.core.filters.ComplexTagFilter;
@@ -79,12 +82,12 @@ public class MappedSetTagIndex implements TagIndex {
 
 	protected void loadTagIndex() throws IOException {
 		if (!revIndex.exists()) {
-			revRaf = new RandomAccessFile(revIndex, "rwd");
+			revRaf = new RandomAccessFile(revIndex, "rw");
 			rev = revRaf.getChannel().map(MapMode.READ_WRITE, 0, INCREMENT_SIZE);
 			rev.putInt(0);
 			logger.fine("Tag index is missing; initializing new index");
 		} else {
-			revRaf = new RandomAccessFile(revIndex, "rwd");
+			revRaf = new RandomAccessFile(revIndex, "rw");
 			logger.info("Tag index is present; loading:" + revIndex.getAbsolutePath());
 			rev = revRaf.getChannel().map(MapMode.READ_WRITE, 0, revIndex.length());
 
@@ -92,10 +95,15 @@ public class MappedSetTagIndex implements TagIndex {
 			int offsetLimit = rev.getInt();
 			while (rev.position() < offsetLimit) {
 				int length = rev.getInt();
-				byte[] b = new byte[length];
+				// rolled back entries are logged with a negative length
+				byte[] b = new byte[Math.abs(length)];
 				rev.get(b);
 				String r = new String(b);
-				rowKeyIndex.add(r);
+				if (length < 0) {
+					rowKeyIndex.remove(r);
+				} else {
+					rowKeyIndex.add(r);
+				}
 			}
 		}
 	}
@@ -133,26 +141,51 @@ public class MappedSetTagIndex implements TagIndex {
 		revRaf.close();
 	}
 
+	@Override
+	public void sync() throws IOException {
+		// covers pages written through any mapping of the file
+		revRaf.getChannel().force(false);
+	}
+
 	@Override
 	public void index(String tagKey, String tagValue, int rowIndex) throws IOException {
-		tagKey = new StringBuilder(tagKey.length() + 1 + tagValue.length() + 1 + 8).append(tagKey).append(SEPERATOR)
-				.append(tagValue).append(SEPERATOR).append(Integer.toHexString(rowIndex)).toString();
-		if (rowKeyIndex.add(tagKey)) {
+		String entry = entry(tagKey, tagValue, rowIndex);
+		if (rowKeyIndex.add(entry)) {
 			if (enableMetrics) {
 				metricIndexRow.inc();
 			}
-			synchronized (rowKeyIndex) {
-				byte[] str = tagKey.getBytes();
-				if (rev.remaining() < str.length + Integer.BYTES) {
-					// resize buffer
-					int temp = rev.position();
-					rev = revRaf.getChannel().map(MapMode.READ_WRITE, 0, rev.capacity() + INCREMENT_SIZE);
-					rev.position(temp);
-				}
-				rev.putInt(str.length);
-				rev.put(str);
-				rev.putInt(0, rev.position());
+			appendLog(entry, false);
+		}
+	}
+
+	@Override
+	public void unindex(String tagKey, String tagValue, int rowIndex) throws IOException {
+		String entry = entry(tagKey, tagValue, rowIndex);
+		if (rowKeyIndex.remove(entry)) {
+			if (enableMetrics) {
+				metricIndexRow.dec();
 			}
+			appendLog(entry, true);
+		}
+	}
+
+	private static String entry(String tagKey, String tagValue, int rowIndex) {
+		return new StringBuilder(tagKey.length() + 1 + tagValue.length() + 1 + 8).append(tagKey).append(SEPERATOR)
+				.append(tagValue).append(SEPERATOR).append(Integer.toHexString(rowIndex)).toString();
+	}
+
+	private void appendLog(String entry, boolean removed) throws IOException {
+		synchronized (rowKeyIndex) {
+			byte[] str = entry.getBytes();
+			if (rev.remaining() < str.length + Integer.BYTES) {
+				// resize buffer
+				int temp = rev.position();
+				rev = revRaf.getChannel().map(MapMode.READ_WRITE, 0, rev.capacity() + INCREMENT_SIZE);
+				rev.position(temp);
+			}
+			rev.putInt(removed ? -str.length : str.length);
+			rev.put(str);
+			rev.putInt(0, rev.position());
 		}
 	}
 
@@ -167,53 +200,46 @@ public class MappedSetTagIndex implements TagIndex {
 
 	@Override
 	public Set<ByteString> searchRowKeysForTagFilter(TagFilter tagFilterTree) {
-		Set<ByteString> hexKeys = TagIndex.stringSetToByteSet(evalFilterForTags(tagFilterTree), new HashSet<>());
 		Set<ByteString> rowKeys = new HashSet<>();
 		List<Series> list = m.getSeriesList();
-		for (ByteString val : hexKeys) {
-			ByteString[] split = val.split(SEPERATOR);
-			rowKeys.add(new ByteString(
-					list.get(Integer.parseInt(split[split.length - 1].toString(), 16)).getSeriesId().toString()));
+		for (IntIterator itr = searchSeriesIndices(tagFilterTree).getIntIterator(); itr.hasNext();) {
+			rowKeys.add(list.get(itr.next()).getSeriesId());
 		}
 		return rowKeys;
 	}
 
-	public Set<String> evalFilterForTags(TagFilter filterTree) {
+	@Override
+	public MutableRoaringBitmap searchSeriesIndices(TagFilter filterTree) {
 		// either it's a simple tag filter or a complex tag filter
 		if (filterTree instanceof SimpleTagFilter) {
-			SimpleTagFilter simpleFilter = (SimpleTagFilter) filterTree;
-			return evalSimpleTagFilter(simpleFilter);
+			MutableRoaringBitmap indices = new MutableRoaringBitmap();
+			Set<String> hexKeys = evalSimpleTagFilter((SimpleTagFilter) filterTree);
+			if (hexKeys != null) {
+				// entries carry the tag key, only their series indices are comparable across tags
+				for (String val : hexKeys) {
+					indices.add(Integer.parseInt(val.substring(val.lastIndexOf(SEPERATOR) + 1), 16));
+				}
+			}
+			return indices;
 		} else {
 			// if it's a complex tag filter then get individual units of return
 			ComplexTagFilter complexFilter = (ComplexTagFilter) filterTree;
 			List<TagFilter> filters = complexFilter.getFilters();
-			Set<String> set = new HashSet<>();
+			MutableRoaringBitmap indices = new MutableRoaringBitmap();
 			ComplexFilterType type = complexFilter.getType();
 			for (int i = 0; i < filters.size(); i++) {
-				TagFilter tagFilter = filters.get(i);
-				Set<String> r = evalFilterForTags(tagFilter);
-				if (r == null) {
-					// no match found from evaluation of this filter
-					if (type == ComplexFilterType.AND) {
-						// if filter condition is AND then short circuit terminate the evaluation
-						return set = new HashSet<>();
-					} else {
-						// if filter condition is OR then continue evaluation
-						continue;
-					}
-				} else if (set.isEmpty() && i == 0) {
-					set.addAll(r);
+				MutableRoaringBitmap r = searchSeriesIndices(filters.get(i));
+				if (i == 0 || type == ComplexFilterType.OR) {
+					indices.or(r);
+				} else {
+					indices.and(r);
 				}
-				switch (type) {
-				case AND:
-					set.retainAll(r);
-					break;
-				case OR:
-					set.addAll(r);
+				if (indices.isEmpty() && type == ComplexFilterType.AND) {
+					// if filter condition is AND then short circuit terminate the evaluation
 					break;
 				}
 			}
-			return set;
+			return indices;
 		}
 	}
 
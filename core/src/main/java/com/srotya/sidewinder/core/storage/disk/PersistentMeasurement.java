@@ -19,7 +19,9 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -32,57 +34,80 @@ import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.Striped;
 import com.srotya.sidewinder.core.monitoring.MetricsRegistryService;
+import com.srotya.sidewinder.core.filters.TagFilter;
+import com.srotya.sidewinder.core.functions.list.Function;
+import com.srotya.sidewinder.core.functions.iterative.FunctionIteratorFactory;
+import com.srotya.sidewinder.core.predicates.Predicate;
+import com.srotya.sidewinder.core.rpc.Point;
+import com.srotya.sidewinder.core.rpc.Tag;
 import com.srotya.sidewinder.core.storage.BufferObject;
+import com.srotya.sidewinder.core.storage.archival.Archiver;
 import com.srotya.sidewinder.core.storage.ByteString;
 import com.srotya.sidewinder.core.storage.ByteString.ByteStringCache;
 import com.srotya.sidewinder.core.storage.DBMetadata;
+import com.srotya.sidewinder.core.storage.FieldIndex;
+import com.srotya.sidewinder.core.storage.FieldReaderIterator;
 import com.srotya.sidewinder.core.storage.Malloc;
 import com.srotya.sidewinder.core.storage.Measurement;
 import com.srotya.sidewinder.core.storage.Series;
+import com.srotya.sidewinder.core.storage.SeriesOutput;
+import com.srotya.sidewinder.core.storage.SeriesOutputv2;
 import com.srotya.sidewinder.core.storage.StorageEngine;
 import com.srotya.sidewinder.core.storage.TagIndex;
+import com.srotya.sidewinder.core.utils.AppendOnlyList;
+import com.srotya.sidewinder.core.utils.LongIntHashMap;
 import com.srotya.sidewinder.core.utils.MiscUtils;
 
 /**
  * @author ambud
  */
-public class PersistentMeasurement implements Measurement {
+public class PersistentMeasurement implements Measurement, FlushScheduler.Target {
 
 	private static final int SERIES_MD_IDX = 1;
 	private static final String MD_SEPARATOR = "~";
 	private static final Logger logger = Logger.getLogger(PersistentMeasurement.class.getName());
 	private ReentrantLock lock = new ReentrantLock(false);
 	private ReentrantLock mallocLock = new ReentrantLock(false);
-	private Map<ByteString, Integer> seriesMap;
+	private final Striped<Lock> registrationLocks = Striped.lock(64);
+	private final Object loadLock = new Object();
+	// writes and queries pin the resident state, eviction requires exclusive access
+	private final ReentrantReadWriteLock residentLock = new ReentrantReadWriteLock();
+	private volatile Resident resident;
+	private volatile Resident loading;
+	private volatile boolean touched;
 	private SortedMap<String, Boolean> fieldTypeMap;
-	private List<Series> seriesList;
-	private TagIndex tagIndex;
 	private String dataDirectory;
+	private String baseDataDirectory;
 	private DBMetadata metadata;
 	private Map<String, String> conf;
 	private String dbName;
-	private PrintWriter prMetadata;
 	private String indexDirectory;
+	private String baseIndexDirectory;
+	private StorageEngine engine;
+	private ScheduledExecutorService bgTaskPool;
+	private FlushScheduler flushScheduler;
 	// metrics
 	private boolean enableMetricsCapture;
 	private Counter metricsTimeSeriesCounter;
 	private boolean useQueryPool;
 	private String measurementName;
-	private Malloc malloc;
 	private boolean compactOnStart;
 	private int timeBucketSize;
 	private AtomicInteger retentionBuckets;
-	private PrintWriter prFieldMetadata;
 	private ByteStringCache fieldCache;
 	private Counter metricsCompactionCounter;
 	private Counter metricsCleanupBufferCounter;
@@ -108,24 +133,191 @@ public class PersistentMeasurement implements Measurement {
 		}
 
 		this.metadata = metadata;
+		this.engine = engine;
+		this.bgTaskPool = bgTaskPool;
+		if (engine instanceof DiskStorageEngine) {
+			this.flushScheduler = ((DiskStorageEngine) engine).getFlushScheduler();
+		}
+		this.baseDataDirectory = dataDirectory;
+		this.baseIndexDirectory = indexDirectory;
 		this.fieldCache = ByteStringCache.instance();
-		this.seriesMap = new ConcurrentHashMap<>(100_000);
 		this.fieldTypeMap = new ConcurrentSkipListMap<>();
-		this.seriesList = new ArrayList<>(100_000);
 		this.compactOnStart = Boolean.parseBoolean(
 				conf.getOrDefault(StorageEngine.COMPACTION_ON_START, StorageEngine.DEFAULT_COMPACTION_ON_START));
 		this.measurementName = measurementName;
-		this.prMetadata = new PrintWriter(new FileOutputStream(new File(getMetadataPath()), true));
-		this.prFieldMetadata = new PrintWriter(new FileOutputStream(new File(getFieldMetadataPath()), true));
 
 		this.retentionBuckets = new AtomicInteger(0);
 		setRetentionHours(metadata.getRetentionHours());
 
-		this.tagIndex = new MappedBitmapTagIndex();
-		this.tagIndex.configure(getConf(), indexDirectory, this);
-		malloc = new DiskMalloc();
-		malloc.configure(conf, dataDirectory, measurementName, engine, bgTaskPool, mallocLock);
-		loadTimeseriesInMeasurements();
+		this.resident = null;
+		this.touched = false;
+		File fieldFile = new File(getFieldMetadataPath());
+		if (fieldFile.exists()) {
+			loadFieldList(MiscUtils.readAllLines(fieldFile));
+		}
+		if (!Boolean.parseBoolean(conf.getOrDefault(DiskStorageEngine.RECOVERY_LAZY,
+				DiskStorageEngine.DEFAULT_RECOVERY_LAZY))) {
+			load();
+		}
+	}
+
+	/**
+	 * Load series, tag index and buffers of this measurement if they aren't
+	 * resident. Accesses made by the loading thread while the load is in progress
+	 * see the partially loaded state.
+	 * 
+	 * @return resident state
+	 * @throws IOException
+	 */
+	private Resident load() throws IOException {
+		synchronized (loadLock) {
+			Resident r = resident;
+			if (r != null) {
+				return r;
+			} else if (loading != null) {
+				return loading;
+			}
+			long ts = System.currentTimeMillis();
+			r = new Resident();
+			loading = r;
+			try {
+				r.prMetadata = new PrintWriter(new FileOutputStream(new File(getMetadataPath()), true));
+				r.prFieldMetadata = new PrintWriter(new FileOutputStream(new File(getFieldMetadataPath()), true));
+				r.tagIndex = new MappedBitmapTagIndex();
+				r.tagIndex.configure(getConf(), baseIndexDirectory, this);
+				r.malloc = new DiskMalloc();
+				r.malloc.configure(conf, baseDataDirectory, measurementName, engine, bgTaskPool, mallocLock);
+				loadTimeseriesInMeasurements();
+			} catch (IOException | RuntimeException e) {
+				closeResident(r);
+				throw e;
+			} finally {
+				loading = null;
+			}
+			resident = r;
+			if (flushScheduler != null) {
+				flushScheduler.register(this);
+			}
+			logger.fine(() -> "Loaded measurement:" + measurementName + " in " + (System.currentTimeMillis() - ts)
+					+ "ms");
+			return r;
+		}
+	}
+
+	private Resident resident() {
+		Resident r = resident;
+		if (r == null) {
+			try {
+				r = load();
+			} catch (IOException e) {
+				logger.log(Level.SEVERE, "Failed to load measurement:" + measurementName + " db:" + dbName, e);
+				throw new UncheckedIOException(e);
+			}
+		}
+		// background maintenance holds the cleanup lock, it doesn't count as an access
+		if (!touched && !lock.isHeldByCurrentThread()) {
+			touched = true;
+		}
+		return r;
+	}
+
+	/**
+	 * Pin the resident state so that it isn't evicted until the returned lock is
+	 * released, the state is loaded on first access if needed
+	 * 
+	 * @return held pin
+	 */
+	private Lock pin() {
+		Lock pin = residentLock.readLock();
+		pin.lock();
+		return pin;
+	}
+
+	/**
+	 * Pin the resident state only if it's loaded, for background maintenance that
+	 * must not load an evicted measurement
+	 * 
+	 * @return held pin or null if the measurement isn't resident
+	 */
+	Lock pinIfResident() {
+		Lock pin = residentLock.readLock();
+		pin.lock();
+		if (resident == null && loading == null) {
+			pin.unlock();
+			return null;
+		}
+		return pin;
+	}
+
+	private void closeResident(Resident r) throws IOException {
+		if (flushScheduler != null) {
+			flushScheduler.deregister(this);
+		}
+		r.closed = true;
+		if (r.malloc != null) {
+			r.malloc.close();
+		}
+		if (r.tagIndex != null) {
+			r.tagIndex.close();
+		}
+		if (r.prMetadata != null) {
+			r.prMetadata.close();
+		}
+		if (r.prFieldMetadata != null) {
+			r.prFieldMetadata.close();
+		}
+	}
+
+	/**
+	 * @return true if series, tag index and buffers of this measurement are
+	 *         loaded
+	 */
+	public boolean isResident() {
+		return resident != null;
+	}
+
+	/**
+	 * Release the series, tag index and buffers of this measurement if it hasn't
+	 * been accessed since the previous call and no write or query has it pinned.
+	 * The measurement is transparently reloaded on the next write or query.
+	 * Iterators returned by a query aren't pinned once the query returns, they
+	 * must be consumed before the measurement has been idle for a full eviction
+	 * interval.
+	 * 
+	 * @return true if the measurement was evicted
+	 * @throws IOException
+	 */
+	public boolean evictIfIdle() throws IOException {
+		if (resident == null) {
+			return false;
+		} else if (touched) {
+			touched = false;
+			return false;
+		}
+		Lock exclusive = residentLock.writeLock();
+		if (!exclusive.tryLock()) {
+			// in use by a write, query or maintenance task
+			return false;
+		}
+		try {
+			lock.lock();
+			try {
+				synchronized (loadLock) {
+					Resident r = resident;
+					if (r == null || touched) {
+						return false;
+					}
+					resident = null;
+					closeResident(r);
+				}
+			} finally {
+				lock.unlock();
+			}
+		} finally {
+			exclusive.unlock();
+		}
+		logger.info("Evicted idle measurement:" + measurementName + " db:" + dbName);
+		return true;
 	}
 
 	private void enableMetricsMonitoring(StorageEngine engine, ScheduledExecutorService bgTaskPool) {
@@ -158,12 +350,27 @@ public class PersistentMeasurement implements Measurement {
 
 	@Override
 	public Map<ByteString, Integer> getSeriesMap() {
-		return seriesMap;
+		return resident().seriesMap;
+	}
+
+	@Override
+	public LongIntHashMap getSeriesHashIndex() {
+		return resident().seriesHashIndex;
+	}
+
+	@Override
+	public Striped<Lock> getRegistrationLocks() {
+		return registrationLocks;
 	}
 
 	@Override
 	public TagIndex getTagIndex() {
-		return tagIndex;
+		return resident().tagIndex;
+	}
+
+	@Override
+	public FieldIndex getFieldIndex() {
+		return resident().fieldIndex;
 	}
 
 	protected void createMeasurementDirectory() throws IOException {
@@ -174,12 +381,12 @@ public class PersistentMeasurement implements Measurement {
 	@Override
 	public synchronized void appendTimeseriesToMeasurementMetadata(ByteString fieldId, int idx) throws IOException {
 		String line = fieldId.toString() + MD_SEPARATOR + Integer.toHexString(idx);
-		DiskStorageEngine.appendLineToFile(line, prMetadata);
+		DiskStorageEngine.appendLineToFile(line, resident().prMetadata);
 	}
 
 	@Override
 	public synchronized void appendFieldMetadata(String valueFieldName, boolean fp) throws IOException {
-		DiskStorageEngine.appendLineToFile(valueFieldName + MD_SEPARATOR + fp, prFieldMetadata);
+		DiskStorageEngine.appendLineToFile(valueFieldName + MD_SEPARATOR + fp, resident().prFieldMetadata);
 	}
 
 	private void loadSeriesEntries(List<String> seriesEntries) {
@@ -212,6 +419,8 @@ public class PersistentMeasurement implements Measurement {
 	}
 
 	private void loadEntry(String entry) {
+		Map<ByteString, Integer> seriesMap = getSeriesMap();
+		AppendOnlyList<Series> seriesList = getSeriesList();
 		String[] split = entry.split(MD_SEPARATOR);
 		String fieldId = split[0];
 		logger.fine("Loading Timeseries:" + fieldId);
@@ -269,7 +478,9 @@ public class PersistentMeasurement implements Measurement {
 		}
 
 		ByteStringCache localCache = ByteStringCache.instance();
-		Map<ByteString, List<Entry<Integer, BufferObject>>> seriesBuffers = malloc.seriesBufferMap();
+		Map<ByteString, Integer> seriesMap = getSeriesMap();
+		AppendOnlyList<Series> seriesList = getSeriesList();
+		Map<ByteString, List<Entry<Integer, BufferObject>>> seriesBuffers = getMalloc().seriesBufferMap();
 		for (Entry<ByteString, List<Entry<Integer, BufferObject>>> entry : seriesBuffers.entrySet()) {
 			ByteString[] split = entry.getKey().split(SERIESID_SEPARATOR);
 			ByteString seriesId = localCache.get(split[0]);
@@ -312,7 +523,12 @@ public class PersistentMeasurement implements Measurement {
 
 	@Override
 	public Collection<String> getTagKeys() throws IOException {
-		return tagIndex.getTagKeys();
+		Lock pin = pin();
+		try {
+			return getTagIndex().getTagKeys();
+		} finally {
+			pin.unlock();
+		}
 	}
 
 	@Override
@@ -320,11 +536,233 @@ public class PersistentMeasurement implements Measurement {
 		return logger;
 	}
 
+	/**
+	 * Make buffers, pointers, tag index and series metadata written so far
+	 * durable. Measurements that aren't resident were synced when they were
+	 * closed. The resident state is pinned rather than locked while it's synced
+	 * so that lazy loads and pins aren't blocked behind the fsync.
+	 * 
+	 * @throws IOException
+	 */
+	@Override
+	public void sync() throws IOException {
+		Lock pin = pinIfResident();
+		if (pin == null) {
+			return;
+		}
+		try {
+			Resident r;
+			synchronized (loadLock) {
+				r = resident;
+			}
+			if (r == null || r.closed) {
+				return;
+			}
+			r.malloc.sync();
+			r.tagIndex.sync();
+			syncFile(getMetadataPath());
+			syncFile(getFieldMetadataPath());
+		} finally {
+			pin.unlock();
+		}
+	}
+
+	@Override
+	public long getAllocatedBytes() {
+		Resident r = resident;
+		return r == null ? 0 : r.malloc.getAllocatedBytes();
+	}
+
+	private static void syncFile(String path) throws IOException {
+		File file = new File(path);
+		if (!file.exists()) {
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			channel.force(false);
+		}
+	}
+
 	@Override
 	public void close() throws IOException {
-		malloc.close();
-		tagIndex.close();
-		prMetadata.close();
+		// waits for an in-flight sync to release its pin
+		Lock exclusive = residentLock.writeLock();
+		exclusive.lock();
+		try {
+			synchronized (loadLock) {
+				Resident r = resident;
+				if (r != null) {
+					closeResident(r);
+				}
+			}
+		} finally {
+			exclusive.unlock();
+		}
+	}
+
+	@Override
+	public Set<String> collectGarbage(Archiver archiver) throws IOException {
+		Lock pin = pinIfResident();
+		if (pin == null) {
+			// retention is enforced once the measurement is loaded again
+			return Collections.emptySet();
+		}
+		try {
+			return Measurement.super.collectGarbage(archiver);
+		} finally {
+			pin.unlock();
+		}
+	}
+
+	@Override
+	public Set<String> compact() throws IOException {
+		Lock pin = pinIfResident();
+		if (pin == null) {
+			return Collections.emptySet();
+		}
+		try {
+			return Measurement.super.compact();
+		} finally {
+			pin.unlock();
+		}
+	}
+
+	@Override
+	public Series getOrCreateSeries(List<Tag> tags, boolean preSorted) throws IOException {
+		Lock pin = pin();
+		try {
+			return Measurement.super.getOrCreateSeries(tags, preSorted);
+		} finally {
+			pin.unlock();
+		}
+	}
+
+	@Override
+	public void addPointWithLocking(Point dp, boolean preSorted) throws IOException {
+		Lock pin = pin();
+		try {
+			Measurement.super.addPointWithLocking(dp, preSorted);
+		} finally {
+			pin.unlock();
+		}
+	}
+
+	@Override
+	public void addPointWithoutLocking(Point dp, boolean preSorted) throws IOException {
+		Lock pin = pin();
+		try {
+			Measurement.super.addPointWithoutLocking(dp, preSorted);
+		} finally {
+			pin.unlock();
+		}
+	}
+
+	@Override
+	public void addPointsWithLocking(List<Point> points, boolean preSorted) throws IOException {
+		Lock pin = pin();
+		try {
+			Measurement.super.addPointsWithLocking(points, preSorted);
+		} finally {
+			pin.unlock();
+		}
+	}
+
+	@Override
+	public void addPointsWithoutLocking(List<Point> points, boolean preSorted) throws IOException {
+		Lock pin = pin();
+		try {
+			Measurement.super.addPointsWithoutLocking(points, preSorted);
+		} finally {
+			pin.unlock();
+		}
+	}
+
+	@Override
+	public int replayPoints(List<Point> points) throws IOException {
+		Lock pin = pin();
+		try {
+			return Measurement.super.replayPoints(points);
+		} finally {
+			pin.unlock();
+		}
+	}
+
+	@Override
+	public void queryDataPoints(String valueFieldNamePattern, long startTime, long endTime, TagFilter tagFilter,
+			Predicate valuePredicate, List<SeriesOutput> resultMap, Function function) throws IOException {
+		Lock pin = pin();
+		try {
+			Measurement.super.queryDataPoints(valueFieldNamePattern, startTime, endTime, tagFilter, valuePredicate,
+					resultMap, function);
+		} finally {
+			pin.unlock();
+		}
+	}
+
+	@Override
+	public void queryDataPointsv2(String valueFieldNamePattern, long startTime, long endTime, TagFilter tagFilter,
+			Predicate valuePredicate, List<SeriesOutputv2> result, FunctionIteratorFactory template)
+			throws IOException {
+		Lock pin = pin();
+		try {
+			Measurement.super.queryDataPointsv2(valueFieldNamePattern, startTime, endTime, tagFilter, valuePredicate,
+					result, template);
+		} finally {
+			pin.unlock();
+		}
+	}
+
+	@Override
+	public void queryReaders(List<String> valueFieldNames, List<Predicate> valuePredicate, boolean regex,
+			long startTime, long endTime, TagFilter tagFilter, ConcurrentMap<ByteString, FieldReaderIterator[]> readers)
+			throws IOException {
+		Lock pin = pin();
+		try {
+			Measurement.super.queryReaders(valueFieldNames, valuePredicate, regex, startTime, endTime, tagFilter,
+					readers);
+		} finally {
+			pin.unlock();
+		}
+	}
+
+	@Override
+	public List<List<Tag>> getTagsForMeasurement() throws Exception {
+		Lock pin = pin();
+		try {
+			return Measurement.super.getTagsForMeasurement();
+		} finally {
+			pin.unlock();
+		}
+	}
+
+	@Override
+	public Set<ByteString> getTagFilteredRowKeys(TagFilter tagFilterTree) throws IOException {
+		Lock pin = pin();
+		try {
+			return Measurement.super.getTagFilteredRowKeys(tagFilterTree);
+		} finally {
+			pin.unlock();
+		}
+	}
+
+	@Override
+	public Series getSeriesField(List<Tag> tags) throws IOException {
+		Lock pin = pin();
+		try {
+			return Measurement.super.getSeriesField(tags);
+		} finally {
+			pin.unlock();
+		}
+	}
+
+	@Override
+	public Collection<String> getTagValues(String tagKey) {
+		Lock pin = pin();
+		try {
+			return Measurement.super.getTagValues(tagKey);
+		} finally {
+			pin.unlock();
+		}
 	}
 
 	/*
@@ -334,7 +772,9 @@ public class PersistentMeasurement implements Measurement {
 	 */
 	@Override
 	public String toString() {
-		return "PersistentMeasurement [seriesMap=" + seriesMap + ", measurementName=" + measurementName + "]";
+		Resident r = resident;
+		return "PersistentMeasurement [seriesMap=" + (r != null ? r.seriesMap : null) + ", measurementName="
+				+ measurementName + "]";
 	}
 
 	@Override
@@ -350,7 +790,7 @@ public class PersistentMeasurement implements Measurement {
 	@Override
 	public Set<ByteString> getSeriesKeys() {
 		Set<ByteString> hashSet = new HashSet<>();
-		for (ByteString str : seriesMap.keySet()) {
+		for (ByteString str : getSeriesMap().keySet()) {
 			hashSet.add(str);
 		}
 		return hashSet;
@@ -363,7 +803,7 @@ public class PersistentMeasurement implements Measurement {
 
 	@Override
 	public Malloc getMalloc() {
-		return malloc;
+		return resident().malloc;
 	}
 
 	public DBMetadata getMetadata() {
@@ -371,12 +811,12 @@ public class PersistentMeasurement implements Measurement {
 	}
 
 	@Override
-	public List<Series> getSeriesList() {
-		return seriesList;
+	public AppendOnlyList<Series> getSeriesList() {
+		return resident().seriesList;
 	}
 
 	public List<Series> getSeriesListAsList() {
-		return seriesList;
+		return resident().seriesList;
 	}
 
 	@Override
@@ -419,4 +859,22 @@ public class PersistentMeasurement implements Measurement {
 		return metricsCompactionCounter;
 	}
 
+	/**
+	 * Series, tag index and buffer state of a measurement, only held while it's
+	 * resident
+	 */
+	private static final class Resident {
+
+		private final Map<ByteString, Integer> seriesMap = new ConcurrentHashMap<>();
+		private final LongIntHashMap seriesHashIndex = new LongIntHashMap();
+		private final AppendOnlyList<Series> seriesList = new AppendOnlyList<>();
+		private final FieldIndex fieldIndex = new FieldIndex();
+		private TagIndex tagIndex;
+		private Malloc malloc;
+		private PrintWriter prMetadata;
+		private PrintWriter prFieldMetadata;
+		private volatile boolean closed;
+
+	}
+
 }
@@ -0,0 +1,259 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.disk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.srotya.sidewinder.core.storage.ByteString;
+import com.srotya.sidewinder.core.utils.MiscUtils;
+
+/**
+ * Binary layout of the buffer pointer (.ptr) file of {@link DiskMalloc}.<br>
+ * <br>
+ * The file starts with a fixed header (magic, version, number of buffer
+ * records and the offset right after the last record) followed by records.
+ * Key records declare a field key (series id and value field name) once and
+ * assign it an id, buffer records are fixed width and reference the key by
+ * id along with the data file number, position, size and time bucket of the
+ * buffer. Every record ends with a CRC32 of its bytes so a torn or corrupt
+ * tail is detected and dropped on load.<br>
+ * <br>
+ * Version 1 files are ")" separated text lines prefixed with the line count,
+ * they have no magic and are converted with {@link #migrateLegacy(ByteBuffer)}.
+ * 
+ * @author ambud
+ */
+public class PtrFileFormat {
+
+	public static final int MAGIC = 0x53575054;
+	public static final short VERSION = 2;
+	public static final int HEADER_SIZE = 16;
+	public static final byte KEY_RECORD = 1;
+	public static final byte BUFFER_RECORD = 2;
+	// type, key id, file number, position, size, bucket, crc
+	public static final int BUFFER_RECORD_SIZE = 1 + 4 + 4 + 8 + 4 + 4 + 4;
+	// type, key id, key length, crc
+	private static final int KEY_RECORD_OVERHEAD = 1 + 4 + 2 + 4;
+	private static final int VERSION_IDX = 4;
+	private static final int COUNT_IDX = 8;
+	private static final int END_IDX = 12;
+
+	private PtrFileFormat() {
+	}
+
+	/**
+	 * Callback for records read from a ptr file
+	 */
+	public interface PtrVisitor {
+
+		public void key(int offset, int keyId, ByteString key) throws IOException;
+
+		public void buffer(int offset, int keyId, int fileNumber, long position, int size, int bucket)
+				throws IOException;
+
+	}
+
+	public static boolean isBinary(ByteBuffer buf) {
+		return buf.limit() >= HEADER_SIZE && buf.getInt(0) == MAGIC;
+	}
+
+	public static void writeHeader(ByteBuffer buf, int count, int end) {
+		buf.putInt(0, MAGIC);
+		buf.putShort(VERSION_IDX, VERSION);
+		buf.putShort(VERSION_IDX + Short.BYTES, (short) 0);
+		updateHeader(buf, count, end);
+	}
+
+	public static void updateHeader(ByteBuffer buf, int count, int end) {
+		buf.putInt(COUNT_IDX, count);
+		buf.putInt(END_IDX, end);
+	}
+
+	public static int getCount(ByteBuffer buf) {
+		return buf.getInt(COUNT_IDX);
+	}
+
+	public static int getEnd(ByteBuffer buf) {
+		return buf.getInt(END_IDX);
+	}
+
+	public static int keyRecordSize(int keyLength) {
+		return KEY_RECORD_OVERHEAD + keyLength;
+	}
+
+	/**
+	 * Append a key record at the current position of the buffer
+	 * 
+	 * @param buf
+	 * @param keyId
+	 * @param key
+	 * @throws IOException
+	 *             if the key is too long
+	 */
+	public static void writeKeyRecord(ByteBuffer buf, int keyId, byte[] key) throws IOException {
+		if (key.length > Short.MAX_VALUE) {
+			throw new IOException("Key too long for ptr file:" + key.length);
+		}
+		int start = buf.position();
+		buf.put(KEY_RECORD);
+		buf.putInt(keyId);
+		buf.putShort((short) key.length);
+		buf.put(key);
+		buf.putInt(checksum(buf, start, buf.position(), new CRC32()));
+	}
+
+	/**
+	 * Append a buffer record at the current position of the buffer
+	 * 
+	 * @param buf
+	 * @param keyId
+	 * @param fileNumber
+	 * @param position
+	 *            of the buffer in the data file
+	 * @param size
+	 * @param bucket
+	 */
+	public static void writeBufferRecord(ByteBuffer buf, int keyId, int fileNumber, long position, int size,
+			int bucket) {
+		int start = buf.position();
+		buf.put(BUFFER_RECORD);
+		buf.putInt(keyId);
+		buf.putInt(fileNumber);
+		buf.putLong(position);
+		buf.putInt(size);
+		buf.putInt(bucket);
+		buf.putInt(checksum(buf, start, buf.position(), new CRC32()));
+	}
+
+	/**
+	 * Read records of a binary ptr file in order, reading stops at the first
+	 * record that is incomplete or fails its checksum
+	 * 
+	 * @param buf
+	 * @param visitor
+	 * @return offset right after the last valid record
+	 * @throws IOException
+	 *             if this isn't a supported binary ptr file
+	 */
+	public static int read(ByteBuffer buf, PtrVisitor visitor) throws IOException {
+		if (!isBinary(buf)) {
+			throw new IOException("Not a binary ptr file");
+		}
+		short version = buf.getShort(VERSION_IDX);
+		if (version != VERSION) {
+			throw new IOException("Unsupported ptr file version:" + version);
+		}
+		ByteBuffer in = buf.duplicate();
+		in.limit(Math.max(HEADER_SIZE, Math.min(getEnd(buf), buf.limit())));
+		in.position(HEADER_SIZE);
+		CRC32 crc = new CRC32();
+		int valid = HEADER_SIZE;
+		while (in.hasRemaining()) {
+			int start = in.position();
+			byte type = in.get();
+			if (type == KEY_RECORD) {
+				if (in.remaining() < KEY_RECORD_OVERHEAD - 1) {
+					break;
+				}
+				int keyId = in.getInt();
+				short length = in.getShort();
+				if (length < 0 || in.remaining() < length + Integer.BYTES) {
+					break;
+				}
+				byte[] key = new byte[length];
+				in.get(key);
+				if (checksum(in, start, in.position(), crc) != in.getInt()) {
+					break;
+				}
+				visitor.key(start, keyId, new ByteString(key));
+			} else if (type == BUFFER_RECORD) {
+				if (in.remaining() < BUFFER_RECORD_SIZE - 1) {
+					break;
+				}
+				int keyId = in.getInt();
+				int fileNumber = in.getInt();
+				long position = in.getLong();
+				int size = in.getInt();
+				int bucket = in.getInt();
+				if (checksum(in, start, in.position(), crc) != in.getInt()) {
+					break;
+				}
+				visitor.buffer(start, keyId, fileNumber, position, size, bucket);
+			} else {
+				break;
+			}
+			valid = in.position();
+		}
+		return valid;
+	}
+
+	/**
+	 * Convert a version 1 (text) ptr file to the binary format
+	 * 
+	 * @param legacy
+	 *            contents of the version 1 file
+	 * @return binary ptr file contents, flipped for reading
+	 * @throws IOException
+	 *             if an entry can't be parsed
+	 */
+	public static ByteBuffer migrateLegacy(ByteBuffer legacy) throws IOException {
+		ByteBuffer in = legacy.duplicate();
+		in.rewind();
+		int count = in.getInt();
+		// keys can't take more space than the lines they were declared in
+		ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + count * (BUFFER_RECORD_SIZE + KEY_RECORD_OVERHEAD)
+				+ legacy.limit());
+		out.position(HEADER_SIZE);
+		Map<String, Integer> keyIds = new HashMap<>();
+		for (int i = 0; i < count; i++) {
+			String line = MiscUtils.getStringFromBuffer(in).trim();
+			String[] splits = line.split("\\" + DiskMalloc.SEPARATOR);
+			if (splits.length < 6) {
+				throw new IOException("Invalid entry in legacy ptr file:" + line);
+			}
+			try {
+				Integer keyId = keyIds.get(splits[0]);
+				if (keyId == null) {
+					keyId = keyIds.size();
+					keyIds.put(splits[0], keyId);
+					writeKeyRecord(out, keyId, new ByteString(splits[0]).getBytes());
+				}
+				long position = Long.parseLong(splits[3]) + Integer.parseInt(splits[2]);
+				writeBufferRecord(out, keyId, DiskMalloc.fileNumber(splits[1]), position, Integer.parseInt(splits[4]),
+						Integer.parseUnsignedInt(splits[5], 16));
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid entry in legacy ptr file:" + line, e);
+			}
+		}
+		writeHeader(out, count, out.position());
+		out.flip();
+		return out;
+	}
+
+	private static int checksum(ByteBuffer buf, int start, int end, CRC32 crc) {
+		ByteBuffer duplicate = buf.duplicate();
+		duplicate.limit(end);
+		duplicate.position(start);
+		crc.reset();
+		crc.update(duplicate);
+		return (int) crc.getValue();
+	}
+
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.disk;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Logger;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.srotya.sidewinder.core.monitoring.MetricsRegistryService;
+import com.srotya.sidewinder.core.storage.Field;
+import com.srotya.sidewinder.core.storage.Series;
+import com.srotya.sidewinder.core.storage.StorageEngine;
+import com.srotya.sidewinder.core.storage.compression.Writer;
+import com.srotya.sidewinder.core.storage.disk.DiskMalloc.FileStats;
+
+/**
+ * Reclaims space held by fragmented data files. Data files are only deleted
+ * once no buffer pointer references them, so a few live buffers can keep an
+ * otherwise garbage file around. Files whose live bytes drop below the
+ * configured ratio have their buffers copied to the active data file, the
+ * pointers are swapped in one atomic ptr file update after which the old files
+ * are deleted.
+ * 
+ * Files holding the last buffer of a field are skipped since that buffer may
+ * still be appended to.
+ * 
+ * @author ambud
+ */
+public class SegmentCompactor {
+
+	private static final Logger logger = Logger.getLogger(SegmentCompactor.class.getName());
+	public static final String SEGMENT_COMPACTION_ENABLED = "compaction.segment.enabled";
+	public static final String DEFAULT_SEGMENT_COMPACTION_ENABLED = "false";
+	public static final String SEGMENT_COMPACTION_FREQUENCY = "compaction.segment.frequency";
+	public static final String DEFAULT_SEGMENT_COMPACTION_FREQUENCY = "3600";
+	public static final String SEGMENT_COMPACTION_LIVE_RATIO = "compaction.segment.live.ratio";
+	public static final String DEFAULT_SEGMENT_COMPACTION_LIVE_RATIO = "0.5";
+	private double maxLiveRatio;
+	private Counter metricsRelocatedBuffers;
+	private Counter metricsReclaimedBytes;
+
+	public SegmentCompactor(Map<String, String> conf, StorageEngine engine, ScheduledExecutorService bgTaskPool) {
+		this.maxLiveRatio = Double.parseDouble(
+				conf.getOrDefault(SEGMENT_COMPACTION_LIVE_RATIO, DEFAULT_SEGMENT_COMPACTION_LIVE_RATIO));
+		if (engine != null && bgTaskPool != null) {
+			MetricRegistry metaops = MetricsRegistryService.getInstance(engine, bgTaskPool).getInstance("metaops");
+			metricsRelocatedBuffers = metaops.counter("segment-relocated-buffers");
+			metricsReclaimedBytes = metaops.counter("segment-reclaimed-bytes");
+		}
+	}
+
+	/**
+	 * Compact the data files of the supplied measurement, measurements that
+	 * aren't resident are skipped
+	 * 
+	 * @param measurement
+	 * @return bytes reclaimed
+	 * @throws IOException
+	 */
+	public long compact(PersistentMeasurement measurement) throws IOException {
+		// the pin keeps the measurement from being evicted while it's compacted
+		Lock pin = measurement.pinIfResident();
+		if (pin == null) {
+			return 0;
+		}
+		// serialize with garbage collection, compaction and eviction
+		measurement.getLock().lock();
+		try {
+			DiskMalloc malloc = (DiskMalloc) measurement.getMalloc();
+			Map<String, FileStats> stats = malloc.getFileStats();
+			Set<String> candidates = new HashSet<>();
+			for (FileStats fileStats : stats.values()) {
+				logger.fine(() -> "Segment stats for measurement:" + measurement.getMeasurementName() + " "
+						+ fileStats + " live ratio:" + fileStats.getLiveRatio());
+				if (!fileStats.isActive() && fileStats.getLiveRatio() < maxLiveRatio) {
+					candidates.add(fileStats.getFileName());
+				}
+			}
+			if (candidates.isEmpty()) {
+				return 0;
+			}
+			List<Series> seriesList = measurement.getSeriesList();
+			// tails sealed now may still get a point from an in-flight write that doesn't
+			// lock, they are only relocated by the next run
+			Set<String> pinned = pinnedFiles(seriesList);
+			// buckets that are no longer written to shouldn't keep their files pinned
+			Set<String> candidateIds = malloc.getBufferIds(candidates);
+			int size = seriesList.size();
+			for (int i = 0; i < size; i++) {
+				Series series = seriesList.get(i);
+				if (series != null) {
+					series.sealClosedBuckets(measurement, candidateIds);
+				}
+			}
+			Set<String> bufferIds = candidateIds;
+			if (candidates.removeAll(pinned)) {
+				if (candidates.isEmpty()) {
+					return 0;
+				}
+				bufferIds = malloc.getBufferIds(candidates);
+			}
+			long reclaimable = 0;
+			for (String candidate : candidates) {
+				FileStats fileStats = stats.get(candidate);
+				reclaimable += fileStats.getReclaimableBytes();
+				logger.info("Compacting segment:" + candidate + " of measurement:" + measurement.getMeasurementName()
+						+ " live:" + fileStats.getLiveBytes() + " reclaimable:" + fileStats.getReclaimableBytes()
+						+ " bytes");
+			}
+			int relocated = 0;
+			for (int i = 0; i < size; i++) {
+				Series series = seriesList.get(i);
+				if (series != null) {
+					relocated += series.relocate(measurement, bufferIds);
+				}
+			}
+			malloc.commitRelocations();
+			Map<String, FileStats> after = malloc.getFileStats();
+			long reclaimed = 0;
+			for (String candidate : candidates) {
+				if (!after.containsKey(candidate)) {
+					reclaimed += stats.get(candidate).getLength();
+				}
+			}
+			logger.info("Segment compaction of measurement:" + measurement.getMeasurementName() + " relocated "
+					+ relocated + " buffers, reclaimed " + reclaimed + " of " + reclaimable + " reclaimable bytes");
+			if (metricsRelocatedBuffers != null) {
+				metricsRelocatedBuffers.inc(relocated);
+				metricsReclaimedBytes.inc(reclaimed);
+			}
+			return reclaimed;
+		} finally {
+			measurement.getLock().unlock();
+			pin.unlock();
+		}
+	}
+
+	/**
+	 * @return data files holding the last buffer of a field that may still be
+	 *         appended to
+	 */
+	private Set<String> pinnedFiles(List<Series> seriesList) {
+		Set<String> pinned = new HashSet<>();
+		int size = seriesList.size();
+		for (int i = 0; i < size; i++) {
+			Series series = seriesList.get(i);
+			if (series == null) {
+				continue;
+			}
+			for (Map<String, Field> map : series.getBucketMap().values()) {
+				for (Field field : map.values()) {
+					List<? extends Writer> writers = field.getWriters();
+					if (!writers.isEmpty()) {
+						Writer last = writers.get(writers.size() - 1);
+						if (last.isFull()) {
+							// sealed, see Series#sealClosedBuckets
+							continue;
+						}
+						pinned.add(DiskMalloc.bufferFileName(last.getBufferId().toString()));
+					}
+				}
+			}
+		}
+		return pinned;
+	}
+
+}
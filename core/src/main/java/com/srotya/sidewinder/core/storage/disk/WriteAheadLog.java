@@ -0,0 +1,450 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.disk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Sequential log of point batches written ahead of the memory mapped data
+ * files of {@link DiskStorageEngine}.<br>
+ * <br>
+ * Batches are appended to the current segment and made durable by a flusher
+ * thread with group commit: one fsync covers every batch appended within
+ * {@link #WAL_FSYNC_INTERVAL} milliseconds or until {@link #WAL_FSYNC_BYTES}
+ * are pending. With {@link #WAL_SYNC_WRITES} writers wait for the fsync that
+ * covers their batch, otherwise they return right away and at most one fsync
+ * interval of acknowledged writes can be lost.<br>
+ * <br>
+ * A checkpoint starts a new segment once every batch of the previous ones has
+ * been applied, the data files are then synced and the previous segments
+ * deleted. Recovery replays the segments left behind, reading stops at the
+ * first torn or corrupt record of a segment.<br>
+ * <br>
+ * Segments start with a magic and version, each record is the payload length,
+ * a CRC32 of the payload and the payload.
+ * 
+ * @author ambud
+ */
+public class WriteAheadLog {
+
+	private static final Logger logger = Logger.getLogger(WriteAheadLog.class.getName());
+	public static final String WAL_ENABLED = "wal.enabled";
+	public static final String DEFAULT_WAL_ENABLED = "false";
+	public static final String WAL_DIR = "wal.dir";
+	public static final String WAL_SYNC_WRITES = "wal.sync.writes";
+	public static final String DEFAULT_WAL_SYNC_WRITES = "true";
+	public static final String WAL_FSYNC_INTERVAL = "wal.fsync.interval.ms";
+	public static final String DEFAULT_WAL_FSYNC_INTERVAL = "10";
+	public static final String WAL_FSYNC_BYTES = "wal.fsync.bytes";
+	public static final String DEFAULT_WAL_FSYNC_BYTES = String.valueOf(1024 * 1024);
+	public static final String WAL_SEGMENT_SIZE = "wal.segment.size";
+	public static final String DEFAULT_WAL_SEGMENT_SIZE = String.valueOf(64 * 1024 * 1024);
+	public static final String WAL_CHECKPOINT_FREQUENCY = "wal.checkpoint.frequency";
+	public static final String DEFAULT_WAL_CHECKPOINT_FREQUENCY = "60";
+	public static final int MAGIC = 0x5357574c;
+	public static final short VERSION = 1;
+	// magic, version, reserved
+	private static final int SEGMENT_HEADER_SIZE = 4 + 2 + 2;
+	// length, crc
+	private static final int RECORD_HEADER_SIZE = 4 + 4;
+	private final File walDirectory;
+	private final boolean syncWrites;
+	private final long fsyncInterval;
+	private final long fsyncBytes;
+	private final long segmentSize;
+	private final ReentrantReadWriteLock applyLock;
+	private final ReentrantLock lock;
+	private final Condition flushNeeded;
+	private final Condition flushed;
+	private FileChannel channel;
+	private int segment;
+	private long segmentBytes;
+	private long appended;
+	private long synced;
+	private volatile IOException failure;
+	private volatile boolean closed;
+	private Thread flusher;
+	private Counter metricsBytes;
+	private Counter metricsFsyncs;
+	private Histogram metricsGroupSize;
+
+	public WriteAheadLog(Map<String, String> conf, String walDirectory, MetricRegistry registry) {
+		this.walDirectory = new File(conf.getOrDefault(WAL_DIR, walDirectory));
+		this.syncWrites = Boolean.parseBoolean(conf.getOrDefault(WAL_SYNC_WRITES, DEFAULT_WAL_SYNC_WRITES));
+		this.fsyncInterval = Long.parseLong(conf.getOrDefault(WAL_FSYNC_INTERVAL, DEFAULT_WAL_FSYNC_INTERVAL));
+		this.fsyncBytes = Long.parseLong(conf.getOrDefault(WAL_FSYNC_BYTES, DEFAULT_WAL_FSYNC_BYTES));
+		this.segmentSize = Long.parseLong(conf.getOrDefault(WAL_SEGMENT_SIZE, DEFAULT_WAL_SEGMENT_SIZE));
+		this.applyLock = new ReentrantReadWriteLock();
+		this.lock = new ReentrantLock();
+		this.flushNeeded = lock.newCondition();
+		this.flushed = lock.newCondition();
+		if (registry != null) {
+			metricsBytes = registry.counter("wal-bytes");
+			metricsFsyncs = registry.counter("wal-fsyncs");
+			metricsGroupSize = registry.histogram("wal-group-bytes");
+		}
+		this.walDirectory.mkdirs();
+	}
+
+	/**
+	 * Callback for batches read from the log during recovery
+	 */
+	public interface RecordVisitor {
+
+		public void record(byte[] payload) throws IOException;
+
+	}
+
+	/**
+	 * Replay the records of all segments in order, must be called before
+	 * {@link #open()}
+	 * 
+	 * @param visitor
+	 * @return number of records replayed
+	 * @throws IOException
+	 */
+	public int recover(RecordVisitor visitor) throws IOException {
+		int records = 0;
+		for (File file : listSegments()) {
+			segment = Math.max(segment, segmentNumber(file.getName()));
+			ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+			if (buf.remaining() < SEGMENT_HEADER_SIZE || buf.getInt() != MAGIC || buf.getShort() != VERSION) {
+				logger.severe("Skipping WAL segment with invalid header:" + file);
+				continue;
+			}
+			buf.getShort();
+			CRC32 crc = new CRC32();
+			while (buf.remaining() >= RECORD_HEADER_SIZE) {
+				int length = buf.getInt();
+				int checksum = buf.getInt();
+				if (length < 0 || buf.remaining() < length) {
+					break;
+				}
+				crc.reset();
+				crc.update(buf.array(), buf.position(), length);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				byte[] payload = Arrays.copyOfRange(buf.array(), buf.position(), buf.position() + length);
+				buf.position(buf.position() + length);
+				visitor.record(payload);
+				records++;
+			}
+			if (buf.hasRemaining()) {
+				logger.warning("Dropping torn tail of WAL segment:" + file + " after record:" + records);
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Start a new segment and the flusher thread
+	 * 
+	 * @throws IOException
+	 */
+	public void open() throws IOException {
+		lock.lock();
+		try {
+			newSegment();
+		} finally {
+			lock.unlock();
+		}
+		flusher = new Thread(() -> flushLoop(), "wal-flusher-" + walDirectory.getName());
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Lock to hold from appending a batch until it has been applied to the data
+	 * files, checkpoints wait for it
+	 * 
+	 * @return lock
+	 */
+	public ReentrantReadWriteLock.ReadLock getApplyLock() {
+		return applyLock.readLock();
+	}
+
+	/**
+	 * Append a record to the log
+	 * 
+	 * @param payload
+	 * @return log sequence number to wait for with {@link #awaitDurable(long)}
+	 * @throws IOException
+	 */
+	public long append(byte[] payload) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+		record.putInt(payload.length);
+		record.putInt((int) crc.getValue());
+		record.put(payload);
+		record.flip();
+		lock.lock();
+		try {
+			checkOpen();
+			if (segmentBytes + record.remaining() > segmentSize && segmentBytes > SEGMENT_HEADER_SIZE) {
+				newSegment();
+			}
+			while (record.hasRemaining()) {
+				segmentBytes += channel.write(record);
+			}
+			appended += record.limit();
+			if (metricsBytes != null) {
+				metricsBytes.inc(record.limit());
+			}
+			if (appended - synced >= fsyncBytes) {
+				flushNeeded.signal();
+			}
+			return appended;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait until the record with the supplied sequence number has been synced to
+	 * disk, returns right away unless writes are synchronous
+	 * 
+	 * @param lsn
+	 * @throws IOException
+	 *             if the log failed or was closed before the record was synced
+	 */
+	public void awaitDurable(long lsn) throws IOException {
+		if (!syncWrites) {
+			return;
+		}
+		lock.lock();
+		try {
+			while (synced < lsn) {
+				checkOpen();
+				flushNeeded.signal();
+				flushed.await();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for WAL commit", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Start a checkpoint, once all batches appended so far have been applied a
+	 * new segment is started. The data files must be synced before calling
+	 * {@link #completeCheckpoint(int)}.
+	 * 
+	 * @return first segment that isn't covered by the checkpoint
+	 * @throws IOException
+	 */
+	public int startCheckpoint() throws IOException {
+		applyLock.writeLock().lock();
+		try {
+			lock.lock();
+			try {
+				checkOpen();
+				newSegment();
+				return segment;
+			} finally {
+				lock.unlock();
+			}
+		} finally {
+			applyLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Delete the segments covered by a checkpoint
+	 * 
+	 * @param mark
+	 *            returned by {@link #startCheckpoint()}
+	 */
+	public void completeCheckpoint(int mark) {
+		int deleted = 0;
+		for (File file : listSegments()) {
+			if (segmentNumber(file.getName()) < mark) {
+				if (file.delete()) {
+					deleted++;
+				} else {
+					logger.warning("Failed to delete checkpointed WAL segment:" + file);
+				}
+			}
+		}
+		logger.fine("Checkpointed WAL at segment:" + mark + " deleted " + deleted + " segments");
+	}
+
+	/**
+	 * Sync pending records and stop the flusher, segments are left for the next
+	 * checkpoint or recovery
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (channel != null) {
+				channel.force(false);
+				synced = appended;
+				channel.close();
+			}
+			flushNeeded.signalAll();
+			flushed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		if (flusher != null) {
+			try {
+				flusher.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public File getWalDirectory() {
+		return walDirectory;
+	}
+
+	private void flushLoop() {
+		while (!closed) {
+			FileChannel target;
+			long lsn;
+			lock.lock();
+			try {
+				while (!closed && appended == synced) {
+					flushNeeded.await();
+				}
+				// group commit window, unless enough bytes are pending already
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(fsyncInterval);
+				long remaining;
+				while (!closed && appended - synced < fsyncBytes
+						&& (remaining = deadline - System.nanoTime()) > 0) {
+					flushNeeded.awaitNanos(remaining);
+				}
+				if (closed) {
+					return;
+				}
+				target = channel;
+				lsn = appended;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} finally {
+				lock.unlock();
+			}
+			try {
+				// appends continue while the fsync is running
+				target.force(false);
+			} catch (IOException e) {
+				if (target.isOpen()) {
+					logger.log(Level.SEVERE, "Failed to sync WAL, failing writes", e);
+					failure = e;
+				}
+				// else the segment was rotated, which synced it
+			}
+			lock.lock();
+			try {
+				if (metricsFsyncs != null) {
+					metricsFsyncs.inc();
+					metricsGroupSize.update(lsn - synced);
+				}
+				if (failure == null) {
+					synced = Math.max(synced, lsn);
+				}
+				flushed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Sync and close the current segment and start the next one. Must be called
+	 * with the lock held.
+	 */
+	private void newSegment() throws IOException {
+		if (channel != null) {
+			channel.force(false);
+			synced = appended;
+			channel.close();
+			flushed.signalAll();
+		}
+		segment++;
+		File file = new File(walDirectory, segmentName(segment));
+		@SuppressWarnings("resource")
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		channel = raf.getChannel();
+		ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putShort(VERSION);
+		header.putShort((short) 0);
+		header.flip();
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+		segmentBytes = SEGMENT_HEADER_SIZE;
+		logger.fine("Started WAL segment:" + file);
+	}
+
+	private void checkOpen() throws IOException {
+		if (failure != null) {
+			throw new IOException("WAL failed", failure);
+		}
+		if (closed) {
+			throw new IOException("WAL is closed");
+		}
+	}
+
+	private File[] listSegments() {
+		File[] files = walDirectory.listFiles((dir, name) -> name.startsWith("wal-") && name.endsWith(".log"));
+		if (files == null) {
+			return new File[0];
+		}
+		Arrays.sort(files, (o1, o2) -> o1.getName().compareTo(o2.getName()));
+		return files;
+	}
+
+	public static String segmentName(int segment) {
+		return "wal-" + String.format("%012d", segment) + ".log";
+	}
+
+	public static int segmentNumber(String segmentName) {
+		return Integer.parseInt(segmentName.replace("wal-", "").replace(".log", ""));
+	}
+
+}
@@ -26,6 +26,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.srotya.sidewinder.core.storage.BufferObject;
+import com.srotya.sidewinder.core.storage.BufferSizePolicy;
 import com.srotya.sidewinder.core.storage.ByteString;
 import com.srotya.sidewinder.core.storage.LinkedByteString;
 import com.srotya.sidewinder.core.storage.Malloc;
@@ -35,6 +36,7 @@ public class MemMalloc implements Malloc {
 
 	private static final ByteString STR2 = new ByteString("\t");
 	private int size;
+	private BufferSizePolicy bufferSizePolicy;
 	private List<String> cleanupCallback;
 
 	public MemMalloc() {
@@ -72,6 +74,12 @@ public class MemMalloc implements Malloc {
 			ScheduledExecutorService bgTaskPool, ReentrantLock lock) {
 		this.size = Integer
 				.parseInt(conf.getOrDefault(CONF_MEASUREMENT_BUF_INCREMENT_SIZE, String.valueOf(DEFAULT_INCREMENT_SIZE)));
+		this.bufferSizePolicy = new BufferSizePolicy(conf);
+	}
+
+	@Override
+	public BufferSizePolicy getBufferSizePolicy() {
+		return bufferSizePolicy;
 	}
 
 	@Override
@@ -178,11 +178,12 @@ public class MemStorageEngine implements StorageEngine {
 			synchronized (databaseMap) {
 				if ((measurementMap = databaseMap.get(dbName)) == null) {
 					measurementMap = new ConcurrentHashMap<>();
-					databaseMap.put(dbName, measurementMap);
 					DBMetadata metadata = new DBMetadata();
 					metadata.setRetentionHours(defaultRetentionHours);
 					metadata.setBufIncrementSize(DiskMalloc.getBufIncrement(conf));
 					dbMetadataMap.put(dbName, metadata);
+					// publish the database only once its metadata is visible
+					databaseMap.put(dbName, measurementMap);
 					logger.info("Created new database:" + dbName + " with retention period:" + defaultRetentionHours
 							+ " hours");
 					metricsDbCounter.inc();
@@ -16,7 +16,6 @@
 package com.srotya.sidewinder.core.storage.mem;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -26,21 +25,26 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.Striped;
 import com.srotya.sidewinder.core.monitoring.MetricsRegistryService;
 import com.srotya.sidewinder.core.storage.ByteString;
 import com.srotya.sidewinder.core.storage.ByteString.ByteStringCache;
 import com.srotya.sidewinder.core.storage.DBMetadata;
+import com.srotya.sidewinder.core.storage.FieldIndex;
 import com.srotya.sidewinder.core.storage.Malloc;
 import com.srotya.sidewinder.core.storage.Measurement;
 import com.srotya.sidewinder.core.storage.Series;
 import com.srotya.sidewinder.core.storage.StorageEngine;
 import com.srotya.sidewinder.core.storage.TagIndex;
 import com.srotya.sidewinder.core.storage.compression.Writer;
+import com.srotya.sidewinder.core.utils.AppendOnlyList;
+import com.srotya.sidewinder.core.utils.LongIntHashMap;
 
 /**
  * @author ambud
@@ -49,10 +53,13 @@ public class MemoryMeasurement implements Measurement {
 
 	private static Logger logger = Logger.getLogger(MemoryMeasurement.class.getName());
 	private ReentrantLock lock = new ReentrantLock(false);
+	private ReentrantLock mallocLock = new ReentrantLock(false);
+	private final Striped<Lock> registrationLocks = Striped.lock(64);
 	private String measurementName;
 	private DBMetadata metadata;
 	private Map<ByteString, Integer> seriesMap;
-	private List<Series> seriesList;
+	private LongIntHashMap seriesHashIndex;
+	private AppendOnlyList<Series> seriesList;
 	private MemTagIndex tagIndex;
 	private boolean useQueryPool;
 	private String dbName;
@@ -64,6 +71,7 @@ public class MemoryMeasurement implements Measurement {
 	private AtomicInteger retentionBuckets;
 	private SortedMap<String, Boolean> fieldTypeMap;
 	private ByteStringCache fieldCache;
+	private FieldIndex fieldIndex;
 	private Counter metricsCleanupBufferCounter;
 	private Counter metricsCompactionCounter;
 
@@ -88,22 +96,29 @@ public class MemoryMeasurement implements Measurement {
 		this.measurementName = measurementName;
 		this.fieldCache = ByteStringCache.instance();
 		this.metadata = metadata;
-		this.seriesList = new ArrayList<>(10_000);
+		this.seriesList = new AppendOnlyList<>();
 		this.tagIndex = new MemTagIndex();
 		tagIndex.configure(getConf(), null, this);
 		this.seriesMap = new ConcurrentHashMap<>();
+		this.seriesHashIndex = new LongIntHashMap();
 		this.fieldTypeMap = new ConcurrentSkipListMap<>();
+		this.fieldIndex = new FieldIndex();
 		this.retentionBuckets = new AtomicInteger(0);
 		setRetentionHours(metadata.getRetentionHours());
 		this.useQueryPool = Boolean.parseBoolean(conf.getOrDefault(USE_QUERY_POOL, "true"));
 		this.malloc = new MemMalloc();
-		this.malloc.configure(conf, dataDirectory, measurementName, engine, bgTaskPool, lock);
+		this.malloc.configure(conf, dataDirectory, measurementName, engine, bgTaskPool, mallocLock);
 	}
 
 	@Override
 	public ByteStringCache getFieldCache() {
 		return fieldCache;
 	}
+
+	@Override
+	public FieldIndex getFieldIndex() {
+		return fieldIndex;
+	}
 	
 	@Override
 	public TagIndex getTagIndex() {
@@ -174,7 +189,7 @@ public class MemoryMeasurement implements Measurement {
 	}
 
 	@Override
-	public List<Series> getSeriesList() {
+	public AppendOnlyList<Series> getSeriesList() {
 		return seriesList;
 	}
 
@@ -198,6 +213,16 @@ public class MemoryMeasurement implements Measurement {
 		return seriesMap;
 	}
 
+	@Override
+	public LongIntHashMap getSeriesHashIndex() {
+		return seriesHashIndex;
+	}
+
+	@Override
+	public Striped<Lock> getRegistrationLocks() {
+		return registrationLocks;
+	}
+
 	@Override
 	public boolean isEnableMetricsCapture() {
 		return enableMetricsCapture;
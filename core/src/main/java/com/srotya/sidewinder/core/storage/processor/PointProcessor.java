@@ -16,6 +16,7 @@
 package com.srotya.sidewinder.core.storage.processor;
 
 import java.io.IOException;
+import java.util.List;
 
 import com.srotya.sidewinder.core.rpc.Point;
 
@@ -26,4 +27,10 @@ public interface PointProcessor {
 	
 	public void writeDataPoint(Point point) throws InterruptedException, IOException;
 
+	public default void writeDataPoints(List<Point> points) throws InterruptedException, IOException {
+		for (Point point : points) {
+			writeDataPoint(point);
+		}
+	}
+
 }
@@ -17,6 +17,7 @@ package com.srotya.sidewinder.core.storage.processor;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
@@ -71,6 +72,11 @@ public class PointProcessorABQ implements PointProcessor {
 		// extracted(point);
 	}
 
+	@Override
+	public void writeDataPoints(List<Point> points) throws InterruptedException, IOException {
+		engine.writeBatch(points, true);
+	}
+
 	private void extracted(Point point) throws InterruptedException {
 		int hashCode = MiscUtils.tagHashCode(point.getTagsList());
 		queue.get(Math.abs(hashCode % handlerCount)).put(point);
@@ -15,60 +15,204 @@
  */
 package com.srotya.sidewinder.core.storage.processor;
 
-import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.lmax.disruptor.BlockingWaitStrategy;
 import com.lmax.disruptor.EventFactory;
 import com.lmax.disruptor.EventHandler;
 import com.lmax.disruptor.EventTranslatorTwoArg;
 import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.TimeoutException;
 import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import com.srotya.sidewinder.core.monitoring.MetricsRegistryService;
 import com.srotya.sidewinder.core.rpc.Point;
 import com.srotya.sidewinder.core.rpc.Tag;
+import com.srotya.sidewinder.core.storage.RejectException;
 import com.srotya.sidewinder.core.storage.StorageEngine;
 import com.srotya.sidewinder.core.utils.BackgrounThreadFactory;
 
 /**
+ * Partitioned ingestion pipeline, points are routed to one of the partitions by
+ * the hash of their series so that a series is always written by the same
+ * partition thread. Each partition has its own ring buffer and a single handler
+ * that drains the available events as a batch.<br>
+ * <br>
+ * Producers block when a partition's ring buffer is full, these stalls are
+ * tracked by the disruptor-backpressure meter and the backlog of each partition
+ * is exposed as a gauge.<br>
+ * <br>
+ * Points are written with the series lock unless
+ * {@link #DISRUPTOR_EXCLUSIVE_WRITES} is set, which is only safe if all writes
+ * to the storage engine go through this processor.
+ * 
  * @author ambud
  */
 public class PointProcessorDisruptor implements PointProcessor {
 
-	private RingBuffer<DPWrapper> buffer;
-	private Disruptor<DPWrapper> disruptor;
-	private int handlerCount;
+	public static final String DISRUPTOR_PARTITIONS = "disruptor.partitions";
+	public static final String DISRUPTOR_BUFFER_SIZE = "disruptor.buffer.size";
+	public static final String DISRUPTOR_BATCH_SIZE = "disruptor.batch.size";
+	public static final String DISRUPTOR_EXCLUSIVE_WRITES = "disruptor.exclusive.writes";
+	private static final Logger logger = Logger.getLogger(PointProcessorDisruptor.class.getName());
+	private static PointProcessorDisruptor instance;
+	private int partitions;
+	private int bufferSize;
+	private Disruptor<DPWrapper>[] disruptors;
+	private RingBuffer<DPWrapper>[] buffers;
 	private ExecutorService es;
 	private DataPointTranslator translator;
+	private Meter backpressure;
+	private volatile boolean stopped;
 
 	@SuppressWarnings("unchecked")
 	public PointProcessorDisruptor(StorageEngine engine, Map<String, String> conf) {
-		int bufferSize = 65536 * 4;
-		if (bufferSize % 2 != 0) {
+		partitions = Integer.parseInt(conf.getOrDefault(DISRUPTOR_PARTITIONS, "2"));
+		bufferSize = Integer.parseInt(conf.getOrDefault(DISRUPTOR_BUFFER_SIZE, "65536"));
+		int batchSize = Integer.parseInt(conf.getOrDefault(DISRUPTOR_BATCH_SIZE, "1024"));
+		boolean exclusive = Boolean.parseBoolean(conf.getOrDefault(DISRUPTOR_EXCLUSIVE_WRITES, "false"));
+		if (partitions < 1) {
+			throw new IllegalArgumentException("Disruptor partitions must be at least 1");
+		}
+		if (Integer.bitCount(bufferSize) != 1) {
 			throw new IllegalArgumentException("Disruptor buffers must always be power of 2");
 		}
 		translator = new DataPointTranslator();
-		handlerCount = 2;
-		es = Executors.newFixedThreadPool(handlerCount, new BackgrounThreadFactory("grpc-writers"));
-		disruptor = new Disruptor<>(new DPWrapperFactory(), bufferSize, es);
-		@SuppressWarnings("rawtypes")
-		EventHandler[] handlers = new EventHandler[handlerCount];
-		for (int i = 0; i < handlerCount; i++) {
-			handlers[i] = new WriteHandler(engine, handlerCount, i);
-		}
-		disruptor.handleEventsWith(handlers);
-		buffer = disruptor.start();
+		MetricRegistry registry = null;
+		Meter writeErrors = null;
+		Histogram batches = null;
+		if (MetricsRegistryService.getInstance() != null) {
+			registry = MetricsRegistryService.getInstance().getInstance("requests");
+			backpressure = registry.meter("disruptor-backpressure");
+			writeErrors = registry.meter("disruptor-write-errors");
+			batches = registry.histogram("disruptor-batch-size");
+		}
+		es = Executors.newFixedThreadPool(partitions, new BackgrounThreadFactory("point-writers"));
+		disruptors = new Disruptor[partitions];
+		buffers = new RingBuffer[partitions];
+		for (int i = 0; i < partitions; i++) {
+			disruptors[i] = new Disruptor<>(new DPWrapperFactory(), bufferSize, es, ProducerType.MULTI,
+					new BlockingWaitStrategy());
+			disruptors[i].handleEventsWith(new WriteHandler(engine, batchSize, exclusive, writeErrors, batches));
+			buffers[i] = disruptors[i].start();
+			if (registry != null) {
+				final RingBuffer<DPWrapper> ring = buffers[i];
+				String name = "disruptor-backlog-" + i;
+				registry.remove(name);
+				registry.register(name, (Gauge<Long>) () -> bufferSize - ring.remainingCapacity());
+			}
+		}
+		logger.info("Started disruptor with " + partitions + " partitions of size:" + bufferSize + " exclusive:"
+				+ exclusive);
+	}
+
+	/**
+	 * Get the processor shared by all ingestion protocols, sharing the instance
+	 * guarantees a series is only ever written by one partition
+	 * 
+	 * @param engine
+	 * @param conf
+	 * @return shared instance
+	 */
+	public static synchronized PointProcessorDisruptor getInstance(StorageEngine engine, Map<String, String> conf) {
+		if (instance == null) {
+			instance = new PointProcessorDisruptor(engine, conf);
+		}
+		return instance;
 	}
 
 	public void writeDataPoint(Point point) {
-		buffer.publishEvent(translator, point.getDbName(), point);
+		writeDataPoint(point, null);
 	}
 
 	/**
-	 * @return the disruptor
+	 * Enqueue a point, blocks if the partition of the point is full
+	 * 
+	 * @param point
+	 * @param callback
+	 *            optional, invoked by the partition thread once the point is
+	 *            written with null or the exception that failed the write
 	 */
-	public Disruptor<DPWrapper> getDisruptor() {
-		return disruptor;
+	public void writeDataPoint(Point point, Consumer<Exception> callback) {
+		RingBuffer<DPWrapper> ring = buffers[partition(point)];
+		if (!ring.tryPublishEvent(translator, point, callback)) {
+			if (backpressure != null) {
+				backpressure.mark();
+			}
+			ring.publishEvent(translator, point, callback);
+		}
+	}
+
+	/**
+	 * @param point
+	 * @return partition this point is written by
+	 */
+	public int partition(Point point) {
+		return Math.floorMod(seriesHash(point), partitions);
+	}
+
+	/**
+	 * Hash of the series of a point, independent of the order of its tags since
+	 * tags are sorted only when the series is resolved
+	 * 
+	 * @param point
+	 * @return hash
+	 */
+	public static int seriesHash(Point point) {
+		int hashCode = 0;
+		for (Tag tag : point.getTagsList()) {
+			hashCode += tag.hashCode();
+		}
+		return hashCode * 31 + point.getMeasurementName().hashCode();
+	}
+
+	/**
+	 * @param partition
+	 * @return number of points waiting to be written by the partition
+	 */
+	public long getBacklog(int partition) {
+		return bufferSize - buffers[partition].remainingCapacity();
+	}
+
+	public int getPartitions() {
+		return partitions;
+	}
+
+	/**
+	 * Drain all partitions and stop the writer threads
+	 * 
+	 * @param timeout
+	 * @param unit
+	 * @throws TimeoutException
+	 */
+	public void stop(long timeout, TimeUnit unit) throws TimeoutException {
+		synchronized (PointProcessorDisruptor.class) {
+			if (instance == this) {
+				instance = null;
+			}
+		}
+		if (stopped) {
+			return;
+		}
+		stopped = true;
+		try {
+			for (Disruptor<DPWrapper> disruptor : disruptors) {
+				disruptor.shutdown(timeout, unit);
+			}
+		} finally {
+			es.shutdownNow();
+		}
 	}
 
 	/**
@@ -81,7 +225,7 @@ public class PointProcessorDisruptor implements PointProcessor {
 	public static class DPWrapper {
 
 		private Point dp;
-		private int hashValue;
+		private Consumer<Exception> callback;
 
 		/**
 		 * @return the dp
@@ -93,20 +237,20 @@ public class PointProcessorDisruptor implements PointProcessor {
 		public void setDp(Point dp) {
 			this.dp = dp;
 		}
-		
+
 		/**
-		 * @return the hashValue
+		 * @return the callback
 		 */
-		public int getHashValue() {
-			return hashValue;
+		public Consumer<Exception> getCallback() {
+			return callback;
 		}
 
 		/**
-		 * @param hashValue
-		 *            the hashValue to set
+		 * @param callback
+		 *            the callback to set
 		 */
-		public void setHashValue(int hashValue) {
-			this.hashValue = hashValue;
+		public void setCallback(Consumer<Exception> callback) {
+			this.callback = callback;
 		}
 
 	}
@@ -114,37 +258,87 @@ public class PointProcessorDisruptor implements PointProcessor {
 	public static class WriteHandler implements EventHandler<DPWrapper> {
 
 		private StorageEngine engine;
-		private int handlerCount;
-		private int handlerIndex;
+		private boolean exclusive;
+		private Meter writeErrors;
+		private Histogram batches;
+		private Point[] points;
+		private Consumer<Exception>[] callbacks;
+		private int size;
 
-		public WriteHandler(StorageEngine engine, int handlerCount, int handlerIndex) {
+		@SuppressWarnings("unchecked")
+		public WriteHandler(StorageEngine engine, int batchSize, boolean exclusive, Meter writeErrors,
+				Histogram batches) {
 			this.engine = engine;
-			this.handlerCount = handlerCount;
-			this.handlerIndex = handlerIndex;
+			this.exclusive = exclusive;
+			this.writeErrors = writeErrors;
+			this.batches = batches;
+			points = new Point[batchSize];
+			callbacks = new Consumer[batchSize];
 		}
 
 		@Override
 		public void onEvent(DPWrapper event, long sequence, boolean endOfBatch) throws Exception {
-			if (event.getHashValue() % handlerCount == handlerIndex) {
-				try {
-					engine.writeDataPointWithLock(event.getDp(), true);
-				} catch (IOException e) {
-				} catch (Exception e) {
+			points[size] = event.getDp();
+			callbacks[size] = event.getCallback();
+			size++;
+			// release the references held by the ring buffer
+			event.setDp(null);
+			event.setCallback(null);
+			if (endOfBatch || size == points.length) {
+				flush();
+			}
+		}
+
+		private void flush() {
+			if (batches != null) {
+				batches.update(size);
+			}
+			boolean rejected = false;
+			Exception error = null;
+			try {
+				engine.writeBatch(Arrays.asList(points).subList(0, size), true, !exclusive);
+			} catch (RejectException e) {
+				// the batch is validated before any point is written
+				rejected = true;
+			} catch (Exception e) {
+				error = e;
+				logger.log(Level.FINE, "Failed to write batch of size:" + size, e);
+			}
+			for (int i = 0; i < size; i++) {
+				if (rejected) {
+					// isolate the points that were rejected
+					error = null;
+					try {
+						if (exclusive) {
+							engine.writeDataPointWithoutLock(points[i], true);
+						} else {
+							engine.writeDataPointWithLock(points[i], true);
+						}
+					} catch (Exception e) {
+						error = e;
+						logger.log(Level.FINE, "Failed to write point:" + points[i], e);
+					}
+				}
+				if (error != null && writeErrors != null) {
+					writeErrors.mark();
 				}
+				if (callbacks[i] != null) {
+					callbacks[i].accept(error);
+				}
+				points[i] = null;
+				callbacks[i] = null;
 			}
+			size = 0;
 		}
 
 	}
 
-	public static class DataPointTranslator implements EventTranslatorTwoArg<DPWrapper, String, Point> {
+	public static class DataPointTranslator implements EventTranslatorTwoArg<DPWrapper, Point, Consumer<Exception>> {
 
 		@Override
-		public void translateTo(DPWrapper dp, long arg1, String dbName, Point point) {
-			int hashCode = 0;
-			for (Tag tag : point.getTagsList()) {
-				hashCode = hashCode * 31 + tag.hashCode();
-			}
-			dp.setHashValue(hashCode);
+		public void translateTo(DPWrapper dp, long sequence, Point point, Consumer<Exception> callback) {
+			dp.setDp(point);
+			dp.setCallback(callback);
 		}
 
 	}
@@ -159,4 +353,4 @@ public class PointProcessorDisruptor implements PointProcessor {
 
 	}
 
-}
\ No newline at end of file
+}
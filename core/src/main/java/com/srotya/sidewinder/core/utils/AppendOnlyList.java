@@ -0,0 +1,148 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.utils;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Thread-safe list that only grows. Slots are reserved lock-free with a CAS on
+ * the size and stored in fixed size chunks so existing entries are never
+ * copied; the chunk directory is copied on write, which only happens once
+ * every {@link #CHUNK_SIZE} entries.<br>
+ * <br>
+ * A reserved slot reads as null until it's set, iterators and
+ * {@link #get(int)} can therefore return null for entries being added
+ * concurrently. Removal and insertion in the middle are not supported.
+ * 
+ * @author ambud
+ */
+public class AppendOnlyList<E> extends AbstractList<E> implements RandomAccess {
+
+	private static final int CHUNK_BITS = 10;
+	public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	private final AtomicInteger size;
+	private volatile AtomicReferenceArray<E>[] chunks;
+
+	@SuppressWarnings("unchecked")
+	public AppendOnlyList() {
+		size = new AtomicInteger();
+		chunks = new AtomicReferenceArray[0];
+	}
+
+	/**
+	 * Reserve the next slot of this list
+	 * 
+	 * @return index of the reserved slot
+	 */
+	public int reserve() {
+		int index = size.getAndIncrement();
+		chunk(index);
+		return index;
+	}
+
+	@Override
+	public E get(int index) {
+		rangeCheck(index);
+		AtomicReferenceArray<E>[] ch = chunks;
+		int c = index >>> CHUNK_BITS;
+		if (c >= ch.length || ch[c] == null) {
+			// reserved but the chunk isn't visible yet
+			return null;
+		}
+		return ch[c].get(index & CHUNK_MASK);
+	}
+
+	@Override
+	public E set(int index, E element) {
+		rangeCheck(index);
+		return chunk(index).getAndSet(index & CHUNK_MASK, element);
+	}
+
+	/**
+	 * Clear a reserved slot whose element couldn't be added. The size shrinks
+	 * back if it's still the last slot, otherwise the slot stays empty.
+	 * 
+	 * @param index
+	 */
+	public void release(int index) {
+		set(index, null);
+		size.compareAndSet(index + 1, index);
+	}
+
+	@Override
+	public boolean add(E e) {
+		set(reserve(), e);
+		return true;
+	}
+
+	/**
+	 * Set the element at index growing the list if needed, used to load entries
+	 * in index order. Only slots that haven't been set can be written.
+	 */
+	@Override
+	public void add(int index, E element) {
+		if (index < 0) {
+			throw new IndexOutOfBoundsException("Index:" + index);
+		}
+		int current;
+		while ((current = size.get()) <= index) {
+			if (size.compareAndSet(current, index + 1)) {
+				break;
+			}
+		}
+		if (!chunk(index).compareAndSet(index & CHUNK_MASK, null, element)) {
+			throw new UnsupportedOperationException("Insertion is not supported, index:" + index);
+		}
+	}
+
+	@Override
+	public int size() {
+		return size.get();
+	}
+
+	private AtomicReferenceArray<E> chunk(int index) {
+		int c = index >>> CHUNK_BITS;
+		AtomicReferenceArray<E>[] ch = chunks;
+		if (c < ch.length && ch[c] != null) {
+			return ch[c];
+		}
+		synchronized (this) {
+			ch = chunks;
+			if (c >= ch.length) {
+				ch = Arrays.copyOf(ch, Math.max(c + 1, ch.length * 2));
+			} else if (ch[c] != null) {
+				return ch[c];
+			} else {
+				ch = ch.clone();
+			}
+			ch[c] = new AtomicReferenceArray<>(CHUNK_SIZE);
+			chunks = ch;
+			return ch[c];
+		}
+	}
+
+	private void rangeCheck(int index) {
+		if (index < 0 || index >= size.get()) {
+			throw new IndexOutOfBoundsException("Index:" + index + " size:" + size.get());
+		}
+	}
+
+}
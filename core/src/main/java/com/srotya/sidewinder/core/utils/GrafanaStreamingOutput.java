@@ -10,12 +10,14 @@ import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.StreamingOutput;
 
 import com.srotya.sidewinder.core.api.grafana.GrafanaOutputv2;
-import com.srotya.sidewinder.core.storage.DataPoint;
 import com.srotya.sidewinder.core.storage.DataPointIterator;
 
 public class GrafanaStreamingOutput implements StreamingOutput {
 
 	private List<Iterator<GrafanaOutputv2>> targets;
+	private long[] times = new long[DataPointIterator.BATCH_SIZE];
+	private long[] values = new long[DataPointIterator.BATCH_SIZE];
+	private StringBuilder builder = new StringBuilder();
 
 	public GrafanaStreamingOutput(List<Iterator<GrafanaOutputv2>> output) {
 		this.targets = output;
@@ -52,38 +54,36 @@ public class GrafanaStreamingOutput implements StreamingOutput {
 
 	private boolean serializeOutput(OutputStream os, Iterator<GrafanaOutputv2> itr) throws IOException {
 		GrafanaOutputv2 gOutput = itr.next();
-		if (gOutput.getPointsIterator() != null) {
-			DataPointIterator pointsIterator = gOutput.getPointsIterator();
-			if (pointsIterator.hasNext()) {
-				os.write(("{\"target\":\"" + gOutput.getTarget() + "\",\"datapoints\":[").getBytes());
-				serializePoint(os, pointsIterator, gOutput);
-				while (pointsIterator.hasNext()) {
-					os.write(',');
-					serializePoint(os, pointsIterator, gOutput);
-				}
-				os.write(']');
-				os.write('}');
-				return true;
-			} else {
-				return false;
-			}
-		} else {
+		DataPointIterator pointsIterator = gOutput.getPointsIterator();
+		if (pointsIterator == null) {
 			return false;
 		}
-	}
-
-	private void serializePoint(OutputStream os, DataPointIterator pointsIterator, GrafanaOutputv2 gOutput)
-			throws IOException {
-		DataPoint num = pointsIterator.next();
-		StringBuilder builder = new StringBuilder();
-		builder.append("[");
-		if (gOutput.isFp()) {
-			builder.append(String.valueOf(num.getValue()));
-		} else {
-			builder.append(String.valueOf(num.getLongValue()));
+		int n = pointsIterator.next(times, values, 0, times.length);
+		if (n == 0) {
+			return false;
 		}
-		builder.append(",").append(String.valueOf(num.getTimestamp())).append("]");
-		os.write(builder.toString().getBytes());
+		os.write(("{\"target\":\"" + gOutput.getTarget() + "\",\"datapoints\":[").getBytes());
+		boolean first = true;
+		do {
+			builder.setLength(0);
+			for (int i = 0; i < n; i++) {
+				if (!first) {
+					builder.append(',');
+				}
+				first = false;
+				builder.append('[');
+				if (gOutput.isFp()) {
+					builder.append(Double.longBitsToDouble(values[i]));
+				} else {
+					builder.append(values[i]);
+				}
+				builder.append(',').append(times[i]).append(']');
+			}
+			os.write(builder.toString().getBytes());
+		} while ((n = pointsIterator.next(times, values, 0, times.length)) > 0);
+		os.write(']');
+		os.write('}');
+		return true;
 	}
 
-}
\ No newline at end of file
+}
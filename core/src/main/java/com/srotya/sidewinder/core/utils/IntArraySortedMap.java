@@ -0,0 +1,337 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.utils;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * Sorted map of primitive int keys backed by a pair of sorted arrays. Reads
+ * are lock-free over an immutable snapshot of the arrays, writers are
+ * serialized on the map and publish a copy, which suits maps that are small
+ * and mostly appended to such as the time buckets of a series.<br>
+ * <br>
+ * Compared to a ConcurrentSkipListMap this costs no node, index or boxed key
+ * per entry. Views returned by {@link #headMap(Integer)},
+ * {@link #tailMap(Integer)}, {@link #subMap(Integer, Integer)} and the
+ * iterators are read-only point in time snapshots, they don't reflect
+ * subsequent changes to the map.
+ * 
+ * @author ambud
+ */
+public class IntArraySortedMap<V> extends AbstractMap<Integer, V> implements SortedMap<Integer, V> {
+
+	private static final int[] EMPTY_KEYS = new int[0];
+	private static final Object[] EMPTY_VALUES = new Object[0];
+	private volatile Range<V> snapshot;
+
+	public IntArraySortedMap() {
+		snapshot = new Range<>(EMPTY_KEYS, EMPTY_VALUES, 0, 0);
+	}
+
+	@Override
+	public V get(Object key) {
+		return snapshot.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return snapshot.containsKey(key);
+	}
+
+	@Override
+	public synchronized V put(Integer key, V value) {
+		Range<V> s = snapshot;
+		int idx = Arrays.binarySearch(s.keys, key);
+		if (idx >= 0) {
+			Object[] values = s.values.clone();
+			@SuppressWarnings("unchecked")
+			V old = (V) values[idx];
+			values[idx] = value;
+			snapshot = new Range<>(s.keys, values, 0, values.length);
+			return old;
+		}
+		int ins = -idx - 1;
+		int[] keys = new int[s.keys.length + 1];
+		Object[] values = new Object[keys.length];
+		System.arraycopy(s.keys, 0, keys, 0, ins);
+		System.arraycopy(s.values, 0, values, 0, ins);
+		keys[ins] = key;
+		values[ins] = value;
+		System.arraycopy(s.keys, ins, keys, ins + 1, s.keys.length - ins);
+		System.arraycopy(s.values, ins, values, ins + 1, s.keys.length - ins);
+		snapshot = new Range<>(keys, values, 0, keys.length);
+		return null;
+	}
+
+	@Override
+	public synchronized V putIfAbsent(Integer key, V value) {
+		V v = get(key);
+		if (v == null) {
+			put(key, value);
+		}
+		return v;
+	}
+
+	@Override
+	public synchronized V remove(Object key) {
+		if (!(key instanceof Integer)) {
+			return null;
+		}
+		Range<V> s = snapshot;
+		int idx = Arrays.binarySearch(s.keys, (Integer) key);
+		if (idx < 0) {
+			return null;
+		}
+		@SuppressWarnings("unchecked")
+		V old = (V) s.values[idx];
+		int[] keys = new int[s.keys.length - 1];
+		Object[] values = new Object[keys.length];
+		System.arraycopy(s.keys, 0, keys, 0, idx);
+		System.arraycopy(s.values, 0, values, 0, idx);
+		System.arraycopy(s.keys, idx + 1, keys, idx, keys.length - idx);
+		System.arraycopy(s.values, idx + 1, values, idx, keys.length - idx);
+		snapshot = new Range<>(keys, values, 0, keys.length);
+		return old;
+	}
+
+	@Override
+	public synchronized void clear() {
+		snapshot = new Range<>(EMPTY_KEYS, EMPTY_VALUES, 0, 0);
+	}
+
+	@Override
+	public int size() {
+		return snapshot.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return snapshot.isEmpty();
+	}
+
+	@Override
+	public Comparator<? super Integer> comparator() {
+		return null;
+	}
+
+	@Override
+	public SortedMap<Integer, V> subMap(Integer fromKey, Integer toKey) {
+		return snapshot.subMap(fromKey, toKey);
+	}
+
+	@Override
+	public SortedMap<Integer, V> headMap(Integer toKey) {
+		return snapshot.headMap(toKey);
+	}
+
+	@Override
+	public SortedMap<Integer, V> tailMap(Integer fromKey) {
+		return snapshot.tailMap(fromKey);
+	}
+
+	@Override
+	public Integer firstKey() {
+		return snapshot.firstKey();
+	}
+
+	@Override
+	public Integer lastKey() {
+		return snapshot.lastKey();
+	}
+
+	@Override
+	public Set<Entry<Integer, V>> entrySet() {
+		return snapshot.entrySet();
+	}
+
+	@Override
+	public Collection<V> values() {
+		return snapshot.values();
+	}
+
+	/**
+	 * Immutable view of the entries in [from, to) of the sorted arrays
+	 */
+	private static final class Range<V> extends AbstractMap<Integer, V> implements SortedMap<Integer, V> {
+
+		private final int[] keys;
+		private final Object[] values;
+		private final int from;
+		private final int to;
+
+		private Range(int[] keys, Object[] values, int from, int to) {
+			this.keys = keys;
+			this.values = values;
+			this.from = from;
+			this.to = to;
+		}
+
+		private int indexOf(Object key) {
+			if (!(key instanceof Integer)) {
+				return -1;
+			}
+			int idx = Arrays.binarySearch(keys, from, to, (Integer) key);
+			return idx >= 0 ? idx : -1;
+		}
+
+		/**
+		 * @param key
+		 * @return index of the first key greater than or equal to key
+		 */
+		private int ceiling(int key) {
+			int idx = Arrays.binarySearch(keys, from, to, key);
+			return idx >= 0 ? idx : -idx - 1;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public V get(Object key) {
+			int idx = indexOf(key);
+			return idx >= 0 ? (V) values[idx] : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return indexOf(key) >= 0;
+		}
+
+		@Override
+		public int size() {
+			return to - from;
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return to == from;
+		}
+
+		@Override
+		public Comparator<? super Integer> comparator() {
+			return null;
+		}
+
+		@Override
+		public SortedMap<Integer, V> subMap(Integer fromKey, Integer toKey) {
+			if (fromKey > toKey) {
+				throw new IllegalArgumentException("fromKey:" + fromKey + " > toKey:" + toKey);
+			}
+			return new Range<>(keys, values, ceiling(fromKey), ceiling(toKey));
+		}
+
+		@Override
+		public SortedMap<Integer, V> headMap(Integer toKey) {
+			return new Range<>(keys, values, from, ceiling(toKey));
+		}
+
+		@Override
+		public SortedMap<Integer, V> tailMap(Integer fromKey) {
+			return new Range<>(keys, values, ceiling(fromKey), to);
+		}
+
+		@Override
+		public Integer firstKey() {
+			if (isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			return keys[from];
+		}
+
+		@Override
+		public Integer lastKey() {
+			if (isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			return keys[to - 1];
+		}
+
+		@Override
+		public Set<Entry<Integer, V>> entrySet() {
+			return new AbstractSet<Entry<Integer, V>>() {
+
+				@Override
+				public Iterator<Entry<Integer, V>> iterator() {
+					return new RangeIterator<Entry<Integer, V>>() {
+
+						@SuppressWarnings("unchecked")
+						@Override
+						protected Entry<Integer, V> get(int idx) {
+							return new SimpleImmutableEntry<>(keys[idx], (V) values[idx]);
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return Range.this.size();
+				}
+			};
+		}
+
+		@Override
+		public Collection<V> values() {
+			return new AbstractCollection<V>() {
+
+				@Override
+				public Iterator<V> iterator() {
+					return new RangeIterator<V>() {
+
+						@SuppressWarnings("unchecked")
+						@Override
+						protected V get(int idx) {
+							return (V) values[idx];
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return Range.this.size();
+				}
+			};
+		}
+
+		private abstract class RangeIterator<E> implements Iterator<E> {
+
+			private int idx = from;
+
+			protected abstract E get(int idx);
+
+			@Override
+			public boolean hasNext() {
+				return idx < to;
+			}
+
+			@Override
+			public E next() {
+				if (idx >= to) {
+					throw new NoSuchElementException();
+				}
+				return get(idx++);
+			}
+		}
+
+	}
+
+}
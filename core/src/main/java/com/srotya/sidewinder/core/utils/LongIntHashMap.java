@@ -0,0 +1,148 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Open addressing hash map of primitive long keys to int values with linear
+ * probing. Lookups are lock-free and allocation free, writers are serialized
+ * on the map and the table is copied on resize so readers of a stale table
+ * only miss the latest entries.<br>
+ * <br>
+ * Entries can't be removed and key 0 is reserved to mark empty slots.
+ * 
+ * @author ambud
+ */
+public class LongIntHashMap {
+
+	public static final int NOT_FOUND = -1;
+	private static final long EMPTY = 0;
+	private volatile Table table;
+	private int size;
+
+	public LongIntHashMap() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            number of entries to size the table for
+	 */
+	public LongIntHashMap(int expectedSize) {
+		table = new Table(tableSizeFor(expectedSize));
+	}
+
+	/**
+	 * @param key
+	 * @return value mapped to the key or {@link #NOT_FOUND}
+	 */
+	public int get(long key) {
+		Table t = table;
+		int mask = t.mask;
+		int slot = mix(key) & mask;
+		while (true) {
+			long k = t.keys.get(slot);
+			if (k == key) {
+				return t.values[slot];
+			} else if (k == EMPTY) {
+				return NOT_FOUND;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Map the key to value if it's not already mapped
+	 * 
+	 * @param key
+	 *            non-zero key
+	 * @param value
+	 * @return existing value or {@link #NOT_FOUND} if value was added
+	 */
+	public synchronized int putIfAbsent(long key, int value) {
+		if (key == EMPTY) {
+			throw new IllegalArgumentException("Key 0 is reserved");
+		}
+		int existing = get(key);
+		if (existing != NOT_FOUND) {
+			return existing;
+		}
+		Table t = table;
+		if ((size + 1) * 2 > t.values.length) {
+			t = resize(t);
+		}
+		insert(t, key, value);
+		size++;
+		return NOT_FOUND;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	private Table resize(Table t) {
+		Table resized = new Table(t.values.length * 2);
+		for (int i = 0; i < t.values.length; i++) {
+			long k = t.keys.get(i);
+			if (k != EMPTY) {
+				insert(resized, k, t.values[i]);
+			}
+		}
+		table = resized;
+		return resized;
+	}
+
+	private static void insert(Table t, long key, int value) {
+		int slot = mix(key) & t.mask;
+		while (t.keys.get(slot) != EMPTY) {
+			slot = (slot + 1) & t.mask;
+		}
+		// value must be visible before the key is published
+		t.values[slot] = value;
+		t.keys.set(slot, key);
+	}
+
+	private static int mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	private static int tableSizeFor(int expectedSize) {
+		int n = 16;
+		while (n < expectedSize * 2 && n < (1 << 30)) {
+			n <<= 1;
+		}
+		return n;
+	}
+
+	private static final class Table {
+
+		private final AtomicLongArray keys;
+		private final int[] values;
+		private final int mask;
+
+		private Table(int capacity) {
+			keys = new AtomicLongArray(capacity);
+			values = new int[capacity];
+			mask = capacity - 1;
+		}
+
+	}
+
+}
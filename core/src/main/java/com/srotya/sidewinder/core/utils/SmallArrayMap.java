@@ -0,0 +1,214 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.utils;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Thread-safe map for a handful of entries, e.g. the fields of a series time
+ * bucket. Keys and values are interleaved in a single array that is looked up
+ * linearly, comparing references before equality so interned keys are found
+ * without calling equals. Reads are lock-free, writers are serialized on the
+ * map and publish a copy of the array.<br>
+ * <br>
+ * An empty map costs a single object header and shares an empty array, a
+ * ConcurrentHashMap allocates a 16 slot table plus a node per entry. Lookups
+ * are linear so this map shouldn't be used for more than a few dozen entries.
+ * Iterators are read-only point in time snapshots.
+ * 
+ * @author ambud
+ */
+public class SmallArrayMap<K, V> extends AbstractMap<K, V> {
+
+	private static final Object[] EMPTY = new Object[0];
+	private volatile Object[] table;
+
+	public SmallArrayMap() {
+		table = EMPTY;
+	}
+
+	private static int indexOf(Object[] t, Object key) {
+		for (int i = 0; i < t.length; i += 2) {
+			if (t[i] == key) {
+				return i;
+			}
+		}
+		if (key != null) {
+			for (int i = 0; i < t.length; i += 2) {
+				if (key.equals(t[i])) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V get(Object key) {
+		Object[] t = table;
+		int idx = indexOf(t, key);
+		return idx >= 0 ? (V) t[idx + 1] : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(table, key) >= 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized V put(K key, V value) {
+		Object[] t = table;
+		int idx = indexOf(t, key);
+		Object[] copy;
+		V old = null;
+		if (idx >= 0) {
+			old = (V) t[idx + 1];
+			copy = t.clone();
+			copy[idx + 1] = value;
+		} else {
+			copy = new Object[t.length + 2];
+			System.arraycopy(t, 0, copy, 0, t.length);
+			copy[t.length] = key;
+			copy[t.length + 1] = value;
+		}
+		table = copy;
+		return old;
+	}
+
+	@Override
+	public synchronized V putIfAbsent(K key, V value) {
+		V v = get(key);
+		if (v == null) {
+			put(key, value);
+		}
+		return v;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized V remove(Object key) {
+		Object[] t = table;
+		int idx = indexOf(t, key);
+		if (idx < 0) {
+			return null;
+		}
+		V old = (V) t[idx + 1];
+		Object[] copy = t.length == 2 ? EMPTY : new Object[t.length - 2];
+		System.arraycopy(t, 0, copy, 0, idx);
+		System.arraycopy(t, idx + 2, copy, idx, t.length - idx - 2);
+		table = copy;
+		return old;
+	}
+
+	@Override
+	public synchronized void clear() {
+		table = EMPTY;
+	}
+
+	@Override
+	public int size() {
+		return table.length >> 1;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return table.length == 0;
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		final Object[] t = table;
+		return new AbstractSet<Entry<K, V>>() {
+
+			@Override
+			public Iterator<Entry<K, V>> iterator() {
+				return new TableIterator<Entry<K, V>>(t) {
+
+					@SuppressWarnings("unchecked")
+					@Override
+					protected Entry<K, V> get(int idx) {
+						return new SimpleImmutableEntry<>((K) t[idx], (V) t[idx + 1]);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return t.length >> 1;
+			}
+		};
+	}
+
+	@Override
+	public Collection<V> values() {
+		final Object[] t = table;
+		return new AbstractCollection<V>() {
+
+			@Override
+			public Iterator<V> iterator() {
+				return new TableIterator<V>(t) {
+
+					@SuppressWarnings("unchecked")
+					@Override
+					protected V get(int idx) {
+						return (V) t[idx + 1];
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return t.length >> 1;
+			}
+		};
+	}
+
+	private static abstract class TableIterator<E> implements Iterator<E> {
+
+		private final Object[] t;
+		private int idx;
+
+		private TableIterator(Object[] t) {
+			this.t = t;
+		}
+
+		protected abstract E get(int idx);
+
+		@Override
+		public boolean hasNext() {
+			return idx < t.length;
+		}
+
+		@Override
+		public E next() {
+			if (idx >= t.length) {
+				throw new NoSuchElementException();
+			}
+			E e = get(idx);
+			idx += 2;
+			return e;
+		}
+	}
+
+}
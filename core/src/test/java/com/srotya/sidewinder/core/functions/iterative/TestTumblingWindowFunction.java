@@ -24,6 +24,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.srotya.sidewinder.core.storage.ByteString;
+import com.srotya.sidewinder.core.storage.DataPoint;
 import com.srotya.sidewinder.core.storage.DataPointIterator;
 import com.srotya.sidewinder.core.storage.Field;
 import com.srotya.sidewinder.core.storage.LinkedByteString;
@@ -96,4 +97,45 @@ public class TestTumblingWindowFunction {
 		}
 		assertEquals(11, c);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testWindowValuesAcrossBatches() throws Exception {
+		Field tField = new TimeField(measurement, new LinkedByteString().concat(new ByteString("time")), 121213,
+				new HashMap<>());
+		long ts = 1546756000000L;
+		// more points than a single decode batch so windows straddle batches
+		int count = DataPointIterator.BATCH_SIZE * 3;
+		for (int i = 0; i < count; i++) {
+			tField.addDataPoint(measurement, ts + i * 1000);
+		}
+		Field vField = new ValueField(measurement, new LinkedByteString().concat(new ByteString("field1")), 121213,
+				new HashMap<>());
+		for (int i = 0; i < count; i++) {
+			vField.addDataPoint(measurement, Double.doubleToLongBits(i));
+		}
+		DataPointIterator itr = new DataPointIterator(tField.queryReader(null, new NoLock()),
+				vField.queryReader(null, new NoLock()));
+		TumblingWindowFunction tumblingWindowFunction = new TumblingWindowFunction(itr, true);
+		tumblingWindowFunction.init(new Object[] { 100, "smean" });
+		int c = 0;
+		while (tumblingWindowFunction.hasNext()) {
+			DataPoint dp = tumblingWindowFunction.next();
+			int first = c * 100;
+			int last = Math.min(count, first + 100) - 1;
+			assertEquals(ts + first * 1000, dp.getTimestamp());
+			assertEquals((first + last) / 2.0, dp.getValue(), 0.0001);
+			c++;
+		}
+		assertEquals((count + 99) / 100, c);
+
+		itr = new DataPointIterator(tField.queryReader(null, new NoLock()), vField.queryReader(null, new NoLock()));
+		tumblingWindowFunction = new TumblingWindowFunction(itr, true);
+		tumblingWindowFunction.init(new Object[] { 100, "smax" });
+		c = 0;
+		while (tumblingWindowFunction.hasNext()) {
+			DataPoint dp = tumblingWindowFunction.next();
+			assertEquals(Math.min(count, c * 100 + 100) - 1, dp.getValue(), 0.0001);
+			c++;
+		}
+	}
+}
@@ -111,4 +111,27 @@ public class TestPredicates {
 		assertTrue(predicate.test(ts - 1));
 		assertTrue(predicate.test(ts - 2));
 	}
+
+	@Test
+	public void testCanMatchRange() {
+		assertTrue(new EqualsPredicate(5).canMatch(1, 10));
+		assertTrue(!new EqualsPredicate(11).canMatch(1, 10));
+		assertTrue(new GreaterThanPredicate(9).canMatch(1, 10));
+		assertTrue(!new GreaterThanPredicate(10).canMatch(1, 10));
+		assertTrue(new GreaterThanEqualsPredicate(10).canMatch(1, 10));
+		assertTrue(!new LessThanPredicate(1).canMatch(1, 10));
+		assertTrue(new LessThanEqualsPredicate(1).canMatch(1, 10));
+		assertTrue(!new NotEqualsPredicate(3).canMatch(3, 3));
+		assertTrue(new NotEqualsPredicate(3).canMatch(3, 4));
+		assertTrue(new BetweenPredicate(10, 20).canMatch(1, 10));
+		assertTrue(!new BetweenPredicate(11, 20).canMatch(1, 10));
+		assertTrue(!new AndPredicate(Arrays.asList(new GreaterThanPredicate(5), new LessThanPredicate(1)))
+				.canMatch(1, 10));
+		assertTrue(new OrPredicate(Arrays.asList(new GreaterThanPredicate(50), new LessThanPredicate(2)))
+				.canMatch(1, 10));
+		assertTrue(!new OrPredicate(Arrays.asList(new GreaterThanPredicate(50), new LessThanPredicate(1)))
+				.canMatch(1, 10));
+		// not predicates are never used for pruning
+		assertTrue(new NotPredicate(Arrays.asList(new EqualsPredicate(5))).canMatch(5, 5));
+	}
 }
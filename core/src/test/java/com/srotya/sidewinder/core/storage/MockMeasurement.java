@@ -25,14 +25,18 @@ import java.util.SortedMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
 import com.codahale.metrics.Counter;
+import com.google.common.util.concurrent.Striped;
 import com.srotya.sidewinder.core.rpc.Tag;
 import com.srotya.sidewinder.core.storage.ByteString.ByteStringCache;
 import com.srotya.sidewinder.core.storage.compression.Writer;
 import com.srotya.sidewinder.core.storage.mem.MemMalloc;
+import com.srotya.sidewinder.core.utils.AppendOnlyList;
+import com.srotya.sidewinder.core.utils.LongIntHashMap;
 
 /**
  * @author ambud
@@ -46,6 +50,7 @@ public class MockMeasurement implements Measurement {
 	private int timebucket;
 	private SortedMap<String, Boolean> typeMap;
 	private ByteStringCache cache;
+	private FieldIndex fieldIndex = new FieldIndex();
 
 	public MockMeasurement(int bufSize, int rentionBuckets) {
 		this.rentionBuckets = rentionBuckets;
@@ -130,7 +135,7 @@ public class MockMeasurement implements Measurement {
 	}
 
 	@Override
-	public List<Series> getSeriesList() {
+	public AppendOnlyList<Series> getSeriesList() {
 		return null;
 	}
 
@@ -167,6 +172,16 @@ public class MockMeasurement implements Measurement {
 		return null;
 	}
 
+	@Override
+	public LongIntHashMap getSeriesHashIndex() {
+		return null;
+	}
+
+	@Override
+	public Striped<Lock> getRegistrationLocks() {
+		return null;
+	}
+
 	@Override
 	public boolean isEnableMetricsCapture() {
 		// TODO Auto-generated method stub
@@ -194,6 +209,11 @@ public class MockMeasurement implements Measurement {
 		return cache;
 	}
 
+	@Override
+	public FieldIndex getFieldIndex() {
+		return fieldIndex;
+	}
+
 	@Override
 	public Counter getMetricsCompactionCounter() {
 		return null;
@@ -0,0 +1,85 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.srotya.sidewinder.core.storage.compression.ValueWriter;
+import com.srotya.sidewinder.core.storage.compression.byzantine.ByzantineValueWriter;
+
+/**
+ * @author ambud
+ */
+public class TestBufferSizePolicy {
+
+	@Test
+	public void testFixedSize() throws IOException {
+		Map<String, String> conf = new HashMap<>();
+		conf.put(Malloc.CONF_MEASUREMENT_BUF_INCREMENT_SIZE, "2048");
+		BufferSizePolicy policy = new BufferSizePolicy(conf);
+		assertEquals(2048, policy.nextBufferSize(Collections.emptyList(), 100_000));
+		assertEquals(2048, policy.nextBufferSize(Collections.singletonList(writer(2048)), 0));
+		assertEquals(Malloc.DEFAULT_INCREMENT_SIZE,
+				new BufferSizePolicy(new HashMap<>()).nextBufferSize(Collections.emptyList(), 0));
+	}
+
+	@Test
+	public void testAdaptiveSize() throws IOException {
+		Map<String, String> conf = new HashMap<>();
+		conf.put(BufferSizePolicy.CONF_MALLOC_BUF_ADAPTIVE, "true");
+		conf.put(BufferSizePolicy.CONF_MALLOC_BUF_MIN, "1024");
+		conf.put(BufferSizePolicy.CONF_MALLOC_BUF_MAX, "16384");
+		BufferSizePolicy policy = new BufferSizePolicy(conf);
+		List<ValueWriter> writers = new ArrayList<>();
+		// new fields start at the minimum
+		assertEquals(1024, policy.nextBufferSize(writers, 0));
+		// the previous bucket plus headroom rounded to a power of two
+		assertEquals(1024, policy.nextBufferSize(writers, 100));
+		assertEquals(2048, policy.nextBufferSize(writers, 1000));
+		assertEquals(8192, policy.nextBufferSize(writers, 4000));
+		assertEquals(16384, policy.nextBufferSize(writers, 1_000_000));
+		// roll overs double up to the maximum
+		writers.add(writer(1024));
+		assertEquals(2048, policy.nextBufferSize(writers, 0));
+		writers.add(writer(12288));
+		assertEquals(16384, policy.nextBufferSize(writers, 0));
+
+		conf.put(BufferSizePolicy.CONF_MALLOC_BUF_MIN, "32768");
+		try {
+			new BufferSizePolicy(conf);
+			fail("Minimum can't exceed the maximum");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	private static ValueWriter writer(int size) throws IOException {
+		ValueWriter writer = new ByzantineValueWriter();
+		writer.configure(ByteBuffer.allocate(size), true, 2);
+		return writer;
+	}
+
+}
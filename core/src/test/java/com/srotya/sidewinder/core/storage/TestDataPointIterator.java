@@ -0,0 +1,116 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.srotya.sidewinder.core.predicates.BetweenPredicate;
+import com.srotya.sidewinder.core.predicates.GreaterThanEqualsPredicate;
+import com.srotya.sidewinder.core.predicates.Predicate;
+import com.srotya.sidewinder.core.storage.compression.Reader;
+import com.srotya.sidewinder.core.storage.compression.TimeWriter;
+import com.srotya.sidewinder.core.storage.compression.ValueWriter;
+import com.srotya.sidewinder.core.storage.compression.Writer;
+import com.srotya.sidewinder.core.storage.compression.byzantine.ByzantineTimestampWriter;
+import com.srotya.sidewinder.core.storage.compression.byzantine.ByzantineValueWriter;
+
+/**
+ * Unit tests for {@link DataPointIterator}
+ * 
+ * @author ambud
+ */
+public class TestDataPointIterator {
+
+	@Test
+	public void testTimeAndValueStayAligned() throws IOException {
+		long ts = System.currentTimeMillis();
+		// split the time and value columns over buffers with different
+		// boundaries so batches straddle readers
+		TimeWriter t1 = timeWriter(ts, 0, 1500);
+		TimeWriter t2 = timeWriter(ts, 1500, 3000);
+		ValueWriter v1 = valueWriter(0, 1000);
+		ValueWriter v2 = valueWriter(1000, 3000);
+
+		FieldReaderIterator timeIterator = new FieldReaderIterator()
+				.addReader(Arrays.asList(reader(t1, ts + 700 * 1000), reader(t2, ts + 700 * 1000)));
+		FieldReaderIterator valueIterator = new FieldReaderIterator().addReader(Arrays.asList(
+				reader(v1, Double.doubleToLongBits(0)), reader(v2, Double.doubleToLongBits(0))));
+		DataPointIterator itr = new DataPointIterator(timeIterator, valueIterator);
+		int count = 0;
+		while (itr.hasNext()) {
+			DataPoint dp = itr.next();
+			long i = (dp.getTimestamp() - ts) / 1000;
+			assertEquals(i * 1.1, dp.getValue(), 0.001);
+			count++;
+		}
+		assertEquals(2300, count);
+	}
+
+	@Test
+	public void testTimeAndValuePredicates() throws IOException {
+		long ts = System.currentTimeMillis();
+		TimeWriter t1 = timeWriter(ts, 0, 2000);
+		ValueWriter v1 = valueWriter(0, 2000);
+		FieldReaderIterator timeIterator = new FieldReaderIterator()
+				.addReader(Arrays.asList(reader(t1, new BetweenPredicate(ts + 100 * 1000, ts + 1099 * 1000))));
+		FieldReaderIterator valueIterator = new FieldReaderIterator()
+				.addReader(Arrays.asList(reader(v1, Double.doubleToLongBits(1000 * 1.1))));
+		DataPointIterator itr = new DataPointIterator(timeIterator, valueIterator);
+		int count = 0;
+		while (itr.hasNext()) {
+			DataPoint dp = itr.next();
+			assertEquals(ts + (count + 1000) * 1000, dp.getTimestamp());
+			count++;
+		}
+		assertEquals(100, count);
+	}
+
+	private static TimeWriter timeWriter(long ts, int from, int to) throws IOException {
+		TimeWriter writer = new ByzantineTimestampWriter();
+		writer.configure(ByteBuffer.allocateDirect(1024 * 32), true, 1);
+		writer.setHeaderTimestamp(ts);
+		for (int i = from; i < to; i++) {
+			writer.add(ts + i * 1000);
+		}
+		return writer;
+	}
+
+	private static ValueWriter valueWriter(int from, int to) throws IOException {
+		ValueWriter writer = new ByzantineValueWriter();
+		writer.configure(ByteBuffer.allocateDirect(1024 * 32), true, 1);
+		for (int i = from; i < to; i++) {
+			writer.add(i * 1.1);
+		}
+		return writer;
+	}
+
+	private static Reader reader(Writer writer, long min) throws IOException {
+		return reader(writer, new GreaterThanEqualsPredicate(min));
+	}
+
+	private static Reader reader(Writer writer, Predicate predicate) throws IOException {
+		Reader reader = writer.getReader();
+		reader.setPredicate(predicate);
+		return reader;
+	}
+
+}
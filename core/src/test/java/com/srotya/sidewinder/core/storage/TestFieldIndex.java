@@ -0,0 +1,61 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
+/**
+ * @author ambud
+ */
+public class TestFieldIndex {
+
+	@Test
+	public void testFilter() {
+		FieldIndex index = new FieldIndex();
+		for (int i = 0; i < 100; i++) {
+			index.index("cpu", i);
+			if (i % 10 == 0) {
+				index.index("mem", i);
+			}
+			if (i % 25 == 0) {
+				index.index("disk", i);
+			}
+		}
+		assertEquals(100, index.getSeries("cpu").getCardinality());
+		assertEquals(0, index.getSeries("net").getCardinality());
+
+		MutableRoaringBitmap series = new MutableRoaringBitmap();
+		series.add(0L, 50L);
+		assertEquals(MutableRoaringBitmap.bitmapOf(0, 10, 20, 30, 40),
+				index.filter(series, Arrays.asList("mem")));
+		assertEquals(MutableRoaringBitmap.bitmapOf(0, 10, 20, 25, 30, 40),
+				index.filter(series, Arrays.asList("mem", "disk", "net")));
+		assertEquals(0, index.filter(series, Arrays.asList("net")).getCardinality());
+		assertEquals(50, index.filter(series, Arrays.asList("cpu", "mem")).getCardinality());
+
+		// results are copies
+		index.getSeries("mem").add(5);
+		index.filter(series, Arrays.asList("mem")).add(5);
+		assertEquals(10, index.getSeries("mem").getCardinality());
+		assertEquals(50, series.getCardinality());
+	}
+
+}
@@ -34,9 +34,11 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -47,7 +49,10 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameter;
 import org.junit.runners.Parameterized.Parameters;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
 
+import com.srotya.sidewinder.core.filters.SimpleTagFilter;
+import com.srotya.sidewinder.core.filters.SimpleTagFilter.FilterType;
 import com.srotya.sidewinder.core.rpc.Point;
 import com.srotya.sidewinder.core.rpc.Tag;
 import com.srotya.sidewinder.core.storage.disk.DiskMalloc;
@@ -129,6 +134,78 @@ public class TestMeasurement {
 		}
 	}
 
+	@Test
+	public void testHashedSeriesLookup() throws IOException {
+		measurement.configure(conf, engine, 4096, DBNAME, "m1", indexDir, dataDir, metadata, bgTaskPool);
+		Tag a = Tag.newBuilder().setTagKey("a").setTagValue("1").build();
+		Tag b = Tag.newBuilder().setTagKey("b").setTagValue("2").build();
+		Series s1 = measurement.getOrCreateSeries(Collections.unmodifiableList(Arrays.asList(b, a)), false);
+		Series s2 = measurement.getOrCreateSeries(Arrays.asList(a, b), true);
+		assertTrue(s1 == s2);
+		assertEquals(1, measurement.getSeriesMap().size());
+		assertEquals(1, measurement.getSeriesHashIndex().size());
+		assertEquals(new ByteString("a=1^b=2"), s1.getSeriesId());
+
+		assertTrue(Measurement.matchesSeriesId(s1.getSeriesId(), Arrays.asList(a, b)));
+		assertTrue(!Measurement.matchesSeriesId(s1.getSeriesId(), Arrays.asList(a)));
+		assertTrue(!Measurement.matchesSeriesId(s1.getSeriesId(),
+				Arrays.asList(a, Tag.newBuilder().setTagKey("b").setTagValue("22").build())));
+		assertTrue(!Measurement.matchesSeriesId(s1.getSeriesId(),
+				Arrays.asList(a, Tag.newBuilder().setTagKey("b").setTagValue("").build())));
+
+		Series s3 = measurement.getOrCreateSeries(Arrays.asList(a), false);
+		assertTrue(s1 != s3);
+		assertEquals(2, measurement.getSeriesMap().size());
+		measurement.close();
+	}
+
+	@Test
+	public void testRegistrationRollback() throws IOException {
+		AtomicBoolean fail = new AtomicBoolean();
+		measurement = MemoryMeasurement.class.equals(clazz) ? new MemoryMeasurement() {
+			@Override
+			public void appendTimeseriesToMeasurementMetadata(ByteString fieldId, int seriesIdx) throws IOException {
+				failRegistration(fail);
+				super.appendTimeseriesToMeasurementMetadata(fieldId, seriesIdx);
+			}
+		} : new PersistentMeasurement() {
+			@Override
+			public synchronized void appendTimeseriesToMeasurementMetadata(ByteString fieldId, int seriesIdx)
+					throws IOException {
+				failRegistration(fail);
+				super.appendTimeseriesToMeasurementMetadata(fieldId, seriesIdx);
+			}
+		};
+		measurement.configure(conf, engine, 4096, DBNAME, "m1", indexDir, dataDir, metadata, bgTaskPool);
+		Tag a = Tag.newBuilder().setTagKey("a").setTagValue("1").build();
+		Tag b = Tag.newBuilder().setTagKey("a").setTagValue("2").build();
+		Tag c = Tag.newBuilder().setTagKey("a").setTagValue("3").build();
+		measurement.getOrCreateSeries(Arrays.asList(a), true);
+
+		fail.set(true);
+		try {
+			measurement.getOrCreateSeries(Arrays.asList(b), true);
+			assertTrue(false);
+		} catch (IOException e) {
+		}
+		fail.set(false);
+		// the slot and the index entries of the failed series are rolled back
+		assertEquals(1, measurement.getSeriesList().size());
+		assertTrue(measurement.getTagIndex().searchSeriesIndices(new SimpleTagFilter(FilterType.EQUALS, "a", "2"))
+				.isEmpty());
+		Series series = measurement.getOrCreateSeries(Arrays.asList(c), true);
+		assertTrue(series == measurement.getSeriesList().get(1));
+		assertEquals(MutableRoaringBitmap.bitmapOf(1),
+				measurement.getTagIndex().searchSeriesIndices(new SimpleTagFilter(FilterType.EQUALS, "a", "3")));
+		measurement.close();
+	}
+
+	private static void failRegistration(AtomicBoolean fail) throws IOException {
+		if (fail.get()) {
+			throw new IOException("Simulated metadata failure");
+		}
+	}
+
 	public static Point build(String valueFieldName, List<Tag> tags, long ts, long v) {
 		return Point.newBuilder().setDbName("").setMeasurementName("").addAllTags(tags).setTimestamp(ts)
 				.addValueFieldName(valueFieldName).addValue(v).addFp(false).build();
@@ -367,6 +444,127 @@ public class TestMeasurement {
 		measurement.close();
 	}
 
+	@Test
+	public void testConcurrentSeriesCreation() throws Exception {
+		measurement.configure(conf, engine, 4096, DBNAME, "m3", indexDir, dataDir, metadata, bgTaskPool);
+		int threads = 4;
+		int seriesPerThread = 2000;
+		// cleanup lock must not block series registration
+		measurement.getLock().lock();
+		ExecutorService es = Executors.newFixedThreadPool(threads, new BackgrounThreadFactory("tcreate"));
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			final int th = t;
+			futures.add(es.submit(() -> {
+				for (int i = 0; i < seriesPerThread; i++) {
+					// half of the series are created by two threads
+					int id = i % 2 == 0 ? i : th * seriesPerThread + i;
+					List<Tag> tags = Arrays.asList(Tag.newBuilder().setTagKey("host").setTagValue("h" + id).build(),
+							Tag.newBuilder().setTagKey("dc").setTagValue("dc" + (id % 3)).build());
+					measurement.getOrCreateSeries(new ArrayList<>(tags), false);
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get(100, TimeUnit.SECONDS);
+		}
+		es.shutdown();
+		measurement.getLock().unlock();
+
+		int expected = seriesPerThread / 2 + threads * seriesPerThread / 2;
+		assertEquals(expected, measurement.getSeriesList().size());
+		assertEquals(expected, measurement.getSeriesMap().size());
+		Set<Integer> indices = new HashSet<>();
+		for (Entry<ByteString, Integer> entry : measurement.getSeriesMap().entrySet()) {
+			assertTrue(indices.add(entry.getValue()));
+			assertEquals(entry.getKey(), measurement.getSeriesList().get(entry.getValue()).getSeriesId());
+		}
+		int dc0 = 0;
+		for (ByteString key : measurement.getSeriesKeys()) {
+			if (key.toString().contains("dc=dc0")) {
+				dc0++;
+			}
+		}
+		Set<ByteString> keys = measurement
+				.getTagFilteredRowKeys(new SimpleTagFilter(FilterType.EQUALS, "dc", "dc0"));
+		assertEquals(dc0, keys.size());
+		measurement.close();
+	}
+
+	@Test
+	public void testTagFilteredSeriesQuery() throws IOException {
+		measurement.configure(conf, engine, 4096, DBNAME, "m1", indexDir, dataDir, metadata, bgTaskPool);
+		long t = System.currentTimeMillis();
+		for (int i = 0; i < 10; i++) {
+			List<Tag> tags = Arrays.asList(Tag.newBuilder().setTagKey("dc").setTagValue("dc" + i % 2).build(),
+					Tag.newBuilder().setTagKey("host").setTagValue("h" + i).build());
+			measurement.addPointWithLocking(build("vf1", tags, t, i), false);
+		}
+		assertEquals(10, measurement.getTagFilteredSeriesIndices(null).getCardinality());
+
+		SimpleTagFilter filter = new SimpleTagFilter(FilterType.EQUALS, "dc", "dc0");
+		MutableRoaringBitmap indices = measurement.getTagFilteredSeriesIndices(filter);
+		assertEquals(5, indices.getCardinality());
+		for (Series series : measurement.getSeries(indices)) {
+			assertTrue(series.getSeriesId().toString().contains("dc=dc0"));
+		}
+
+		List<SeriesOutput> resultMap = new ArrayList<>();
+		measurement.queryDataPoints("vf.*", t, t + 1000, filter, null, resultMap, null);
+		assertEquals(5, resultMap.size());
+		for (SeriesOutput output : resultMap) {
+			assertTrue(output.getTags().contains(Tag.newBuilder().setTagKey("dc").setTagValue("dc0").build()));
+			assertEquals(1, output.getDataPoints().size());
+		}
+
+		List<SeriesOutputv2> result = new ArrayList<>();
+		measurement.queryDataPointsv2("vf1", t, t + 1000, filter, null, result, null);
+		assertEquals(5, result.size());
+
+		resultMap.clear();
+		measurement.queryDataPoints("vf1", t, t + 1000,
+				new SimpleTagFilter(FilterType.EQUALS, "dc", "dc2"), null, resultMap, null);
+		assertEquals(0, resultMap.size());
+		measurement.close();
+	}
+
+	@Test
+	public void testFieldFilteredQuery() throws IOException {
+		measurement.configure(conf, engine, 4096, DBNAME, "m1", indexDir, dataDir, metadata, bgTaskPool);
+		long t = System.currentTimeMillis();
+		for (int i = 0; i < 10; i++) {
+			List<Tag> tags = Arrays.asList(Tag.newBuilder().setTagKey("host").setTagValue("h" + i).build());
+			Point.Builder point = Point.newBuilder().setDbName(DBNAME).setMeasurementName("m1").addAllTags(tags)
+					.setTimestamp(t).addValueFieldName("vf1").addValue(i).addFp(false);
+			if (i % 2 == 0) {
+				point.addValueFieldName("vf2").addValue(i).addFp(false);
+			}
+			measurement.addPointWithLocking(point.build(), false);
+		}
+		assertEquals(Arrays.asList("vf1", "vf2"), measurement.getMatchingFields(Pattern.compile("vf.*")));
+		assertEquals(10, measurement.getFieldIndex().getSeries("vf1").getCardinality());
+		assertEquals(5, measurement.getFieldIndex().getSeries("vf2").getCardinality());
+
+		List<SeriesOutput> resultMap = new ArrayList<>();
+		measurement.queryDataPoints("vf2", t, t + 1000, null, null, resultMap, null);
+		assertEquals(5, resultMap.size());
+
+		resultMap.clear();
+		measurement.queryDataPoints("vf2", t, t + 1000, new SimpleTagFilter(FilterType.EQUALS, "host", "h1"), null,
+				resultMap, null);
+		assertEquals(0, resultMap.size());
+
+		List<SeriesOutputv2> result = new ArrayList<>();
+		measurement.queryDataPointsv2("vf2|vf3", t, t + 1000, null, null, result, null);
+		assertEquals(5, result.size());
+
+		result.clear();
+		measurement.queryDataPointsv2("TS", t, t + 1000, null, null, result, null);
+		assertEquals(0, result.size());
+		measurement.close();
+	}
+
 	@Test
 	public void testLinearizability() throws IOException, InterruptedException {
 		String valueFieldName = "vf2";
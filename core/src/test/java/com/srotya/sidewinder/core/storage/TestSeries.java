@@ -23,9 +23,12 @@ import static org.junit.Assert.fail;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -34,6 +37,7 @@ import com.srotya.sidewinder.core.predicates.GreaterThanEqualsPredicate;
 import com.srotya.sidewinder.core.predicates.GreaterThanPredicate;
 import com.srotya.sidewinder.core.predicates.LessThanPredicate;
 import com.srotya.sidewinder.core.rpc.Point;
+import com.srotya.sidewinder.core.storage.compression.BufferStats;
 import com.srotya.sidewinder.core.storage.compression.CompressionFactory;
 import com.srotya.sidewinder.core.storage.compression.FilteredValueException;
 import com.srotya.sidewinder.core.storage.compression.Writer;
@@ -53,8 +57,6 @@ public class TestSeries {
 	public void testInit() throws IOException {
 		Series series = new Series(new ByteString("idasdasda"), 0);
 		assertNotNull(series.getSeriesId());
-		assertNotNull(series.getLock());
-		assertNotNull(series.getReadLock());
 		assertNotNull(series.getWriteLock());
 		assertNotNull(series.getBucketMap());
 	}
@@ -372,4 +374,241 @@ public class TestSeries {
 			}
 		}
 	}
+
+	@Test
+	public void testBufferStatsAndPruning() throws IOException {
+		measurement.setTimebucket(4096);
+		Series series = new Series(new ByteString("idasdasda"), 0);
+		long ts = 1497720652566L;
+		int count = 20000;
+		for (int i = 0; i < count; i++) {
+			Point dp = Point.newBuilder().setTimestamp(ts + i * 1000).addValueFieldName("f1").addFp(false).addValue(i)
+					.addValueFieldName("f2").addFp(true).addValue(Double.doubleToLongBits(i * 0.5)).build();
+			series.addPoint(dp, measurement);
+		}
+		assertTrue(series.getBucketMap().size() > 2);
+
+		int total = 0;
+		long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+		for (Map<String, Field> map : series.getBucketMap().values()) {
+			BufferStats stats = map.get("f1").getStats();
+			assertEquals(map.get(Series.TS).getStats().getCount(), stats.getCount());
+			total += stats.getCount();
+			min = Math.min(min, stats.getMinLong());
+			max = Math.max(max, stats.getMaxLong());
+		}
+		assertEquals(count, total);
+		assertEquals(0, min);
+		assertEquals(count - 1, max);
+
+		// buckets whose stats can't match are skipped but results must not change
+		Map<String, List<DataPoint>> query = series.queryDataPoints(measurement, Arrays.asList("f1"), 0,
+				Long.MAX_VALUE, Arrays.asList(new GreaterThanEqualsPredicate(count - 10)));
+		List<DataPoint> dps = query.get("f1");
+		assertEquals(10, dps.size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals(ts + (count - 10 + i) * 1000L, dps.get(i).getTimestamp());
+		}
+		FieldReaderIterator[][] pairs = series.queryTimePairIterators(measurement, Arrays.asList("f1"),
+				Arrays.asList(new GreaterThanEqualsPredicate(count - 10)), 0, Long.MAX_VALUE);
+		List<DataPoint> points = new ArrayList<>();
+		FieldReaderIterator.readerToDataPoints(pairs[0], points);
+		assertEquals(10, points.size());
+		assertTrue(pairs[0][0].count() < count);
+	}
+
+	@Test
+	public void testQueryRecentTimeRange() throws IOException {
+		measurement.setTimebucket(32768);
+		Series series = new Series(new ByteString("idasdasda"), 0);
+		long ts = 1497720652566L;
+		int count = 20000;
+		for (int i = 0; i < count; i++) {
+			Point dp = Point.newBuilder().setTimestamp(ts + i * 1000).addValueFieldName("f1").addFp(false).addValue(i)
+					.build();
+			series.addPoint(dp, measurement);
+		}
+		long start = ts + (count - 300) * 1000L;
+		Map<String, List<DataPoint>> query = series.queryDataPoints(measurement, Arrays.asList("f1"), start,
+				start + 100 * 1000, null);
+		List<DataPoint> dps = query.get("f1");
+		assertEquals(101, dps.size());
+		for (int i = 0; i < dps.size(); i++) {
+			assertEquals(start + i * 1000L, dps.get(i).getTimestamp());
+			assertEquals(count - 300 + i, dps.get(i).getLongValue());
+		}
+
+		FieldReaderIterator[][] pairs = series.queryTimePairIterators(measurement, Arrays.asList("f1"), null, start,
+				Long.MAX_VALUE);
+		// leading timestamps outside the range are skipped in both columns
+		assertTrue(pairs[0][0].skippable() > 0);
+		List<DataPoint> points = new ArrayList<>();
+		FieldReaderIterator.readerToDataPoints(pairs[0], points);
+		assertEquals(300, points.size());
+		assertEquals(count - 300, points.get(0).getLongValue());
+		assertEquals(count - 1, points.get(299).getLongValue());
+	}
+
+	@Test
+	public void testConcurrentQueriesDuringIngestion() throws Exception {
+		measurement.setTimebucket(4096);
+		final Series series = new Series(new ByteString("idasdasda"), 0);
+		final long ts = 1497720652566L;
+		final int count = 50000;
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		Thread writer = new Thread(() -> {
+			try {
+				for (int i = 0; i < count; i++) {
+					Point dp = Point.newBuilder().setTimestamp(ts + i * 100).addValueFieldName("f1").addFp(false)
+							.addValue(i).build();
+					series.addPointWithoutLocking(dp, measurement);
+				}
+			} catch (Throwable e) {
+				error.set(e);
+			} finally {
+				done.set(true);
+			}
+		});
+		writer.start();
+		int previous = 0;
+		int queries = 0;
+		while (!done.get() || queries == 0) {
+			Map<String, List<DataPoint>> result = series.queryDataPoints(measurement, Arrays.asList("f1"), ts,
+					Long.MAX_VALUE, null);
+			List<DataPoint> dps = result.get("f1");
+			int size = dps == null ? 0 : dps.size();
+			// queries must see a growing prefix of the committed points
+			assertTrue(size >= previous);
+			for (int i = 0; i < size; i++) {
+				assertEquals(ts + i * 100, dps.get(i).getTimestamp());
+				assertEquals(i, dps.get(i).getLongValue());
+			}
+			previous = size;
+			queries++;
+		}
+		writer.join();
+		if (error.get() != null) {
+			throw new AssertionError(error.get());
+		}
+		List<DataPoint> dps = series.queryDataPoints(measurement, Arrays.asList("f1"), ts, Long.MAX_VALUE, null)
+				.get("f1");
+		assertEquals(count, dps.size());
+	}
+
+	@Test
+	public void testConcurrentStatsDuringIngestion() throws Exception {
+		// gorilla buffers don't roll over, each bucket must fit in a single buffer
+		measurement = new MockMeasurement(1024 * 1024, 100);
+		for (String codec : Arrays.asList("byzantine", "gorilla")) {
+			TimeField.compressionClass = CompressionFactory.getTimeClassByName(codec);
+			ValueField.compressionClass = CompressionFactory.getValueClassByName(codec);
+			measurement.setTimebucket(4096);
+			final Series series = new Series(new ByteString("idasdasda"), 0);
+			final long ts = 1497720652566L;
+			final int count = 50000;
+			final AtomicBoolean done = new AtomicBoolean();
+			final AtomicReference<Throwable> error = new AtomicReference<>();
+			Thread writer = new Thread(() -> {
+				try {
+					for (int i = 0; i < count; i++) {
+						Point dp = Point.newBuilder().setTimestamp(ts + i * 100).addValueFieldName("f1")
+								.addFp(false).addValue(i).build();
+						series.addPointWithoutLocking(dp, measurement);
+					}
+				} catch (Throwable e) {
+					error.set(e);
+				} finally {
+					done.set(true);
+				}
+			});
+			writer.start();
+			int previous = 0;
+			int queries = 0;
+			while (!done.get() || queries == 0) {
+				for (Map<String, Field> map : series.getBucketMap().values()) {
+					Field field = map.get("f1");
+					if (field == null) {
+						continue;
+					}
+					// stats never claim more points than readers can see and always cover
+					// the committed ones
+					BufferStats stats = field.getStats();
+					int visible = field.queryReader(null).count();
+					assertTrue(codec, stats.getCount() <= visible);
+					if (stats.getCount() > 0) {
+						assertTrue(codec, stats.getMaxLong() - stats.getMinLong() >= stats.getCount() - 1);
+					}
+				}
+				// buckets pruned by their stats must not hide committed points
+				List<DataPoint> dps = series.queryDataPoints(measurement, Arrays.asList("f1"), ts, Long.MAX_VALUE,
+						Arrays.asList(new GreaterThanEqualsPredicate(0))).get("f1");
+				int size = dps == null ? 0 : dps.size();
+				assertTrue(codec, size >= previous);
+				previous = size;
+				queries++;
+			}
+			writer.join();
+			if (error.get() != null) {
+				throw new AssertionError(error.get());
+			}
+			assertEquals(codec, count, series.queryDataPoints(measurement, Arrays.asList("f1"), ts, Long.MAX_VALUE,
+					Arrays.asList(new GreaterThanEqualsPredicate(0))).get("f1").size());
+		}
+	}
+
+	@Test
+	public void testAdaptiveBufferSizing() throws IOException {
+		Map<String, String> conf = new HashMap<>();
+		conf.put(BufferSizePolicy.CONF_MALLOC_BUF_ADAPTIVE, "true");
+		conf.put(BufferSizePolicy.CONF_MALLOC_BUF_MIN, "512");
+		conf.put(BufferSizePolicy.CONF_MALLOC_BUF_MAX, "4096");
+		measurement.getAllocator().configure(conf, null, null, null, null, null);
+		measurement.setTimebucket(4096);
+		Series series = new Series(new ByteString("idasdasda"), 0);
+		long bucket = 4096 * 1000L;
+		long ts = 1497720652566L / bucket * bucket;
+		// a hot field rolls over with doubling buffer sizes up to the cap
+		int count = 20000;
+		for (int i = 0; i < count; i++) {
+			Point dp = Point.newBuilder().setTimestamp(ts + i * 100).addValueFieldName("f1").addFp(false)
+					.addValue(i * i).build();
+			series.addPoint(dp, measurement);
+		}
+		assertEquals(1, series.getBucketMap().size());
+		Field field = series.getBucketMap().get(series.getBucketMap().firstKey()).get("f1");
+		List<? extends Writer> writers = field.getWriters();
+		assertTrue(writers.size() > 4);
+		int expected = 512;
+		for (Writer writer : writers) {
+			assertEquals(expected, writer.getRawBytes().capacity());
+			expected = Math.min(expected * 2, 4096);
+		}
+
+		// the next bucket starts at the size the previous one needed
+		long bytes = field.getBytesWritten();
+		Point dp = Point.newBuilder().setTimestamp(ts + bucket).addValueFieldName("f1").addFp(false).addValue(1)
+				.build();
+		series.addPoint(dp, measurement);
+		assertEquals(2, series.getBucketMap().size());
+		Field next = series.getBucketMap().get(series.getBucketMap().lastKey()).get("f1");
+		assertEquals(4096, next.getWriters().get(0).getRawBytes().capacity());
+		assertTrue(bytes > 4096);
+
+		// a sparse field starts small
+		Series sparse = new Series(new ByteString("sparse"), 1);
+		sparse.addPoint(dp, measurement);
+		Field sparseField = sparse.getBucketMap().get(sparse.getBucketMap().firstKey()).get("f1");
+		assertEquals(512, sparseField.getWriters().get(0).getRawBytes().capacity());
+		assertEquals(ts + bucket, sparse.queryDataPoints(measurement, Arrays.asList("f1"), ts, Long.MAX_VALUE, null)
+				.get("f1").get(0).getTimestamp());
+
+		// every point is still readable across the differently sized buffers
+		List<DataPoint> dps = series.queryDataPoints(measurement, Arrays.asList("f1"), ts, ts + bucket - 1, null)
+				.get("f1");
+		assertEquals(count, dps.size());
+		for (int i = 0; i < count; i++) {
+			assertEquals((long) i * i, dps.get(i).getLongValue());
+		}
+	}
 }
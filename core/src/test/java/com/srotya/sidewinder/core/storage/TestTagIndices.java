@@ -16,6 +16,7 @@
 package com.srotya.sidewinder.core.storage;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
@@ -36,6 +37,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameter;
 import org.junit.runners.Parameterized.Parameters;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
 
 import com.srotya.sidewinder.core.filters.ComplexTagFilter;
 import com.srotya.sidewinder.core.filters.ComplexTagFilter.ComplexFilterType;
@@ -190,6 +192,29 @@ public class TestTagIndices {
 		assertEquals(2, keys.size());
 	}
 
+	@Test
+	public void testUnindex() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			index.index("key", String.valueOf(i % 2), i);
+		}
+		index.unindex("key", "0", 2);
+		// rows that aren't indexed are ignored
+		index.unindex("key", "0", 3);
+		index.unindex("key", "2", 0);
+		index.unindex("key2", "0", 0);
+		TagFilter filter = new SimpleTagFilter(FilterType.EQUALS, "key", "0");
+		assertEquals(MutableRoaringBitmap.bitmapOf(0, 4, 6, 8), index.searchSeriesIndices(filter));
+		assertEquals(MutableRoaringBitmap.bitmapOf(1, 3, 5, 7, 9),
+				index.searchSeriesIndices(new SimpleTagFilter(FilterType.EQUALS, "key", "1")));
+		if (index instanceof MemTagIndex) {
+			return;
+		}
+		// removals are replayed from the log
+		TagIndex recovered = clazz.newInstance();
+		recovered.configure(new HashMap<>(), "target/index-common", m);
+		assertEquals(MutableRoaringBitmap.bitmapOf(0, 4, 6, 8), recovered.searchSeriesIndices(filter));
+	}
+
 	@Test
 	public void testIndexMultiTags() throws IOException, InterruptedException {
 		for (int i = 0; i < 10; i++) {
@@ -217,6 +242,54 @@ public class TestTagIndices {
 		assertEquals(2, keys.size());
 	}
 
+	@Test
+	public void testNestedFilterEvaluation() throws IOException {
+		for (int i = 0; i < 100; i++) {
+			index.index("dc", i < 50 ? "a" : "b", i);
+			index.index("host", String.format("h%02d", i % 10), i);
+			m.getSeriesList().add(new Series(new ByteString(String.valueOf(i)), i));
+		}
+
+		TagFilter filter = new ComplexTagFilter(ComplexFilterType.AND,
+				Arrays.asList(new SimpleTagFilter(FilterType.EQUALS, "dc", "a"),
+						new SimpleTagFilter(FilterType.EQUALS, "host", "h03")));
+		MutableRoaringBitmap indices = index.searchSeriesIndices(filter);
+		assertEquals(MutableRoaringBitmap.bitmapOf(3, 13, 23, 33, 43), indices);
+		assertEquals(5, index.searchRowKeysForTagFilter(filter).size());
+
+		// an empty intersection must stay empty whatever follows it
+		filter = new ComplexTagFilter(ComplexFilterType.AND,
+				Arrays.asList(new SimpleTagFilter(FilterType.EQUALS, "host", "h01"),
+						new SimpleTagFilter(FilterType.EQUALS, "host", "h02"),
+						new SimpleTagFilter(FilterType.EQUALS, "dc", "a")));
+		assertEquals(0, index.searchSeriesIndices(filter).getCardinality());
+
+		filter = new ComplexTagFilter(ComplexFilterType.AND,
+				Arrays.asList(new SimpleTagFilter(FilterType.EQUALS, "dc", "a"),
+						new SimpleTagFilter(FilterType.GREATER_THAN, "host", "h07")));
+		assertEquals(10, index.searchSeriesIndices(filter).getCardinality());
+
+		filter = new SimpleTagFilter(FilterType.GREATER_THAN, "host", "h035");
+		assertEquals(60, index.searchSeriesIndices(filter).getCardinality());
+
+		filter = new ComplexTagFilter(ComplexFilterType.OR, Arrays.asList(
+				new ComplexTagFilter(ComplexFilterType.AND,
+						Arrays.asList(new SimpleTagFilter(FilterType.EQUALS, "host", "h01"),
+								new SimpleTagFilter(FilterType.EQUALS, "dc", "b"))),
+				new SimpleTagFilter(FilterType.EQUALS, "host", "h02")));
+		indices = index.searchSeriesIndices(filter);
+		assertEquals(15, indices.getCardinality());
+		assertTrue(indices.contains(51));
+		assertTrue(indices.contains(2));
+		assertTrue(!indices.contains(1));
+
+		filter = new ComplexTagFilter(ComplexFilterType.AND,
+				Arrays.asList(new SimpleTagFilter(FilterType.EQUALS, "rack", "r1"),
+						new SimpleTagFilter(FilterType.EQUALS, "dc", "a")));
+		assertEquals(0, index.searchSeriesIndices(filter).getCardinality());
+		assertEquals(0, index.searchRowKeysForTagFilter(filter).size());
+	}
+
 	@Test
 	public void testDiskTagIndexFilterNegativeTests() throws IOException, InterruptedException {
 		for (int i = 0; i < 10_000; i++) {
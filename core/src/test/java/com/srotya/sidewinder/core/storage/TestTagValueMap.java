@@ -0,0 +1,126 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
+/**
+ * @author ambud
+ */
+public class TestTagValueMap {
+
+	@Test
+	public void testExtractLiterals() {
+		List<String> literals = new ArrayList<>();
+		assertEquals("host-", TagValueMap.extractLiterals("host-.*", literals));
+		assertEquals(Arrays.asList("host-"), literals);
+
+		literals.clear();
+		assertEquals("", TagValueMap.extractLiterals(".*-prod-[0-9]+\\.example\\.com", literals));
+		assertEquals(Arrays.asList("-prod-", ".example.com"), literals);
+
+		literals.clear();
+		assertEquals("ab", TagValueMap.extractLiterals("^abc?d\\d+ef*gh$", literals));
+		assertEquals(Arrays.asList("ab", "d", "e", "gh"), literals);
+
+		literals.clear();
+		assertEquals("abc", TagValueMap.extractLiterals("abc(def)?", literals));
+		assertEquals(Arrays.asList("abc"), literals);
+
+		literals.clear();
+		assertEquals("", TagValueMap.extractLiterals("abc|def", literals));
+		assertTrue(literals.isEmpty());
+
+		literals.clear();
+		assertEquals("", TagValueMap.extractLiterals("(?i)host", literals));
+		assertTrue(literals.isEmpty());
+
+		// characters of an escape sequence aren't literals
+		literals.clear();
+		assertEquals("host", TagValueMap.extractLiterals("host\\x2D01\\u0041bc\\0101\\cAde\\pLfg", literals));
+		assertEquals(Arrays.asList("host", "01", "bc", "de", "fg"), literals);
+
+		literals.clear();
+		assertEquals("", TagValueMap.extractLiterals("host\\y", literals));
+		assertTrue(literals.isEmpty());
+	}
+
+	@Test
+	public void testEscapedCandidates() {
+		TagValueMap map = new TagValueMap();
+		map.put("host-01", MutableRoaringBitmap.bitmapOf(0));
+		map.put("Abcdef", MutableRoaringBitmap.bitmapOf(1));
+		map.put("db", MutableRoaringBitmap.bitmapOf(2));
+		for (String[] test : new String[][] { { "host\\x2D01", "host-01" }, { "\\u0041bcdef", "Abcdef" },
+				{ "host\\x{2D}01", "host-01" }, { "\\0101bcdef", "Abcdef" }, { "\\p{Lu}bcdef", "Abcdef" } }) {
+			assertTrue(Pattern.matches(test[0], test[1]));
+			Collection<String> candidates = map.getCandidates(test[0]);
+			assertTrue(test[0], candidates != null && !candidates.isEmpty());
+			assertTrue(test[0], candidates.contains(test[1]));
+		}
+	}
+
+	@Test
+	public void testCandidates() {
+		TagValueMap map = new TagValueMap();
+		for (int i = 0; i < 1000; i++) {
+			map.put(String.format("host-%04d.%s", i, i % 2 == 0 ? "east" : "west"), MutableRoaringBitmap.bitmapOf(i));
+		}
+		map.putIfAbsent("db", MutableRoaringBitmap.bitmapOf(1000));
+
+		Collection<String> candidates = map.getCandidates(".*-09.*west");
+		assertEquals(50, candidates.size());
+		assertTrue(map.getCandidates(".*nothere.*").isEmpty());
+		assertEquals(1000, map.getCandidates("h.*").size());
+		assertNull(map.getCandidates(".*"));
+		assertNull(map.getCandidates("host|db"));
+
+		// candidates never miss a match
+		for (String regex : Arrays.asList(".*-09.*west", "host-01[0-9]+\\.east", "d.", ".*00.*", "host-0999.west",
+				"host-.*\\.e?ast", "ho{1}st.*")) {
+			Pattern p = Pattern.compile(regex);
+			Set<String> expected = new HashSet<>();
+			for (Entry<String, MutableRoaringBitmap> entry : map.entrySet()) {
+				if (p.matcher(entry.getKey()).matches()) {
+					expected.add(entry.getKey());
+				}
+			}
+			Collection<String> result = map.getCandidates(regex);
+			Set<String> actual = new HashSet<>();
+			for (String candidate : result != null ? result : map.keySet()) {
+				if (p.matcher(candidate).matches()) {
+					actual.add(candidate);
+				}
+			}
+			assertEquals(regex, expected, actual);
+		}
+	}
+
+}
@@ -24,11 +24,13 @@ import java.nio.ByteBuffer;
 
 import org.junit.Test;
 
+import com.srotya.sidewinder.core.predicates.BetweenPredicate;
 import com.srotya.sidewinder.core.predicates.GreaterThanEqualsPredicate;
 import com.srotya.sidewinder.core.storage.RejectException;
 import com.srotya.sidewinder.core.storage.compression.FilteredValueException;
 import com.srotya.sidewinder.core.storage.compression.Reader;
 import com.srotya.sidewinder.core.storage.compression.RollOverException;
+import com.srotya.sidewinder.core.storage.compression.TimeSkipIndex;
 import com.srotya.sidewinder.core.storage.compression.TimeWriter;
 
 /**
@@ -451,4 +453,101 @@ public class TestByzantineTimestampReadWrite {
 		}
 	}
 
+	@Test
+	public void testBulkReadWithPredicate() throws IOException {
+		ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 10);
+		TimeWriter writer = new ByzantineTimestampWriter();
+		writer.configure(buf, true, startOffset);
+		long ots = System.currentTimeMillis();
+		writer.setHeaderTimestamp(ots);
+		int limit = 1000;
+		for (int i = 0; i < limit; i++) {
+			writer.add(ots + i * 1000);
+		}
+		Reader reader = writer.getReader();
+		reader.setPredicate(new GreaterThanEqualsPredicate(ots + 500 * 1000));
+		long[] values = new long[300];
+		boolean[] selection = new boolean[300];
+		int total = 0;
+		int selected = 0;
+		int n;
+		while ((n = reader.read(values, selection, 0, values.length)) > 0) {
+			for (int i = 0; i < n; i++) {
+				assertEquals(ots + (total + i) * 1000, values[i]);
+				assertEquals(total + i >= 500, selection[i]);
+				if (selection[i]) {
+					selected++;
+				}
+			}
+			total += n;
+		}
+		assertEquals(limit, total);
+		assertEquals(500, selected);
+		assertEquals(limit, reader.getCounter());
+		assertEquals(0, reader.read(values, selection, 0, values.length));
+	}
+
+	@Test
+	public void testSkipIndexSeek() throws IOException {
+		ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 100);
+		ByzantineTimestampWriter writer = new ByzantineTimestampWriter();
+		writer.configure(buf, true, startOffset);
+		long ots = System.currentTimeMillis();
+		writer.setHeaderTimestamp(ots);
+		int limit = 10000;
+		long[] expected = new long[limit];
+		for (int i = 0; i < limit; i++) {
+			// irregular deltas so that all delta of delta encodings are used
+			expected[i] = ots + i * 1000 + (i % 7) * 13 + (i / 101) * 40000;
+			writer.add(expected[i]);
+		}
+		int interval = TimeSkipIndex.DEFAULT_INTERVAL;
+		assertEquals((limit + interval - 1) / interval, writer.getSkipIndex().checkpoints(limit));
+		assertTrue(writer.getSkipIndex().isSorted());
+		assertSeek(writer.getReader(), expected, interval);
+
+		// index must be rebuilt identically on recovery
+		ByzantineTimestampWriter recovered = new ByzantineTimestampWriter();
+		buf.rewind();
+		recovered.configure(buf, false, startOffset);
+		assertEquals(writer.getSkipIndex().checkpoints(limit), recovered.getSkipIndex().checkpoints(limit));
+		assertSeek(recovered.getReader(), expected, interval);
+
+		// out of order writes disable checkpoint ranges but not buffer range
+		recovered.add(ots);
+		assertTrue(!recovered.getSkipIndex().isSorted());
+		Reader reader = recovered.getReader();
+		reader.setPredicate(new BetweenPredicate(expected[7000], expected[7100]));
+		assertEquals(0, reader.skippable());
+		reader.setPredicate(new GreaterThanEqualsPredicate(expected[limit - 1] + 1));
+		assertEquals(limit + 1, reader.skippable());
+	}
+
+	private void assertSeek(Reader reader, long[] expected, int interval) {
+		reader.setPredicate(new BetweenPredicate(expected[7000], expected[7100]));
+		int skippable = reader.skippable();
+		assertEquals((7000 / interval) * interval, skippable);
+		assertEquals(skippable, reader.skip(skippable));
+		assertEquals(skippable, reader.getCounter());
+		long[] values = new long[100];
+		boolean[] selection = new boolean[100];
+		int index = skippable;
+		int selected = 0;
+		while (reader.skippable() == 0) {
+			int n = reader.read(values, selection, 0, values.length);
+			for (int i = 0; i < n; i++) {
+				assertEquals(expected[index + i], values[i]);
+				if (selection[i]) {
+					selected++;
+				}
+			}
+			index += n;
+		}
+		assertEquals(101, selected);
+		assertTrue(index > 7100);
+		// no point past the range can match, remaining points are skipped without decoding
+		assertEquals(expected.length - index, reader.skippable());
+		assertEquals(expected.length - index, reader.skip(Integer.MAX_VALUE));
+		assertEquals(0, reader.read(values, selection, 0, values.length));
+	}
 }
@@ -403,4 +403,24 @@ public class TestByzantineValueReadWrite {
 		}
 	}
 
+	@Test
+	public void testBulkRead() throws IOException {
+		ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 10);
+		ValueWriter writer = new ByzantineValueWriter();
+		writer.configure(buf, true, startOffset);
+		int limit = 1000;
+		for (int i = 0; i < limit; i++) {
+			writer.add(i * 1.1);
+		}
+		Reader reader = writer.getReader();
+		long[] values = new long[limit + 10];
+		// no selection mask, predicate must be ignored
+		reader.setPredicate(new GreaterThanEqualsPredicate(Double.doubleToLongBits(10000)));
+		assertEquals(100, reader.read(values, null, 0, 100));
+		assertEquals(limit - 100, reader.read(values, null, 100, values.length - 100));
+		for (int i = 0; i < limit; i++) {
+			assertEquals(i * 1.1, Double.longBitsToDouble(values[i]), 0.01);
+		}
+		assertEquals(0, reader.read(values, null, 0, values.length));
+	}
 }
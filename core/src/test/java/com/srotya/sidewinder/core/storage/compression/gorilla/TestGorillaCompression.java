@@ -16,12 +16,15 @@
 package com.srotya.sidewinder.core.storage.compression.gorilla;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
 import org.junit.Test;
 
+import com.srotya.sidewinder.core.predicates.GreaterThanEqualsPredicate;
+import com.srotya.sidewinder.core.storage.compression.BufferStats;
 import com.srotya.sidewinder.core.storage.compression.Reader;
 
 public class TestGorillaCompression {
@@ -76,6 +79,31 @@ public class TestGorillaCompression {
 		}
 	}
 
+	@Test
+	public void testReadBeforeReadOnly() throws IOException {
+		ByteBuffer tbuf = ByteBuffer.allocate(4096);
+		GorillaTimestampWriter tw = new GorillaTimestampWriter();
+		tw.configure(tbuf, true, 0);
+		long ts = System.currentTimeMillis();
+		tw.setHeaderTimestamp(ts);
+		ByteBuffer vbuf = ByteBuffer.allocate(4096);
+		GorillaValueWriter vw = new GorillaValueWriter();
+		vw.configure(vbuf, true, 0);
+		for (int i = 0; i < 100; i++) {
+			tw.add(ts + i * 117);
+			vw.add(i * 1.1);
+			// every added point must be readable without sealing the buffer
+			Reader tr = tw.getReader();
+			Reader vr = vw.getReader();
+			assertEquals(i + 1, tr.getCount());
+			assertEquals(i + 1, vr.getCount());
+			for (int j = 0; j <= i; j++) {
+				assertEquals(ts + j * 117, tr.read());
+				assertEquals(j * 1.1, vr.readDouble(), 0.01);
+			}
+		}
+	}
+
 	@Test
 	public void testRecovery() throws IOException {
 		ByteBuffer buf = ByteBuffer.allocate(1024);
@@ -98,4 +126,78 @@ public class TestGorillaCompression {
 		}
 	}
 
+	@Test
+	public void testStatsRecovery() throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(1024);
+		GorillaValueWriter writer = new GorillaValueWriter();
+		writer.configure(buf, true, 0);
+		for (int i = -5; i < 95; i++) {
+			writer.add(i);
+		}
+		writer.makeReadOnly(false);
+		ByteBuffer rawBytes = writer.getRawBytes();
+		rawBytes.rewind();
+		ByteBuffer copy = ByteBuffer.allocate(rawBytes.capacity());
+		copy.put(rawBytes.duplicate());
+
+		// stats are read from the header without decoding the points
+		for (int i = GorillaValueWriter.MD5_PADDING + 8; i < rawBytes.capacity(); i++) {
+			rawBytes.put(i, (byte) 0);
+		}
+		writer = new GorillaValueWriter();
+		writer.configure(rawBytes, false, 0);
+		BufferStats stats = writer.getStats();
+		assertEquals(100, stats.getCount());
+		assertEquals(-5, stats.getMinLong());
+		assertEquals(94, stats.getMaxLong());
+
+		// buffers written before stats were kept in the header are decoded
+		for (int i = 16; i < GorillaValueWriter.MD5_PADDING; i++) {
+			copy.put(i, (byte) 0);
+		}
+		writer = new GorillaValueWriter();
+		writer.configure(copy, false, 0);
+		stats = writer.getStats();
+		assertEquals(100, stats.getCount());
+		assertEquals(-5, stats.getMinLong());
+		assertEquals(94, stats.getMaxLong());
+	}
+
+	@Test
+	public void testBulkRead() throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(1024 * 10);
+		GorillaTimestampWriter writer = new GorillaTimestampWriter();
+		writer.configure(buf, true, 0);
+		long ts = System.currentTimeMillis();
+		writer.setHeaderTimestamp(ts);
+		for (int i = 0; i < 1000; i++) {
+			writer.add(ts + i * 100);
+		}
+		writer.makeReadOnly(false);
+		Reader reader = writer.getReader();
+		reader.setPredicate(new GreaterThanEqualsPredicate(ts + 100 * 100));
+		long[] values = new long[1024];
+		boolean[] selection = new boolean[1024];
+		assertEquals(1000, reader.read(values, selection, 0, values.length));
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(ts + i * 100, values[i]);
+			assertEquals(i >= 100, selection[i]);
+		}
+		assertEquals(0, reader.read(values, selection, 0, values.length));
+
+		buf = ByteBuffer.allocate(1024 * 10);
+		GorillaValueWriter vwriter = new GorillaValueWriter();
+		vwriter.configure(buf, true, 0);
+		for (int i = 0; i < 1000; i++) {
+			vwriter.add(i * 1.1);
+		}
+		vwriter.makeReadOnly(false);
+		reader = vwriter.getReader();
+		assertEquals(10, reader.read(values, selection, 0, 10));
+		assertEquals(990, reader.read(values, selection, 10, 1014));
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i * 1.1, Double.longBitsToDouble(values[i]), 0.01);
+			assertTrue(selection[i]);
+		}
+	}
 }
@@ -0,0 +1,118 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.disk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author ambud
+ */
+public class TestDataPlacement {
+
+	@Test
+	public void testRoundRobinWithEqualFreeSpace() {
+		String[] dirs = new String[] { "d1", "d2", "d3" };
+		DataPlacement placement = new TestPlacement(dirs, new HashMap<>(), new HashMap<>());
+		for (int i = 0; i < 9; i++) {
+			placement.locate("db", "m" + i);
+		}
+		for (int count : placement.getPlacementCounts().values()) {
+			assertEquals(3, count);
+		}
+		// placements are sticky
+		assertEquals(placement.locate("db", "m4"), placement.locate("db", "m4"));
+		assertEquals(placement.getDirectory("db", "m4"), placement.locate("db", "m4"));
+
+		// existing measurements keep their directory
+		assertTrue(placement.assign("db2", "x", "d1"));
+		assertTrue(placement.assign("db2", "x", "d1"));
+		assertFalse(placement.assign("db2", "x", "d2"));
+		assertEquals("d1", placement.locate("db2", "x"));
+		assertEquals(4, (int) placement.getPlacementCounts().get("d1"));
+
+		placement.removeDatabase("db");
+		assertEquals(1, (int) placement.getPlacementCounts().get("d1"));
+		assertEquals(0, (int) placement.getPlacementCounts().get("d2"));
+	}
+
+	@Test
+	public void testFreeSpaceAndRate() {
+		String[] dirs = new String[] { "d1", "d2" };
+		Map<String, Long> free = new HashMap<>();
+		free.put("d1", 100_000_000L);
+		free.put("d2", 50_000_000L);
+		TestPlacement placement = new TestPlacement(dirs, free, new HashMap<>());
+		long now = 1_000_000L;
+		for (int i = 0; i < 5; i++) {
+			assertEquals("d1", placement.choose(null, now));
+		}
+		// d1 is consumed fast enough to run out sooner than d2
+		free.put("d1", 90_000_000L);
+		assertEquals("d2", placement.choose(null, now + 20_000));
+		// within the slack the directory holding fewer measurements wins
+		free.put("d1", 50_000_000L);
+		free.put("d2", 50_000_000L);
+		Map<String, String> conf = new HashMap<>();
+		conf.put(DataPlacement.CONF_PLACEMENT_RATE_HORIZON, "0");
+		placement = new TestPlacement(dirs, free, conf);
+		placement.assign("db", "a", "d1");
+		assertEquals("d2", placement.choose("d1", now));
+	}
+
+	@Test
+	public void testInterleave() {
+		Map<String, List<Integer>> byDir = new LinkedHashMap<>();
+		byDir.put("d1", Arrays.asList(1, 2, 3));
+		byDir.put("d2", Arrays.asList(4));
+		byDir.put("d3", Arrays.asList(5, 6));
+		assertEquals(Arrays.asList(1, 4, 5, 2, 6, 3), DataPlacement.interleave(byDir));
+	}
+
+	private static class TestPlacement extends DataPlacement {
+
+		private final Map<String, Long> free;
+
+		public TestPlacement(String[] dataDirs, Map<String, Long> free, Map<String, String> conf) {
+			super(dataDirs, conf);
+			this.free = free;
+		}
+
+		@Override
+		protected Object storeKey(File dir) {
+			// directories are named after their store
+			return dir.getName();
+		}
+
+		@Override
+		protected long getUsableSpace(File dir) {
+			Long space = free.get(dir.getName());
+			return space != null ? space : 1L << 40;
+		}
+
+	}
+
+}
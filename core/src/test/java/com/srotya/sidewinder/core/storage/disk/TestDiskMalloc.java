@@ -0,0 +1,403 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.disk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.srotya.sidewinder.core.storage.BufferObject;
+import com.srotya.sidewinder.core.storage.ByteString;
+import com.srotya.sidewinder.core.storage.LinkedByteString;
+import com.srotya.sidewinder.core.storage.compression.Reader;
+import com.srotya.sidewinder.core.storage.compression.byzantine.ByzantineValueWriter;
+import com.srotya.sidewinder.core.storage.disk.FreeExtentList.Extent;
+import com.srotya.sidewinder.core.utils.MiscUtils;
+
+/**
+ * Unit tests for {@link DiskMalloc}
+ * 
+ * @author ambud
+ */
+public class TestDiskMalloc {
+
+	private static final String DATA_DIR = "target/malloc-test";
+	private Map<String, String> conf;
+
+	@Before
+	public void before() throws IOException {
+		MiscUtils.delete(new File(DATA_DIR));
+		new File(DATA_DIR + "/m1").mkdirs();
+		conf = new HashMap<>();
+		conf.put(DiskMalloc.CONF_MEASUREMENT_FILE_INCREMENT, String.valueOf(1024));
+		conf.put(DiskMalloc.CONF_MEASUREMENT_FILE_MAX, String.valueOf(4096));
+		conf.put(DiskMalloc.CONF_MALLOC_PTRFILE_INCREMENT, String.valueOf(64));
+	}
+
+	@After
+	public void after() throws IOException {
+		MiscUtils.delete(new File(DATA_DIR));
+	}
+
+	private DiskMalloc newMalloc() throws IOException {
+		DiskMalloc malloc = new DiskMalloc();
+		malloc.configure(conf, DATA_DIR, "m1", null, null, new ReentrantLock());
+		return malloc;
+	}
+
+	private static LinkedByteString fieldId(int i) {
+		return new LinkedByteString().concat(new ByteString("host=" + (i % 3)))
+				.concat(new ByteString("#")).concat(new ByteString("value"));
+	}
+
+	private Map<String, Integer> writeBuffers(DiskMalloc malloc, int count) throws IOException {
+		Map<String, Integer> ids = new HashMap<>();
+		for (int i = 0; i < count; i++) {
+			BufferObject buf = malloc.createNewBuffer(fieldId(i), i, 128);
+			buf.getBuf().putInt(0, i);
+			ids.put(buf.getBufferId().toString(), i);
+		}
+		return ids;
+	}
+
+	/**
+	 * Run the collector until weakly reachable objects, e.g. the ids of dropped
+	 * buffers, have been cleared
+	 */
+	private static void collectGarbage() throws InterruptedException {
+		WeakReference<Object> sentinel = new WeakReference<>(new Object());
+		for (int i = 0; i < 50 && sentinel.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		System.gc();
+	}
+
+	/**
+	 * @param bufferId
+	 * @return data file and position of the buffer
+	 */
+	private static String extentOf(String bufferId) {
+		String[] split = bufferId.split("\\" + DiskMalloc.SEPARATOR);
+		return split[split.length - 4] + DiskMalloc.SEPARATOR + split[split.length - 3];
+	}
+
+	private static Map<String, Integer> recoveredIds(Map<ByteString, List<Entry<Integer, BufferObject>>> map) {
+		Map<String, Integer> ids = new HashMap<>();
+		for (Entry<ByteString, List<Entry<Integer, BufferObject>>> entry : map.entrySet()) {
+			for (Entry<Integer, BufferObject> buf : entry.getValue()) {
+				assertEquals(buf.getKey().intValue(), buf.getValue().getBuf().getInt(0));
+				ids.put(buf.getValue().getBufferId().toString(), buf.getKey());
+			}
+		}
+		return ids;
+	}
+
+	@Test
+	public void testPointerRecovery() throws IOException {
+		DiskMalloc malloc = newMalloc();
+		assertTrue(malloc.seriesBufferMap().isEmpty());
+		// forces data file rotation and ptr file resizing
+		Map<String, Integer> ids = writeBuffers(malloc, 100);
+		assertEquals(100 * 128, malloc.getAllocatedBytes());
+		malloc.sync();
+		assertEquals(0, malloc.getAllocatedBytes());
+		malloc.close();
+
+		malloc = newMalloc();
+		Map<ByteString, List<Entry<Integer, BufferObject>>> map = malloc.seriesBufferMap();
+		assertEquals(3, map.size());
+		assertTrue(map.containsKey(new ByteString("host=0#value")));
+		assertEquals(ids, recoveredIds(map));
+
+		Map<String, Integer> more = writeBuffers(malloc, 10);
+		ids.putAll(more);
+		malloc.close();
+		malloc = newMalloc();
+		assertEquals(ids, recoveredIds(malloc.seriesBufferMap()));
+		malloc.close();
+	}
+
+	@Test
+	public void testCleanupBufferIds() throws IOException {
+		DiskMalloc malloc = newMalloc();
+		malloc.seriesBufferMap();
+		Map<String, Integer> ids = writeBuffers(malloc, 30);
+		Set<String> cleanup = new HashSet<>();
+		for (Entry<String, Integer> entry : ids.entrySet()) {
+			// all buffers of one key and the oldest buffers of the others
+			if (entry.getValue() % 3 == 0 || entry.getValue() < 10) {
+				cleanup.add(entry.getKey());
+			}
+		}
+		ids.keySet().removeAll(cleanup);
+		File ptrFile = new File(DATA_DIR + "/m1/.ptr");
+		long ptrBytes = ptrFile.length();
+		malloc.cleanupBufferIds(cleanup);
+		// the ptr file is replaced by one holding only the remaining records
+		assertTrue(ptrFile.length() < ptrBytes);
+		assertTrue(!new File(DATA_DIR + "/m1/.ptr.tmp").exists());
+		// dropped key is declared again
+		BufferObject buf = malloc.createNewBuffer(fieldId(0), 30, 128);
+		buf.getBuf().putInt(0, 30);
+		ids.put(buf.getBufferId().toString(), 30);
+		malloc.close();
+
+		malloc = newMalloc();
+		Map<ByteString, List<Entry<Integer, BufferObject>>> map = malloc.seriesBufferMap();
+		assertEquals(ids, recoveredIds(map));
+		assertEquals(1, map.get(new ByteString("host=0#value")).size());
+		malloc.close();
+	}
+
+	@Test
+	public void testFreeExtentReuse() throws IOException, InterruptedException {
+		conf.put(DiskMalloc.CONF_MALLOC_FREELIST_REUSE_DELAY, "0");
+		DiskMalloc malloc = newMalloc();
+		malloc.seriesBufferMap();
+		// two data files of 32 buffers each
+		Map<String, Integer> ids = writeBuffers(malloc, 64);
+		Set<String> cleanup = new HashSet<>();
+		for (Entry<String, Integer> entry : ids.entrySet()) {
+			if (entry.getValue() < 32 && entry.getValue() % 2 == 0) {
+				cleanup.add(entry.getKey());
+			}
+		}
+		ids.keySet().removeAll(cleanup);
+		malloc.cleanupBufferIds(cleanup);
+		assertEquals(16 * 128, malloc.getFreeBytes());
+		// nothing holds the dropped buffers once their ids are collected
+		collectGarbage();
+
+		for (int i = 64; i < 68; i++) {
+			BufferObject buf = malloc.createNewBuffer(fieldId(i), i, 128);
+			assertEquals(DiskMalloc.fileName(0), DiskMalloc.bufferFileName(buf.getBufferId().toString()));
+			// stale contents of the freed buffer are cleared
+			assertEquals(0, buf.getBuf().getInt(0));
+			buf.getBuf().putInt(0, i);
+			ids.put(buf.getBufferId().toString(), i);
+		}
+		assertEquals(12 * 128, malloc.getFreeBytes());
+		malloc.close();
+
+		malloc = newMalloc();
+		assertEquals(ids, recoveredIds(malloc.seriesBufferMap()));
+		assertEquals(12 * 128, malloc.getFreeBytes());
+
+		// allocations after the last save are reconciled with the ptr file
+		File free = new File(DATA_DIR + "/m1/.free");
+		byte[] stale = Files.readAllBytes(free.toPath());
+		for (int i = 68; i < 72; i++) {
+			BufferObject buf = malloc.createNewBuffer(fieldId(i), i, 128);
+			buf.getBuf().putInt(0, i);
+			ids.put(buf.getBufferId().toString(), i);
+		}
+		malloc.close();
+		Files.write(free.toPath(), stale);
+		malloc = newMalloc();
+		assertEquals(ids, recoveredIds(malloc.seriesBufferMap()));
+		assertEquals(8 * 128, malloc.getFreeBytes());
+		malloc.close();
+	}
+
+	@Test
+	public void testFreeExtentReuseDelay() throws IOException {
+		conf.put(DiskMalloc.CONF_MALLOC_FREELIST_REUSE_DELAY, "3600");
+		DiskMalloc malloc = newMalloc();
+		malloc.seriesBufferMap();
+		Map<String, Integer> ids = writeBuffers(malloc, 64);
+		Set<String> cleanup = new HashSet<>();
+		for (Entry<String, Integer> entry : ids.entrySet()) {
+			if (entry.getValue() < 32 && entry.getValue() % 2 == 0) {
+				cleanup.add(entry.getKey());
+			}
+		}
+		malloc.cleanupBufferIds(cleanup);
+		assertEquals(16 * 128, malloc.getFreeBytes());
+		// freed ranges are kept out of allocation until the delay has passed
+		BufferObject buf = malloc.createNewBuffer(fieldId(64), 64, 128);
+		assertNotEquals(DiskMalloc.fileName(0), DiskMalloc.bufferFileName(buf.getBufferId().toString()));
+		assertEquals(16 * 128, malloc.getFreeBytes());
+		malloc.close();
+
+		// no reader holds the freed buffers after a restart
+		malloc = newMalloc();
+		malloc.seriesBufferMap();
+		buf = malloc.createNewBuffer(fieldId(65), 65, 128);
+		assertEquals(DiskMalloc.fileName(0), DiskMalloc.bufferFileName(buf.getBufferId().toString()));
+		assertEquals(15 * 128, malloc.getFreeBytes());
+		malloc.close();
+
+		FreeExtentList list = new FreeExtentList(new File(DATA_DIR + "/m1/.free"), 1000);
+		list.free(0, 0, 128, 0);
+		list.free(0, 128, 128, 500);
+		assertNull(list.allocate(128, 999));
+		Extent extent = list.allocate(128, 1000);
+		assertEquals(0, extent.getPosition());
+		// the second range is still quarantined
+		assertNull(list.allocate(128, 1499));
+		assertEquals(128, list.allocate(128, 1500).getPosition());
+		// ranges that are still read stay quarantined past the delay
+		Object reader = new Object();
+		WeakReference<Object> readers = new WeakReference<>(reader);
+		list.free(0, 256, 128, 2000, readers);
+		list.free(0, 512, 128, 2000);
+		assertEquals(512, list.allocate(128, 10000).getPosition());
+		assertNull(list.allocate(128, 10000));
+		readers.clear();
+		assertEquals(256, list.allocate(128, 10000).getPosition());
+
+		conf.put(DiskMalloc.CONF_MALLOC_FREELIST_REUSE_DELAY, "-1");
+		try {
+			newMalloc();
+			fail("Negative reuse delay must be rejected");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testFreeExtentReuseWithReader() throws IOException, InterruptedException {
+		conf.put(DiskMalloc.CONF_MALLOC_FREELIST_REUSE_DELAY, "0");
+		DiskMalloc malloc = newMalloc();
+		malloc.seriesBufferMap();
+		BufferObject buf = malloc.createNewBuffer(fieldId(0), 0, 128);
+		String bufferId = buf.getBufferId().toString();
+		ByzantineValueWriter writer = new ByzantineValueWriter();
+		writer.setBufferId(buf.getBufferId());
+		writer.configure(buf.getBuf(), true, 2);
+		for (long i = 0; i < 10; i++) {
+			writer.add(i);
+		}
+		Reader reader = writer.getReader();
+		buf = null;
+		writer = null;
+
+		// the reader outlives the reuse delay and the writer
+		malloc.cleanupBufferIds(new HashSet<>(Arrays.asList(bufferId)));
+		assertEquals(128, malloc.getFreeBytes());
+		collectGarbage();
+		for (int i = 1; i < 4; i++) {
+			BufferObject other = malloc.createNewBuffer(fieldId(i), i, 128);
+			assertNotEquals(extentOf(bufferId), extentOf(other.getBufferId().toString()));
+			other.getBuf().putLong(2, Long.MAX_VALUE);
+		}
+		long[] values = new long[10];
+		assertEquals(10, reader.read(values, null, 0, values.length));
+		for (int i = 0; i < 10; i++) {
+			assertEquals(i, values[i]);
+		}
+
+		// the range is reused once the reader is gone
+		reader = null;
+		collectGarbage();
+		BufferObject reused = malloc.createNewBuffer(fieldId(4), 4, 128);
+		assertEquals(extentOf(bufferId), extentOf(reused.getBufferId().toString()));
+		assertEquals(0, malloc.getFreeBytes());
+		malloc.close();
+	}
+
+	@Test
+	public void testLegacyMigration() throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(DATA_DIR + "/m1/" + DiskMalloc.fileName(3), "rw")) {
+			raf.setLength(2048);
+			raf.seek(1024 + 64);
+			raf.writeInt(0x5a);
+			raf.seek(128);
+			raf.writeInt(0x5b);
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(DATA_DIR + "/m1/.ptr", "rw")) {
+			MappedByteBuffer ptr = raf.getChannel().map(MapMode.READ_WRITE, 0, 1024);
+			ptr.putInt(2);
+			MiscUtils.writeStringToBuffer("a=1^b=2#value)" + DiskMalloc.fileName(3) + ")64)1024)128)5a\n", ptr);
+			MiscUtils.writeStringToBuffer("a=1^b=2#ts)" + DiskMalloc.fileName(3) + ")128)0)128)5b\n", ptr);
+		}
+		DiskMalloc malloc = newMalloc();
+		Map<ByteString, List<Entry<Integer, BufferObject>>> map = malloc.seriesBufferMap();
+		assertEquals(2, map.size());
+		Map<String, Integer> ids = recoveredIds(map);
+		assertEquals(Integer.valueOf(0x5a), ids.get("a=1^b=2#value)" + DiskMalloc.fileName(3) + ")1088)128)5a"));
+		assertEquals(Integer.valueOf(0x5b), ids.get("a=1^b=2#ts)" + DiskMalloc.fileName(3) + ")128)128)5b"));
+		// new files continue after the existing ones
+		BufferObject buf = malloc.createNewBuffer(fieldId(0), 1, 128);
+		buf.getBuf().putInt(0, 1);
+		assertTrue(buf.getBufferId().toString().contains(DiskMalloc.fileName(4)));
+		malloc.close();
+
+		try (RandomAccessFile raf = new RandomAccessFile(DATA_DIR + "/m1/.ptr", "r")) {
+			ByteBuffer ptr = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+			assertTrue(PtrFileFormat.isBinary(ptr));
+			assertEquals(3, PtrFileFormat.getCount(ptr));
+		}
+		assertFalse(new File(DATA_DIR + "/m1/.ptr.tmp").exists());
+		malloc = newMalloc();
+		assertEquals(3, recoveredIds(malloc.seriesBufferMap()).size());
+		malloc.close();
+	}
+
+	@Test
+	public void testCorruptTail() throws IOException {
+		DiskMalloc malloc = newMalloc();
+		malloc.seriesBufferMap();
+		writeBuffers(malloc, 10);
+		malloc.close();
+
+		int end;
+		try (RandomAccessFile raf = new RandomAccessFile(DATA_DIR + "/m1/.ptr", "rw")) {
+			MappedByteBuffer ptr = raf.getChannel().map(MapMode.READ_WRITE, 0, raf.length());
+			end = PtrFileFormat.getEnd(ptr);
+			// torn write of the last record
+			ptr.put(end - 2, (byte) (ptr.get(end - 2) + 1));
+		}
+		malloc = newMalloc();
+		Map<String, Integer> ids = recoveredIds(malloc.seriesBufferMap());
+		assertEquals(9, ids.size());
+		assertFalse(ids.containsValue(9));
+		// appends continue from the last valid record
+		List<String> added = new ArrayList<>(writeBuffers(malloc, 1).keySet());
+		malloc.close();
+		malloc = newMalloc();
+		ids = recoveredIds(malloc.seriesBufferMap());
+		assertEquals(10, ids.size());
+		assertTrue(ids.containsKey(added.get(0)));
+		malloc.close();
+	}
+
+}
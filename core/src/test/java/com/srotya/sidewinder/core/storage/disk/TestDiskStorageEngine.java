@@ -21,6 +21,7 @@ import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -33,6 +34,8 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.srotya.sidewinder.core.filters.TagFilter;
+import com.srotya.sidewinder.core.rpc.BatchData;
+import com.srotya.sidewinder.core.rpc.Point;
 import com.srotya.sidewinder.core.rpc.Tag;
 import com.srotya.sidewinder.core.storage.ItemNotFoundException;
 import com.srotya.sidewinder.core.storage.Measurement;
@@ -64,7 +67,7 @@ public class TestDiskStorageEngine {
 	public void testMultipleDrives() throws ItemNotFoundException, IOException {
 		StorageEngine engine = new DiskStorageEngine();
 		HashMap<String, String> map = new HashMap<>();
-		MiscUtils.delete(new File("targer/db10221/"));
+		MiscUtils.delete(new File("target/db10221/"));
 		map.put("index.dir", "target/db10221/index");
 		map.put("data.dir", "target/db10221/data1, target/db10221/data2");
 		List<Tag> tagd = Arrays.asList(Tag.newBuilder().setTagKey("t").setTagValue("e").build());
@@ -83,8 +86,11 @@ public class TestDiskStorageEngine {
 			e.printStackTrace();
 			fail("Engine is initialized, no IO Exception should be thrown:" + e.getMessage());
 		}
-		assertEquals(5, new File("target/db10221/data1").listFiles().length);
-		assertEquals(5, new File("target/db10221/data2").listFiles().length);
+		// measurements are spread evenly over the drives
+		assertEquals(5, new File("target/db10221/data1")
+				.listFiles((dir, name) -> name.startsWith("test") && new File(dir, name + "/ss").isDirectory()).length);
+		assertEquals(5, new File("target/db10221/data2")
+				.listFiles((dir, name) -> name.startsWith("test") && new File(dir, name + "/ss").isDirectory()).length);
 		engine.shutdown();
 	}
 	
@@ -92,7 +98,7 @@ public class TestDiskStorageEngine {
 	public void testMultipleDrives2() throws ItemNotFoundException, IOException {
 		StorageEngine engine = new DiskStorageEngine();
 		HashMap<String, String> map = new HashMap<>();
-		MiscUtils.delete(new File("targer/db10221/"));
+		MiscUtils.delete(new File("target/db10221/"));
 		map.put("index.dir", "target/db10221/index");
 		map.put("data.dir", "target/db10221/data1,target/db10221/data2");
 		List<Tag> tagd = Arrays.asList(Tag.newBuilder().setTagKey("t").setTagValue("e").build());
@@ -111,11 +117,144 @@ public class TestDiskStorageEngine {
 			e.printStackTrace();
 			fail("Engine is initialized, no IO Exception should be thrown:" + e.getMessage());
 		}
-		assertEquals(5, new File("target/db10221/data1").listFiles().length);
-		assertEquals(5, new File("target/db10221/data2").listFiles().length);
+		// measurements are spread evenly over the drives
+		assertEquals(5, new File("target/db10221/data1")
+				.listFiles((dir, name) -> name.startsWith("test") && new File(dir, name + "/ss").isDirectory()).length);
+		assertEquals(5, new File("target/db10221/data2")
+				.listFiles((dir, name) -> name.startsWith("test") && new File(dir, name + "/ss").isDirectory()).length);
 		engine.shutdown();
 	}
 	
+	@Test
+	public void testDropMeasurementPlacement() throws Exception {
+		MiscUtils.delete(new File("target/db10222/"));
+		Map<String, String> map = new HashMap<>();
+		map.put("index.dir", "target/db10222/index");
+		map.put("data.dir", "target/db10222/data1,target/db10222/data2");
+		List<Tag> tagd = Arrays.asList(Tag.newBuilder().setTagKey("t").setTagValue("e").build());
+		DiskStorageEngine engine = new DiskStorageEngine();
+		engine.configure(map, bgTasks);
+		long ts = System.currentTimeMillis();
+		for (int i = 0; i < 4; i++) {
+			engine.writeDataPointWithLock(MiscUtils.buildDataPoint("test", "ss" + i, "value", tagd, ts, 2.2), false);
+		}
+		Map<String, Integer> counts = engine.getPlacement().getPlacementCounts();
+		assertEquals(2, (int) counts.get("target/db10222/data1"));
+		assertEquals(2, (int) counts.get("target/db10222/data2"));
+		String dir = engine.getPlacement().getDirectory("test", "ss0");
+		engine.dropMeasurement("test", "ss0");
+		assertEquals(1, (int) engine.getPlacement().getPlacementCounts().get(dir));
+		assertEquals(null, engine.getPlacement().getDirectory("test", "ss0"));
+		assertTrue(!new File(dir + "/test/ss0").exists());
+		assertTrue(!new File(engine.dbIndexPath("test") + "/ss0.rev").exists());
+
+		// the re-created measurement starts empty
+		engine.writeDataPointWithLock(MiscUtils.buildDataPoint("test", "ss0", "value", tagd, ts + 1, 3.3), false);
+		counts = engine.getPlacement().getPlacementCounts();
+		assertEquals(4, counts.get("target/db10222/data1") + counts.get("target/db10222/data2"));
+		List<SeriesOutput> result = engine.queryDataPoints("test", "ss0", "value", ts - 1000, ts + 1000, null);
+		assertEquals(1, result.size());
+		assertEquals(1, result.get(0).getDataPoints().size());
+		engine.shutdown();
+	}
+
+	@Test
+	public void testParallelRecovery() throws Exception {
+		List<Tag> tagd = Arrays.asList(Tag.newBuilder().setTagKey("test").setTagValue("e").build());
+		MiscUtils.delete(new File("target/db202/"));
+		Map<String, String> map = new HashMap<>();
+		map.put("index.dir", "target/db202/index");
+		map.put("data.dir", "target/db202/data1,target/db202/data2");
+		DiskStorageEngine engine = new DiskStorageEngine();
+		engine.configure(map, bgTasks);
+		long ts = System.currentTimeMillis();
+		for (int i = 0; i < 4; i++) {
+			for (int j = 0; j < 10; j++) {
+				engine.writeDataPointWithLock(MiscUtils.buildDataPoint("db" + i, "cpu" + j, "value", tagd, ts, j),
+						false);
+			}
+		}
+		engine.shutdown();
+
+		map.put(DiskStorageEngine.RECOVERY_THREADS, "2");
+		map.put(DiskStorageEngine.RECOVERY_ASYNC, "true");
+		engine = new DiskStorageEngine();
+		engine.configure(map, bgTasks);
+		// a measurement that's still pending must be recovered, not recreated
+		Measurement measurement = engine.getOrCreateMeasurement("db3", "cpu9");
+		assertEquals(1, measurement.getSeriesKeys().size());
+		engine.writeDataPointWithLock(MiscUtils.buildDataPoint("db3", "cpu9", "value", tagd, ts + 1000, 1), false);
+		for (int i = 0; i < 100 && engine.isRecovering(); i++) {
+			Thread.sleep(100);
+		}
+		assertTrue(!engine.isRecovering());
+		assertEquals(0, engine.getRecoveryEta());
+		for (int i = 0; i < 4; i++) {
+			assertEquals(10, engine.getOrCreateDatabase("db" + i).size());
+		}
+		List<SeriesOutput> output = engine.queryDataPoints("db3", "cpu9", "value", ts, ts + 1000, null, null);
+		assertEquals(1, output.size());
+		assertEquals(2, output.get(0).getDataPoints().size());
+		engine.shutdown();
+	}
+
+	@Test
+	public void testWalReplay() throws Exception {
+		List<Tag> tagd = Arrays.asList(Tag.newBuilder().setTagKey("test").setTagValue("e").build());
+		MiscUtils.delete(new File("target/db203/"));
+		Map<String, String> map = new HashMap<>();
+		map.put("index.dir", "target/db203/index");
+		map.put("data.dir", "target/db203/data");
+		map.put(WriteAheadLog.WAL_ENABLED, "true");
+		map.put(WriteAheadLog.WAL_CHECKPOINT_FREQUENCY, "3600");
+		DiskStorageEngine engine = new DiskStorageEngine();
+		engine.configure(map, bgTasks);
+		long ts = System.currentTimeMillis();
+		List<Point> points = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			points.add(MiscUtils.buildDataPoint("db1", "cpu", "value", tagd, ts + i, i));
+		}
+		engine.writeBatch(points, false);
+		// crash without a checkpoint, the batch is both logged and in the data files
+
+		// a batch that was logged but never applied
+		WriteAheadLog log = new WriteAheadLog(map, "target/db203/index/.wal", null);
+		log.recover(payload -> {
+		});
+		log.open();
+		BatchData.Builder lost = BatchData.newBuilder();
+		for (int i = 100; i < 110; i++) {
+			lost.addPoints(MiscUtils.buildDataPoint("db1", "cpu", "value", tagd, ts + i, i));
+		}
+		log.append(lost.build().toByteArray());
+		log.close();
+		// the time column of part of the lost batch reached the data files but the
+		// value column didn't
+		List<Point> torn = new ArrayList<>();
+		for (int i = 100; i < 105; i++) {
+			torn.add(Point.newBuilder().setDbName("db1").setMeasurementName("cpu").addAllTags(tagd)
+					.setTimestamp(ts + i).build());
+		}
+		engine.getOrCreateMeasurement("db1", "cpu").addPointsWithLocking(torn, false);
+
+		engine = new DiskStorageEngine();
+		engine.configure(map, bgTasks);
+		List<SeriesOutput> output = engine.queryDataPoints("db1", "cpu", "value", ts, ts + 200, null, null);
+		assertEquals(1, output.size());
+		assertEquals(110, output.get(0).getDataPoints().size());
+		for (int i = 0; i < 110; i++) {
+			assertEquals(ts + i, output.get(0).getDataPoints().get(i).getTimestamp());
+			assertEquals(i, output.get(0).getDataPoints().get(i).getLongValue());
+		}
+		// replayed batches were checkpointed
+		engine.shutdown();
+		engine = new DiskStorageEngine();
+		engine.configure(map, bgTasks);
+		output = engine.queryDataPoints("db1", "cpu", "value", ts, ts + 200, null, null);
+		assertEquals(110, output.get(0).getDataPoints().size());
+		engine.shutdown();
+	}
+
 	@Test
 	public void testQueryDataPointsRecovery() throws Exception {
 		try {
@@ -0,0 +1,144 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.disk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Unit tests for {@link FlushScheduler}
+ * 
+ * @author ambud
+ */
+public class TestFlushScheduler {
+
+	private static class CountingTarget implements FlushScheduler.Target {
+
+		private final AtomicInteger syncs = new AtomicInteger();
+		private volatile long allocatedBytes;
+
+		@Override
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		@Override
+		public void sync() throws IOException {
+			allocatedBytes = 0;
+			syncs.incrementAndGet();
+		}
+
+	}
+
+	@Test
+	public void testIntervalPolicy() throws Exception {
+		Map<String, String> conf = new HashMap<>();
+		conf.put(FlushScheduler.FLUSH_INTERVAL, "10");
+		MetricRegistry registry = new MetricRegistry();
+		FlushScheduler scheduler = new FlushScheduler(conf, registry);
+		CountingTarget target = new CountingTarget();
+		scheduler.register(target);
+		scheduler.start();
+		for (int i = 0; i < 100 && target.syncs.get() < 3; i++) {
+			Thread.sleep(10);
+		}
+		scheduler.stop();
+		assertTrue(target.syncs.get() >= 3);
+		assertEquals(target.syncs.get(), registry.counter("flush-count").getCount());
+		assertEquals(target.syncs.get(), registry.histogram("flush-latency-us").getCount());
+	}
+
+	@Test
+	public void testAllocatedPolicy() throws IOException {
+		Map<String, String> conf = new HashMap<>();
+		conf.put(FlushScheduler.FLUSH_POLICY, FlushScheduler.POLICY_ALLOCATED);
+		conf.put(FlushScheduler.FLUSH_ALLOCATED_BYTES, "1024");
+		FlushScheduler scheduler = new FlushScheduler(conf, null);
+		CountingTarget clean = new CountingTarget();
+		CountingTarget allocated = new CountingTarget();
+		clean.allocatedBytes = 1023;
+		allocated.allocatedBytes = 1024;
+		scheduler.register(clean);
+		scheduler.register(allocated);
+		scheduler.flushDue();
+		assertEquals(0, clean.syncs.get());
+		assertEquals(1, allocated.syncs.get());
+		scheduler.flushDue();
+		assertEquals(1, allocated.syncs.get());
+
+		scheduler.deregister(clean);
+		clean.allocatedBytes = 4096;
+		scheduler.flushDue();
+		assertEquals(0, clean.syncs.get());
+	}
+
+	@Test
+	public void testCheckpointPolicy() throws Exception {
+		Map<String, String> conf = new HashMap<>();
+		conf.put(FlushScheduler.FLUSH_POLICY, FlushScheduler.POLICY_CHECKPOINT);
+		conf.put(FlushScheduler.FLUSH_INTERVAL, "1");
+		FlushScheduler scheduler = new FlushScheduler(conf, null);
+		CountingTarget target = new CountingTarget();
+		scheduler.register(target);
+		scheduler.start();
+		Thread.sleep(50);
+		scheduler.stop();
+		assertEquals(0, target.syncs.get());
+		scheduler.flush(target);
+		assertEquals(1, target.syncs.get());
+	}
+
+	@Test
+	public void testFailedFlush() {
+		MetricRegistry registry = new MetricRegistry();
+		FlushScheduler scheduler = new FlushScheduler(new HashMap<>(), registry);
+		CountingTarget target = new CountingTarget();
+		scheduler.register(new FlushScheduler.Target() {
+
+			@Override
+			public void sync() throws IOException {
+				throw new IOException("disk gone");
+			}
+
+			@Override
+			public long getAllocatedBytes() {
+				return 0;
+			}
+		});
+		scheduler.register(target);
+		// a failing target doesn't keep the others from being flushed
+		scheduler.flushDue();
+		assertEquals(1, target.syncs.get());
+		assertEquals(1, registry.counter("flush-failures").getCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownPolicy() {
+		Map<String, String> conf = new HashMap<>();
+		conf.put(FlushScheduler.FLUSH_POLICY, "never");
+		new FlushScheduler(conf, null);
+	}
+
+}
@@ -16,6 +16,7 @@
 package com.srotya.sidewinder.core.storage.disk;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
@@ -124,4 +125,55 @@ public class TestMappedBitmapTagIndex {
 		}
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void testSnapshotRecovery() throws IOException {
+		MiscUtils.delete(new File("target/s10"));
+		String indexDir = "target/s10/ti";
+		new File(indexDir).mkdirs();
+		PersistentMeasurement m = new PersistentMeasurement();
+		Map<String, String> conf = new HashMap<>();
+		m.configure(conf, engine, 4096, "d", "m", "target/s10/i", "target/s10/d", new DBMetadata(), null);
+		conf.put(MappedBitmapTagIndex.CONF_TAG_INDEX_SNAPSHOT_BYTES, "1024");
+		MappedBitmapTagIndex index = new MappedBitmapTagIndex();
+		index.configure(conf, indexDir, m);
+		for (int i = 0; i < 1000; i++) {
+			index.index("key", String.valueOf(i % 10), i);
+			index.index("host", "h" + i, i);
+			m.getSeriesListAsList().add(new Series(new ByteString(String.valueOf(i)), i));
+		}
+		index.sync();
+		assertEquals(0, index.getLogBytes());
+		assertTrue(new File(indexDir + "/m.snap").exists());
+
+		// entries after the snapshot are only in the log
+		for (int i = 1000; i < 1100; i++) {
+			index.index("key", String.valueOf(i % 10), i);
+			index.index("host", "h" + i, i);
+			m.getSeriesListAsList().add(new Series(new ByteString(String.valueOf(i)), i));
+		}
+		assertTrue(index.getLogBytes() > 0);
+
+		MappedBitmapTagIndex recovered = new MappedBitmapTagIndex();
+		recovered.configure(conf, indexDir, m);
+		assertEquals(110,
+				recovered.searchSeriesIndices(new SimpleTagFilter(FilterType.EQUALS, "key", "3")).getCardinality());
+		assertEquals(1100, recovered.getTagValues("host").size());
+		assertEquals(new HashSet<>(Arrays.asList(new ByteString("1050"))),
+				recovered.searchRowKeysForTagFilter(new SimpleTagFilter(FilterType.EQUALS, "host", "h1050")));
+		recovered.close();
+
+		// close writes a snapshot with everything, nothing is left to replay
+		recovered = new MappedBitmapTagIndex();
+		recovered.configure(conf, indexDir, m);
+		assertEquals(0, recovered.getLogBytes());
+		assertEquals(110,
+				recovered.searchSeriesIndices(new SimpleTagFilter(FilterType.EQUALS, "key", "3")).getCardinality());
+		assertEquals(1100, recovered.getTagValues("host").size());
+		recovered.index("key", "3", 1100);
+		assertEquals(111,
+				recovered.searchSeriesIndices(new SimpleTagFilter(FilterType.EQUALS, "key", "3")).getCardinality());
+		recovered.close();
+		index.close();
+	}
+
+}
@@ -31,6 +31,8 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
 
 import org.junit.After;
 import org.junit.Before;
@@ -105,6 +107,97 @@ public class TestPersistentMeasurement {
 		measurement.close();
 	}
 
+	@Test
+	public void testLazyLoadAndEviction() throws Exception {
+		long ts = System.currentTimeMillis();
+		List<Tag> tags = Arrays.asList(Tag.newBuilder().setTagKey("test").setTagValue("1").build());
+		Map<String, String> conf = new HashMap<>();
+		conf.put(DiskMalloc.CONF_MEASUREMENT_FILE_MAX, String.valueOf(2 * 1024 * 1024));
+		measurement.configure(conf, null, 4096, DBNAME, "m1", indexDir, dataDir, metadata, bgTaskPool);
+		assertTrue(measurement.isResident());
+		for (int i = 0; i < 10; i++) {
+			measurement.addPointWithLocking(MiscUtils.buildDataPoint(DBNAME, "m1", "value" + i, tags, ts, 1L), true);
+		}
+		measurement.close();
+
+		conf.put(DiskStorageEngine.RECOVERY_LAZY, "true");
+		measurement = new PersistentMeasurement();
+		measurement.configure(conf, null, 4096, DBNAME, "m1", indexDir, dataDir, metadata, bgTaskPool);
+		assertTrue(!measurement.isResident());
+		// field metadata is available without loading the measurement
+		assertTrue(measurement.getFieldsForMeasurement().contains("value9"));
+		assertTrue(!measurement.isResident());
+		assertTrue(measurement.collectGarbage(null).isEmpty());
+		assertTrue(!measurement.isResident());
+
+		List<SeriesOutput> resultMap = new ArrayList<>();
+		measurement.queryDataPoints("value.*", ts, ts + 1000, null, null, resultMap, null);
+		assertEquals(10, resultMap.size());
+		assertTrue(measurement.isResident());
+
+		// accessed since the last check
+		assertTrue(!measurement.evictIfIdle());
+		assertTrue(measurement.evictIfIdle());
+		assertTrue(!measurement.isResident());
+
+		measurement.addPointWithLocking(MiscUtils.buildDataPoint(DBNAME, "m1", "value0", tags, ts + 1, 2L), true);
+		assertTrue(measurement.isResident());
+		resultMap = new ArrayList<>();
+		measurement.queryDataPoints("value0", ts, ts + 1000, null, null, resultMap, null);
+		assertEquals(1, resultMap.size());
+		assertEquals(2, resultMap.get(0).getDataPoints().size());
+		measurement.close();
+	}
+
+	@Test
+	public void testEvictionWaitsForPins() throws Exception {
+		long ts = System.currentTimeMillis();
+		List<Tag> tags = Arrays.asList(Tag.newBuilder().setTagKey("test").setTagValue("1").build());
+		Map<String, String> conf = new HashMap<>();
+		conf.put(DiskMalloc.CONF_MEASUREMENT_FILE_MAX, String.valueOf(2 * 1024 * 1024));
+		measurement.configure(conf, null, 4096, DBNAME, "m1", indexDir, dataDir, metadata, bgTaskPool);
+		measurement.addPointWithLocking(MiscUtils.buildDataPoint(DBNAME, "m1", "value", tags, ts, 1L), true);
+		assertTrue(!measurement.evictIfIdle());
+
+		// maintenance doesn't count as an access
+		measurement.collectGarbage(null);
+		measurement.compact();
+		Lock pin = measurement.pinIfResident();
+		assertTrue(!measurement.evictIfIdle());
+		assertTrue(measurement.isResident());
+		pin.unlock();
+		assertTrue(measurement.evictIfIdle());
+		assertTrue(measurement.pinIfResident() == null);
+
+		// writes racing with eviction must neither fail nor lose points
+		AtomicBoolean running = new AtomicBoolean(true);
+		Thread evictor = new Thread(() -> {
+			while (running.get()) {
+				try {
+					measurement.evictIfIdle();
+				} catch (IOException e) {
+					running.set(false);
+				}
+			}
+		});
+		evictor.start();
+		int count = 5000;
+		try {
+			for (int i = 1; i <= count; i++) {
+				measurement.addPointWithLocking(MiscUtils.buildDataPoint(DBNAME, "m1", "value", tags, ts + i, i),
+						true);
+			}
+		} finally {
+			running.set(false);
+			evictor.join();
+		}
+		List<SeriesOutput> resultMap = new ArrayList<>();
+		measurement.queryDataPoints("value", ts, ts + count, null, null, resultMap, null);
+		assertEquals(1, resultMap.size());
+		assertEquals(count + 1, resultMap.get(0).getDataPoints().size());
+		measurement.close();
+	}
+
 	@Test
 	public void testDataPointsRecovery() throws Exception {
 		long ts = System.currentTimeMillis();
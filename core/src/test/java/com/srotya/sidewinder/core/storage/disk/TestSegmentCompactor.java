@@ -0,0 +1,204 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.disk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.srotya.sidewinder.core.filters.SimpleTagFilter;
+import com.srotya.sidewinder.core.filters.SimpleTagFilter.FilterType;
+import com.srotya.sidewinder.core.rpc.Tag;
+import com.srotya.sidewinder.core.storage.DBMetadata;
+import com.srotya.sidewinder.core.storage.Malloc;
+import com.srotya.sidewinder.core.storage.Series;
+import com.srotya.sidewinder.core.storage.SeriesOutput;
+import com.srotya.sidewinder.core.storage.compression.Writer;
+import com.srotya.sidewinder.core.utils.MiscUtils;
+
+/**
+ * @author ambud
+ */
+public class TestSegmentCompactor {
+
+	private static final String TARGET_DIR = "target/segment-compactor";
+	private static ScheduledExecutorService bgTaskPool = Executors.newScheduledThreadPool(1);
+	private DBMetadata metadata = new DBMetadata(28, 1024, 16384);
+	private Map<String, String> conf;
+
+	@Before
+	public void before() throws IOException {
+		MiscUtils.delete(new File(TARGET_DIR));
+		conf = new HashMap<>();
+		conf.put(Malloc.CONF_MEASUREMENT_BUF_INCREMENT_SIZE, "1024");
+		conf.put(DiskMalloc.CONF_MEASUREMENT_FILE_INCREMENT, "32768");
+		conf.put(DiskMalloc.CONF_MEASUREMENT_FILE_MAX, "32769");
+		conf.put(SegmentCompactor.SEGMENT_COMPACTION_LIVE_RATIO, "0.9");
+	}
+
+	@After
+	public void after() throws IOException {
+		MiscUtils.delete(new File(TARGET_DIR));
+	}
+
+	@Test
+	public void testCompactFragmentedFiles() throws Exception {
+		List<Tag> tagsA = Arrays.asList(Tag.newBuilder().setTagKey("s").setTagValue("a").build());
+		List<Tag> tagsB = Arrays.asList(Tag.newBuilder().setTagKey("s").setTagValue("b").build());
+		PersistentMeasurement measurement = configure();
+		// all points in one time bucket so the layout of data files is stable
+		long bucket = measurement.getTimeBucketSize() * 1000L;
+		long ts = System.currentTimeMillis() / bucket * bucket;
+		int LIMIT = 3000;
+		for (int i = 0; i < LIMIT; i++) {
+			measurement.addPointWithLocking(MiscUtils.buildDataPoint("test", "m1", "value", tagsA, time(ts, i), value(i)), false);
+			measurement.addPointWithLocking(MiscUtils.buildDataPoint("test", "m1", "value", tagsB, time(ts, i), value(i)), false);
+		}
+		DiskMalloc malloc = (DiskMalloc) measurement.getMalloc();
+		int files = malloc.getFileStats().size();
+		assertTrue("Expected multiple data files:" + files, files >= 2);
+		String firstFile = "data-000000000000.dat";
+
+		// compacting one series leaves the buffers of the other scattered in mostly
+		// dead files
+		Series b = measurement.getSeriesList().get(1);
+		Set<String> garbage = new HashSet<>();
+		for (Writer writer : b.compact(measurement)) {
+			garbage.add(writer.getBufferId().toString());
+		}
+		assertTrue(garbage.size() > 0);
+		malloc.cleanupBufferIds(garbage);
+		assertEquals(files, malloc.getFileStats().size());
+
+		long reclaimed = new SegmentCompactor(conf, null, null).compact(measurement);
+		assertTrue(reclaimed > 0);
+		assertTrue(!malloc.getFileStats().containsKey(firstFile));
+		assertPoints(measurement, ts, LIMIT);
+		measurement.close();
+
+		// relocated buffers must be recovered from their new location
+		measurement = configure();
+		assertPoints(measurement, ts, LIMIT);
+		assertEquals(0, new SegmentCompactor(conf, null, null).compact(measurement));
+		measurement.close();
+	}
+
+	@Test
+	public void testCompactClosedBucketTails() throws Exception {
+		List<Tag> tagsA = Arrays.asList(Tag.newBuilder().setTagKey("s").setTagValue("a").build());
+		List<Tag> tagsB = Arrays.asList(Tag.newBuilder().setTagKey("s").setTagValue("b").build());
+		PersistentMeasurement measurement = configure();
+		long bucket = measurement.getTimeBucketSize() * 1000L;
+		long ts = System.currentTimeMillis() / bucket * bucket - bucket;
+		int LIMIT = 1500;
+		for (int i = 0; i < LIMIT; i++) {
+			measurement.addPointWithLocking(MiscUtils.buildDataPoint("test", "m1", "value", tagsA, time(ts, i), value(i)), false);
+			measurement.addPointWithLocking(MiscUtils.buildDataPoint("test", "m1", "value", tagsB, time(ts, i), value(i)), false);
+		}
+		// the next bucket fills new files, the tails of the first bucket stay behind
+		for (int i = 0; i < LIMIT * 3; i++) {
+			measurement.addPointWithLocking(
+					MiscUtils.buildDataPoint("test", "m1", "value", tagsA, time(ts + bucket, i), value(i)), false);
+		}
+		Series b = measurement.getSeriesList().get(1);
+		Set<String> garbage = new HashSet<>();
+		for (Writer writer : b.compact(measurement)) {
+			garbage.add(writer.getBufferId().toString());
+		}
+		DiskMalloc malloc = (DiskMalloc) measurement.getMalloc();
+		malloc.cleanupBufferIds(garbage);
+		String firstFile = "data-000000000000.dat";
+		assertTrue(!malloc.getFileStats().get(firstFile).isActive());
+		assertPoints(measurement, ts, LIMIT);
+
+		// the first file only holds tails of the closed bucket, they are sealed by the
+		// first run and relocated by the next one
+		SegmentCompactor compactor = new SegmentCompactor(conf, null, null);
+		compactor.compact(measurement);
+		assertTrue(malloc.getFileStats().containsKey(firstFile));
+		assertTrue(compactor.compact(measurement) > 0);
+		assertTrue(!malloc.getFileStats().containsKey(firstFile));
+		assertPoints(measurement, ts, LIMIT);
+
+		// late points of a closed bucket go to a new buffer
+		measurement.addPointWithLocking(
+				MiscUtils.buildDataPoint("test", "m1", "value", tagsB, time(ts, LIMIT), value(LIMIT)), false);
+		assertPoints(measurement, ts, LIMIT + 1, tagsB);
+		measurement.close();
+
+		measurement = configure();
+		assertPoints(measurement, ts, LIMIT + 1, tagsB);
+		measurement.close();
+	}
+
+	// poorly compressible points so the series span several data files
+	private static long value(int i) {
+		return (i * 2654435761L) % 1_000_003;
+	}
+
+	private static long time(long ts, int i) {
+		return ts + i * 100 + value(i) % 50;
+	}
+
+	private PersistentMeasurement configure() throws IOException {
+		PersistentMeasurement measurement = new PersistentMeasurement();
+		measurement.configure(conf, null, 4096, "test", "m1", TARGET_DIR + "/index", TARGET_DIR + "/data", metadata,
+				bgTaskPool);
+		return measurement;
+	}
+
+	private void assertPoints(PersistentMeasurement measurement, long ts, int limit) throws Exception {
+		List<SeriesOutput> output = new ArrayList<>();
+		measurement.queryDataPoints("value", ts, time(ts, limit), null, null, output, null);
+		assertEquals(2, output.size());
+		assertPoints(output, ts, limit);
+	}
+
+	private void assertPoints(PersistentMeasurement measurement, long ts, int limit, List<Tag> tags)
+			throws Exception {
+		List<SeriesOutput> output = new ArrayList<>();
+		measurement.queryDataPoints("value", ts, time(ts, limit), new SimpleTagFilter(FilterType.EQUALS,
+				tags.get(0).getTagKey(), tags.get(0).getTagValue()), null, output, null);
+		assertEquals(1, output.size());
+		assertPoints(output, ts, limit);
+	}
+
+	private void assertPoints(List<SeriesOutput> output, long ts, int limit) {
+		for (SeriesOutput series : output) {
+			assertEquals(limit, series.getDataPoints().size());
+			for (int i = 0; i < limit; i++) {
+				assertEquals(time(ts, i), series.getDataPoints().get(i).getTimestamp());
+				assertEquals(value(i), series.getDataPoints().get(i).getLongValue());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.disk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.srotya.sidewinder.core.utils.MiscUtils;
+
+/**
+ * Unit tests for {@link WriteAheadLog}
+ * 
+ * @author ambud
+ */
+public class TestWriteAheadLog {
+
+	private static final String WAL_DIR = "target/wal-test";
+	private Map<String, String> conf;
+
+	@Before
+	public void before() throws IOException {
+		MiscUtils.delete(new File(WAL_DIR));
+		conf = new HashMap<>();
+		conf.put(WriteAheadLog.WAL_FSYNC_INTERVAL, "5");
+	}
+
+	@After
+	public void after() throws IOException {
+		MiscUtils.delete(new File(WAL_DIR));
+	}
+
+	private static List<String> recover(WriteAheadLog log) throws IOException {
+		List<String> records = new ArrayList<>();
+		log.recover(payload -> records.add(new String(payload)));
+		return records;
+	}
+
+	@Test
+	public void testAppendAndRecover() throws IOException {
+		// small segments force rotation
+		conf.put(WriteAheadLog.WAL_SEGMENT_SIZE, "256");
+		WriteAheadLog log = new WriteAheadLog(conf, WAL_DIR, null);
+		assertEquals(0, recover(log).size());
+		log.open();
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			log.awaitDurable(log.append(("record" + i).getBytes()));
+			expected.add("record" + i);
+		}
+		log.close();
+		assertTrue(new File(WAL_DIR).list().length > 1);
+
+		log = new WriteAheadLog(conf, WAL_DIR, null);
+		assertEquals(expected, recover(log));
+		// new records go to a new segment after the recovered ones
+		log.open();
+		log.awaitDurable(log.append("record100".getBytes()));
+		expected.add("record100");
+		log.close();
+		assertEquals(expected, recover(new WriteAheadLog(conf, WAL_DIR, null)));
+	}
+
+	@Test
+	public void testTornTail() throws IOException {
+		WriteAheadLog log = new WriteAheadLog(conf, WAL_DIR, null);
+		log.open();
+		for (int i = 0; i < 3; i++) {
+			log.append(("record" + i).getBytes());
+		}
+		log.close();
+		File segment = new File(WAL_DIR, WriteAheadLog.segmentName(1));
+		try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+			raf.setLength(raf.length() - 3);
+		}
+		List<String> records = recover(new WriteAheadLog(conf, WAL_DIR, null));
+		assertEquals(2, records.size());
+		assertEquals("record1", records.get(1));
+	}
+
+	@Test
+	public void testCheckpoint() throws IOException {
+		WriteAheadLog log = new WriteAheadLog(conf, WAL_DIR, null);
+		log.open();
+		log.append("applied0".getBytes());
+		log.append("applied1".getBytes());
+		int mark = log.startCheckpoint();
+		log.completeCheckpoint(mark);
+		log.append("pending".getBytes());
+		log.close();
+		List<String> records = recover(new WriteAheadLog(conf, WAL_DIR, null));
+		assertEquals(1, records.size());
+		assertEquals("pending", records.get(0));
+	}
+
+	@Test
+	public void testGroupCommit() throws Exception {
+		MetricRegistry registry = new MetricRegistry();
+		WriteAheadLog log = new WriteAheadLog(conf, WAL_DIR, registry);
+		log.open();
+		ExecutorService es = Executors.newFixedThreadPool(8);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			futures.add(es.submit(() -> {
+				for (int i = 0; i < 100; i++) {
+					log.awaitDurable(log.append(new byte[100]));
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		es.shutdown();
+		log.close();
+		assertEquals(800 * 108, registry.counter("wal-bytes").getCount());
+		// every fsync covered more than one write
+		assertTrue(registry.counter("wal-fsyncs").getCount() < 800);
+		assertEquals(800, recover(new WriteAheadLog(conf, WAL_DIR, null)).size());
+	}
+
+}
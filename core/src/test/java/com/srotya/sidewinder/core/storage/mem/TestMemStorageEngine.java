@@ -19,8 +19,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
@@ -32,7 +34,10 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.srotya.sidewinder.core.rpc.Point;
 import com.srotya.sidewinder.core.rpc.Tag;
+import com.srotya.sidewinder.core.storage.DataPoint;
+import com.srotya.sidewinder.core.storage.SeriesOutput;
 import com.srotya.sidewinder.core.storage.StorageEngine;
 import com.srotya.sidewinder.core.utils.BackgrounThreadFactory;
 import com.srotya.sidewinder.core.utils.MiscUtils;
@@ -136,4 +141,49 @@ public class TestMemStorageEngine {
 		System.out.println("Write time:" + (System.currentTimeMillis() - ts1) + "\tms");
 	}
 
+	@Test
+	public void testWriteBatch() throws Exception {
+		MemStorageEngine engine = new MemStorageEngine();
+		engine.configure(new HashMap<>(), bgTasks);
+		engine.startup();
+
+		long ts = 1497720652566L;
+		List<Point> points = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			for (int k = 0; k < 4; k++) {
+				// interleave series and measurements to exercise grouping
+				points.add(MiscUtils.buildDataPoint("test", "cpu" + (k % 2), "value",
+						Arrays.asList(Tag.newBuilder().setTagKey("host").setTagValue(String.valueOf(k)).build()),
+						ts + i * 1000, i));
+			}
+		}
+		engine.writeBatch(points, true);
+
+		for (int m = 0; m < 2; m++) {
+			List<SeriesOutput> result = engine.queryDataPoints("test", "cpu" + m, "value", ts, ts + 1000 * 1000,
+					null);
+			assertEquals(2, result.size());
+			for (SeriesOutput output : result) {
+				List<DataPoint> dps = output.getDataPoints();
+				assertEquals(1000, dps.size());
+				for (int i = 0; i < dps.size(); i++) {
+					assertEquals(ts + i * 1000, dps.get(i).getTimestamp());
+					assertEquals(i, dps.get(i).getLongValue());
+				}
+			}
+		}
+
+		try {
+			engine.writeBatch(Arrays.asList(MiscUtils.buildDataPoint("test", "cpu0", "value",
+					Arrays.asList(Tag.newBuilder().setTagKey("host").setTagValue("9").build()), ts, 1L),
+					Point.newBuilder().setDbName("test").setMeasurementName("cpu0").addValueFieldName("value")
+							.addValue(1L).build()),
+					true);
+			fail("Batch with an invalid point must be rejected");
+		} catch (IOException e) {
+		}
+		// batch is validated before any point is written
+		assertEquals(2, engine.queryDataPoints("test", "cpu0", "value", ts, ts + 1000 * 1000, null).size());
+	}
+
 }
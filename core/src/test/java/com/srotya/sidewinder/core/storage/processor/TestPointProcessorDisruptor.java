@@ -0,0 +1,105 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.processor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.srotya.sidewinder.core.rpc.Point;
+import com.srotya.sidewinder.core.rpc.Tag;
+import com.srotya.sidewinder.core.storage.SeriesOutput;
+import com.srotya.sidewinder.core.storage.StorageEngine;
+import com.srotya.sidewinder.core.storage.mem.MemStorageEngine;
+
+/**
+ * @author ambud
+ */
+public class TestPointProcessorDisruptor {
+
+	private StorageEngine engine;
+
+	@Before
+	public void before() throws IOException {
+		engine = new MemStorageEngine();
+		engine.configure(new HashMap<>(), Executors.newScheduledThreadPool(1));
+	}
+
+	@Test
+	public void testPartitionedWrites() throws Exception {
+		Map<String, String> conf = new HashMap<>();
+		conf.put(PointProcessorDisruptor.DISRUPTOR_PARTITIONS, "4");
+		conf.put(PointProcessorDisruptor.DISRUPTOR_BUFFER_SIZE, "1024");
+		conf.put(PointProcessorDisruptor.DISRUPTOR_BATCH_SIZE, "100");
+		conf.put(PointProcessorDisruptor.DISRUPTOR_EXCLUSIVE_WRITES, "true");
+		PointProcessorDisruptor processor = new PointProcessorDisruptor(engine, conf);
+		long ts = 1497720652566L;
+		int series = 50;
+		int count = 200;
+		AtomicInteger acks = new AtomicInteger();
+		for (int i = 0; i < count; i++) {
+			for (int k = 0; k < series; k++) {
+				Point point = Point.newBuilder().setDbName("test").setMeasurementName("cpu")
+						.addTags(Tag.newBuilder().setTagKey("host").setTagValue(String.valueOf(k)))
+						.addValueFieldName("value").addFp(false).addValue(i).setTimestamp(ts + i * 1000).build();
+				processor.writeDataPoint(point, e -> {
+					if (e == null) {
+						acks.incrementAndGet();
+					}
+				});
+			}
+		}
+		processor.stop(10, TimeUnit.SECONDS);
+		assertEquals(series * count, acks.get());
+		List<SeriesOutput> result = engine.queryDataPoints("test", "cpu", "value", ts, ts + count * 1000, null);
+		assertEquals(series, result.size());
+		for (SeriesOutput output : result) {
+			assertEquals(count, output.getDataPoints().size());
+			for (int i = 0; i < count; i++) {
+				assertEquals(i, output.getDataPoints().get(i).getLongValue());
+			}
+		}
+	}
+
+	@Test
+	public void testSeriesHashIgnoresTagOrder() {
+		Tag t1 = Tag.newBuilder().setTagKey("host").setTagValue("1").build();
+		Tag t2 = Tag.newBuilder().setTagKey("dc").setTagValue("east").build();
+		Point p1 = Point.newBuilder().setMeasurementName("cpu").addTags(t1).addTags(t2).build();
+		Point p2 = Point.newBuilder().setMeasurementName("cpu").addTags(t2).addTags(t1).build();
+		assertEquals(PointProcessorDisruptor.seriesHash(p1), PointProcessorDisruptor.seriesHash(p2));
+		Map<String, String> conf = new HashMap<>();
+		conf.put(PointProcessorDisruptor.DISRUPTOR_PARTITIONS, "3");
+		conf.put(PointProcessorDisruptor.DISRUPTOR_BUFFER_SIZE, "64");
+		PointProcessorDisruptor processor = new PointProcessorDisruptor(engine, conf);
+		for (int i = 0; i < 100; i++) {
+			Point point = Point.newBuilder().setMeasurementName("cpu" + i).addTags(t1).build();
+			int partition = processor.partition(point);
+			assertEquals(true, partition >= 0 && partition < 3);
+		}
+		processor.getEs().shutdownNow();
+	}
+
+}
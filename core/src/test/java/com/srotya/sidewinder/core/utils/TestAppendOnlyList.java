@@ -0,0 +1,115 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author ambud
+ */
+public class TestAppendOnlyList {
+
+	@Test
+	public void testAddGet() {
+		AppendOnlyList<Integer> list = new AppendOnlyList<>();
+		int count = AppendOnlyList.CHUNK_SIZE * 3 + 7;
+		for (int i = 0; i < count; i++) {
+			list.add(i);
+		}
+		assertEquals(count, list.size());
+		for (int i = 0; i < count; i++) {
+			assertEquals(i, list.get(i).intValue());
+		}
+		int i = 0;
+		for (Integer value : list) {
+			assertEquals(i++, value.intValue());
+		}
+		try {
+			list.get(count);
+			fail("Index out of bounds expected");
+		} catch (IndexOutOfBoundsException e) {
+		}
+	}
+
+	@Test
+	public void testReserveAndLoad() {
+		AppendOnlyList<String> list = new AppendOnlyList<>();
+		int index = list.reserve();
+		assertEquals(0, index);
+		assertNull(list.get(index));
+		list.set(index, "a");
+		assertEquals("a", list.get(0));
+		// loading entries by index leaves gaps unset
+		list.add(5000, "b");
+		assertEquals(5001, list.size());
+		assertNull(list.get(4000));
+		assertEquals("b", list.get(5000));
+		try {
+			list.add(5000, "c");
+			fail("Slot is already set");
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+
+	@Test
+	public void testRelease() {
+		AppendOnlyList<String> list = new AppendOnlyList<>();
+		list.add("a");
+		int first = list.reserve();
+		int second = list.reserve();
+		list.set(second, "c");
+		// a slot followed by others stays empty
+		list.release(first);
+		assertEquals(3, list.size());
+		assertNull(list.get(first));
+		// the last slot is given back
+		list.release(second);
+		assertEquals(2, list.size());
+		assertEquals(second, list.reserve());
+		assertNull(list.get(second));
+	}
+
+	@Test
+	public void testConcurrentReserve() throws InterruptedException {
+		AppendOnlyList<Integer> list = new AppendOnlyList<>();
+		int threads = 4;
+		int perThread = 10000;
+		ExecutorService es = Executors.newFixedThreadPool(threads);
+		for (int t = 0; t < threads; t++) {
+			es.submit(() -> {
+				for (int i = 0; i < perThread; i++) {
+					int index = list.reserve();
+					list.set(index, index);
+				}
+			});
+		}
+		es.shutdown();
+		es.awaitTermination(100, TimeUnit.SECONDS);
+		assertEquals(threads * perThread, list.size());
+		for (int i = 0; i < list.size(); i++) {
+			assertEquals(i, list.get(i).intValue());
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * @author ambud
+ */
+public class TestIntArraySortedMap {
+
+	@Test
+	public void testMatchesTreeMap() {
+		IntArraySortedMap<String> map = new IntArraySortedMap<>();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		int[] keys = new int[] { 4096, -10, 0, 8192, 12288, 2048, 4096, 100_000 };
+		for (int key : keys) {
+			assertEquals(expected.put(key, "v" + key), map.put(key, "v" + key));
+		}
+		assertEquals(expected, map);
+		assertEquals(expected.firstKey(), map.firstKey());
+		assertEquals(expected.lastKey(), map.lastKey());
+		assertEquals(new ArrayList<>(expected.values()), new ArrayList<>(map.values()));
+		assertEquals(expected.headMap(4096), map.headMap(4096));
+		assertEquals(expected.tailMap(4096), map.tailMap(4096));
+		assertEquals(expected.subMap(1, 12289), map.subMap(1, 12289));
+		assertEquals(expected.subMap(0, 0), map.subMap(0, 0));
+		assertEquals(expected.subMap(1, 12289).headMap(8192), map.subMap(1, 12289).headMap(8192));
+		assertEquals(expected.tailMap(200_000).size(), map.tailMap(200_000).size());
+
+		assertEquals("v-10", map.remove(-10));
+		assertNull(map.remove(-10));
+		assertNull(map.remove("-10"));
+		assertEquals(Integer.valueOf(0), map.firstKey());
+		assertEquals("v0", map.putIfAbsent(0, "x"));
+		assertNull(map.get(1));
+		assertEquals(keys.length - 2, map.size());
+
+		map.clear();
+		assertTrue(map.isEmpty());
+		try {
+			map.firstKey();
+			fail("Empty map has no first key");
+		} catch (NoSuchElementException e) {
+		}
+	}
+
+	@Test
+	public void testSnapshotIteration() {
+		IntArraySortedMap<Integer> map = new IntArraySortedMap<>();
+		for (int i = 0; i < 10; i++) {
+			map.put(i, i);
+		}
+		SortedMap<Integer, Integer> view = map.tailMap(5);
+		List<Integer> seen = new ArrayList<>();
+		for (Integer v : map.values()) {
+			// changes while iterating don't affect the iterator
+			map.remove(v);
+			map.put(v + 100, v);
+			seen.add(v);
+		}
+		assertEquals(10, seen.size());
+		assertEquals(5, view.size());
+		assertArrayEquals(new Object[] { 5, 6, 7, 8, 9 }, view.keySet().toArray());
+		assertEquals(Integer.valueOf(100), map.firstKey());
+	}
+
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author ambud
+ */
+public class TestLongIntHashMap {
+
+	@Test
+	public void testPutGet() {
+		LongIntHashMap map = new LongIntHashMap(4);
+		int count = 10_000;
+		for (int i = 0; i < count; i++) {
+			// sequential keys and keys sharing low bits
+			assertEquals(LongIntHashMap.NOT_FOUND, map.putIfAbsent(i + 1, i));
+			assertEquals(LongIntHashMap.NOT_FOUND, map.putIfAbsent(((long) i + 1) << 32, i + count));
+		}
+		assertEquals(count * 2, map.size());
+		for (int i = 0; i < count; i++) {
+			assertEquals(i, map.get(i + 1));
+			assertEquals(i + count, map.get(((long) i + 1) << 32));
+		}
+		assertEquals(LongIntHashMap.NOT_FOUND, map.get(-1));
+		assertEquals(5, map.putIfAbsent(6, 100));
+		assertEquals(5, map.get(6));
+		try {
+			map.putIfAbsent(0, 1);
+			fail("Key 0 is reserved");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testConcurrentReads() throws Exception {
+		LongIntHashMap map = new LongIntHashMap();
+		int count = 100_000;
+		ExecutorService es = Executors.newFixedThreadPool(2);
+		es.submit(() -> {
+			for (int i = 0; i < count; i++) {
+				map.putIfAbsent(i * 31L + 1, i);
+			}
+		});
+		Future<?> reader = es.submit(() -> {
+			for (int k = 0; k < 10; k++) {
+				for (int i = 0; i < count; i++) {
+					int v = map.get(i * 31L + 1);
+					if (v != LongIntHashMap.NOT_FOUND && v != i) {
+						throw new AssertionError("Bad value:" + v + " for:" + i);
+					}
+				}
+			}
+		});
+		es.shutdown();
+		es.awaitTermination(10, TimeUnit.SECONDS);
+		reader.get();
+		for (int i = 0; i < count; i++) {
+			assertEquals(i, map.get(i * 31L + 1));
+		}
+	}
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author ambud
+ */
+public class TestSmallArrayMap {
+
+	@Test
+	public void testPutGetRemove() {
+		SmallArrayMap<String, Integer> map = new SmallArrayMap<>();
+		Map<String, Integer> expected = new HashMap<>();
+		for (int i = 0; i < 20; i++) {
+			assertEquals(expected.put("f" + i, i), map.put("f" + i, i));
+		}
+		assertEquals(expected, map);
+		// lookups by equal but not identical keys
+		assertEquals(Integer.valueOf(7), map.get(new String("f7")));
+		assertEquals(Integer.valueOf(7), map.put("f7", 70));
+		assertEquals(Integer.valueOf(70), map.putIfAbsent("f7", 1));
+		assertEquals(Integer.valueOf(70), map.remove("f7"));
+		assertNull(map.remove("f7"));
+		assertNull(map.get("f7"));
+		assertEquals(19, map.size());
+		assertEquals(Integer.valueOf(19), map.get("f19"));
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertNull(map.get(null));
+	}
+
+	@Test
+	public void testConcurrentReads() throws Exception {
+		SmallArrayMap<Integer, Integer> map = new SmallArrayMap<>();
+		int count = 200;
+		ExecutorService es = Executors.newFixedThreadPool(2);
+		es.submit(() -> {
+			for (int i = 0; i < count; i++) {
+				map.putIfAbsent(i, i);
+			}
+		});
+		Future<?> reader = es.submit(() -> {
+			for (int k = 0; k < 100; k++) {
+				for (int i = 0; i < count; i++) {
+					Integer v = map.get(i);
+					if (v != null && v != i) {
+						throw new AssertionError("Bad value:" + v + " for:" + i);
+					}
+				}
+			}
+		});
+		es.shutdown();
+		es.awaitTermination(10, TimeUnit.SECONDS);
+		reader.get();
+		assertEquals(count, map.size());
+		int sum = 0;
+		for (int v : map.values()) {
+			sum += v;
+		}
+		assertEquals(count * (count - 1) / 2, sum);
+	}
+
+}
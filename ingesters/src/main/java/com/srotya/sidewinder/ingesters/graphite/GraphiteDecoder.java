@@ -18,9 +18,11 @@ package com.srotya.sidewinder.ingesters.graphite;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.codahale.metrics.Counter;
+import com.srotya.sidewinder.core.rpc.Point;
 import com.srotya.sidewinder.core.rpc.Tag;
 import com.srotya.sidewinder.core.storage.Measurement;
 import com.srotya.sidewinder.core.storage.RejectException;
@@ -45,15 +47,23 @@ public class GraphiteDecoder extends SimpleChannelInboundHandler<String> {
 	private StorageEngine storageEngine;
 	private String dbName;
 	private Counter writeCounter;
+	private List<Point> batch;
 
 	public GraphiteDecoder(String dbName, StorageEngine storageEngine, Counter writeCounter) {
 		this.dbName = dbName;
 		this.storageEngine = storageEngine;
 		this.writeCounter = writeCounter;
+		this.batch = new ArrayList<>();
 	}
 
 	@Override
 	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+		// points decoded before the bad line are still written
+		try {
+			flush();
+		} catch (Exception e) {
+			logger.log(Level.FINE, "Failed to write graphite batch on channel error", e);
+		}
 		ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
 	}
 
@@ -63,16 +73,65 @@ public class GraphiteDecoder extends SimpleChannelInboundHandler<String> {
 		if (writeCounter != null) {
 			writeCounter.inc();
 		}
-		parseAndInsertDataPoints(dbName, msg, storageEngine);
+		Point dp = parseDataPoint(dbName, msg);
+		if (dp != null) {
+			batch.add(dp);
+		}
+	}
+
+	/**
+	 * Lines decoded from a single read are written as one batch
+	 */
+	@Override
+	public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+		flush();
+		super.channelReadComplete(ctx);
+	}
+
+	private void flush() throws IOException {
+		if (batch.isEmpty()) {
+			return;
+		}
+		List<Point> points = batch;
+		batch = new ArrayList<>();
+		try {
+			storageEngine.writeBatch(points, false);
+		} catch (RejectException e) {
+			// the batch is validated before any point is written, isolate the points
+			// that were rejected so the valid ones are still written
+			for (Point dp : points) {
+				try {
+					storageEngine.writeDataPointWithLock(dp, false);
+				} catch (RejectException e1) {
+					logger.log(Level.FINE, "Rejected graphite point:" + dp, e1);
+				}
+			}
+		}
 	}
 
 	public static void parseAndInsertDataPoints(String dbName, String line, StorageEngine storageEngine)
 			throws IOException {
+		Point dp = parseDataPoint(dbName, line);
+		if (dp != null) {
+			storageEngine.writeDataPointWithLock(dp, false);
+		}
+	}
+
+	/**
+	 * Parse a graphite plaintext line
+	 * 
+	 * @param dbName
+	 * @param line
+	 * @return point or null if the line should be ignored
+	 * @throws IOException
+	 *             if tags are malformed
+	 */
+	public static Point parseDataPoint(String dbName, String line) throws IOException {
 		String[] parts = line.split("\\s+");
 		if (parts.length != 3) {
 			// invalid data point
 			logger.fine("Ignoring bad metric:" + line);
-			return;
+			return null;
 		}
 		String[] key = parts[0].split("\\.");
 		String measurementName, valueFieldName;
@@ -82,7 +141,7 @@ public class GraphiteDecoder extends SimpleChannelInboundHandler<String> {
 		case 1:// invalid metric
 		case 2:
 			logger.fine("Ignoring bad metric:" + line);
-			return;
+			return null;
 		default:
 			measurementName = key[key.length - 2];
 			valueFieldName = key[key.length - 1];
@@ -100,14 +159,12 @@ public class GraphiteDecoder extends SimpleChannelInboundHandler<String> {
 			double value = Double.parseDouble(parts[1]);
 			logger.fine("Writing graphite metric (fp)" + dbName + "," + measurementName + "," + valueFieldName + ","
 					+ tags + "," + timestamp + "," + value);
-			storageEngine.writeDataPointWithLock(
-					MiscUtils.buildDataPoint(dbName, measurementName, valueFieldName, tags, timestamp, value), false);
+			return MiscUtils.buildDataPoint(dbName, measurementName, valueFieldName, tags, timestamp, value);
 		} else {
 			long value = Long.parseLong(parts[1]);
 			logger.fine("Writing graphite metric (fp)" + dbName + "," + measurementName + "," + valueFieldName + ","
 					+ tags + "," + timestamp + "," + value);
-			storageEngine.writeDataPointWithLock(
-					MiscUtils.buildDataPoint(dbName, measurementName, valueFieldName, tags, timestamp, value), false);
+			return MiscUtils.buildDataPoint(dbName, measurementName, valueFieldName, tags, timestamp, value);
 		}
 	}
 
@@ -15,6 +15,9 @@
  */
 package com.srotya.sidewinder.ingesters.graphite;
 
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -28,12 +31,15 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import com.srotya.sidewinder.core.rpc.Point;
 import com.srotya.sidewinder.core.rpc.Tag;
+import com.srotya.sidewinder.core.storage.RejectException;
 import com.srotya.sidewinder.core.storage.StorageEngine;
 import com.srotya.sidewinder.core.utils.MiscUtils;
 
 import io.netty.buffer.Unpooled;
 import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.LineBasedFrameDecoder;
 import io.netty.handler.codec.string.StringDecoder;
 
 /**
@@ -54,8 +60,45 @@ public class TestGraphiteDecoder {
 		List<Tag> tags = Arrays.asList(Tag.newBuilder().setTagKey("app").setTagValue("1").build(),
 				Tag.newBuilder().setTagKey("server").setTagValue("1").build(),
 				Tag.newBuilder().setTagKey("s").setTagValue("jvm").build());
+		verify(engine, times(1)).writeBatch(
+				Arrays.asList(
+						MiscUtils.buildDataPoint("test", "heap", "max", tags, ((long) 1497720452) * 1000, 233123)),
+				false);
+		ch.close();
+	}
+
+	@Test
+	public void testBatchFlushedOnError() throws IOException {
+		EmbeddedChannel ch = new EmbeddedChannel(new LineBasedFrameDecoder(1024), new StringDecoder(),
+				new GraphiteDecoder("test", engine, null));
+		ch.writeInbound(Unpooled.copiedBuffer(
+				"app=1.s=jvm.heap.max 233123 1497720452\napp1.s=jvm.heap.max 1 1497720452\n", Charset.defaultCharset()));
+		List<Tag> tags = Arrays.asList(Tag.newBuilder().setTagKey("app").setTagValue("1").build(),
+				Tag.newBuilder().setTagKey("s").setTagValue("jvm").build());
+		// the line decoded before the malformed one must not be lost when the channel
+		// is closed
+		verify(engine, times(1)).writeBatch(
+				Arrays.asList(
+						MiscUtils.buildDataPoint("test", "heap", "max", tags, ((long) 1497720452) * 1000, 233123)),
+				false);
+		ch.close();
+	}
+
+	@Test
+	public void testRejectedPointIsolated() throws IOException {
+		doThrow(new RejectException("bad point")).when(engine).writeBatch(anyListOf(Point.class), anyBoolean());
+		EmbeddedChannel ch = new EmbeddedChannel(new LineBasedFrameDecoder(1024), new StringDecoder(),
+				new GraphiteDecoder("test", engine, null));
+		ch.writeInbound(Unpooled.copiedBuffer(
+				"app=1.s=jvm.heap.max 233123 1497720452\napp=2.s=jvm.heap.max 1 1497720452\n", Charset.defaultCharset()));
+		// a rejected batch is retried point by point
+		Tag jvm = Tag.newBuilder().setTagKey("s").setTagValue("jvm").build();
+		List<Tag> tags = Arrays.asList(Tag.newBuilder().setTagKey("app").setTagValue("1").build(), jvm);
 		verify(engine, times(1)).writeDataPointWithLock(
 				MiscUtils.buildDataPoint("test", "heap", "max", tags, ((long) 1497720452) * 1000, 233123), false);
+		tags = Arrays.asList(Tag.newBuilder().setTagKey("app").setTagValue("2").build(), jvm);
+		verify(engine, times(1)).writeDataPointWithLock(
+				MiscUtils.buildDataPoint("test", "heap", "max", tags, ((long) 1497720452) * 1000, 1), false);
 		ch.close();
 	}
 
@@ -20,8 +20,13 @@ import java.io.RandomAccessFile;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
+import java.util.HashMap;
+import java.util.Map;
 
+import com.srotya.sidewinder.core.storage.ByteString;
 import com.srotya.sidewinder.core.storage.disk.DiskMalloc;
+import com.srotya.sidewinder.core.storage.disk.PtrFileFormat;
+import com.srotya.sidewinder.core.storage.disk.PtrFileFormat.PtrVisitor;
 import com.srotya.sidewinder.core.utils.MiscUtils;
 
 /**
@@ -45,6 +50,28 @@ public class PTRFileReader {
 		ch.close();
 		raf.close();
 
+		if (PtrFileFormat.isBinary(mBuf)) {
+			Map<Integer, ByteString> keys = new HashMap<>();
+			int end = PtrFileFormat.read(mBuf, new PtrVisitor() {
+
+				@Override
+				public void key(int offset, int keyId, ByteString key) {
+					keys.put(keyId, key);
+				}
+
+				@Override
+				public void buffer(int offset, int keyId, int fileNumber, long position, int size, int bucket) {
+					System.out.println(keys.get(keyId) + "," + DiskMalloc.fileName(fileNumber) + "," + position + ","
+							+ size + "," + Integer.toHexString(bucket));
+				}
+			});
+			if (end != PtrFileFormat.getEnd(mBuf)) {
+				System.err.println("Corrupt record at offset:" + end + " of:" + PtrFileFormat.getEnd(mBuf));
+			}
+			return;
+		}
+
+		// version 1 text format
 		int ptrCounter = mBuf.getInt();
 
 		for (int i = 0; i < ptrCounter; i++) {